@@ -0,0 +1,99 @@
+package com.axsoftware.sftpush.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark input files. Contents come from a fixed seed, so every run moves the same bytes and
+ * results stay comparable run-over-run.
+ */
+final class BenchmarkFiles {
+
+	static final long SEED = 0x5F7A5EEDL;
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+
+	private BenchmarkFiles() {
+	}
+
+	/**
+	 * Parse a size parameter, e.g. "1KB", "64MB", "1GB"
+	 */
+	static long parseSize(final String size) {
+		final String value = size.trim().toUpperCase(Locale.ROOT);
+		if (value.endsWith("GB")) {
+			return Long.parseLong(value.substring(0, value.length() - 2)) << 30;
+		}
+		if (value.endsWith("MB")) {
+			return Long.parseLong(value.substring(0, value.length() - 2)) << 20;
+		}
+		if (value.endsWith("KB")) {
+			return Long.parseLong(value.substring(0, value.length() - 2)) << 10;
+		}
+		return Long.parseLong(value.endsWith("B") ? value.substring(0, value.length() - 1) : value);
+	}
+
+	/**
+	 * Seeded contents of the given size, for in-memory servers and streams
+	 */
+	static byte[] content(final int size) {
+		final byte[] content = new byte[size];
+		new Random(SEED).nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * Write a file of seeded contents
+	 */
+	static Path create(final Path path, final long size) throws IOException {
+		final Random random = new Random(SEED);
+		final byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, Math.max(1, size))];
+		try (final OutputStream output = Files.newOutputStream(path)) {
+			long remaining = size;
+			while (remaining > 0) {
+				random.nextBytes(chunk);
+				final int length = (int) Math.min(chunk.length, remaining);
+				output.write(chunk, 0, length);
+				remaining -= length;
+			}
+		}
+		return path;
+	}
+
+	static void delete(final Path directory) throws IOException {
+		if (directory == null || !Files.exists(directory)) {
+			return;
+		}
+		try (final Stream<Path> paths = Files.walk(directory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/**
+	 * Sink of downloads measured without local disk writes
+	 */
+	static final class DiscardOutputStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(final int b) {
+			this.count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			this.count += len;
+		}
+
+		long getCount() {
+			return this.count;
+		}
+	}
+}
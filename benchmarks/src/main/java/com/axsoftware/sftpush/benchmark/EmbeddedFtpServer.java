@@ -0,0 +1,66 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+
+import java.io.Closeable;
+
+/**
+ * MockFtpServer with an in-memory file system, bound to a free local port.
+ * <p>
+ * Files are held in the heap of the benchmark JVM: size the heap for the largest file.
+ */
+final class EmbeddedFtpServer implements Closeable {
+
+	static final String HOST = "localhost";
+
+	static final String USERNAME = "bench";
+
+	static final String PASSWORD = "bench";
+
+	static final String HOME_DIR = "/";
+
+	private final FakeFtpServer server;
+
+	private final FileSystem fileSystem;
+
+	private EmbeddedFtpServer(final FakeFtpServer server, final FileSystem fileSystem) {
+		this.server = server;
+		this.fileSystem = fileSystem;
+	}
+
+	static EmbeddedFtpServer start() {
+		final FakeFtpServer server = new FakeFtpServer();
+		server.setServerControlPort(0);
+		final FileSystem fileSystem = new UnixFakeFileSystem();
+		fileSystem.add(new DirectoryEntry(HOME_DIR));
+		server.setFileSystem(fileSystem);
+		server.addUserAccount(new UserAccount(USERNAME, PASSWORD, HOME_DIR));
+		server.start();
+		return new EmbeddedFtpServer(server, fileSystem);
+	}
+
+	void addDirectory(final String path) {
+		this.fileSystem.add(new DirectoryEntry(path));
+	}
+
+	void addFile(final String path, final byte[] contents) {
+		final FileEntry file = new FileEntry(path);
+		file.setContents(contents);
+		this.fileSystem.add(file);
+	}
+
+	PushConfig config() {
+		return new PushConfig(HOST, USERNAME, PASSWORD, this.server.getServerControlPort());
+	}
+
+	@Override
+	public void close() {
+		this.server.stop();
+	}
+}
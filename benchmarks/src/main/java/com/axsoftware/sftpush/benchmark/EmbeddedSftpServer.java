@@ -0,0 +1,59 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.UserAuth;
+import org.apache.sshd.server.auth.password.UserAuthPasswordFactory;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Apache SSHD server with the SFTP subsystem on the native file system, bound to a free local port.
+ * Same setup as the client tests.
+ */
+final class EmbeddedSftpServer implements Closeable {
+
+	static final String HOST = "localhost";
+
+	static final String USERNAME = "bench";
+
+	static final String PASSWORD = "bench";
+
+	private final SshServer server;
+
+	private EmbeddedSftpServer(final SshServer server) {
+		this.server = server;
+	}
+
+	static EmbeddedSftpServer start() throws IOException {
+		final SshServer server = SshServer.setUpDefaultServer();
+		server.setPort(0);
+		server.setHost(HOST);
+		server.setFileSystemFactory(new NativeFileSystemFactory());
+		server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+
+		final SimpleGeneratorHostKeyProvider keyPairProvider = new SimpleGeneratorHostKeyProvider();
+		keyPairProvider.setAlgorithm("RSA");
+		server.setKeyPairProvider(keyPairProvider);
+
+		server.setUserAuthFactories(Collections.<NamedFactory<UserAuth>>singletonList(new UserAuthPasswordFactory()));
+		server.setPasswordAuthenticator((username, password, session) -> USERNAME.equals(username) && PASSWORD.equals(password));
+		server.start();
+		return new EmbeddedSftpServer(server);
+	}
+
+	PushConfig config() {
+		return new PushConfig(HOST, USERNAME, PASSWORD, this.server.getPort());
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.server.stop(true);
+	}
+}
@@ -0,0 +1,102 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.client.ftp.FTPConnectionPool;
+import com.axsoftware.sftpush.client.ftp.FTPushClient;
+import org.apache.commons.net.ftp.FTP;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FTP {@link FTPushClient#upload} and {@link FTPushClient#download} across file sizes, in binary mode.
+ * <p>
+ * The MockFtpServer file system lives in the benchmark heap, which caps the file size: 1GB needs
+ * {@code -p size=1GB -jvmArgsAppend -Xmx4g}. Each benchmark thread holds its own pooled connection, run with
+ * {@code -t N} to measure N concurrent transfers.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class FtpTransferBenchmark {
+
+	private static final String DIRECTORY = "/bench";
+
+	private static final String SOURCE = "source.bin";
+
+	@Param({"1KB", "64KB", "1MB", "64MB"})
+	public String size;
+
+	private EmbeddedFtpServer server;
+
+	private FTPConnectionPool pool;
+
+	private byte[] content;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.content = BenchmarkFiles.content((int) BenchmarkFiles.parseSize(this.size));
+		this.server = EmbeddedFtpServer.start();
+		this.server.addDirectory(DIRECTORY);
+		this.server.addFile(DIRECTORY + "/" + SOURCE, this.content);
+		this.pool = new FTPConnectionPool();
+		this.pool.setMaxPerHost(Runtime.getRuntime().availableProcessors() * 4);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.pool.close();
+		this.server.close();
+	}
+
+	@Benchmark
+	public void upload(final ThreadClient thread) throws IOException {
+		thread.client.upload(new ByteArrayInputStream(this.content), thread.target, DIRECTORY, null, FTP.BINARY_FILE_TYPE, false);
+	}
+
+	@Benchmark
+	public long download(final ThreadClient thread) {
+		final BenchmarkFiles.DiscardOutputStream output = new BenchmarkFiles.DiscardOutputStream();
+		thread.client.download(SOURCE, DIRECTORY, output);
+		return output.getCount();
+	}
+
+	/**
+	 * Connection and upload target of one benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class ThreadClient {
+
+		private FTPushClient client;
+
+		private String target;
+
+		@Setup(Level.Trial)
+		public void setUp(final FtpTransferBenchmark benchmark) {
+			this.client = new FTPushClient(benchmark.server.config(), benchmark.pool);
+			this.client.connect();
+			this.target = "upload-" + Thread.currentThread().getId() + ".bin";
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.client.quit();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.client.sftp.SFTPSessionPool;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many-file transfers: {@link SFTPushClient#downloadAllFiles(String, String, int)} and
+ * {@link SFTPushClient#uploadFileList(String, String, int, String...)} across file counts, file sizes and
+ * channel parallelism. One operation moves the whole folder.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class SftpBatchBenchmark {
+
+	@Param({"10", "100", "1000"})
+	public int fileCount;
+
+	@Param({"1KB", "64KB"})
+	public String fileSize;
+
+	@Param({"1", "4", "8"})
+	public int parallelism;
+
+	private EmbeddedSftpServer server;
+
+	private SFTPSessionPool pool;
+
+	private SFTPushClient client;
+
+	private Path directory;
+
+	private Path sourceDir;
+
+	private Path downloadDir;
+
+	private Path uploadDir;
+
+	private String[] fileNames;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("sftpush-benchmark");
+		this.sourceDir = Files.createDirectory(this.directory.resolve("source"));
+		this.downloadDir = Files.createDirectory(this.directory.resolve("download"));
+		this.uploadDir = Files.createDirectory(this.directory.resolve("upload"));
+		this.fileNames = new String[this.fileCount];
+		final long size = BenchmarkFiles.parseSize(this.fileSize);
+		for (int i = 0; i < this.fileCount; i++) {
+			this.fileNames[i] = String.format("file%05d.bin", i);
+			BenchmarkFiles.create(this.sourceDir.resolve(this.fileNames[i]), size);
+		}
+		this.server = EmbeddedSftpServer.start();
+		this.pool = new SFTPSessionPool();
+		this.client = new SFTPushClient(this.server.config(), this.pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.pool.close();
+		this.server.close();
+		BenchmarkFiles.delete(this.directory);
+	}
+
+	@Benchmark
+	public TransferBatchResult downloadAllFiles() throws JSchException, SftpException {
+		return this.client.downloadAllFiles(this.sourceDir.toString(), this.downloadDir.toString(), this.parallelism);
+	}
+
+	@Benchmark
+	public TransferBatchResult uploadFileList() throws JSchException {
+		return this.client.uploadFileList(this.sourceDir.toString(), this.uploadDir.toString(), this.parallelism, this.fileNames);
+	}
+}
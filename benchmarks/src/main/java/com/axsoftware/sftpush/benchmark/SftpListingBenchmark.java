@@ -0,0 +1,76 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.client.sftp.SFTPSessionPool;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SFTPushClient#listRemoteFiles(String)} and the streamed listing across folder sizes
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class SftpListingBenchmark {
+
+	@Param({"10", "1000", "10000"})
+	public int fileCount;
+
+	private EmbeddedSftpServer server;
+
+	private SFTPSessionPool pool;
+
+	private SFTPushClient client;
+
+	private Path directory;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("sftpush-benchmark");
+		for (int i = 0; i < this.fileCount; i++) {
+			Files.createFile(this.directory.resolve(String.format("file%05d.bin", i)));
+		}
+		this.server = EmbeddedSftpServer.start();
+		this.pool = new SFTPSessionPool();
+		this.client = new SFTPushClient(this.server.config(), this.pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.pool.close();
+		this.server.close();
+		BenchmarkFiles.delete(this.directory);
+	}
+
+	@Benchmark
+	public List<String> listRemoteFiles() throws JSchException, SftpException {
+		return this.client.listRemoteFiles(this.directory.toString());
+	}
+
+	@Benchmark
+	public long forEachRemoteEntry() throws JSchException, SftpException {
+		return this.client.forEachRemoteEntry(this.directory.toString(), null, entry -> true);
+	}
+}
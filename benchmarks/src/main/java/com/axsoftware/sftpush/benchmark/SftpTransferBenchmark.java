@@ -0,0 +1,96 @@
+package com.axsoftware.sftpush.benchmark;
+
+import com.axsoftware.sftpush.client.sftp.SFTPSessionPool;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single file {@link SFTPushClient#uploadFile} and {@link SFTPushClient#downloadFile} across file sizes.
+ * <p>
+ * Each benchmark thread moves its own file on a pooled session, run with {@code -t N} to measure N concurrent
+ * transfers. Bytes per second is the operation rate times the file size.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@State(Scope.Benchmark)
+public class SftpTransferBenchmark {
+
+	@Param({"1KB", "64KB", "1MB", "64MB", "1GB"})
+	public String size;
+
+	private EmbeddedSftpServer server;
+
+	private SFTPSessionPool pool;
+
+	private SFTPushClient client;
+
+	private Path directory;
+
+	private Path source;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		this.directory = Files.createTempDirectory("sftpush-benchmark");
+		this.source = BenchmarkFiles.create(this.directory.resolve("source.bin"), BenchmarkFiles.parseSize(this.size));
+		this.server = EmbeddedSftpServer.start();
+		this.pool = new SFTPSessionPool();
+		this.pool.setMaxPerHost(Runtime.getRuntime().availableProcessors() * 4);
+		this.client = new SFTPushClient(this.server.config(), this.pool);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		this.pool.close();
+		this.server.close();
+		BenchmarkFiles.delete(this.directory);
+	}
+
+	@Benchmark
+	public void uploadFile(final ThreadFiles files) throws JSchException, SftpException, IOException {
+		this.client.uploadFile(this.source.toFile(), files.remote);
+	}
+
+	@Benchmark
+	public void downloadFile(final ThreadFiles files) throws JSchException, SftpException {
+		this.client.downloadFile(this.source, files.local);
+	}
+
+	/**
+	 * Target files of one benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class ThreadFiles {
+
+		private Path remote;
+
+		private Path local;
+
+		@Setup(Level.Trial)
+		public void setUp(final SftpTransferBenchmark benchmark) throws IOException {
+			this.remote = Files.createTempFile(benchmark.directory, "upload", ".bin");
+			this.local = Files.createTempFile(benchmark.directory, "download", ".bin");
+		}
+	}
+}
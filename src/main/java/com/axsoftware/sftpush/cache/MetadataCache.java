@@ -0,0 +1,207 @@
+package com.axsoftware.sftpush.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded cache of remote directory listings and file attributes, shared by the operations of one client.
+ * <p>
+ * Entries expire after a fixed time to live and the least recently used entry is evicted when the cache is
+ * full. The owning client invalidates the paths it changes (put, rename, mkdir, delete); changes made by other
+ * clients are only seen once the entry expires, so keep the TTL short where that matters.
+ */
+public final class MetadataCache {
+
+	public enum Kind {
+		/**
+		 * Contents of a directory
+		 */
+		LISTING,
+		/**
+		 * Attributes (or absence) of a single path
+		 */
+		STAT
+	}
+
+	private static final String SEPARATOR = "/";
+
+	private final int maxEntries;
+
+	private final long ttlNanos;
+
+	private final Map<Key, CachedValue> entries;
+
+	private long hitCount;
+
+	private long missCount;
+
+	private long evictionCount;
+
+	/**
+	 * @param maxEntries Maximum number of cached paths
+	 * @param ttl        Time to live of an entry
+	 * @param unit       Unit of the time to live
+	 */
+	public MetadataCache(final int maxEntries, final long ttl, final TimeUnit unit) {
+		if (maxEntries < 1 || ttl < 0) {
+			throw new IllegalArgumentException(String.format("Invalid cache size %d or TTL %d", maxEntries, ttl));
+		}
+		this.maxEntries = maxEntries;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<Key, CachedValue>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Key, CachedValue> eldest) {
+				if (size() > MetadataCache.this.maxEntries) {
+					MetadataCache.this.evictionCount++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Cached value of a path
+	 *
+	 * @return Value, null when absent or expired
+	 */
+	public synchronized <T> T get(final Kind kind, final String path, final Class<T> type) {
+		final Key key = new Key(kind, normalize(path));
+		final CachedValue entry = this.entries.get(key);
+		if (entry == null || System.nanoTime() - entry.created > this.ttlNanos || !type.isInstance(entry.value)) {
+			if (entry != null) {
+				this.entries.remove(key);
+			}
+			this.missCount++;
+			return null;
+		}
+		this.hitCount++;
+		return type.cast(entry.value);
+	}
+
+	public synchronized void put(final Kind kind, final String path, final Object value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Invalid cache value for " + path);
+		}
+		this.entries.put(new Key(kind, normalize(path)), new CachedValue(value, System.nanoTime()));
+	}
+
+	/**
+	 * Forget a changed path: its attributes and listing, everything below it (renamed or deleted directory)
+	 * and the listing of its parent directory
+	 */
+	public synchronized void invalidate(final String path) {
+		final String normalized = normalize(path);
+		final String parent = parent(normalized);
+		final String prefix = normalized.endsWith(SEPARATOR) ? normalized : normalized + SEPARATOR;
+		final Iterator<Key> keys = this.entries.keySet().iterator();
+		while (keys.hasNext()) {
+			final Key key = keys.next();
+			if (key.path.equals(normalized) || key.path.startsWith(prefix) || key.kind == Kind.LISTING && key.path.equals(parent)) {
+				keys.remove();
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		this.entries.clear();
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	public synchronized long getHitCount() {
+		return this.hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return this.missCount;
+	}
+
+	/**
+	 * Entries dropped to respect the maximum size
+	 */
+	public synchronized long getEvictionCount() {
+		return this.evictionCount;
+	}
+
+	/**
+	 * Hits over lookups, 0 before the first lookup
+	 */
+	public synchronized double getHitRatio() {
+		final long lookups = this.hitCount + this.missCount;
+		return lookups == 0 ? 0 : (double) this.hitCount / lookups;
+	}
+
+	private static String normalize(final String path) {
+		if (path == null) {
+			throw new IllegalArgumentException("Invalid path: " + path);
+		}
+		String normalized = path.replace('\\', '/');
+		while (normalized.contains("//")) {
+			normalized = normalized.replace("//", SEPARATOR);
+		}
+		return normalized.length() > 1 && normalized.endsWith(SEPARATOR) ? normalized.substring(0, normalized.length() - 1) : normalized;
+	}
+
+	private static String parent(final String path) {
+		final int index = path.lastIndexOf('/');
+		if (index < 0) {
+			return "";
+		}
+		return index == 0 ? SEPARATOR : path.substring(0, index);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d entries, %d hits, %d misses, %d evictions", this.entries.size(), this.hitCount, this.missCount, this.evictionCount);
+	}
+
+	private static final class Key {
+
+		private final Kind kind;
+
+		private final String path;
+
+		private Key(final Kind kind, final String path) {
+			this.kind = kind;
+			this.path = path;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) other;
+			return this.kind == key.kind && this.path.equals(key.path);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.kind, this.path);
+		}
+	}
+
+	private static final class CachedValue {
+
+		private final Object value;
+
+		private final long created;
+
+		private CachedValue(final Object value, final long created) {
+			this.value = value;
+			this.created = created;
+		}
+	}
+}
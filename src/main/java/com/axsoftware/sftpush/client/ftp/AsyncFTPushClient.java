@@ -0,0 +1,147 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.transfer.AsyncTransferExecutor;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking FTP operations.
+ * <p>
+ * {@link FTPushClient} holds one connection, so each operation runs on its own client borrowing a pooled
+ * connection. Cancelling a returned future closes the connection sockets; the pool then drops it.
+ */
+public class AsyncFTPushClient implements Closeable {
+
+	private final PushConfig ftpConfig;
+
+	private final FTPConnectionPool connectionPool;
+
+	private final AsyncTransferExecutor executor;
+
+	private final boolean ownExecutor;
+
+	/**
+	 * Run operations on virtual threads (JDK 21+) or daemon threads, with the default connection pool
+	 *
+	 * @param ftpConfig   Connection config
+	 * @param maxInFlight Maximum operations submitted and not completed, callers block beyond it
+	 */
+	public AsyncFTPushClient(final PushConfig ftpConfig, final int maxInFlight) {
+		this(ftpConfig, FTPConnectionPool.getDefault(), new AsyncTransferExecutor(maxInFlight), true);
+	}
+
+	/**
+	 * @param ftpConfig      Connection config
+	 * @param connectionPool Pool of connections, null to open a dedicated connection per operation
+	 * @param executor       Executor shared with other facades, not closed by {@link #close()}
+	 */
+	public AsyncFTPushClient(final PushConfig ftpConfig, final FTPConnectionPool connectionPool, final AsyncTransferExecutor executor) {
+		this(ftpConfig, connectionPool, executor, false);
+	}
+
+	private AsyncFTPushClient(final PushConfig ftpConfig, final FTPConnectionPool connectionPool, final AsyncTransferExecutor executor,
+			final boolean ownExecutor) {
+		if (ftpConfig == null || executor == null) {
+			throw new IllegalArgumentException("Invalid config or executor");
+		}
+		this.ftpConfig = ftpConfig;
+		this.connectionPool = connectionPool;
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * Upload a local file in binary mode
+	 */
+	public CompletableFuture<Void> upload(final File file, final String fileName, final String directory) {
+		return submit(client -> {
+			try (final InputStream content = new FileInputStream(file)) {
+				client.upload(content, fileName, directory, null, FTP.BINARY_FILE_TYPE, false);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Download a file in binary mode to a local file
+	 */
+	public CompletableFuture<Void> download(final String fileName, final String directory, final File target) {
+		return submit(client -> {
+			client.getFtpClient().setFileType(FTP.BINARY_FILE_TYPE);
+			try (final OutputStream output = new FileOutputStream(target)) {
+				client.download(fileName, directory, output);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * List the files of a folder
+	 */
+	public CompletableFuture<FTPFile[]> listFiles(final String directory) {
+		return submit(client -> {
+			client.changeDirectory(directory);
+			return client.listFiles();
+		});
+	}
+
+	/**
+	 * @see FTPushClient#makeDirectory(String)
+	 */
+	public CompletableFuture<Void> makeDirectory(final String directory) {
+		return submit(client -> {
+			client.makeDirectory(directory);
+			return null;
+		});
+	}
+
+	/**
+	 * @see FTPushClient#rename(String, String)
+	 */
+	public CompletableFuture<Void> rename(final String source, final String target) {
+		return submit(client -> {
+			client.rename(source, target);
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(final Operation<T> operation) {
+		return this.executor.submit(() -> {
+			final FTPushClient client = new FTPushClient(this.ftpConfig, this.connectionPool);
+			client.connect();
+			try {
+				return operation.run(client);
+			} finally {
+				client.quit();
+			}
+		});
+	}
+
+	/**
+	 * Operations submitted and not completed
+	 */
+	public int getInFlight() {
+		return this.executor.getInFlight();
+	}
+
+	@Override
+	public void close() {
+		if (this.ownExecutor) {
+			this.executor.close();
+		}
+	}
+
+	private interface Operation<T> {
+
+		T run(FTPushClient client) throws Exception;
+	}
+}
@@ -0,0 +1,96 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Digest of a remote file computed by the FTP server.
+ * <p>
+ * Uses the HASH command (draft-bryan-ftp-hash) when the server announces it in FEAT, otherwise the older
+ * XMD5/XSHA1/XSHA256/XSHA512 commands. Servers supporting neither leave the transfer unverified.
+ */
+final class FTPChecksum {
+
+	private static final Logger logger = Logger.getLogger(FTPChecksum.class.getName());
+
+	private static final String HASH = "HASH";
+
+	private static final Map<String, String> COMMANDS = new HashMap<>();
+
+	static {
+		COMMANDS.put("MD5", "XMD5");
+		COMMANDS.put("SHA-1", "XSHA1");
+		COMMANDS.put("SHA-256", "XSHA256");
+		COMMANDS.put("SHA-512", "XSHA512");
+	}
+
+	private final String algorithm;
+
+	private final String command;
+
+	FTPChecksum(final String algorithm) {
+		this.algorithm = algorithm.toUpperCase(Locale.ROOT);
+		this.command = COMMANDS.get(this.algorithm);
+		if (this.command == null) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm + ", expected one of " + COMMANDS.keySet());
+		}
+	}
+
+	String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(this.algorithm);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Digest of a remote file
+	 *
+	 * @param fileName Path, absolute or relative to the working directory
+	 * @return Lower case hexadecimal digest, null when the server can not compute it
+	 */
+	String remote(final FTPClient ftpClient, final String fileName) throws IOException {
+		if (ftpClient.hasFeature(HASH)) {
+			// 213 SHA-256 0-49 169cd22282da7f147cb491e559e9dd filename
+			if (FTPReply.isPositiveCompletion(ftpClient.sendCommand("OPTS", HASH + " " + this.algorithm))
+					&& FTPReply.isPositiveCompletion(ftpClient.sendCommand(HASH, fileName))) {
+				final String[] words = reply(ftpClient).split("\\s+");
+				if (words.length > 2 && this.algorithm.equalsIgnoreCase(words[0])) {
+					return parse(words[2]);
+				}
+			}
+		}
+		// 250 169cd22282da7f147cb491e559e9dd, some servers answer 213
+		if (FTPReply.isPositiveCompletion(ftpClient.sendCommand(this.command, fileName))) {
+			return parse(reply(ftpClient).split("\\s+")[0]);
+		}
+		logger.fine(String.format("%s %s refused: %s", this.command, fileName, ftpClient.getReplyString()));
+		return null;
+	}
+
+	/**
+	 * Reply text without the reply code
+	 */
+	private static String reply(final FTPClient ftpClient) {
+		final String reply = ftpClient.getReplyString().trim();
+		return reply.length() > 4 ? reply.substring(4).trim() : "";
+	}
+
+	private static String parse(final String word) {
+		final String digest = word.toLowerCase(Locale.ROOT);
+		return digest.matches("[0-9a-f]{8,}") ? digest : null;
+	}
+}
@@ -0,0 +1,149 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.config.TransferProfile;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.pool.KeyedConnectionPool;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.logging.Logger;
+
+/**
+ * Pool of logged-in FTP control connections keyed by host and user.
+ * <p>
+ * Idle connections are checked with NOOP before being handed out and are moved back to the login directory
+ * when released.
+ */
+public class FTPConnectionPool extends KeyedConnectionPool<FTPClient, SFTPushException> {
+
+	private static final Logger logger = Logger.getLogger(FTPConnectionPool.class.getName());
+
+	static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+	private static final String ERROR_CONNECT_FTP = "Error on connect FTP %s.( %s )";
+
+	private static final String ERROR_AUTHENTICATE_USER = "Error in authenticate FTP user ( %s )";
+
+	private static final FTPConnectionPool DEFAULT = new FTPConnectionPool();
+
+	public FTPConnectionPool() {
+		// NOOP on every borrow, a dead control connection is only noticed on the next command
+		setValidationIntervalMillis(0);
+	}
+
+	/**
+	 * Pool shared by clients created without an explicit pool
+	 */
+	public static FTPConnectionPool getDefault() {
+		return DEFAULT;
+	}
+
+	@Override
+	protected FTPClient create(final PushConfig config) {
+		final PooledFTPClient ftpClient = new PooledFTPClient();
+		ftpClient.setConnectTimeout(config.getConnectTimeout() != null ? config.getConnectTimeout() : DEFAULT_CONNECT_TIMEOUT);
+		configure(ftpClient, config.getTransferProfile());
+		final FTPMetrics metrics = new FTPMetrics(getMetrics());
+		final long start = System.nanoTime();
+
+		try {
+			if (config.getPort() == null) {
+				ftpClient.connect(config.getHost());
+			} else {
+				ftpClient.connect(config.getHost(), config.getPort());
+			}
+			if (!FTPReply.isPositiveCompletion(ftpClient.getReplyCode())) {
+				throw new IOException("Reply code: " + ftpClient.getReplyCode());
+			}
+		} catch (final IOException e) {
+			destroy(ftpClient);
+			metrics.connect(config.getHost(), start, false);
+			metrics.error(e);
+			throw new SFTPushException(String.format(ERROR_CONNECT_FTP, config.getHost(), e));
+		}
+
+		try {
+			if (!ftpClient.login(config.getUsername(), config.getPassword())) {
+				throw new IOException("Reply code: " + ftpClient.getReplyCode());
+			}
+			ftpClient.setHomeDirectory(ftpClient.printWorkingDirectory());
+		} catch (final IOException e) {
+			destroy(ftpClient);
+			metrics.connect(config.getHost(), start, false);
+			metrics.error(e);
+			throw new SFTPushException(String.format(ERROR_AUTHENTICATE_USER, config.getUsername()), e);
+		}
+		metrics.connect(config.getHost(), start, true);
+		return ftpClient;
+	}
+
+	/**
+	 * Apply the transfer profile, restoring library defaults for unset values so a pooled client never keeps
+	 * the settings of a previous borrower
+	 */
+	static void configure(final FTPClient ftpClient, final TransferProfile profile) {
+		ftpClient.setBufferSize(value(profile.getBufferSize(), 0));
+		ftpClient.setSendDataSocketBufferSize(value(profile.getSendBufferSize(), 0));
+		ftpClient.setReceieveDataSocketBufferSize(value(profile.getReceiveBufferSize(), 0));
+		ftpClient.setDataTimeout(value(profile.getDataTimeout(), 0));
+		ftpClient.setControlKeepAliveTimeout(value(profile.getControlKeepAliveTimeout(), 0));
+		if (!ftpClient.isConnected()) {
+			try {
+				// Control connection buffers, applied on connect
+				ftpClient.setSendBufferSize(value(profile.getSendBufferSize(), -1));
+				ftpClient.setReceiveBufferSize(value(profile.getReceiveBufferSize(), -1));
+			} catch (final SocketException e) {
+				logger.fine(e.getMessage());
+			}
+		}
+	}
+
+	private static int value(final Integer value, final int defaultValue) {
+		return value != null ? value : defaultValue;
+	}
+
+	@Override
+	protected boolean isUsable(final FTPClient ftpClient) {
+		return ftpClient.isConnected();
+	}
+
+	@Override
+	protected boolean validate(final FTPClient ftpClient) {
+		try {
+			return ftpClient.sendNoOp();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	protected boolean passivate(final FTPClient ftpClient) {
+		try {
+			return ((PooledFTPClient) ftpClient).reset();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	protected void destroy(final FTPClient ftpClient) {
+		try {
+			if (ftpClient.isConnected()) {
+				ftpClient.quit();
+			}
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+		try {
+			ftpClient.disconnect();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.io.CopyStreamEvent;
+import org.apache.commons.net.io.CopyStreamListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Report FTP commands and transfers to a {@link TransferMetrics}.
+ * <p>
+ * Transfers are measured with a {@link CopyStreamListener} set on the client for the duration of the
+ * transfer: the first copied buffer gives the time to first byte, the buffers give the bytes moved. Each buffer
+ * is also paid to the {@link Throttle}, which holds the copying thread while the bandwidth cap is reached. The
+ * listener cannot stop the copy loop, so a transfer interrupted while throttled is failed once the client returns.
+ * A command rejected by the server counts as a failure with cause "reply-&lt;code&gt;".
+ */
+final class FTPMetrics {
+
+	private static final TransferMetrics.Protocol FTP = TransferMetrics.Protocol.FTP;
+
+	private final TransferMetrics metrics;
+
+	private final Throttle throttle;
+
+	/**
+	 * Metrics of connections only, transfers are not throttled
+	 */
+	FTPMetrics(final TransferMetrics metrics) {
+		this(metrics, bytes -> {
+		});
+	}
+
+	FTPMetrics(final TransferMetrics metrics, final Throttle throttle) {
+		this.metrics = metrics;
+		this.throttle = throttle;
+	}
+
+	TransferMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Measure a command answered by a reply code
+	 *
+	 * @return Result of the command
+	 */
+	boolean command(final FTPClient ftpClient, final TransferMetrics.Operation operation, final FtpCommand command) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			final boolean success = command.run();
+			this.metrics.operation(FTP, operation, System.nanoTime() - start, success);
+			if (!success) {
+				reply(ftpClient);
+			}
+			return success;
+		} catch (final IOException | RuntimeException e) {
+			this.metrics.operation(FTP, operation, System.nanoTime() - start, false);
+			error(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Measure a command returning a value, e.g. a listing
+	 */
+	<T> T call(final TransferMetrics.Operation operation, final FtpCall<T> call) throws IOException {
+		final long start = System.nanoTime();
+		try {
+			final T result = call.call();
+			this.metrics.operation(FTP, operation, System.nanoTime() - start, true);
+			return result;
+		} catch (final IOException | RuntimeException e) {
+			this.metrics.operation(FTP, operation, System.nanoTime() - start, false);
+			error(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Measure a RETR or STOR, counting the bytes copied by the client
+	 *
+	 * @return Result of the transfer
+	 */
+	boolean transfer(final FTPClient ftpClient, final TransferMetrics.Direction direction, final FtpCommand transfer) throws IOException {
+		final Listener listener = new Listener(direction);
+		final CopyStreamListener previous = ftpClient.getCopyStreamListener();
+		ftpClient.setCopyStreamListener(listener);
+		try {
+			final boolean success = transfer.run();
+			if (listener.aborted != null) {
+				throw listener.aborted;
+			}
+			listener.finish(success);
+			if (!success) {
+				reply(ftpClient);
+			}
+			return success;
+		} catch (final IOException | RuntimeException e) {
+			listener.finish(false);
+			error(e);
+			throw e;
+		} finally {
+			ftpClient.setCopyStreamListener(previous);
+		}
+	}
+
+	/**
+	 * Measure a new connection, from connect to login
+	 */
+	void connect(final String host, final long start, final boolean success) {
+		this.metrics.connect(FTP, host, System.nanoTime() - start, success);
+	}
+
+	void error(final Exception e) {
+		this.metrics.error(FTP, cause(e));
+	}
+
+	private void reply(final FTPClient ftpClient) {
+		this.metrics.error(FTP, "reply-" + ftpClient.getReplyCode());
+	}
+
+	/**
+	 * Short name of a failure, e.g. "timeout" or "connection-closed"
+	 */
+	static String cause(final Exception e) {
+		final Throwable cause = e.getCause() != null && !(e instanceof IOException) ? e.getCause() : e;
+		if (cause instanceof SocketTimeoutException) {
+			return "timeout";
+		}
+		if (cause instanceof InterruptedIOException) {
+			return "interrupted";
+		}
+		if (cause instanceof FTPConnectionClosedException) {
+			return "connection-closed";
+		}
+		if (cause instanceof ConnectException) {
+			return "connection-refused";
+		}
+		return cause instanceof IOException ? "io" : cause.getClass().getSimpleName();
+	}
+
+	interface Throttle {
+
+		void acquire(long bytes) throws InterruptedIOException;
+	}
+
+	interface FtpCommand {
+
+		boolean run() throws IOException;
+	}
+
+	interface FtpCall<T> {
+
+		T call() throws IOException;
+	}
+
+	private final class Listener implements CopyStreamListener {
+
+		private final TransferMetrics.Direction direction;
+
+		private final long start = System.nanoTime();
+
+		private long bytes;
+
+		private InterruptedIOException aborted;
+
+		private Listener(final TransferMetrics.Direction direction) {
+			this.direction = direction;
+		}
+
+		@Override
+		public void bytesTransferred(final CopyStreamEvent event) {
+			bytesTransferred(event.getTotalBytesTransferred(), event.getBytesTransferred(), event.getStreamSize());
+		}
+
+		@Override
+		public void bytesTransferred(final long totalBytesTransferred, final int bytesTransferred, final long streamSize) {
+			if (this.bytes == 0 && bytesTransferred > 0) {
+				FTPMetrics.this.metrics.firstByte(FTP, this.direction, System.nanoTime() - this.start);
+			}
+			this.bytes += bytesTransferred;
+			if (this.aborted != null) {
+				return;
+			}
+			try {
+				FTPMetrics.this.throttle.acquire(bytesTransferred);
+			} catch (final InterruptedIOException e) {
+				// The copy loop cannot be stopped from here, the transfer fails when it returns
+				this.aborted = e;
+			}
+		}
+
+		private void finish(final boolean success) {
+			FTPMetrics.this.metrics.transfer(FTP, this.direction, this.bytes, System.nanoTime() - this.start, success);
+		}
+	}
+}
@@ -0,0 +1,517 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferExecutors;
+import com.axsoftware.sftpush.transfer.TransferResult;
+import org.apache.commons.net.ftp.FTP;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Transfers spread over several logged-in FTP connections.
+ * <p>
+ * {@link FTPushClient} moves one file at a time on its control connection. The manager runs up to
+ * {@link #getConnections()} workers, each on its own pooled connection for the whole batch. Files are handed out
+ * largest first from a shared queue, so the big files start early and the small ones fill the gaps, as lftp's
+ * {@code mirror --parallel} does. A single large file is split into byte ranges moved with REST on all the
+ * connections. The pool must allow that many connections per host (see {@link FTPConnectionPool#setMaxPerHost(int)}).
+ */
+public class FTPTransferManager {
+
+	private static final Logger logger = Logger.getLogger(FTPTransferManager.class.getName());
+
+	private static final String ERROR_TRANSFER = "Error on parallel FTP transfer %s.( %s )";
+
+	private static final String ERROR_FILE_NOT_FOUND = "File %s not found.";
+
+	private static final String ERROR_SIZE_MISMATCH = "Size of %s is %d, expected %d";
+
+	private static final String ERROR_FIRST_RANGE = "First range of %s failed";
+
+	private static final String THREAD_NAME = "sftpush-ftp-transfer";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final long DEFAULT_MIN_RANGE_SIZE = 8 * 1024 * 1024;
+
+	private final PushConfig ftpConfig;
+
+	private final FTPConnectionPool connectionPool;
+
+	private final int connections;
+
+	private long minRangeSize = DEFAULT_MIN_RANGE_SIZE;
+
+	private TransferMetrics metrics = TransferMetrics.NOOP;
+
+	/**
+	 * @param connections Connections used at once, the default pool must allow them
+	 */
+	public FTPTransferManager(final PushConfig ftpConfig, final int connections) {
+		this(ftpConfig, FTPConnectionPool.getDefault(), connections);
+	}
+
+	/**
+	 * @param ftpConfig      Connection config
+	 * @param connectionPool Pool of the connections, null to open dedicated connections
+	 * @param connections    Connections used at once
+	 */
+	public FTPTransferManager(final PushConfig ftpConfig, final FTPConnectionPool connectionPool, final int connections) {
+		if (ftpConfig == null || connections < 1) {
+			throw new IllegalArgumentException("Invalid config or connections: " + ftpConfig + ", " + connections);
+		}
+		this.ftpConfig = ftpConfig;
+		this.connectionPool = connectionPool;
+		this.connections = connections;
+	}
+
+	/**
+	 * Download files of a remote folder in binary mode
+	 *
+	 * @return Outcome of each file, in the order of the names
+	 */
+	public TransferBatchResult downloadFiles(final String directory, final File localDir, final String... fileNames) {
+		final Map<String, Long> sizes = remoteSizes(directory);
+		final List<Task> tasks = new ArrayList<>();
+		for (final String fileName : fileNames) {
+			final Long size = sizes.get(fileName);
+			tasks.add(new Task(tasks.size(), fileName, size != null ? size : 0, client -> {
+				if (size == null) {
+					throw new SFTPushException(String.format(ERROR_FILE_NOT_FOUND, fileName));
+				}
+				return download(client, fileName, directory, new File(localDir, fileName));
+			}));
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Download the files of a remote folder in binary mode, sub folders excluded
+	 *
+	 * @return Outcome of each file, by name
+	 */
+	public TransferBatchResult downloadDirectory(final String directory, final File localDir) {
+		final Map<String, Long> sizes = remoteSizes(directory);
+		final List<Task> tasks = new ArrayList<>();
+		for (final String fileName : sizes.keySet().stream().sorted().toArray(String[]::new)) {
+			tasks.add(new Task(tasks.size(), fileName, sizes.get(fileName), client -> download(client, fileName, directory, new File(localDir, fileName))));
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Upload local files in binary mode
+	 *
+	 * @return Outcome of each file, in the order of the names
+	 */
+	public TransferBatchResult uploadFiles(final File localDir, final String directory, final String... fileNames) {
+		final List<Task> tasks = new ArrayList<>();
+		for (final String fileName : fileNames) {
+			final File file = new File(localDir, fileName);
+			tasks.add(new Task(tasks.size(), fileName, file.length(), client -> upload(client, file, fileName, directory)));
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Upload the files of a local folder in binary mode, sub folders excluded
+	 *
+	 * @return Outcome of each file, by name
+	 */
+	public TransferBatchResult uploadDirectory(final File localDir, final String directory) {
+		final File[] files = localDir.listFiles(File::isFile);
+		if (files == null) {
+			throw new SFTPushException(String.format(ERROR_TRANSFER, localDir, "not a folder"));
+		}
+		return uploadFiles(localDir, directory, Arrays.stream(files).map(File::getName).sorted().toArray(String[]::new));
+	}
+
+	/**
+	 * Download one file as byte ranges (REST + RETR), one per connection, written in place in a temporary
+	 * sibling of the target. The target is only replaced once every range is complete.
+	 */
+	public TransferResult downloadFile(final String fileName, final String directory, final File target) {
+		final long start = System.currentTimeMillis();
+		final Path temp = target.toPath().resolveSibling(target.getName() + TEMP_EXTENSION);
+		try {
+			final long size = withClient(client -> client.size(fileName, directory));
+			if (size < 0) {
+				throw new SFTPushException(String.format(ERROR_FILE_NOT_FOUND, fileName));
+			}
+			try (final RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+				file.setLength(size);
+			}
+
+			final List<Task> tasks = new ArrayList<>();
+			for (final long[] range : ranges(size)) {
+				tasks.add(new Task(tasks.size(), fileName, range[1], client -> {
+					try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+						final long copied = client.downloadRange(fileName, directory, range[0], range[1], Channels.newOutputStream(channel.position(range[0])));
+						if (copied != range[1]) {
+							throw new SFTPushException(String.format(ERROR_SIZE_MISMATCH, fileName + "@" + range[0], copied, range[1]));
+						}
+						return copied;
+					}
+				}));
+			}
+			final TransferResult result = combine(fileName, size, start, run(tasks));
+			if (result.isSuccess()) {
+				Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} else {
+				// A partial file of the full size would pass for up to date
+				Files.deleteIfExists(temp);
+			}
+			return result;
+		} catch (final IOException | SFTPushException e) {
+			logger.severe(String.format(ERROR_TRANSFER, fileName, e.getMessage()));
+			deleteQuietly(temp);
+			return TransferResult.failure(fileName, System.currentTimeMillis() - start, e);
+		}
+	}
+
+	/**
+	 * Upload one file as byte ranges (REST + STOR), one per connection.
+	 * <p>
+	 * The first range creates or truncates the remote file; the other ranges are only sent once it started.
+	 * The server must accept concurrent writes to the same file at different offsets.
+	 */
+	public TransferResult uploadFile(final File file, final String fileName, final String directory) {
+		final long start = System.currentTimeMillis();
+		final long size = file.length();
+		final CountDownLatch created = new CountDownLatch(1);
+		final boolean[] firstFailed = new boolean[1];
+
+		// The first range failing, even before it ran, lets the others give up
+		final Runnable firstFailure = () -> {
+			firstFailed[0] = true;
+			created.countDown();
+		};
+		final List<Task> tasks = new ArrayList<>();
+		for (final long[] range : ranges(size)) {
+			tasks.add(new Task(tasks.size(), fileName, range[1], range[0] == 0 ? firstFailure : null, client -> {
+				try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					final InputStream content = new RangeInputStream(Channels.newInputStream(channel.position(range[0])), range[1]);
+					if (range[0] == 0) {
+						// STOR reads the source once the server opened the file
+						client.uploadRange(new FilterInputStream(content) {
+
+							@Override
+							public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+								created.countDown();
+								return super.read(bytes, offset, length);
+							}
+						}, fileName, directory, 0);
+						created.countDown();
+					} else {
+						created.await();
+						if (firstFailed[0]) {
+							throw new SFTPushException(String.format(ERROR_FIRST_RANGE, fileName));
+						}
+						client.uploadRange(content, fileName, directory, range[0]);
+					}
+					return range[1];
+				}
+			}));
+		}
+		try {
+			final TransferResult result = combine(fileName, size, start, run(tasks));
+			if (result.isSuccess()) {
+				final long remoteSize = withClient(client -> client.size(fileName, directory));
+				if (remoteSize != size) {
+					throw new SFTPushException(String.format(ERROR_SIZE_MISMATCH, fileName, remoteSize, size));
+				}
+			}
+			return result;
+		} catch (final IOException | SFTPushException e) {
+			logger.severe(String.format(ERROR_TRANSFER, fileName, e.getMessage()));
+			return TransferResult.failure(fileName, System.currentTimeMillis() - start, e);
+		}
+	}
+
+	/**
+	 * Run the tasks on the workers, largest first
+	 */
+	private TransferBatchResult run(final List<Task> tasks) {
+		final long start = System.currentTimeMillis();
+		final TransferResult[] results = new TransferResult[tasks.size()];
+		if (tasks.isEmpty()) {
+			return new TransferBatchResult(Arrays.asList(results), 0);
+		}
+		final List<Task> sorted = new ArrayList<>(tasks);
+		sorted.sort(Comparator.comparingLong((Task task) -> task.size).reversed());
+		final Queue<Task> queue = new ConcurrentLinkedQueue<>(sorted);
+
+		final int workers = Math.min(this.connections, tasks.size());
+		final ExecutorService executor = TransferExecutors.newBoundedExecutor(THREAD_NAME, workers);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < workers; i++) {
+				futures.add(executor.submit(() -> work(queue, results)));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+			return new TransferBatchResult(Arrays.asList(results), System.currentTimeMillis() - start);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SFTPushException(String.format(ERROR_TRANSFER, "batch", e.getMessage()), e);
+		} catch (final ExecutionException e) {
+			throw new SFTPushException(String.format(ERROR_TRANSFER, "batch", e.getCause().getMessage()), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Take tasks until the queue is empty, on one connection. A failed task drops the connection, the next task
+	 * runs on a new one.
+	 */
+	private void work(final Queue<Task> queue, final TransferResult[] results) {
+		FTPushClient client = null;
+		try {
+			Task task;
+			while ((task = queue.poll()) != null) {
+				final long start = System.currentTimeMillis();
+				try {
+					if (client == null) {
+						client = connect();
+					}
+					results[task.index] = TransferResult.success(task.name, task.work.run(client), System.currentTimeMillis() - start);
+				} catch (final Exception e) {
+					if (e instanceof InterruptedException) {
+						Thread.currentThread().interrupt();
+					}
+					logger.severe(String.format(ERROR_TRANSFER, task.name, e.getMessage()));
+					results[task.index] = TransferResult.failure(task.name, System.currentTimeMillis() - start, e);
+					if (task.onFailure != null) {
+						task.onFailure.run();
+					}
+					quit(client);
+					client = null;
+				}
+			}
+		} finally {
+			quit(client);
+		}
+	}
+
+	private FTPushClient connect() {
+		final FTPushClient client = new FTPushClient(this.ftpConfig, this.connectionPool);
+		client.setMetrics(this.metrics);
+		client.connect();
+		return client;
+	}
+
+	private static void deleteQuietly(final Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	private static void quit(final FTPushClient client) {
+		if (client == null) {
+			return;
+		}
+		try {
+			client.quit();
+		} catch (final SFTPushException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	private <T> T withClient(final Work<T> work) throws IOException {
+		final FTPushClient client = connect();
+		try {
+			return work.run(client);
+		} catch (final IOException | RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new IOException(e);
+		} finally {
+			quit(client);
+		}
+	}
+
+	/**
+	 * Sizes of the files of a remote folder, listed once
+	 */
+	private Map<String, Long> remoteSizes(final String directory) {
+		final Map<String, Long> sizes = new HashMap<>();
+		try {
+			withClient(client -> client.forEachFile(directory, file -> file != null && file.isFile(), file -> {
+				sizes.put(file.getName(), file.getSize());
+				return true;
+			}));
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_TRANSFER, directory, e.getMessage()), e);
+		}
+		return sizes;
+	}
+
+	private static long download(final FTPushClient client, final String fileName, final String directory, final File target) throws IOException {
+		client.getFtpClient().setFileType(FTP.BINARY_FILE_TYPE);
+		try (final OutputStream output = new FileOutputStream(target)) {
+			client.download(fileName, directory, output);
+		}
+		return target.length();
+	}
+
+	private static long upload(final FTPushClient client, final File file, final String fileName, final String directory) throws IOException {
+		try (final InputStream content = new FileInputStream(file)) {
+			client.upload(content, fileName, directory, null, FTP.BINARY_FILE_TYPE, false);
+		}
+		return file.length();
+	}
+
+	/**
+	 * Split a file into at most one range per connection, none smaller than {@link #getMinRangeSize()}
+	 *
+	 * @return Offset and length of each range
+	 */
+	private List<long[]> ranges(final long size) {
+		final long count = Math.max(1, Math.min(this.connections, size / Math.max(1, this.minRangeSize)));
+		final List<long[]> ranges = new ArrayList<>();
+		final long length = size / count;
+		for (long i = 0, offset = 0; i < count; i++, offset += length) {
+			ranges.add(new long[] {offset, i == count - 1 ? size - offset : length});
+		}
+		return ranges;
+	}
+
+	/**
+	 * Single result of the ranges of a file, failed with the first failed range
+	 */
+	private static TransferResult combine(final String fileName, final long size, final long start, final TransferBatchResult ranges) {
+		for (final TransferResult range : ranges.getResults()) {
+			if (!range.isSuccess()) {
+				return TransferResult.failure(fileName, System.currentTimeMillis() - start, range.getError());
+			}
+		}
+		return TransferResult.success(fileName, size, System.currentTimeMillis() - start);
+	}
+
+	public int getConnections() {
+		return this.connections;
+	}
+
+	public long getMinRangeSize() {
+		return this.minRangeSize;
+	}
+
+	/**
+	 * @param minRangeSize Smallest byte range of a single file transfer, smaller files use fewer connections
+	 */
+	public void setMinRangeSize(final long minRangeSize) {
+		this.minRangeSize = minRangeSize;
+	}
+
+	public TransferMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * @param metrics Receives the operations and transfers of all the connections
+	 */
+	public void setMetrics(final TransferMetrics metrics) {
+		this.metrics = metrics != null ? metrics : TransferMetrics.NOOP;
+	}
+
+	@FunctionalInterface
+	private interface Work<T> {
+
+		T run(FTPushClient client) throws Exception;
+	}
+
+	private static final class Task {
+
+		private final int index;
+
+		private final String name;
+
+		private final long size;
+
+		private final Runnable onFailure;
+
+		private final Work<Long> work;
+
+		private Task(final int index, final String name, final long size, final Work<Long> work) {
+			this(index, name, size, null, work);
+		}
+
+		private Task(final int index, final String name, final long size, final Runnable onFailure, final Work<Long> work) {
+			this.index = index;
+			this.name = name;
+			this.size = size;
+			this.onFailure = onFailure;
+			this.work = work;
+		}
+	}
+
+	/**
+	 * At most length bytes of a stream
+	 */
+	private static final class RangeInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		private RangeInputStream(final InputStream input, final long length) {
+			super(input);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			final int b = super.read();
+			if (b != -1) {
+				this.remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			final int count = super.read(bytes, offset, (int) Math.min(length, this.remaining));
+			if (count > 0) {
+				this.remaining -= count;
+			}
+			return count;
+		}
+	}
+}
@@ -1,12 +1,54 @@
 package com.axsoftware.sftpush.client.ftp;
 
+import com.axsoftware.sftpush.cache.MetadataCache;
 import com.axsoftware.sftpush.config.PushConfig;
 import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.io.BandwidthLimiter;
+import com.axsoftware.sftpush.io.DigestStage;
+import com.axsoftware.sftpush.io.FileChannelSink;
+import com.axsoftware.sftpush.io.StreamPipeline;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.transfer.AbortSignal;
+import com.axsoftware.sftpush.transfer.SyncEntry;
+import com.axsoftware.sftpush.transfer.SyncOptions;
+import com.axsoftware.sftpush.transfer.SyncPlan;
+import com.axsoftware.sftpush.transfer.SyncResult;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferCheckpoint;
+import com.axsoftware.sftpush.transfer.TransferJournal;
+import com.axsoftware.sftpush.transfer.TransferResult;
+import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileFilter;
+import org.apache.commons.net.ftp.FTPListParseEngine;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.io.CopyStreamListener;
+import org.apache.commons.net.io.Util;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Logger;
 
 public final class FTPushClient {
@@ -14,6 +56,9 @@ public final class FTPushClient {
 	private static final Logger logger = Logger.getLogger(FTPushClient.class.getName());
 
 	private static final String DOT = ".";
+	private static final int LISTING_PAGE_SIZE = 1000;
+	private static final String SLASH = "/";
+	private static final String MFMT_FORMAT = "yyyyMMddHHmmss";
 	private static final String ERROR_CHANGE_FOLDER = "Error on select folder %s. ( %s )";
 	private static final String ERROR_CONNECT_FTP = "Error on connect FTP %s.( %s )";
 	private static final String ERROR_REMOVE_FILE = "Error on remove file.( %s )";
@@ -22,38 +67,76 @@ public final class FTPushClient {
 	private static final String ERROR_FILE_NOT_FOUND = "File %s not found.";
 	private static final String ERROR_QUIT_CONNECTION = "Error on close connection.( %s )";
 	private static final String ERROR_UPLOAD_FILE = "Error on upload file.( %s )";
+	private static final String ERROR_CREATE_FOLDER = "Error on create folder %s.( %s )";
+	private static final String ERROR_RENAME_FILE = "Error on rename %s to %s.( %s )";
+	private static final String ERROR_SYNC_DIRECTORY = "Error on sync directory %s.( %s )";
+	private static final String ERROR_SIZE_MISMATCH = "Size of %s is %d, expected %d";
+	private static final String ERROR_CHECKSUM_MISMATCH = "%s of %s is %s, expected %s";
 
 	private FTPClient ftpClient;
 	private PushConfig ftpConfig;
+	private FTPConnectionPool connectionPool;
+	private boolean pooled;
+	private TransferJournal transferJournal;
+	private MetadataCache metadataCache;
+	private FTPMetrics metrics = new FTPMetrics(TransferMetrics.NOOP, this::throttle);
+	private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getDefault();
+	private String host;
+	private FTPChecksum checksum;
 
+	/**
+	 * Client opening a dedicated connection on {@link #connect()}
+	 */
 	public FTPushClient() {
-
+		this(null, null);
 	}
 
+	/**
+	 * Client opening a dedicated connection on {@link #connect()}
+	 */
 	public FTPushClient(final PushConfig ftpConfig) {
+		this(ftpConfig, null);
+	}
+
+	/**
+	 * Client borrowing its connection from a pool: every {@link #connect()} must be followed by {@link #quit()},
+	 * which gives the connection back, or the pool runs out of connections for the host.
+	 *
+	 * @param ftpConfig      Connection config
+	 * @param connectionPool Pool used by {@link #connect()}, e.g. {@link FTPConnectionPool#getDefault()}; null to
+	 *                       open a dedicated connection
+	 */
+	public FTPushClient(final PushConfig ftpConfig, final FTPConnectionPool connectionPool) {
 		this.ftpConfig = ftpConfig;
+		this.connectionPool = connectionPool;
 	}
 
 	/**
-	 * Change FTP folder
+	 * Change FTP folder with a single CWD, or none when the connection is already there
 	 *
+	 * @param directory Absolute, or relative to the current folder; null or empty keeps the current folder
 	 * @throws SFTPushException
 	 */
 	public void changeDirectory(final String directory) throws SFTPushException {
 
-		if (directory != null) {
+		if (directory != null && !directory.isEmpty()) {
 			logger.info(String.format("Using directory %s", directory));
+			final FTPClient ftpClient = getFtpClient();
+			final boolean changed;
 			try {
-				if (directory.startsWith(File.separator)) {
-					getFtpClient().changeWorkingDirectory(File.separator);
-				}
-
-				for (final String dir : directory.split(File.separator)) {
-					getFtpClient().changeWorkingDirectory(dir);
+				if (ftpClient instanceof TrackingFTPClient) {
+					final TrackingFTPClient trackingClient = (TrackingFTPClient) ftpClient;
+					changed = trackingClient.isWorkingDirectory(directory)
+							|| this.metrics.command(ftpClient, TransferMetrics.Operation.CWD, () -> trackingClient.changeWorkingDirectoryIfNeeded(directory));
+				} else {
+					changed = this.metrics.command(ftpClient, TransferMetrics.Operation.CWD, () -> ftpClient.changeWorkingDirectory(directory));
 				}
 			} catch (final Exception e) {
 				throw new SFTPushException(String.format(FTPushClient.ERROR_CHANGE_FOLDER, directory, e.getMessage()));
 			}
+			if (!changed) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_CHANGE_FOLDER, directory, ftpClient.getReplyString()));
+			}
 		}
 	}
 
@@ -65,18 +148,116 @@ public final class FTPushClient {
 	 */
 	public FTPFile[] listFiles() throws SFTPushException {
 		try {
-			return getFtpClient().listFiles();
+			return this.metrics.call(TransferMetrics.Operation.LIST, () -> getFtpClient().listFiles());
 		} catch (final Exception e) {
 			throw new SFTPushException(String.format(FTPushClient.ERROR_CHANGE_FOLDER, e.getMessage()));
 		}
 	}
 
 	/**
-	 * FTP Connect
+	 * Visit the files of a folder page by page, without building the full {@link FTPFile} array.
+	 * The server listing is read by a {@link FTPListParseEngine}, entries are parsed {@value #LISTING_PAGE_SIZE} at a time.
+	 *
+	 * @param directory Folder, null for the current folder
+	 * @param filter    Files handed to the visitor, null for all
+	 * @param visitor   Called for each file, returns false to stop
+	 * @return Number of files visited
+	 * @throws SFTPushException
+	 */
+	public long forEachFile(final String directory, final FTPFileFilter filter, final Predicate<FTPFile> visitor) throws SFTPushException {
+		if (visitor == null) {
+			throw new IllegalArgumentException("Invalid visitor: " + visitor);
+		}
+		long visited = 0;
+		final Iterator<FTPFile> files = listingIterator(directory);
+		while (files.hasNext()) {
+			final FTPFile file = files.next();
+			if (filter != null && !filter.accept(file)) {
+				continue;
+			}
+			visited++;
+			if (!visitor.test(file)) {
+				break;
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * Lazy stream of the files of a folder, parsed {@value #LISTING_PAGE_SIZE} at a time
+	 *
+	 * @param directory Folder, null for the current folder
+	 * @throws SFTPushException
+	 */
+	public Stream<FTPFile> streamFiles(final String directory) throws SFTPushException {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listingIterator(directory), Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	private Iterator<FTPFile> listingIterator(final String directory) throws SFTPushException {
+		changeDirectory(directory);
+		final FTPListParseEngine engine;
+		try {
+			engine = this.metrics.call(TransferMetrics.Operation.LIST, () -> getFtpClient().initiateListParsing());
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_CHANGE_FOLDER, directory, e.getMessage()), e);
+		}
+
+		return new Iterator<FTPFile>() {
+
+			private FTPFile[] page = new FTPFile[0];
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				while (true) {
+					while (this.index < this.page.length) {
+						// Unparseable lines come back as null
+						if (this.page[this.index] != null) {
+							return true;
+						}
+						this.index++;
+					}
+					if (!engine.hasNext()) {
+						return false;
+					}
+					this.page = engine.getNext(LISTING_PAGE_SIZE);
+					this.index = 0;
+				}
+			}
+
+			@Override
+			public FTPFile next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final FTPFile file = this.page[this.index];
+				this.page[this.index++] = null;
+				return file;
+			}
+		};
+	}
+
+	/**
+	 * FTP Connect, borrowing a logged-in connection from the pool when there is one
 	 *
 	 * @throws SFTPushException
 	 */
 	public void connect() throws SFTPushException {
+		final Long maxBytesPerSecond = getFtpConfig().getTransferProfile().getMaxBytesPerSecond();
+		if (maxBytesPerSecond != null && this.bandwidthLimiter != null) {
+			this.bandwidthLimiter.setDefaultHostRate(getFtpConfig().getHost(), maxBytesPerSecond);
+		}
+		if (this.connectionPool != null) {
+			// Connecting again gives the previous connection back first
+			releaseConnection();
+			this.host = getFtpConfig().getHost();
+			this.ftpClient = this.connectionPool.borrow(getFtpConfig());
+			this.pooled = true;
+			FTPConnectionPool.configure(this.ftpClient, getFtpConfig().getTransferProfile());
+			attachAbortSignal(this.ftpClient);
+			return;
+		}
 		this.connect(getFtpConfig().getHost(), getFtpConfig().getPort(), getFtpConfig().getUsername(), getFtpConfig().getPassword());
 	}
 
@@ -98,9 +279,16 @@ public final class FTPushClient {
 
 		logger.info(String.format("Connect FTO usign params > host: %s - port: %s - username: %s - password: %s", host, port, username, password));
 
-		this.ftpClient = new FTPClient();
-		this.ftpClient.setConnectTimeout(5000);
+		releaseConnection();
+		this.ftpClient = new TrackingFTPClient();
+		this.host = host;
+		this.ftpClient.setConnectTimeout(getConnectTimeout());
+		if (this.ftpConfig != null) {
+			FTPConnectionPool.configure(this.ftpClient, this.ftpConfig.getTransferProfile());
+		}
+		this.pooled = false;
 
+		final long start = System.nanoTime();
 		try {
 			if (port == null) {
 				this.ftpClient.connect(host);
@@ -108,14 +296,34 @@ public final class FTPushClient {
 				this.ftpClient.connect(host, port);
 			}
 		} catch (final Exception e) {
+			this.metrics.connect(host, start, false);
+			this.metrics.error(e);
 			throw new SFTPushException(String.format(FTPushClient.ERROR_CONNECT_FTP, host, e));
 		}
 
+		attachAbortSignal(this.ftpClient);
+
 		try {
 			this.ftpClient.login(username, password);
 		} catch (final IOException e) {
+			this.metrics.connect(host, start, false);
+			this.metrics.error(e);
 			throw new SFTPushException(String.format(FTPushClient.ERROR_AUTHENTICATE_USER, username, e));
 		}
+		this.metrics.connect(host, start, true);
+	}
+
+	/**
+	 * Inside an async operation, close the connection sockets when the operation is cancelled
+	 */
+	private static void attachAbortSignal(final FTPClient ftpClient) {
+		AbortSignal.attachCurrent(ftpClient, () -> {
+			try {
+				ftpClient.disconnect();
+			} catch (final IOException e) {
+				logger.fine(e.getMessage());
+			}
+		});
 	}
 
 	/**
@@ -146,9 +354,53 @@ public final class FTPushClient {
 		logger.info(String.format("Delete file filename: %s in directory %s", fileName, directory));
 		changeDirectory(directory);
 		try {
-			getFtpClient().deleteFile(fileName);
+			this.metrics.command(getFtpClient(), TransferMetrics.Operation.DELETE, () -> getFtpClient().deleteFile(fileName));
 		} catch (final IOException e) {
 			throw new SFTPushException(String.format(FTPushClient.ERROR_REMOVE_FILE, fileName, e));
+		} finally {
+			invalidateCache(fileName, directory);
+		}
+	}
+
+	/**
+	 * Create a folder
+	 *
+	 * @param directory Absolute, or relative to the current folder
+	 * @throws SFTPushException
+	 */
+	public void makeDirectory(final String directory) throws SFTPushException {
+
+		logger.info(String.format("Create directory %s", directory));
+		try {
+			if (!this.metrics.command(getFtpClient(), TransferMetrics.Operation.MKDIR, () -> getFtpClient().makeDirectory(directory))) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_CREATE_FOLDER, directory, getFtpClient().getReplyString()));
+			}
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_CREATE_FOLDER, directory, e.getMessage()), e);
+		} finally {
+			invalidateCache(directory);
+		}
+	}
+
+	/**
+	 * Rename or move a file or folder
+	 *
+	 * @param source Current path, absolute or relative to the current folder
+	 * @param target New path, absolute or relative to the current folder
+	 * @throws SFTPushException
+	 */
+	public void rename(final String source, final String target) throws SFTPushException {
+
+		logger.info(String.format("Rename %s to %s", source, target));
+		try {
+			if (!this.metrics.command(getFtpClient(), TransferMetrics.Operation.RENAME, () -> getFtpClient().rename(source, target))) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_RENAME_FILE, source, target, getFtpClient().getReplyString()));
+			}
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_RENAME_FILE, source, target, e.getMessage()), e);
+		} finally {
+			invalidateCache(source);
+			invalidateCache(target);
 		}
 	}
 
@@ -161,10 +413,9 @@ public final class FTPushClient {
 		try {
 
 			final File outputFile = File.createTempFile(file.getName(), null);
-			final FileOutputStream output = new FileOutputStream(outputFile);
-
-			this.download(file, output);
-			output.close();
+			try (final FileChannelSink output = FileChannelSink.open(outputFile.toPath(), file.getSize(), FileChannelSink.Mode.DIRECT_BUFFER)) {
+				this.download(file, output);
+			}
 
 			return outputFile;
 		} catch (final Exception e) {
@@ -206,13 +457,50 @@ public final class FTPushClient {
 			throw new SFTPushException(String.format(ERROR_FILE_NOT_FOUND, fileName));
 		}
 
+		final MessageDigest digest = this.checksum != null ? this.checksum.newDigest() : null;
+		final OutputStream target = digest != null ? new DigestOutputStream(output, digest) : output;
 		try {
-			getFtpClient().retrieveFile(fileName, output);
+			this.metrics.transfer(getFtpClient(), TransferMetrics.Direction.DOWNLOAD, () -> getFtpClient().retrieveFile(fileName, target));
+			verify(fileName, digest);
 		} catch (final IOException e) {
 			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, fileName, e));
 		}
 	}
 
+	/**
+	 * Download the file in binary mode through a pipeline of stages, e.g. gunzip it on the fly
+	 *
+	 * @param output   Receives the contents out of the last stage, flushed but not closed
+	 * @param pipeline Stages applied to the contents as they arrive
+	 * @throws SFTPushException
+	 */
+	public void download(final String fileName, final String directory, final OutputStream output, final StreamPipeline pipeline) throws SFTPushException {
+		if (output == null || pipeline == null) {
+			throw new IllegalArgumentException("Output stream and pipeline must be valid");
+		}
+
+		final OutputStream staged;
+		try {
+			getFtpClient().setFileType(FTP.BINARY_FILE_TYPE);
+			staged = pipeline.wrap(output);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, e.getMessage()), e);
+		}
+		boolean completed = false;
+		try {
+			download(fileName, directory, staged);
+			completed = true;
+			// Completes the stages, a truncated or corrupt stream fails here
+			staged.close();
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, e.getMessage()), e);
+		} finally {
+			if (!completed) {
+				closeQuietly(staged);
+			}
+		}
+	}
+
 	/**
 	 * Download the file and put in OutputStream
 	 *
@@ -223,10 +511,9 @@ public final class FTPushClient {
 		changeDirectory(directory);
 		try {
 			final File file = File.createTempFile(fileName, null);
-			final FileOutputStream output = new FileOutputStream(file);
-
-			download(fileName, output);
-			output.close();
+			try (final FileChannelSink output = FileChannelSink.open(file.toPath(), -1, FileChannelSink.Mode.DIRECT_BUFFER)) {
+				download(fileName, output);
+			}
 
 			return file;
 		} catch (final SFTPushException ae) {
@@ -245,19 +532,35 @@ public final class FTPushClient {
 
 		changeDirectory(directory);
 
+		final String path = cachePath(filename, directory);
+		FTPFile[] files = path == null ? null : this.metadataCache.get(MetadataCache.Kind.STAT, path, FTPFile[].class);
+		if (files != null) {
+			return files.length > 0;
+		}
 		try {
-			return (getFtpClient().listFiles(filename).length > 0);
+			files = this.metrics.call(TransferMetrics.Operation.STAT, () -> getFtpClient().listFiles(filename));
 		} catch (final IOException ioe) {
 			return false;
 		}
+		if (path != null) {
+			this.metadataCache.put(MetadataCache.Kind.STAT, path, files);
+		}
+		return files.length > 0;
 	}
 
 	/**
-	 * Close FTP connection.
+	 * Close FTP connection, or give it back to the pool when borrowed.
 	 *
 	 * @throws SFTPushException
 	 */
 	public void quit() throws SFTPushException {
+		if (this.ftpClient != null) {
+			AbortSignal.detachCurrent(this.ftpClient);
+		}
+		if (this.pooled) {
+			releaseConnection();
+			return;
+		}
 		try {
 			if (getFtpClient() != null) {
 				logger.info("Quit connection");
@@ -268,6 +571,20 @@ public final class FTPushClient {
 		}
 	}
 
+	/**
+	 * Give a borrowed connection back to the pool
+	 */
+	private void releaseConnection() {
+		if (!this.pooled) {
+			return;
+		}
+		logger.info("Release connection");
+		AbortSignal.detachCurrent(this.ftpClient);
+		this.connectionPool.release(this.ftpClient);
+		this.ftpClient = null;
+		this.pooled = false;
+	}
+
 	/**
 	 * Execute download of FTP file and put in local folder
 	 *
@@ -361,11 +678,447 @@ public final class FTPushClient {
 			ftpClient.disconnect();
 			throw new SFTPushException("Could not complete connection: Reply code: " + reply);
 		}
-		if (!ftpClient.storeFile(fileName, content)) {
-			throw new SFTPushException("Could not upload stream: Corrupted file");
+		final MessageDigest digest = this.checksum != null ? this.checksum.newDigest() : null;
+		final InputStream source = digest != null ? new DigestInputStream(content, digest) : content;
+		try {
+			if (!this.metrics.transfer(ftpClient, TransferMetrics.Direction.UPLOAD, () -> ftpClient.storeFile(fileName, source))) {
+				throw new SFTPushException("Could not upload stream: Corrupted file");
+			}
+			verify(fileName, digest);
+		} finally {
+			invalidateCache(fileName, directory);
 		}
 	}
 
+	/**
+	 * Send a stream in binary mode through a pipeline of stages, e.g. gzip it on the fly
+	 *
+	 * @param content   File contents, closed when the upload ends
+	 * @param fileName  File name to be created on server
+	 * @param directory Directory name to be stored on server
+	 * @param pipeline  Stages applied to the contents before they are sent
+	 * @throws IOException      File treatment error or error of a stage
+	 * @throws SFTPushException Network connection error
+	 */
+	public void upload(final InputStream content, final String fileName, final String directory, final StreamPipeline pipeline) throws IOException, SFTPushException {
+		if (content == null || pipeline == null) {
+			throw new IllegalArgumentException("Input stream and pipeline must be valid");
+		}
+
+		try (final InputStream staged = pipeline.wrap(content)) {
+			upload(staged, fileName, directory, null, FTP.BINARY_FILE_TYPE, false);
+		}
+	}
+
+	/**
+	 * Upload a file in binary mode, resuming (REST + STOR) from the last checkpoint of a previous attempt.
+	 * The resume offset is the smallest of the journal checkpoint and the remote file size.
+	 *
+	 * @param file      Local file
+	 * @param fileName  File name to be created on server
+	 * @param directory Directory name to be stored on server
+	 * @throws SFTPushException
+	 */
+	public void uploadResumable(final File file, final String fileName, final String directory) throws SFTPushException {
+
+		logger.info(String.format("Resumable upload file params: fileName:%s, directory:%s", fileName, directory));
+		changeDirectory(directory);
+
+		final FTPClient ftpClient = getFtpClient();
+		final long size = file.length();
+		final TransferCheckpoint checkpoint = getTransferJournal().begin(transferKey("put", file.getPath(), directory, fileName), size, file.lastModified());
+
+		try (final InputStream input = new FileInputStream(file)) {
+			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+			final FTPFile remoteFile = remoteFile(fileName);
+			final long offset = Math.min(checkpoint.getOffset(), remoteFile == null ? 0 : remoteFile.getSize());
+
+			long skipped = 0;
+			while (skipped < offset) {
+				final long count = input.skip(offset - skipped);
+				if (count <= 0) {
+					throw new EOFException("Source is shorter than resume offset " + offset);
+				}
+				skipped += count;
+			}
+
+			ftpClient.setRestartOffset(offset);
+			if (!this.metrics.transfer(ftpClient, TransferMetrics.Direction.UPLOAD, () -> ftpClient.storeFile(fileName, checkpoint.track(input, offset)))) {
+				throw new SFTPushException("Could not upload stream: Reply code: " + ftpClient.getReplyCode());
+			}
+			checkSize(fileName, size);
+			checkpoint.complete();
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_UPLOAD_FILE, e.getMessage()), e);
+		} finally {
+			invalidateCache(fileName, directory);
+		}
+	}
+
+	/**
+	 * Download a file in binary mode, resuming (REST + RETR) from the last checkpoint synced to the local file.
+	 *
+	 * @param fileName  Remote file name
+	 * @param directory Remote directory
+	 * @param target    Local file
+	 * @throws SFTPushException
+	 */
+	public void downloadResumable(final String fileName, final String directory, final File target) throws SFTPushException {
+
+		logger.info(String.format("Resumable download file filename: %s in directory %s", fileName, directory));
+		changeDirectory(directory);
+
+		final FTPClient ftpClient = getFtpClient();
+		try {
+			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+			final FTPFile remoteFile = remoteFile(fileName);
+			if (remoteFile == null) {
+				throw new SFTPushException(String.format(ERROR_FILE_NOT_FOUND, fileName));
+			}
+			final long modified = remoteFile.getTimestamp() == null ? 0 : remoteFile.getTimestamp().getTimeInMillis();
+			final TransferCheckpoint checkpoint = getTransferJournal().begin(transferKey("get", fileName, directory, target.getPath()), remoteFile.getSize(), modified);
+			final long offset = Math.min(checkpoint.getOffset(), target.length());
+
+			// Drop bytes written after the last checkpoint, they were never confirmed
+			try (final RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+				file.setLength(offset);
+			}
+			try (final FileOutputStream output = new FileOutputStream(target, true)) {
+				ftpClient.setRestartOffset(offset);
+				if (!this.metrics.transfer(ftpClient, TransferMetrics.Direction.DOWNLOAD, () -> ftpClient.retrieveFile(fileName, checkpoint.track(output, offset, output.getFD())))) {
+					throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, "Reply code: " + ftpClient.getReplyCode()));
+				}
+			}
+
+			if (target.length() != remoteFile.getSize()) {
+				throw new SFTPushException(String.format(ERROR_SIZE_MISMATCH, target, target.length(), remoteFile.getSize()));
+			}
+			checkpoint.complete();
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Size of a remote file
+	 *
+	 * @return Size in bytes, -1 when the file does not exist
+	 * @throws SFTPushException
+	 */
+	public long size(final String fileName, final String directory) throws SFTPushException {
+		changeDirectory(directory);
+		try {
+			final FTPFile remoteFile = remoteFile(fileName);
+			return remoteFile == null ? -1 : remoteFile.getSize();
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Download a byte range of a file in binary mode (REST + RETR). The data connection is closed once the range
+	 * is read, the server may then answer the RETR with an error that is ignored.
+	 *
+	 * @param offset First byte of the range
+	 * @param length Bytes of the range
+	 * @param output Receives the range, not closed
+	 * @return Bytes read, less than the length when the file ends first
+	 * @throws SFTPushException
+	 */
+	public long downloadRange(final String fileName, final String directory, final long offset, final long length, final OutputStream output)
+			throws SFTPushException {
+
+		changeDirectory(directory);
+		final FTPClient ftpClient = getFtpClient();
+		final long[] copied = new long[1];
+		try {
+			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+			ftpClient.setRestartOffset(offset);
+			if (!this.metrics.transfer(ftpClient, TransferMetrics.Direction.DOWNLOAD, () -> {
+				final InputStream input = ftpClient.retrieveFileStream(fileName);
+				if (input == null) {
+					return false;
+				}
+				try {
+					copied[0] = copyRange(input, output, length, ftpClient.getBufferSize(), ftpClient.getCopyStreamListener());
+				} finally {
+					input.close();
+				}
+				// A range ending before the end of the file aborts the transfer
+				return ftpClient.completePendingCommand() || copied[0] == length;
+			})) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, "Reply code: " + ftpClient.getReplyCode()));
+			}
+			return copied[0];
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Write a stream at an offset of a remote file in binary mode (REST + STOR), the bytes around it are kept.
+	 * At offset 0 the server creates or truncates the file.
+	 *
+	 * @param content Range contents, not closed
+	 * @throws SFTPushException
+	 */
+	public void uploadRange(final InputStream content, final String fileName, final String directory, final long offset) throws SFTPushException {
+
+		changeDirectory(directory);
+		final FTPClient ftpClient = getFtpClient();
+		try {
+			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+			if (offset > 0) {
+				ftpClient.setRestartOffset(offset);
+			}
+			if (!this.metrics.transfer(ftpClient, TransferMetrics.Direction.UPLOAD, () -> ftpClient.storeFile(fileName, content))) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_UPLOAD_FILE, "Reply code: " + ftpClient.getReplyCode()));
+			}
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_UPLOAD_FILE, e.getMessage()), e);
+		} finally {
+			invalidateCache(fileName, directory);
+		}
+	}
+
+	/**
+	 * Copy at most length bytes, reporting them to the listener of the transfer
+	 */
+	private static long copyRange(final InputStream input, final OutputStream output, final long length, final int bufferSize,
+			final CopyStreamListener listener) throws IOException {
+		final byte[] buffer = new byte[(int) Math.min(Math.max(bufferSize, Util.DEFAULT_COPY_BUFFER_SIZE), Math.max(1, length))];
+		long copied = 0;
+		int count;
+		while (copied < length && (count = input.read(buffer, 0, (int) Math.min(buffer.length, length - copied))) != -1) {
+			output.write(buffer, 0, count);
+			copied += count;
+			if (listener != null) {
+				listener.bytesTransferred(copied, count, length);
+			}
+		}
+		return copied;
+	}
+
+	/**
+	 * Mirror a remote directory and a local directory on the current connection, transferring only new or
+	 * changed files in binary mode.
+	 * <p>
+	 * Files are compared by size and modification time (see {@link SyncPlan}), at the resolution of the server
+	 * listing. Downloaded files get the remote modification time; uploaded files get the local one when the
+	 * server supports MFMT.
+	 *
+	 * @param directory Remote directory, absolute or relative to the login directory, created by a push when missing
+	 * @param localDir  Local directory, created by a pull when missing
+	 * @param options   Direction, recursion and deletion of extraneous target files
+	 * @return Outcome of each transferred file, unchanged count and deleted paths
+	 * @throws SFTPushException
+	 */
+	public SyncResult sync(final String directory, final File localDir, final SyncOptions options) throws SFTPushException {
+
+		if (directory == null || localDir == null || options == null) {
+			throw new IllegalArgumentException(String.format("Invalid sync: %s, %s, %s", directory, localDir, options));
+		}
+
+		logger.info(String.format("Sync directory %s %s %s", directory, options.getDirection(), localDir));
+
+		final FTPClient ftpClient = getFtpClient();
+		final String root = directory.endsWith(SLASH) ? directory : directory + SLASH;
+		final Path localRoot = localDir.toPath();
+		final boolean pull = options.getDirection() == SyncOptions.Direction.PULL;
+		final long start = System.currentTimeMillis();
+
+		try {
+			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+			final Map<String, SyncEntry> remote = new TreeMap<>();
+			remoteSyncEntries(root, "", options.isRecursive(), remote);
+			final Map<String, SyncEntry> local = SyncPlan.scanLocal(localRoot, options.isRecursive());
+			final SyncPlan plan = pull ? SyncPlan.compare(remote, local, options) : SyncPlan.compare(local, remote, options);
+			logger.fine(String.format("Sync %s: %s", directory, plan));
+
+			final List<String> deleted = new ArrayList<>();
+			for (final SyncEntry entry : plan.getDeletions()) {
+				if (pull) {
+					Files.deleteIfExists(localRoot.resolve(entry.getPath()));
+				} else if (!this.metrics.command(ftpClient, TransferMetrics.Operation.DELETE, () -> entry.isDirectory()
+						? ftpClient.removeDirectory(root + entry.getPath())
+						: ftpClient.deleteFile(root + entry.getPath()))) {
+					throw new SFTPushException(String.format(FTPushClient.ERROR_REMOVE_FILE, entry.getPath() + " " + ftpClient.getReplyString()));
+				}
+				deleted.add(entry.getPath());
+			}
+
+			if (pull) {
+				Files.createDirectories(localRoot);
+			} else if (remote.isEmpty()) {
+				// Missing or empty, fails harmlessly when the directory exists
+				this.metrics.command(ftpClient, TransferMetrics.Operation.MKDIR, () -> ftpClient.makeDirectory(directory));
+			}
+			for (final SyncEntry entry : plan.getDirectories()) {
+				if (pull) {
+					Files.createDirectories(localRoot.resolve(entry.getPath()));
+				} else if (!this.metrics.command(ftpClient, TransferMetrics.Operation.MKDIR, () -> ftpClient.makeDirectory(root + entry.getPath()))) {
+					throw new SFTPushException(String.format(FTPushClient.ERROR_CHANGE_FOLDER, entry.getPath(), ftpClient.getReplyString()));
+				}
+			}
+
+			final List<TransferResult> results = new ArrayList<>();
+			for (final SyncEntry entry : plan.getTransfers()) {
+				results.add(pull ? syncDownload(root, localRoot, entry) : syncUpload(localRoot, root, entry));
+			}
+			return new SyncResult(new TransferBatchResult(results, System.currentTimeMillis() - start), plan.getUnchanged(), deleted);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(FTPushClient.ERROR_SYNC_DIRECTORY, directory, e.getMessage()), e);
+		} finally {
+			if (!pull && this.metadataCache != null) {
+				if (directory.startsWith(SLASH)) {
+					this.metadataCache.invalidate(directory);
+				} else {
+					this.metadataCache.invalidateAll();
+				}
+			}
+		}
+	}
+
+	private void remoteSyncEntries(final String root, final String path, final boolean recursive, final Map<String, SyncEntry> entries) throws IOException {
+		for (final FTPFile file : this.metrics.call(TransferMetrics.Operation.LIST, () -> getFtpClient().listFiles(root + path))) {
+			if (file == null || DOT.equals(file.getName()) || "..".equals(file.getName())) {
+				continue;
+			}
+			final String child = SyncEntry.child(path, file.getName());
+			if (file.isDirectory()) {
+				if (recursive) {
+					entries.put(child, SyncEntry.directory(child));
+					remoteSyncEntries(root, child, true, entries);
+				}
+			} else if (file.isFile()) {
+				final Calendar timestamp = file.getTimestamp();
+				entries.put(child, SyncEntry.file(child, file.getSize(), timestamp == null ? 0 : timestamp.getTimeInMillis(), precision(timestamp)));
+			}
+		}
+	}
+
+	/**
+	 * Resolution of a listing timestamp, e.g. "Jan 1 12:00" has no seconds and "Jan 1 2017" no time
+	 */
+	private static long precision(final Calendar timestamp) {
+		if (timestamp == null) {
+			return Long.MAX_VALUE;
+		}
+		if (timestamp.isSet(Calendar.MILLISECOND)) {
+			return 1;
+		}
+		if (timestamp.isSet(Calendar.SECOND)) {
+			return 1000;
+		}
+		return timestamp.isSet(Calendar.MINUTE) ? 60 * 1000 : 24 * 60 * 60 * 1000;
+	}
+
+	private TransferResult syncDownload(final String root, final Path localRoot, final SyncEntry entry) {
+		final long start = System.currentTimeMillis();
+		final Path target = localRoot.resolve(entry.getPath());
+		try {
+			final long bytes;
+			try (final FileChannelSink output = FileChannelSink.open(target, entry.getSize(), FileChannelSink.Mode.DIRECT_BUFFER)) {
+				if (!this.metrics.transfer(getFtpClient(), TransferMetrics.Direction.DOWNLOAD, () -> getFtpClient().retrieveFile(root + entry.getPath(), output))) {
+					throw new SFTPushException(String.format(FTPushClient.ERROR_DOWNLOAD_FILE, getFtpClient().getReplyString()));
+				}
+				bytes = output.getBytesWritten();
+			}
+			if (entry.getModifiedMillis() > 0) {
+				Files.setLastModifiedTime(target, FileTime.fromMillis(entry.getModifiedMillis()));
+			}
+			return TransferResult.success(entry.getPath(), bytes, System.currentTimeMillis() - start);
+		} catch (final IOException | SFTPushException e) {
+			return TransferResult.failure(entry.getPath(), System.currentTimeMillis() - start, e);
+		}
+	}
+
+	private TransferResult syncUpload(final Path localRoot, final String root, final SyncEntry entry) {
+		final long start = System.currentTimeMillis();
+		try (final InputStream input = new FileInputStream(localRoot.resolve(entry.getPath()).toFile())) {
+			if (!this.metrics.transfer(getFtpClient(), TransferMetrics.Direction.UPLOAD, () -> getFtpClient().storeFile(root + entry.getPath(), input))) {
+				throw new SFTPushException(String.format(FTPushClient.ERROR_UPLOAD_FILE, getFtpClient().getReplyString()));
+			}
+			// Optional command (RFC 3659 draft), servers without it keep the upload time
+			final SimpleDateFormat format = new SimpleDateFormat(MFMT_FORMAT, Locale.ROOT);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			getFtpClient().setModificationTime(root + entry.getPath(), format.format(new Date(entry.getModifiedMillis())));
+			return TransferResult.success(entry.getPath(), entry.getSize(), System.currentTimeMillis() - start);
+		} catch (final IOException | SFTPushException e) {
+			return TransferResult.failure(entry.getPath(), System.currentTimeMillis() - start, e);
+		}
+	}
+
+	/**
+	 * Cache key of a file, null when caching is disabled or its directory is unknown. Called once in the directory:
+	 * a missing or relative directory is taken from the tracked working directory of the connection.
+	 */
+	private String cachePath(final String fileName, final String directory) {
+		if (this.metadataCache == null) {
+			return null;
+		}
+		if (fileName.startsWith(SLASH)) {
+			return fileName;
+		}
+		final String base = directory != null && directory.startsWith(SLASH) ? directory : workingDirectory();
+		if (base == null) {
+			return null;
+		}
+		return base.endsWith(SLASH) ? base + fileName : base + SLASH + fileName;
+	}
+
+	private String workingDirectory() {
+		final FTPClient client = getFtpClient();
+		return client instanceof TrackingFTPClient ? ((TrackingFTPClient) client).getWorkingDirectory() : null;
+	}
+
+	/**
+	 * Forget the cached metadata of a path changed by this client
+	 */
+	private void invalidateCache(final String path) {
+		if (this.metadataCache == null) {
+			return;
+		}
+		if (path != null && path.startsWith(SLASH)) {
+			this.metadataCache.invalidate(path);
+		} else {
+			this.metadataCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Forget the cached metadata of a file changed by this client
+	 */
+	private void invalidateCache(final String fileName, final String directory) {
+		if (this.metadataCache == null) {
+			return;
+		}
+		final String path = cachePath(fileName, directory);
+		if (path != null) {
+			this.metadataCache.invalidate(path);
+		} else {
+			this.metadataCache.invalidateAll();
+		}
+	}
+
+	private FTPFile remoteFile(final String fileName) throws IOException {
+		final FTPFile[] files = this.metrics.call(TransferMetrics.Operation.STAT, () -> getFtpClient().listFiles(fileName));
+		return files.length > 0 ? files[0] : null;
+	}
+
+	private void checkSize(final String fileName, final long size) throws IOException {
+		final FTPFile remoteFile = remoteFile(fileName);
+		final long remoteSize = remoteFile == null ? 0 : remoteFile.getSize();
+		if (remoteSize != size) {
+			throw new SFTPushException(String.format(ERROR_SIZE_MISMATCH, fileName, remoteSize, size));
+		}
+	}
+
+	private String transferKey(final String operation, final String source, final String directory, final String target) {
+		return String.format("ftp-%s:%s@%s:%s:%s>%s/%s", operation, getFtpConfig().getUsername(), getFtpConfig().getHost(),
+				getFtpConfig().getPort(), source, directory, target);
+	}
+
 	/**
 	 * Connect with FTP
 	 * Change FTP folder
@@ -375,7 +1128,7 @@ public final class FTPushClient {
 	 * @throws SFTPushException
 	 */
 	public static File download(final PushConfig config, final String directory, final String filename) throws SFTPushException {
-		final FTPushClient ftp = new FTPushClient(config);
+		final FTPushClient ftp = new FTPushClient(config, FTPConnectionPool.getDefault());
 		ftp.connect();
 		try {
 			return ftp.download(filename, directory);
@@ -393,7 +1146,7 @@ public final class FTPushClient {
 	 * @throws SFTPushException
 	 */
 	public static void upload(final File file, final PushConfig config, final String directory, final String filename) throws SFTPushException {
-		final FTPushClient ftp = new FTPushClient(config);
+		final FTPushClient ftp = new FTPushClient(config, FTPConnectionPool.getDefault());
 		ftp.connect();
 		try {
 			ftp.upload(file, filename, directory);
@@ -402,6 +1155,121 @@ public final class FTPushClient {
 		}
 	}
 
+	/**
+	 * Hold the copying thread while the bandwidth caps of the host are reached
+	 */
+	private void throttle(final long bytes) throws InterruptedIOException {
+		final BandwidthLimiter limiter = this.bandwidthLimiter;
+		if (limiter != null) {
+			limiter.acquire(this.host, bytes);
+		}
+	}
+
+	private int getConnectTimeout() {
+		if (this.ftpConfig != null && this.ftpConfig.getConnectTimeout() != null) {
+			return this.ftpConfig.getConnectTimeout();
+		}
+		return FTPConnectionPool.DEFAULT_CONNECT_TIMEOUT;
+	}
+
+	/**
+	 * Compare the digest computed while streaming with the digest the server computes
+	 *
+	 * @param digest Digest of the transferred bytes, null when verification is disabled
+	 * @throws SFTPushException Digests differ
+	 */
+	private void verify(final String fileName, final MessageDigest digest) throws IOException {
+		if (digest == null) {
+			return;
+		}
+		final String localDigest = DigestStage.toHex(digest.digest());
+		final String remoteDigest = this.checksum.remote(getFtpClient(), fileName);
+		if (remoteDigest == null) {
+			logger.fine(String.format("%s of %s not available, transfer not verified", this.checksum.getAlgorithm(), fileName));
+		} else if (!remoteDigest.equals(localDigest)) {
+			this.metrics.getMetrics().error(TransferMetrics.Protocol.FTP, "checksum-mismatch");
+			throw new SFTPushException(String.format(ERROR_CHECKSUM_MISMATCH, this.checksum.getAlgorithm(), fileName, remoteDigest, localDigest));
+		}
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return Digest algorithm of the transfer verification, null when disabled
+	 */
+	public String getVerification() {
+		return this.checksum != null ? this.checksum.getAlgorithm() : null;
+	}
+
+	/**
+	 * Verify streamed uploads and downloads end to end. The digest is computed while the bytes stream and
+	 * compared with the digest computed by the server (HASH, or XMD5/XSHA1/XSHA256/XSHA512). A mismatch fails
+	 * the transfer, a server supporting none of these commands leaves it unverified.
+	 *
+	 * @param algorithm "MD5", "SHA-1", "SHA-256" or "SHA-512", null to disable (default)
+	 */
+	public void setVerification(final String algorithm) {
+		this.checksum = algorithm != null ? new FTPChecksum(algorithm) : null;
+	}
+
+	public TransferJournal getTransferJournal() {
+		if (this.transferJournal == null) {
+			this.transferJournal = TransferJournal.inTempDirectory();
+		}
+		return this.transferJournal;
+	}
+
+	/**
+	 * @param transferJournal Journal of the resumable transfers, defaults to a journal in the temporary directory
+	 */
+	public void setTransferJournal(final TransferJournal transferJournal) {
+		this.transferJournal = transferJournal;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return this.metadataCache;
+	}
+
+	/**
+	 * @param metadataCache Cache of existence checks, null to always ask the server (default). Only files in
+	 *                      absolute directories are cached.
+	 */
+	public void setMetadataCache(final MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	public TransferMetrics getMetrics() {
+		return this.metrics.getMetrics();
+	}
+
+	/**
+	 * @param metrics Receives command latencies, transfers, errors and direct connection times,
+	 *                {@link TransferMetrics#NOOP} by default. Pooled connection times and pool gauges are
+	 *                reported by {@link FTPConnectionPool#setMetrics(TransferMetrics, String)}.
+	 */
+	public void setMetrics(final TransferMetrics metrics) {
+		this.metrics = new FTPMetrics(metrics != null ? metrics : TransferMetrics.NOOP, this::throttle);
+	}
+
+	public BandwidthLimiter getBandwidthLimiter() {
+		return this.bandwidthLimiter;
+	}
+
+	/**
+	 * @param bandwidthLimiter Caps applied to the transfers, {@link BandwidthLimiter#getDefault()} by default,
+	 *                         null for none. The {@code maxBytesPerSecond} of the transfer profile caps the host
+	 *                         unless the limiter already has a cap for it.
+	 */
+	public void setBandwidthLimiter(final BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
 	public FTPClient getFtpClient() {
 		return this.ftpClient;
 	}
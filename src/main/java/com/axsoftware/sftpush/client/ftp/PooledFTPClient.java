@@ -0,0 +1,69 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import org.apache.commons.net.ftp.FTP;
+
+import java.io.IOException;
+
+/**
+ * Logged-in {@link org.apache.commons.net.ftp.FTPClient} owned by {@link FTPConnectionPool}.
+ * <p>
+ * Remembers the login directory and which session settings were changed, so the pool can restore them
+ * before handing the client to the next borrower.
+ */
+final class PooledFTPClient extends TrackingFTPClient {
+
+	private String homeDirectory;
+
+	private boolean fileTypeChanged;
+
+	private boolean transferModeChanged;
+
+	@Override
+	public boolean setFileType(final int fileType) throws IOException {
+		this.fileTypeChanged = true;
+		return super.setFileType(fileType);
+	}
+
+	@Override
+	public boolean setFileType(final int fileType, final int formatOrByteSize) throws IOException {
+		this.fileTypeChanged = true;
+		return super.setFileType(fileType, formatOrByteSize);
+	}
+
+	@Override
+	public boolean setFileTransferMode(final int mode) throws IOException {
+		this.transferModeChanged = true;
+		return super.setFileTransferMode(mode);
+	}
+
+	/**
+	 * Restore working directory and transfer settings of a fresh login
+	 *
+	 * @return False when the server rejected one of the commands
+	 */
+	boolean reset() throws IOException {
+		setRestartOffset(0);
+		enterLocalActiveMode();
+		if (this.fileTypeChanged) {
+			if (!setFileType(FTP.ASCII_FILE_TYPE)) {
+				return false;
+			}
+			this.fileTypeChanged = false;
+		}
+		if (this.transferModeChanged) {
+			if (!setFileTransferMode(FTP.STREAM_TRANSFER_MODE)) {
+				return false;
+			}
+			this.transferModeChanged = false;
+		}
+		return this.homeDirectory == null || changeWorkingDirectoryIfNeeded(this.homeDirectory);
+	}
+
+	String getHomeDirectory() {
+		return this.homeDirectory;
+	}
+
+	void setHomeDirectory(final String homeDirectory) {
+		this.homeDirectory = homeDirectory;
+	}
+}
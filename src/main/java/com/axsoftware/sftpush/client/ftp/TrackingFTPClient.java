@@ -0,0 +1,132 @@
+package com.axsoftware.sftpush.client.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link FTPClient} that knows its remote working directory.
+ * <p>
+ * Every CWD, CDUP and PWD going through the client updates the tracked directory, so changing to a directory
+ * costs a single absolute CWD, or nothing when the connection is already there. The directory is unknown after
+ * connect, login and a failed command, until the next absolute CWD or PWD.
+ */
+class TrackingFTPClient extends FTPClient {
+
+	private static final String SEPARATOR = "/";
+
+	private String workingDirectory;
+
+	/**
+	 * Change the working directory unless the connection is already there
+	 *
+	 * @param pathname Absolute, or relative to the current working directory
+	 * @return False when the server rejected the CWD
+	 */
+	boolean changeWorkingDirectoryIfNeeded(final String pathname) throws IOException {
+		if (isWorkingDirectory(pathname)) {
+			return true;
+		}
+		final String target = resolve(pathname);
+		return changeWorkingDirectory(target != null ? target : pathname);
+	}
+
+	/**
+	 * Check if the connection is known to be in the given directory
+	 */
+	boolean isWorkingDirectory(final String pathname) {
+		final String target = resolve(pathname);
+		return target != null && target.equals(this.workingDirectory);
+	}
+
+	/**
+	 * Tracked remote working directory, null when unknown
+	 */
+	String getWorkingDirectory() {
+		return this.workingDirectory;
+	}
+
+	@Override
+	public int cwd(final String directory) throws IOException {
+		final String target = resolve(directory);
+		this.workingDirectory = null;
+		final int reply = super.cwd(directory);
+		if (FTPReply.isPositiveCompletion(reply)) {
+			this.workingDirectory = target;
+		}
+		return reply;
+	}
+
+	@Override
+	public int cdup() throws IOException {
+		final String target = resolve("..");
+		this.workingDirectory = null;
+		final int reply = super.cdup();
+		if (FTPReply.isPositiveCompletion(reply)) {
+			this.workingDirectory = target;
+		}
+		return reply;
+	}
+
+	@Override
+	public String printWorkingDirectory() throws IOException {
+		final String directory = super.printWorkingDirectory();
+		this.workingDirectory = directory != null && directory.startsWith(SEPARATOR) ? normalize(directory) : null;
+		return directory;
+	}
+
+	@Override
+	public boolean login(final String username, final String password) throws IOException {
+		this.workingDirectory = null;
+		return super.login(username, password);
+	}
+
+	@Override
+	public boolean login(final String username, final String password, final String account) throws IOException {
+		this.workingDirectory = null;
+		return super.login(username, password, account);
+	}
+
+	@Override
+	public boolean reinitialize() throws IOException {
+		this.workingDirectory = null;
+		return super.reinitialize();
+	}
+
+	@Override
+	protected void _connectAction_() throws IOException {
+		this.workingDirectory = null;
+		super._connectAction_();
+	}
+
+	/**
+	 * Absolute form of a path, null when it is relative and the working directory is unknown
+	 */
+	private String resolve(final String pathname) {
+		if (pathname == null) {
+			return null;
+		}
+		if (pathname.startsWith(SEPARATOR)) {
+			return normalize(pathname);
+		}
+		return this.workingDirectory == null ? null : normalize(this.workingDirectory + SEPARATOR + pathname);
+	}
+
+	private static String normalize(final String path) {
+		final Deque<String> segments = new ArrayDeque<>();
+		for (final String segment : path.split(SEPARATOR)) {
+			if (segment.isEmpty() || ".".equals(segment)) {
+				continue;
+			}
+			if ("..".equals(segment)) {
+				segments.pollLast();
+			} else {
+				segments.addLast(segment);
+			}
+		}
+		return SEPARATOR + String.join(SEPARATOR, segments);
+	}
+}
@@ -0,0 +1,127 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.transfer.AsyncTransferExecutor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking facade of a {@link SFTPushClient}.
+ * <p>
+ * Each operation borrows its own pooled session, so one instance serves any number of concurrent callers.
+ * Cancelling a returned future disconnects the session of the operation; the pool then drops it.
+ */
+public class AsyncSFTPushClient implements Closeable {
+
+	private final SFTPushClient client;
+
+	private final AsyncTransferExecutor executor;
+
+	private final boolean ownExecutor;
+
+	/**
+	 * Run operations on virtual threads (JDK 21+) or daemon threads
+	 *
+	 * @param client      Client running the operations
+	 * @param maxInFlight Maximum operations submitted and not completed, callers block beyond it
+	 */
+	public AsyncSFTPushClient(final SFTPushClient client, final int maxInFlight) {
+		this(client, new AsyncTransferExecutor(maxInFlight), true);
+	}
+
+	/**
+	 * @param client   Client running the operations
+	 * @param executor Executor shared with other facades, not closed by {@link #close()}
+	 */
+	public AsyncSFTPushClient(final SFTPushClient client, final AsyncTransferExecutor executor) {
+		this(client, executor, false);
+	}
+
+	private AsyncSFTPushClient(final SFTPushClient client, final AsyncTransferExecutor executor, final boolean ownExecutor) {
+		if (client == null || executor == null) {
+			throw new IllegalArgumentException("Invalid client or executor");
+		}
+		this.client = client;
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+	}
+
+	/**
+	 * @see SFTPushClient#uploadFile(File, Path)
+	 */
+	public CompletableFuture<Void> uploadFile(final File file, final Path remotePath) {
+		return this.executor.submit(() -> {
+			this.client.uploadFile(file, remotePath);
+			return null;
+		});
+	}
+
+	/**
+	 * @see SFTPushClient#uploadFile(InputStream, Path)
+	 */
+	public CompletableFuture<Void> uploadFile(final InputStream fileStream, final Path remotePath) {
+		return this.executor.submit(() -> {
+			this.client.uploadFile(fileStream, remotePath);
+			return null;
+		});
+	}
+
+	/**
+	 * @see SFTPushClient#downloadFile(Path, Path)
+	 */
+	public CompletableFuture<Void> downloadFile(final Path source, final Path target) {
+		return this.executor.submit(() -> {
+			this.client.downloadFile(source, target);
+			return null;
+		});
+	}
+
+	/**
+	 * @see SFTPushClient#listRemoteFiles(String)
+	 */
+	public CompletableFuture<List<String>> listRemoteFiles(final String remotePath) {
+		return this.executor.submit(() -> this.client.listRemoteFiles(remotePath));
+	}
+
+	/**
+	 * @see SFTPushClient#createRemoteDirectory(String)
+	 */
+	public CompletableFuture<Void> createRemoteDirectory(final String directoryPath) {
+		return this.executor.submit(() -> {
+			this.client.createRemoteDirectory(directoryPath);
+			return null;
+		});
+	}
+
+	/**
+	 * @see SFTPushClient#moveRemoteFile(Path, Path)
+	 */
+	public CompletableFuture<Void> moveRemoteFile(final Path source, final Path target) {
+		return this.executor.submit(() -> {
+			this.client.moveRemoteFile(source, target);
+			return null;
+		});
+	}
+
+	/**
+	 * Operations submitted and not completed
+	 */
+	public int getInFlight() {
+		return this.executor.getInFlight();
+	}
+
+	public SFTPushClient getClient() {
+		return this.client;
+	}
+
+	@Override
+	public void close() {
+		if (this.ownExecutor) {
+			this.executor.close();
+		}
+	}
+}
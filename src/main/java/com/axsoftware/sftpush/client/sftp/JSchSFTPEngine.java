@@ -0,0 +1,69 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.io.StreamPipeline;
+import com.axsoftware.sftpush.transfer.TransferResult;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * {@link SFTPEngine} on the JSch sessions of an {@link SFTPushClient}, with its cache, metrics and verification
+ */
+final class JSchSFTPEngine implements SFTPEngine {
+
+	private final SFTPushClient client;
+
+	JSchSFTPEngine(final SFTPushClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public void upload(final InputStream content, final String remotePath) throws JSchException, SftpException {
+		this.client.uploadFile(content, Paths.get(remotePath));
+	}
+
+	@Override
+	public void download(final String remotePath, final OutputStream output) throws JSchException, SftpException {
+		this.client.downloadFile(Paths.get(remotePath), output, StreamPipeline.of());
+	}
+
+	@Override
+	public List<String> listFiles(final String remoteDir) throws JSchException, SftpException {
+		return this.client.listRemoteFiles(remoteDir);
+	}
+
+	@Override
+	public void createDirectory(final String remoteDir) throws JSchException, SftpException {
+		execute(new SFTPBatch().mkdirs(remoteDir));
+	}
+
+	@Override
+	public void rename(final String source, final String target) throws JSchException, SftpException {
+		execute(new SFTPBatch().rename(source, target));
+	}
+
+	@Override
+	public void delete(final String remotePath) throws JSchException, SftpException {
+		execute(new SFTPBatch().delete(remotePath));
+	}
+
+	/**
+	 * Run a single operation batch, its failure thrown back
+	 */
+	private void execute(final SFTPBatch batch) throws JSchException, SftpException {
+		final TransferResult result = this.client.execute(batch).getResults().get(0);
+		if (result.isSuccess()) {
+			return;
+		}
+		final Exception error = result.getError();
+		if (error instanceof SftpException) {
+			throw (SftpException) error;
+		}
+		throw new SftpException(ChannelSftp.SSH_FX_FAILURE, String.valueOf(error), error);
+	}
+}
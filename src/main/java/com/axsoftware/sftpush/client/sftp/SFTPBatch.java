@@ -0,0 +1,142 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remote namespace operations run together by {@link SFTPushClient#execute(SFTPBatch)}: one pooled session,
+ * one {@code pwd}, and each missing directory created once.
+ * <p>
+ * Operations run in order on a single channel. With a parallelism above 1, directories are created first and
+ * renames and deletes are spread over parallel channels of the session; an operation on a path that is, contains
+ * or is inside the path of an earlier pending operation waits for it, so dependent operations keep the batch
+ * order (e.g. {@code delete d/f} before {@code rmdir d}).
+ */
+public final class SFTPBatch {
+
+	public enum Type {
+		MKDIRS, RENAME, DELETE, RMDIR
+	}
+
+	private final List<Operation> operations = new ArrayList<>();
+
+	private int parallelism = 1;
+
+	/**
+	 * Create a directory and its missing parents, like {@code mkdir -p}
+	 */
+	public SFTPBatch mkdirs(final String directory) {
+		return add(new Operation(Type.MKDIRS, directory, null, false));
+	}
+
+	/**
+	 * Rename a file or directory, the target folder must exist
+	 */
+	public SFTPBatch rename(final String source, final String target) {
+		return add(new Operation(Type.RENAME, source, target, false));
+	}
+
+	/**
+	 * Rename a file or directory, creating the missing folders of the target first
+	 */
+	public SFTPBatch move(final String source, final String target) {
+		return add(new Operation(Type.RENAME, source, target, true));
+	}
+
+	/**
+	 * Delete a file
+	 */
+	public SFTPBatch delete(final String path) {
+		return add(new Operation(Type.DELETE, path, null, false));
+	}
+
+	/**
+	 * Delete an empty directory
+	 */
+	public SFTPBatch rmdir(final String directory) {
+		return add(new Operation(Type.RMDIR, directory, null, false));
+	}
+
+	private SFTPBatch add(final Operation operation) {
+		if (operation.path == null || operation.path.isEmpty() || (operation.type == Type.RENAME && (operation.target == null || operation.target.isEmpty()))) {
+			throw new IllegalArgumentException("Invalid operation: " + operation);
+		}
+		this.operations.add(operation);
+		return this;
+	}
+
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(this.operations);
+	}
+
+	public int size() {
+		return this.operations.size();
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param parallelism Channels running renames and deletes, only for independent operations (default 1)
+	 */
+	public SFTPBatch setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * One operation of a batch
+	 */
+	public static final class Operation {
+
+		private final Type type;
+
+		private final String path;
+
+		private final String target;
+
+		private final boolean createParents;
+
+		private Operation(final Type type, final String path, final String target, final boolean createParents) {
+			this.type = type;
+			this.path = path;
+			this.target = target;
+			this.createParents = createParents;
+		}
+
+		public Type getType() {
+			return this.type;
+		}
+
+		/**
+		 * Directory, deleted path or rename source
+		 */
+		public String getPath() {
+			return this.path;
+		}
+
+		/**
+		 * Rename target, null for other operations
+		 */
+		public String getTarget() {
+			return this.target;
+		}
+
+		/**
+		 * Check if the missing folders of the rename target are created first
+		 */
+		public boolean isCreateParents() {
+			return this.createParents;
+		}
+
+		@Override
+		public String toString() {
+			return this.type == Type.RENAME ? "rename " + this.path + " -> " + this.target : this.type.name().toLowerCase() + " " + this.path;
+		}
+	}
+}
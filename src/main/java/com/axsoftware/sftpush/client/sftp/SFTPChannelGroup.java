@@ -0,0 +1,104 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * SFTP channels multiplexed on the session of a pooled {@link SFTPConnection}.
+ * <p>
+ * The connection channel is part of the group; extra channels are opened on the same session and closed by
+ * {@link #close()}. Servers may refuse extra channels (e.g. OpenSSH MaxSessions), the group then works with
+ * the channels it could open.
+ */
+final class SFTPChannelGroup implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(SFTPChannelGroup.class.getName());
+
+	private final SFTPConnection connection;
+
+	private final PushConfig config;
+
+	private final BlockingQueue<ChannelSftp> available = new LinkedBlockingQueue<>();
+
+	private final List<ChannelSftp> opened = new ArrayList<>();
+
+	private int size;
+
+	SFTPChannelGroup(final SFTPConnection connection, final PushConfig config, final int size) {
+		this.connection = connection;
+		this.config = config;
+		this.available.add(connection.getChannel());
+		this.size = 1;
+
+		for (int i = 1; i < size; i++) {
+			final ChannelSftp channel = openChannel();
+			if (channel == null) {
+				break;
+			}
+			this.available.add(channel);
+			this.size++;
+		}
+	}
+
+	/**
+	 * Number of channels in the group
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Wait for a free channel
+	 */
+	ChannelSftp acquire() throws InterruptedException {
+		return this.available.take();
+	}
+
+	/**
+	 * Give back a channel. A closed channel is replaced when the session is still up.
+	 */
+	void release(final ChannelSftp channel) {
+		if (channel.isConnected() && !channel.isClosed()) {
+			this.available.add(channel);
+			return;
+		}
+		final ChannelSftp replacement = this.connection.getSession().isConnected() ? openChannel() : null;
+		if (replacement != null) {
+			this.available.add(replacement);
+		} else {
+			// Keep workers from blocking forever, the next operation on this channel fails fast
+			this.available.add(channel);
+		}
+	}
+
+	private synchronized ChannelSftp openChannel() {
+		try {
+			final ChannelSftp channel = SFTPSessionFactory.openChannel(this.connection.getSession(), this.config);
+			SFTPSessionFactory.configure(channel, this.config.getTransferProfile());
+			this.opened.add(channel);
+			return channel;
+		} catch (final JSchException e) {
+			logger.fine("Could not open extra SFTP channel: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Close the extra channels. The connection channel is left to the pool.
+	 */
+	@Override
+	public synchronized void close() {
+		for (final ChannelSftp channel : this.opened) {
+			channel.disconnect();
+		}
+		this.opened.clear();
+	}
+}
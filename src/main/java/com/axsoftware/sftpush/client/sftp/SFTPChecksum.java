@@ -0,0 +1,153 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.io.DigestStage;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * End-to-end check of transferred files: the local digest is computed while the bytes stream, the remote digest
+ * by running {@code sha256sum} (or the tool of the algorithm) on an exec channel of the same session.
+ * <p>
+ * Servers without a shell or without the tool (e.g. SFTP only accounts) leave the transfer unverified.
+ */
+final class SFTPChecksum {
+
+	private static final Logger logger = Logger.getLogger(SFTPChecksum.class.getName());
+
+	private static final String CHANNEL_EXEC = "exec";
+
+	private static final int MAX_OUTPUT_SIZE = 4096;
+
+	private static final Map<String, String> COMMANDS = new HashMap<>();
+
+	static {
+		COMMANDS.put("MD5", "md5sum");
+		COMMANDS.put("SHA-1", "sha1sum");
+		COMMANDS.put("SHA-224", "sha224sum");
+		COMMANDS.put("SHA-256", "sha256sum");
+		COMMANDS.put("SHA-384", "sha384sum");
+		COMMANDS.put("SHA-512", "sha512sum");
+	}
+
+	private final String algorithm;
+
+	private final String command;
+
+	/**
+	 * Local digests waiting for their remote check, by remote path
+	 */
+	private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+	SFTPChecksum(final String algorithm) {
+		this.algorithm = algorithm.toUpperCase(Locale.ROOT);
+		this.command = COMMANDS.get(this.algorithm);
+		if (this.command == null) {
+			throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm + ", expected one of " + COMMANDS.keySet());
+		}
+	}
+
+	String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(this.algorithm);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Keep the local digest of a file until {@link #take(String)}
+	 */
+	void record(final String remotePath, final MessageDigest digest) {
+		this.pending.put(remotePath, DigestStage.toHex(digest.digest()));
+	}
+
+	String take(final String remotePath) {
+		return this.pending.remove(remotePath);
+	}
+
+	/**
+	 * Digest of a remote file
+	 *
+	 * @param timeout Connect timeout of the exec channel in milliseconds, 0 for none
+	 * @return Lower case hexadecimal digest, null when the server can not compute it
+	 * @throws JSchException Error open exec channel
+	 */
+	String remote(final Session session, final String remotePath, final int timeout) throws JSchException {
+		final ChannelExec channel = (ChannelExec) session.openChannel(CHANNEL_EXEC);
+		try {
+			channel.setCommand(this.command + " -- " + quote(remotePath));
+			channel.setInputStream(null);
+			final InputStream output = channel.getInputStream();
+			channel.connect(timeout);
+
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[512];
+			int count;
+			while ((count = output.read(buffer)) > 0 && result.size() < MAX_OUTPUT_SIZE) {
+				result.write(buffer, 0, count);
+			}
+			waitClosed(channel);
+			if (channel.getExitStatus() != 0) {
+				logger.fine(String.format("%s %s exited with %d", this.command, remotePath, channel.getExitStatus()));
+				return null;
+			}
+			return parse(new String(result.toByteArray(), StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			logger.fine(String.format("%s %s failed: %s", this.command, remotePath, e));
+			return null;
+		} finally {
+			channel.disconnect();
+		}
+	}
+
+	/**
+	 * The exit status arrives after the end of the output
+	 */
+	private static void waitClosed(final ChannelExec channel) throws IOException {
+		final long deadline = System.currentTimeMillis() + 1000;
+		while (!channel.isClosed() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(5);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * First word of "digest  path", when it looks like a digest. GNU tools prefix it with a backslash when the
+	 * path has to be escaped.
+	 */
+	private static String parse(final String output) {
+		String digest = output.trim().split("\\s+", 2)[0].toLowerCase(Locale.ROOT);
+		if (digest.startsWith("\\")) {
+			digest = digest.substring(1);
+		}
+		return digest.matches("[0-9a-f]{8,}") ? digest : null;
+	}
+
+	/**
+	 * Single quote a path for a POSIX shell
+	 */
+	static String quote(final String path) {
+		return "'" + path.replace("'", "'\\''") + "'";
+	}
+}
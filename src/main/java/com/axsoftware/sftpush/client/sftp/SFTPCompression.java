@@ -0,0 +1,107 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.jcraft.jsch.Compression;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * SSH packet compression ("zlib" and "zlib@openssh.com") on top of {@link java.util.zip}.
+ * <p>
+ * JSch ships its zlib support on top of JZlib, which is not a dependency of this library. Every packet is
+ * sync-flushed so the peer can inflate it on arrival; the stream state is kept between packets, as the SSH
+ * transport requires.
+ */
+public class SFTPCompression implements Compression {
+
+	private static final Logger logger = Logger.getLogger(SFTPCompression.class.getName());
+
+	private static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * Room JSch needs after the payload for padding and MAC: AES-256 block and HMAC-SHA1
+	 */
+	private static final int BUFFER_MARGIN = 32 + 20;
+
+	private final byte[] chunk = new byte[BUFFER_SIZE];
+
+	private Deflater deflater;
+
+	private Inflater inflater;
+
+	private byte[] inflated = new byte[BUFFER_SIZE];
+
+	@Override
+	public void init(final int type, final int level) {
+		if (type == DEFLATER) {
+			this.deflater = new Deflater(level, false);
+		} else if (type == INFLATER) {
+			this.inflater = new Inflater(false);
+		}
+	}
+
+	/**
+	 * Compress {@code buffer[start, length[0])} in place
+	 *
+	 * @return Buffer holding the unchanged header and the compressed payload up to the new {@code length[0]}
+	 */
+	@Override
+	public byte[] compress(final byte[] buffer, final int start, final int[] length) {
+		// The deflater keeps a reference to its input, which is overwritten below
+		this.deflater.setInput(Arrays.copyOfRange(buffer, start, length[0]));
+
+		byte[] output = buffer;
+		int end = start;
+		int count;
+		do {
+			count = this.deflater.deflate(this.chunk, 0, BUFFER_SIZE, Deflater.SYNC_FLUSH);
+			if (output.length < end + count + BUFFER_MARGIN) {
+				output = Arrays.copyOf(output, (end + count + BUFFER_MARGIN) * 2);
+			}
+			System.arraycopy(this.chunk, 0, output, end, count);
+			end += count;
+		} while (count == BUFFER_SIZE);
+
+		length[0] = end;
+		return output;
+	}
+
+	/**
+	 * Inflate {@code buffer[start, start + length[0])} in place
+	 *
+	 * @return Buffer holding the unchanged header and the inflated payload of {@code length[0]} bytes, null when
+	 * the payload is corrupt
+	 */
+	@Override
+	public byte[] uncompress(final byte[] buffer, final int start, final int[] length) {
+		this.inflater.setInput(buffer, start, length[0]);
+
+		int end = 0;
+		try {
+			while (true) {
+				if (this.inflated.length - end < BUFFER_SIZE) {
+					this.inflated = Arrays.copyOf(this.inflated, this.inflated.length * 2);
+				}
+				final int count = this.inflater.inflate(this.inflated, end, this.inflated.length - end);
+				end += count;
+				if (count == 0) {
+					if (this.inflater.needsDictionary()) {
+						throw new DataFormatException("Preset dictionary not supported");
+					}
+					break;
+				}
+			}
+		} catch (final DataFormatException e) {
+			logger.warning("Invalid compressed packet: " + e.getMessage());
+			return null;
+		}
+
+		final byte[] output = end > buffer.length - start ? Arrays.copyOf(buffer, start + end) : buffer;
+		System.arraycopy(this.inflated, 0, output, start, end);
+		length[0] = end;
+		return output;
+	}
+}
@@ -0,0 +1,42 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.Session;
+
+/**
+ * Connected SSH session with its SFTP channel, as handed out by {@link SFTPSessionPool}
+ */
+public final class SFTPConnection {
+
+	private final Session session;
+
+	private final ChannelSftp channel;
+
+	SFTPConnection(final Session session, final ChannelSftp channel) {
+		this.session = session;
+		this.channel = channel;
+	}
+
+	public Session getSession() {
+		return this.session;
+	}
+
+	public ChannelSftp getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Check if both session and channel are still open
+	 */
+	public boolean isConnected() {
+		return this.session.isConnected() && this.channel.isConnected() && !this.channel.isClosed();
+	}
+
+	/**
+	 * Close channel and session
+	 */
+	void disconnect() {
+		this.channel.disconnect();
+		this.session.disconnect();
+	}
+}
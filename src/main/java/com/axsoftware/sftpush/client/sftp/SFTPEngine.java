@@ -0,0 +1,48 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.config.TransferProfile;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * File transfers common to the SFTP engines, as selected by {@link TransferProfile#getEngine()}.
+ * <p>
+ * Both engines report errors the same way: connection failures as {@link JSchException}, server statuses as
+ * {@link SftpException} with the SFTP status code in {@code id}, e.g. {@code SSH_FX_NO_SUCH_FILE}.
+ *
+ * @see SFTPushClient#getEngine()
+ */
+public interface SFTPEngine {
+
+	/**
+	 * Upload a stream to a remote file, replaced if it exists
+	 *
+	 * @param content Contents, read to the end and not closed
+	 */
+	void upload(InputStream content, String remotePath) throws JSchException, SftpException;
+
+	/**
+	 * Download a remote file to a stream
+	 *
+	 * @param output Receives the contents, not closed
+	 */
+	void download(String remotePath, OutputStream output) throws JSchException, SftpException;
+
+	/**
+	 * Names of the files of a remote folder, without the folders
+	 */
+	List<String> listFiles(String remoteDir) throws JSchException, SftpException;
+
+	/**
+	 * Create a remote folder, nothing to do when it exists
+	 */
+	void createDirectory(String remoteDir) throws JSchException, SftpException;
+
+	void rename(String source, String target) throws JSchException, SftpException;
+
+	void delete(String remotePath) throws JSchException, SftpException;
+}
@@ -0,0 +1,141 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Remote directory entries handed over one at a time while the server sends them.
+ * <p>
+ * A worker runs {@link ChannelSftp#ls(String, ChannelSftp.LsEntrySelector)} and feeds a small bounded queue, so
+ * memory stays constant whatever the directory size. Closing the listing stops the worker after the current
+ * READDIR reply and hands the channel back through the completion callback.
+ */
+final class SFTPListing implements Iterator<ChannelSftp.LsEntry>, Closeable {
+
+	private static final int QUEUE_CAPACITY = 256;
+
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	private final Consumer<SftpException> completion;
+
+	private volatile boolean closed;
+
+	private Object next;
+
+	/**
+	 * @param completion Called once, with the listing error or null, when the channel is free again
+	 */
+	SFTPListing(final Consumer<SftpException> completion) {
+		this.completion = completion;
+	}
+
+	/**
+	 * List a directory, on the calling thread
+	 */
+	void run(final ChannelSftp channel, final String path) {
+		try {
+			channel.ls(path, entry -> {
+				final String name = entry.getFilename();
+				if (".".equals(name) || "..".equals(name)) {
+					return ChannelSftp.LsEntrySelector.CONTINUE;
+				}
+				return offer(entry) ? ChannelSftp.LsEntrySelector.CONTINUE : ChannelSftp.LsEntrySelector.BREAK;
+			});
+			offer(END);
+		} catch (final SftpException e) {
+			offer(e);
+		} finally {
+			this.finished.countDown();
+		}
+	}
+
+	private boolean offer(final Object item) {
+		try {
+			while (!this.closed) {
+				if (this.queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					return true;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.next == null && !this.closed) {
+			try {
+				this.next = this.queue.take();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+				throw new SFTPushException("Interrupted while listing", e);
+			}
+			if (this.next instanceof SftpException) {
+				final SftpException error = (SftpException) this.next;
+				// Reported once, the listing then ends
+				this.next = END;
+				complete(error);
+				throw new SFTPushException(error.toString(), error);
+			}
+			if (this.next == END) {
+				complete(null);
+			}
+		}
+		return this.next != null && this.next != END && !this.closed;
+	}
+
+	@Override
+	public ChannelSftp.LsEntry next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		final ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) this.next;
+		this.next = null;
+		return entry;
+	}
+
+	/**
+	 * Stop listing and wait for the channel to be idle
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.queue.clear();
+		try {
+			this.finished.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			// The channel may still be reading, it can not be reused
+			complete(new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, "Listing interrupted"));
+			return;
+		}
+		complete(null);
+	}
+
+	private void complete(final SftpException error) {
+		if (this.completed.compareAndSet(false, true)) {
+			this.completion.accept(error);
+		}
+	}
+}
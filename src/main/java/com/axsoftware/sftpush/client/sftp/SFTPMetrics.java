@@ -0,0 +1,197 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Report SFTP operations and transfers to a {@link TransferMetrics}.
+ * <p>
+ * Transfers are measured with a {@link SftpProgressMonitor} handed to JSch: the first counted chunk gives the
+ * time to first byte, the counts give the bytes moved. Each counted chunk is also paid to the {@link Throttle},
+ * which holds the transfer thread while the bandwidth cap is reached. JSch ends a cancelled transfer normally, so
+ * a transfer interrupted while throttled is failed here.
+ */
+final class SFTPMetrics {
+
+	private static final TransferMetrics.Protocol SFTP = TransferMetrics.Protocol.SFTP;
+
+	private static final String ERROR_TRANSFER_INTERRUPTED = "Transfer interrupted while throttled";
+
+	private final TransferMetrics metrics;
+
+	private final Throttle throttle;
+
+	SFTPMetrics(final TransferMetrics metrics, final Throttle throttle) {
+		this.metrics = metrics;
+		this.throttle = throttle;
+	}
+
+	TransferMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	<T> T call(final TransferMetrics.Operation operation, final SftpCall<T> call) throws SftpException {
+		final long start = System.nanoTime();
+		try {
+			final T result = call.call();
+			this.metrics.operation(SFTP, operation, System.nanoTime() - start, true);
+			return result;
+		} catch (final SftpException | RuntimeException e) {
+			this.metrics.operation(SFTP, operation, System.nanoTime() - start, false);
+			error(e);
+			throw e;
+		}
+	}
+
+	void run(final TransferMetrics.Operation operation, final SftpRun run) throws SftpException {
+		call(operation, () -> {
+			run.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Measure a transfer reporting its progress to the given monitor
+	 */
+	<E extends Exception> void transfer(final TransferMetrics.Direction direction, final MeteredTransfer<E> transfer) throws SftpException, E {
+		final Monitor monitor = new Monitor(direction);
+		try {
+			transfer.transfer(monitor);
+			if (monitor.aborted != null) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, ERROR_TRANSFER_INTERRUPTED, monitor.aborted);
+			}
+			monitor.finish(true);
+		} catch (final Exception e) {
+			monitor.finish(false);
+			error(e);
+			throw e;
+		}
+	}
+
+	void error(final Exception e) {
+		this.metrics.error(SFTP, cause(e));
+	}
+
+	/**
+	 * Short name of a failure, e.g. "no-such-file" or "auth"
+	 */
+	static String cause(final Exception e) {
+		if (e instanceof SftpException) {
+			return status(((SftpException) e).id);
+		}
+		if (e instanceof org.apache.sshd.client.subsystem.sftp.SftpException) {
+			return status(((org.apache.sshd.client.subsystem.sftp.SftpException) e).getStatus());
+		}
+		if (e instanceof JSchException) {
+			final String message = String.valueOf(e.getMessage()).toLowerCase(Locale.ROOT);
+			if (message.contains("auth")) {
+				return "auth";
+			}
+			if (message.contains("timeout") || e.getCause() instanceof SocketTimeoutException) {
+				return "timeout";
+			}
+			return "ssh";
+		}
+		return e instanceof SocketTimeoutException ? "timeout" : e.getClass().getSimpleName();
+	}
+
+	private static String status(final int status) {
+		switch (status) {
+			case ChannelSftp.SSH_FX_EOF:
+				return "eof";
+			case ChannelSftp.SSH_FX_NO_SUCH_FILE:
+				return "no-such-file";
+			case ChannelSftp.SSH_FX_PERMISSION_DENIED:
+				return "permission-denied";
+			case ChannelSftp.SSH_FX_FAILURE:
+				return "failure";
+			case ChannelSftp.SSH_FX_BAD_MESSAGE:
+				return "bad-message";
+			case ChannelSftp.SSH_FX_NO_CONNECTION:
+				return "no-connection";
+			case ChannelSftp.SSH_FX_CONNECTION_LOST:
+				return "connection-lost";
+			case ChannelSftp.SSH_FX_OP_UNSUPPORTED:
+				return "unsupported";
+			default:
+				return "status-" + status;
+		}
+	}
+
+	interface SftpCall<T> {
+
+		T call() throws SftpException;
+	}
+
+	interface SftpRun {
+
+		void run() throws SftpException;
+	}
+
+	interface Throttle {
+
+		void acquire(long bytes) throws InterruptedIOException;
+	}
+
+	interface MeteredTransfer<E extends Exception> {
+
+		void transfer(SftpProgressMonitor monitor) throws SftpException, E;
+	}
+
+	/**
+	 * Progress of one transfer, counted from several threads by segmented transfers
+	 */
+	private final class Monitor implements SftpProgressMonitor {
+
+		private final TransferMetrics.Direction direction;
+
+		private final long start = System.nanoTime();
+
+		private final LongAdder bytes = new LongAdder();
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private volatile InterruptedIOException aborted;
+
+		private Monitor(final TransferMetrics.Direction direction) {
+			this.direction = direction;
+		}
+
+		@Override
+		public void init(final int op, final String src, final String dest, final long max) {
+		}
+
+		@Override
+		public boolean count(final long count) {
+			if (count > 0 && !this.started.get() && this.started.compareAndSet(false, true)) {
+				SFTPMetrics.this.metrics.firstByte(SFTP, this.direction, System.nanoTime() - this.start);
+			}
+			this.bytes.add(count);
+			try {
+				SFTPMetrics.this.throttle.acquire(count);
+			} catch (final InterruptedIOException e) {
+				// Cancels the transfer, failed once JSch returns
+				this.aborted = e;
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public void end() {
+		}
+
+		private void finish(final boolean success) {
+			SFTPMetrics.this.metrics.transfer(SFTP, this.direction, this.bytes.sum(), System.nanoTime() - this.start, success);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.transfer.TransferExecutors;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Move a single large file as byte ranges transferred at the same time on several SFTP channels.
+ * <p>
+ * Downloads read each range with an offset read and write it to a preallocated temporary sibling of the target
+ * with positional writes, renamed to the target once complete. Uploads first create the remote file at its final size, then write each range at its offset.
+ * Each range is checked for its exact length and the final file size is checked on completion.
+ */
+final class SFTPSegmentedTransfer {
+
+	/**
+	 * Ranges smaller than this are not worth a channel
+	 */
+	static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+	static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final String THREAD_NAME = "sftpush-segment";
+
+	private static final String EXCEPTION_SEGMENT_SIZE = "Segment %d-%d of %s transferred %d bytes";
+
+	private static final String EXCEPTION_FILE_SIZE = "Size of %s is %d, expected %d";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private final SFTPChannelGroup channels;
+
+	private final int bufferSize;
+
+	SFTPSegmentedTransfer(final SFTPChannelGroup channels, final int bufferSize) {
+		this.channels = channels;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Download a remote file of known size
+	 *
+	 * @param monitor Counts the bytes of all ranges, called from several threads
+	 */
+	void download(final String source, final Path target, final long size, final SftpProgressMonitor monitor) throws SftpException {
+		// A failed range must not leave a full size file with holes in place of the target
+		final Path temp = target.resolveSibling(target.getFileName() + TEMP_EXTENSION);
+		boolean complete = false;
+		try (final RandomAccessFile file = new RandomAccessFile(temp.toFile(), "rw")) {
+			file.setLength(size);
+			final FileChannel fileChannel = file.getChannel();
+
+			run(split(size), range -> {
+				final ChannelSftp channel = this.channels.acquire();
+				try (final InputStream input = channel.get(source, null, range.start)) {
+					final byte[] buffer = new byte[this.bufferSize];
+					long position = range.start;
+					long remaining = range.length;
+					while (remaining > 0) {
+						final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+						if (read < 0) {
+							break;
+						}
+						final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+						while (bytes.hasRemaining()) {
+							position += fileChannel.write(bytes, position);
+						}
+						remaining -= read;
+						monitor.count(read);
+					}
+					checkRange(source, range, range.length - remaining);
+				} finally {
+					this.channels.release(channel);
+				}
+			});
+
+			fileChannel.force(false);
+			checkSize(target.toString(), fileChannel.size(), size);
+			complete = true;
+		} catch (final IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		} finally {
+			finish(temp, target, complete);
+		}
+	}
+
+	private static void finish(final Path temp, final Path target, final boolean complete) throws SftpException {
+		if (!complete) {
+			// Best effort, the failure of the transfer is what is reported
+			temp.toFile().delete();
+			return;
+		}
+		try {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			temp.toFile().delete();
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Upload a local file to a remote path
+	 *
+	 * @param monitor Counts the bytes of all ranges, called from several threads
+	 */
+	void upload(final Path source, final String target, final SftpProgressMonitor monitor) throws SftpException {
+		try (final FileChannel fileChannel = FileChannel.open(source, StandardOpenOption.READ)) {
+			final long size = fileChannel.size();
+			preallocate(fileChannel, target, size);
+
+			run(split(size), range -> {
+				final ChannelSftp channel = this.channels.acquire();
+				try {
+					// RESUME adds the current remote size (the final size, see preallocate) to the offset
+					try (final OutputStream output = channel.put(target, null, ChannelSftp.RESUME, range.start - size)) {
+						final ByteBuffer buffer = ByteBuffer.allocate(this.bufferSize);
+						long position = range.start;
+						final long end = range.start + range.length;
+						while (position < end) {
+							buffer.clear();
+							buffer.limit((int) Math.min(buffer.capacity(), end - position));
+							final int read = fileChannel.read(buffer, position);
+							if (read < 0) {
+								break;
+							}
+							output.write(buffer.array(), 0, read);
+							position += read;
+							monitor.count(read);
+						}
+						checkRange(target, range, position - range.start);
+					}
+				} finally {
+					this.channels.release(channel);
+				}
+			});
+
+			final ChannelSftp channel = acquire();
+			try {
+				checkSize(target, channel.stat(target).getSize(), size);
+			} finally {
+				this.channels.release(channel);
+			}
+		} catch (final IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Create the remote file with its final size by writing the last byte. Range writers can then open the file
+	 * without truncating it, and the remote size stays stable while they run.
+	 */
+	private void preallocate(final FileChannel fileChannel, final String target, final long size) throws IOException, SftpException {
+		final ByteBuffer last = ByteBuffer.allocate(1);
+		if (size > 0 && fileChannel.read(last, size - 1) != 1) {
+			throw new IOException("Could not read last byte of " + target);
+		}
+
+		final ChannelSftp channel = acquire();
+		try (final OutputStream output = channel.put(target, null, ChannelSftp.OVERWRITE, Math.max(0, size - 1))) {
+			if (size > 0) {
+				output.write(last.array());
+			}
+		} finally {
+			this.channels.release(channel);
+		}
+	}
+
+	private ChannelSftp acquire() throws IOException {
+		try {
+			return this.channels.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private void run(final List<Range> ranges, final RangeTransfer transfer) throws IOException, SftpException {
+		final ExecutorService executor = TransferExecutors.newBoundedExecutor(THREAD_NAME, this.channels.size());
+		try {
+			final List<Future<Void>> futures = new ArrayList<>();
+			for (final Range range : ranges) {
+				futures.add(executor.submit(() -> {
+					transfer.transfer(range);
+					return null;
+				}));
+			}
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof SftpException) {
+				throw (SftpException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<Range> split(final long size) {
+		final long count = Math.max(1, Math.min(this.channels.size(), size / MIN_SEGMENT_SIZE));
+		final long length = (size + count - 1) / count;
+		final List<Range> ranges = new ArrayList<>();
+		for (long start = 0; start < size; start += length) {
+			ranges.add(new Range(start, Math.min(length, size - start)));
+		}
+		return ranges;
+	}
+
+	private static void checkRange(final String path, final Range range, final long transferred) throws IOException {
+		if (transferred != range.length) {
+			throw new IOException(String.format(EXCEPTION_SEGMENT_SIZE, range.start, range.start + range.length, path, transferred));
+		}
+	}
+
+	private static void checkSize(final String path, final long actual, final long expected) throws IOException {
+		if (actual != expected) {
+			throw new IOException(String.format(EXCEPTION_FILE_SIZE, path, actual, expected));
+		}
+	}
+
+	private interface RangeTransfer {
+
+		void transfer(Range range) throws IOException, SftpException, InterruptedException;
+	}
+
+	private static final class Range {
+
+		private final long start;
+
+		private final long length;
+
+		private Range(final long start, final long length) {
+			this.start = start;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.config.TransferProfile;
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Create JSch sessions and SFTP channels from a {@link PushConfig}
+ */
+final class SFTPSessionFactory {
+
+	private static final String STRICT_HOST_KEY_CHECKING = "StrictHostKeyChecking";
+
+	private static final String HOST_KEY_ALGORITHMS = "HostKeyAlgorithms";
+
+	private static final String CHANNEL_SFTP = "sftp";
+
+	/**
+	 * Delayed compression first, it only starts after authentication
+	 */
+	private static final String COMPRESSION_METHODS = "zlib@openssh.com,zlib,none";
+
+	private static final Logger logger = Logger.getLogger(SFTPSessionFactory.class.getName());
+
+	private SFTPSessionFactory() {
+	}
+
+	/**
+	 * Create a new session, not connected
+	 *
+	 * @param connection Connection config
+	 * @return Session
+	 * @throws JSchException Invalid identity
+	 */
+	static Session createSession(final PushConfig connection) throws JSchException {
+
+		final JSch jsch = new JSch();
+
+		if (connection.getPpk() != null) {
+			jsch.addIdentity(connection.getPpk());
+		}
+
+		final Session session = jsch.getSession(connection.getUsername(), connection.getHost(), connection.getPort());
+
+		if (connection.getPassword() != null) {
+			session.setPassword(connection.getPassword());
+		}
+
+		final Properties config = new Properties();
+		config.put(STRICT_HOST_KEY_CHECKING, "no");
+		config.put(HOST_KEY_ALGORITHMS, "+ssh-dss");
+		configureCompression(config, connection.getTransferProfile());
+		session.setConfig(config);
+
+		return session;
+	}
+
+	/**
+	 * Offer zlib compression when the transfer profile asks for it, the server may still settle on none
+	 */
+	private static void configureCompression(final Properties config, final TransferProfile profile) {
+		if (!Boolean.TRUE.equals(profile.getCompression())) {
+			return;
+		}
+		config.put("compression.s2c", COMPRESSION_METHODS);
+		config.put("compression.c2s", COMPRESSION_METHODS);
+		config.put("zlib", SFTPCompression.class.getName());
+		config.put("zlib@openssh.com", SFTPCompression.class.getName());
+		if (profile.getCompressionLevel() != null) {
+			config.put("compression_level", String.valueOf(profile.getCompressionLevel()));
+		}
+	}
+
+	/**
+	 * Connect a new session and open its SFTP channel
+	 *
+	 * @param connection Connection config
+	 * @return Connected session and channel
+	 * @throws JSchException Error connect SFTP
+	 */
+	static SFTPConnection connect(final PushConfig connection) throws JSchException {
+		final Session session = createSession(connection);
+		// Pooled sessions must not keep the JVM alive
+		session.setDaemonThread(true);
+
+		if (connection.getConnectTimeout() != null) {
+			session.connect(connection.getConnectTimeout());
+		} else {
+			session.connect();
+		}
+
+		try {
+			return new SFTPConnection(session, openChannel(session, connection));
+		} catch (final JSchException | RuntimeException e) {
+			session.disconnect();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open and connect a new SFTP channel on a connected session
+	 *
+	 * @param session    Connected session
+	 * @param connection Connection config
+	 * @return Connected channel
+	 * @throws JSchException Error open channel
+	 */
+	static ChannelSftp openChannel(final Session session, final PushConfig connection) throws JSchException {
+		final ChannelSftp channel = (ChannelSftp) session.openChannel(CHANNEL_SFTP);
+		final TransferProfile profile = connection.getTransferProfile();
+		if (profile.getWindowSize() != null) {
+			setChannelSize(channel, "setLocalWindowSizeMax", profile.getWindowSize());
+			setChannelSize(channel, "setLocalWindowSize", profile.getWindowSize());
+		}
+		if (profile.getPacketSize() != null) {
+			setChannelSize(channel, "setLocalPacketSize", profile.getPacketSize());
+		}
+
+		if (connection.getConnectTimeout() != null) {
+			channel.connect(connection.getConnectTimeout());
+		} else {
+			channel.connect();
+		}
+		return channel;
+	}
+
+	/**
+	 * Apply the transfer profile settings that can change between two operations
+	 */
+	static void configure(final ChannelSftp channel, final TransferProfile profile) throws JSchException {
+		if (profile.getBulkRequests() != null && channel.getBulkRequests() != profile.getBulkRequests()) {
+			channel.setBulkRequests(profile.getBulkRequests());
+		}
+	}
+
+	/**
+	 * JSch only exposes window and packet sizes to its own package; they must be set before the channel is opened
+	 */
+	private static void setChannelSize(final Channel channel, final String setter, final int size) {
+		try {
+			final Method method = Channel.class.getDeclaredMethod(setter, int.class);
+			method.setAccessible(true);
+			method.invoke(channel, size);
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			logger.fine("Could not apply " + setter + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.pool.KeyedConnectionPool;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+
+import java.util.logging.Logger;
+
+/**
+ * Pool of connected SSH sessions and SFTP channels keyed by {@link PushConfig}.
+ * <p>
+ * Saves the SSH handshake and key exchange on each {@link SFTPushClient} operation.
+ */
+public class SFTPSessionPool extends KeyedConnectionPool<SFTPConnection, JSchException> {
+
+	private static final Logger logger = Logger.getLogger(SFTPSessionPool.class.getName());
+
+	private static final SFTPSessionPool DEFAULT = new SFTPSessionPool();
+
+	/**
+	 * Pool shared by clients created without an explicit pool
+	 */
+	public static SFTPSessionPool getDefault() {
+		return DEFAULT;
+	}
+
+	@Override
+	protected SFTPConnection create(final PushConfig config) throws JSchException {
+		final long start = System.nanoTime();
+		try {
+			final SFTPConnection connection = SFTPSessionFactory.connect(config);
+			getMetrics().connect(TransferMetrics.Protocol.SFTP, config.getHost(), System.nanoTime() - start, true);
+			return connection;
+		} catch (final JSchException | RuntimeException e) {
+			getMetrics().connect(TransferMetrics.Protocol.SFTP, config.getHost(), System.nanoTime() - start, false);
+			getMetrics().error(TransferMetrics.Protocol.SFTP, SFTPMetrics.cause(e));
+			throw e;
+		}
+	}
+
+	@Override
+	protected boolean isUsable(final SFTPConnection connection) {
+		return connection.isConnected();
+	}
+
+	@Override
+	protected boolean validate(final SFTPConnection connection) {
+		try {
+			connection.getChannel().realpath(".");
+			return true;
+		} catch (final SftpException e) {
+			logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	protected void destroy(final SFTPConnection connection) {
+		connection.disconnect();
+	}
+}
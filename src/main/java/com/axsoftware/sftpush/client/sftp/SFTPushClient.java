@@ -1,19 +1,65 @@
 package com.axsoftware.sftpush.client.sftp;
 
+import com.axsoftware.sftpush.cache.MetadataCache;
+import com.axsoftware.sftpush.config.CompressionPolicy;
 import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.config.TransferProfile;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.io.BandwidthLimiter;
+import com.axsoftware.sftpush.io.DigestStage;
+import com.axsoftware.sftpush.io.FileChannelSink;
+import com.axsoftware.sftpush.io.StreamPipeline;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.transfer.AbortSignal;
+import com.axsoftware.sftpush.transfer.SyncEntry;
+import com.axsoftware.sftpush.transfer.SyncOptions;
+import com.axsoftware.sftpush.transfer.SyncPlan;
+import com.axsoftware.sftpush.transfer.SyncResult;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferCheckpoint;
+import com.axsoftware.sftpush.transfer.TransferExecutors;
+import com.axsoftware.sftpush.transfer.TransferJournal;
+import com.axsoftware.sftpush.transfer.TransferResult;
 import com.jcraft.jsch.*;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SFTPushClient {
 
@@ -23,91 +69,256 @@ public class SFTPushClient {
 
 	private static final String EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP = "Error execute command SFTP";
 
-	private static final String STRICT_HOST_KEY_CHECKING = "StrictHostKeyChecking";
+	private static final String EXCEPTION_SIZE_MISMATCH = "Size of %s is %d, expected %d";
 
-	private static final String HOST_KEY_ALGORITHMS = "HostKeyAlgorithms";
+	private static final String EXCEPTION_CHECKSUM_MISMATCH = "%s of %s is %s, expected %s";
+
+	private static final String TRANSFER_THREAD_NAME = "sftpush-transfer";
+
+	private static final String LISTING_THREAD_NAME = "sftpush-listing";
+
+	private static final String VERIFY_THREAD_NAME = "sftpush-verify";
+
+	private static final int COPY_BUFFER_SIZE = 32 * 1024;
 
 	private PushConfig connection;
 
-	private Session sftpSession;
+	private final SFTPSessionPool sessionPool;
 
-	private enum CHANNEL_TYPE {
-		exec, sftp, shell
-	}
+	private long segmentThreshold;
+
+	private int segmentCount = 4;
+
+	private TransferJournal transferJournal;
+
+	private FileChannelSink.Mode downloadMode;
+
+	private MetadataCache metadataCache;
+
+	private SFTPMetrics metrics = new SFTPMetrics(TransferMetrics.NOOP, this::throttle);
+
+	private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getDefault();
+
+	private CompressionPolicy compressionPolicy;
+
+	private SFTPChecksum checksum;
+
+	private SshdSessionPool sshdSessionPool = SshdSessionPool.getDefault();
 
 	public SFTPushClient(final PushConfig connection) {
+		this(connection, SFTPSessionPool.getDefault());
+	}
+
+	public SFTPushClient(final PushConfig connection, final SFTPSessionPool sessionPool) {
 		this.connection = connection;
+		this.sessionPool = sessionPool;
 	}
 
 	/**
-	 * Get current SFTP Session
+	 * Create a new SFTP Session, not connected
 	 *
 	 * @return
 	 * @throws JSchException
 	 */
 	public Session getSession() throws JSchException {
-		if (this.sftpSession == null || !this.sftpSession.isConnected()) {
-			return getSFTPession();
+		return SFTPSessionFactory.createSession(this.connection);
+	}
+
+	/**
+	 * Transfers on the engine of the transfer profile: this client for JSch (the default), or the MINA SSHD
+	 * client with sessions from {@link #getSshdSessionPool()}. The other operations of this client always run
+	 * on JSch.
+	 */
+	public SFTPEngine getEngine() {
+		if (TransferProfile.ENGINE_SSHD.equals(this.connection.getTransferProfile().getEngine())) {
+			return new SshdSFTPEngine(this.connection, this.sshdSessionPool, this.bandwidthLimiter, this.metrics, this.metadataCache);
 		}
-		return this.sftpSession;
+		return new JSchSFTPEngine(this);
 	}
 
-	private Session getSFTPession() throws JSchException {
+	private String formatPath(final String path) {
+		if (path == null) {
+			throw new IllegalArgumentException("Invalid Path: " + path);
+		}
+		return path.endsWith(File.separator) ? path : path + File.separator;
+	}
 
-		final JSch jsch = new JSch();
+	/**
+	 * Borrow a connected SFTP Channel from the session pool. Inside an async operation the session is
+	 * disconnected when the operation is cancelled (see {@link AbortSignal}).
+	 *
+	 * @return
+	 * @throws JSchException
+	 */
+	private SFTPConnection getConnection() throws JSchException {
+		return getConnection(this.connection);
+	}
 
-		if (this.connection.getPpk() != null) {
-			jsch.addIdentity(this.connection.getPpk());
+	private SFTPConnection getConnection(final PushConfig config) throws JSchException {
+		final Long maxBytesPerSecond = config.getTransferProfile().getMaxBytesPerSecond();
+		if (maxBytesPerSecond != null && this.bandwidthLimiter != null) {
+			this.bandwidthLimiter.setDefaultHostRate(config.getHost(), maxBytesPerSecond);
+		}
+		final SFTPConnection sftpConnection = this.sessionPool.borrow(config);
+		try {
+			SFTPSessionFactory.configure(sftpConnection.getChannel(), config.getTransferProfile());
+		} catch (final JSchException | RuntimeException e) {
+			this.sessionPool.release(sftpConnection);
+			throw e;
 		}
+		AbortSignal.attachCurrent(sftpConnection, () -> sftpConnection.getSession().disconnect());
+		return sftpConnection;
+	}
 
-		final Session session = jsch.getSession(this.connection.getUsername(), this.connection.getHost(), this.connection.getPort());
+	/**
+	 * Connection config of a single file transfer: with or without transport compression as the
+	 * {@link CompressionPolicy} decides, so the pool hands out a compressed or a plain session
+	 *
+	 * @param compress Policy decision, null to keep the transfer profile setting
+	 */
+	private PushConfig compressionConfig(final Boolean compress) {
+		final PushConfig config = this.connection;
+		if (compress == null || compress == Boolean.TRUE.equals(config.getTransferProfile().getCompression())) {
+			return config;
+		}
+		final PushConfig compressionConfig = new PushConfig(config.getHost(), config.getUsername(), config.getPassword(), config.getPpk(), config.getPort());
+		compressionConfig.setConnectTimeout(config.getConnectTimeout());
+		compressionConfig.setTransferProfile(config.getTransferProfile().copy());
+		compressionConfig.getTransferProfile().setCompression(compress);
+		return compressionConfig;
+	}
 
-		if (this.connection.getPassword() != null) {
-			session.setPassword(this.connection.getPassword());
+	/**
+	 * Compression decision for a download, by extension only
+	 */
+	private Boolean shouldCompress(final String fileName) {
+		return this.compressionPolicy != null ? this.compressionPolicy.byName(fileName) : null;
+	}
+
+	/**
+	 * Compression decision for an upload, by extension then by the first block of the stream
+	 *
+	 * @param input Pushback stream with room for a sample, the sample is unread before returning
+	 */
+	private Boolean shouldCompress(final String fileName, final PushbackInputStream input) throws IOException {
+		final Boolean byName = shouldCompress(fileName);
+		if (this.compressionPolicy == null || byName != null) {
+			return byName;
+		}
+		final byte[] sample = new byte[this.compressionPolicy.getSampleSize()];
+		int length = 0;
+		int count;
+		while (length < sample.length && (count = input.read(sample, length, sample.length - length)) > 0) {
+			length += count;
 		}
+		input.unread(sample, 0, length);
+		return this.compressionPolicy.isCompressible(sample, length);
+	}
+
+	/**
+	 * Digest of the bytes of a single transfer, null when verification is disabled
+	 */
+	private MessageDigest newDigest() {
+		return this.checksum != null ? this.checksum.newDigest() : null;
+	}
 
-		final Properties config = new Properties();
-		config.put(STRICT_HOST_KEY_CHECKING, "no");
-		config.put(HOST_KEY_ALGORITHMS, "+ssh-dss");
-		session.setConfig(config);
+	/**
+	 * Compare the digest computed while streaming with the digest of the remote file
+	 *
+	 * @return Verified digest, null when verification is disabled or the server can not compute the remote digest
+	 * @throws SftpException Digests differ
+	 */
+	private String verify(final Session session, final String remotePath, final MessageDigest digest) throws SftpException {
+		return digest != null ? verify(this.checksum, session, remotePath, DigestStage.toHex(digest.digest())) : null;
+	}
 
-		return session;
+	private String verify(final SFTPChecksum checksum, final Session session, final String remotePath, final String localDigest) throws SftpException {
+		final String remoteDigest;
+		try {
+			remoteDigest = checksum.remote(session, remotePath, this.connection.getConnectTimeout() != null ? this.connection.getConnectTimeout() : 0);
+		} catch (final JSchException e) {
+			this.logger.fine(String.format("No exec channel to verify %s: %s", remotePath, e.getMessage()));
+			return null;
+		}
+		if (remoteDigest == null) {
+			this.logger.fine(String.format("%s of %s not available, transfer not verified", checksum.getAlgorithm(), remotePath));
+			return null;
+		}
+		if (!remoteDigest.equals(localDigest)) {
+			final SftpException e = new SftpException(ChannelSftp.SSH_FX_FAILURE,
+					String.format(EXCEPTION_CHECKSUM_MISMATCH, checksum.getAlgorithm(), remotePath, remoteDigest, localDigest));
+			this.metrics.getMetrics().error(TransferMetrics.Protocol.SFTP, "checksum-mismatch");
+			throw e;
+		}
+		return remoteDigest;
 	}
 
-	private Channel getChannel(final Session session, final CHANNEL_TYPE channelType) throws JSchException {
-		return session.openChannel(channelType.toString());
+	/**
+	 * Verify a file of a parallel transfer, with the digest its transfer recorded
+	 */
+	private TransferResult verify(final SFTPChecksum checksum, final Session session, final String remotePath, final TransferResult result) {
+		final String localDigest = checksum.take(remotePath);
+		if (!result.isSuccess() || localDigest == null) {
+			return result;
+		}
+		try {
+			final String digest = verify(checksum, session, remotePath, localDigest);
+			return digest != null ? result.verified(digest) : result;
+		} catch (final SftpException e) {
+			this.logger.severe(e.getMessage());
+			return TransferResult.failure(result.getName(), result.getDurationMillis(), e);
+		}
 	}
 
-	private String formatPath(final String path) {
-		if (path == null) {
-			throw new IllegalArgumentException("Invalid Path: " + path);
+	/**
+	 * Hold the transfer thread while the bandwidth caps of the host are reached
+	 */
+	private void throttle(final long bytes) throws InterruptedIOException {
+		final BandwidthLimiter limiter = this.bandwidthLimiter;
+		if (limiter != null) {
+			limiter.acquire(this.connection != null ? this.connection.getHost() : null, bytes);
 		}
-		return path.endsWith(File.separator) ? path : path + File.separator;
 	}
 
 	/**
-	 * Get SFTP Channel
-	 *
-	 * @return
-	 * @throws JSchException
+	 * Give back SFTP Channel to the session pool
 	 */
-	private ChannelSftp getChannelSftp() throws JSchException {
-		this.sftpSession = getSession();
-		this.sftpSession.connect();
-		final Channel channel = getChannel(this.sftpSession, CHANNEL_TYPE.sftp);
-		channel.connect();
-		return (ChannelSftp) channel;
+	private void releaseConnection(final SFTPConnection sftpConnection) {
+		AbortSignal.detachCurrent(sftpConnection);
+		this.sessionPool.release(sftpConnection);
 	}
 
 	/**
-	 * Disconnect SFTP
+	 * Discard the pooled channel when the failure means the connection is gone
 	 */
-	private void disconnectSession() {
-		if (this.sftpSession != null) {
-			this.sftpSession.disconnect();
+	private void checkConnection(final SFTPConnection sftpConnection, final SftpException e) {
+		if (e.id == ChannelSftp.SSH_FX_NO_CONNECTION || e.id == ChannelSftp.SSH_FX_CONNECTION_LOST) {
+			this.sessionPool.invalidate(sftpConnection);
 		}
 	}
 
+	/**
+	 * Forget the cached metadata of a remote path changed by this client
+	 */
+	private void invalidateCache(final ChannelSftp sftpChannel, final String path) {
+		if (this.metadataCache == null) {
+			return;
+		}
+		try {
+			this.metadataCache.invalidate(cachePath(sftpChannel, path));
+		} catch (final SftpException e) {
+			this.logger.fine(e.getMessage());
+			this.metadataCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Absolute form of a remote path, so the same file always has the same cache key
+	 */
+	private static String cachePath(final ChannelSftp sftpChannel, final String path) throws SftpException {
+		return path.startsWith("/") ? path : sftpChannel.pwd() + "/" + path;
+	}
+
 	/**
 	 * Pull all remote files to local folder
 	 *
@@ -117,6 +328,27 @@ public class SFTPushClient {
 	 * @throws SftpException Error send command SFTP.
 	 */
 	public void downloadAllFiles(final String remoteDir, final String localDir) throws JSchException {
+		try {
+			final TransferBatchResult result = downloadAllFiles(remoteDir, localDir, 1);
+			for (final TransferResult failure : result.getFailures()) {
+				this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP + ": " + failure);
+			}
+		} catch (final SftpException e) {
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+		}
+	}
+
+	/**
+	 * Pull all remote files to local folder using parallel SFTP channels on a single session
+	 *
+	 * @param remoteDir   Path remote folder.
+	 * @param localDir    Path local folder.
+	 * @param parallelism Number of SFTP channels downloading at the same time.
+	 * @return Outcome of each file, a failed file does not stop the others.
+	 * @throws JSchException Error connect SFTP.
+	 * @throws SftpException Error listing remote folder.
+	 */
+	public TransferBatchResult downloadAllFiles(final String remoteDir, final String localDir, final int parallelism) throws JSchException, SftpException {
 
 		if (remoteDir == null || remoteDir.isEmpty()) {
 			throw new IllegalArgumentException("Invalid remote path: " + remoteDir);
@@ -126,27 +358,337 @@ public class SFTPushClient {
 			throw new IllegalArgumentException("Invalid local folder: " + localDir);
 		}
 
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+
 		final String formatDir = formatPath(remoteDir);
 		final String formatLocalDir = formatPath(localDir);
+		final long start = System.currentTimeMillis();
 
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
-			@SuppressWarnings("unchecked")
-			final Vector<ChannelSftp.LsEntry> list = sftpChannel.ls(formatDir);
-			for (final ChannelSftp.LsEntry listEntry : list) {
+			final List<String> fileNames = new ArrayList<>();
+			this.metrics.run(TransferMetrics.Operation.LIST, () -> sftpChannel.ls(formatDir, listEntry -> {
 				if (!listEntry.getAttrs().isDir()) {
-					sftpChannel.get(formatDir + listEntry.getFilename(), formatLocalDir + listEntry.getFilename());
+					fileNames.add(listEntry.getFilename());
+				}
+				return ChannelSftp.LsEntrySelector.CONTINUE;
+			}));
+
+			final List<TransferResult> results = transferParallel(sftpConnection, formatDir, fileNames, parallelism, downloadTransfer(formatDir, formatLocalDir));
+			return new TransferBatchResult(results, System.currentTimeMillis() - start);
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Mirror a remote folder and a local folder, transferring only new or changed files.
+	 * <p>
+	 * Files are compared by size and modification time (see {@link SyncPlan}); transferred files get the
+	 * modification time of their source so the next sync skips them. New or changed files are moved on
+	 * {@link SyncOptions#getParallelism()} channels of a single session.
+	 *
+	 * @param remoteDir Path remote folder, created by a push when missing.
+	 * @param localDir  Path local folder, created by a pull when missing.
+	 * @param options   Direction, recursion and deletion of extraneous target files.
+	 * @return Outcome of each transferred file, unchanged count and deleted paths.
+	 * @throws JSchException Error connect SFTP.
+	 * @throws SftpException Error listing, creating or deleting on the remote folder.
+	 */
+	public SyncResult sync(final String remoteDir, final String localDir, final SyncOptions options) throws JSchException, SftpException {
+
+		if (remoteDir == null || remoteDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid remote path: " + remoteDir);
+		}
+
+		if (localDir == null || localDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid local folder: " + localDir);
+		}
+
+		if (options == null) {
+			throw new IllegalArgumentException("Invalid sync options: " + options);
+		}
+
+		final String formatDir = formatPath(remoteDir);
+		final String formatLocalDir = formatPath(localDir);
+		final Path localRoot = Paths.get(localDir);
+		final boolean pull = options.getDirection() == SyncOptions.Direction.PULL;
+		final long start = System.currentTimeMillis();
+
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final Map<String, SyncEntry> remote = new TreeMap<>();
+			final boolean remoteExists = remoteSyncEntries(sftpChannel, formatDir, "", options.isRecursive(), remote, !pull);
+			final Map<String, SyncEntry> local = SyncPlan.scanLocal(localRoot, options.isRecursive());
+			final SyncPlan plan = pull ? SyncPlan.compare(remote, local, options) : SyncPlan.compare(local, remote, options);
+			this.logger.fine(String.format("Sync %s %s %s: %s", formatDir, pull ? "->" : "<-", localDir, plan));
+
+			final List<String> deleted = new ArrayList<>();
+			for (final SyncEntry entry : plan.getDeletions()) {
+				if (pull) {
+					Files.deleteIfExists(localRoot.resolve(entry.getPath()));
+				} else if (entry.isDirectory()) {
+					this.metrics.run(TransferMetrics.Operation.DELETE, () -> sftpChannel.rmdir(formatDir + entry.getPath()));
+				} else {
+					this.metrics.run(TransferMetrics.Operation.DELETE, () -> sftpChannel.rm(formatDir + entry.getPath()));
 				}
+				deleted.add(entry.getPath());
+			}
+
+			if (pull) {
+				Files.createDirectories(localRoot);
+			} else if (!remoteExists) {
+				this.metrics.run(TransferMetrics.Operation.MKDIR, () -> sftpChannel.mkdir(formatDir.substring(0, formatDir.length() - 1)));
+			}
+			for (final SyncEntry entry : plan.getDirectories()) {
+				if (pull) {
+					Files.createDirectories(localRoot.resolve(entry.getPath()));
+				} else {
+					this.metrics.run(TransferMetrics.Operation.MKDIR, () -> sftpChannel.mkdir(formatDir + entry.getPath()));
+				}
+			}
+
+			final Map<String, SyncEntry> sources = new TreeMap<>();
+			for (final SyncEntry entry : plan.getTransfers()) {
+				sources.put(entry.getPath(), entry);
 			}
+			final ChannelTransfer transfer = pull
+					? syncDownloadTransfer(downloadTransfer(formatDir, formatLocalDir), localRoot, sources)
+					: syncUploadTransfer(uploadTransfer(formatLocalDir, formatDir), formatDir, sources);
+			final List<TransferResult> results = transferParallel(sftpConnection, formatDir, new ArrayList<>(sources.keySet()), options.getParallelism(), transfer);
+			if (!pull) {
+				invalidateCache(sftpChannel, formatDir);
+			}
+			return new SyncResult(new TransferBatchResult(results, System.currentTimeMillis() - start), plan.getUnchanged(), deleted);
 		} catch (final SftpException e) {
-//			TODO SFP - Refactor 
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} catch (final IOException e) {
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Collect the regular files and directories of a remote folder
+	 *
+	 * @return False when the folder does not exist and missing is allowed
+	 */
+	private boolean remoteSyncEntries(final ChannelSftp sftpChannel, final String root, final String path, final boolean recursive,
+			final Map<String, SyncEntry> entries, final boolean allowMissing) throws SftpException {
+		final Vector<?> list;
+		try {
+			list = this.metrics.call(TransferMetrics.Operation.LIST, () -> sftpChannel.ls(path.isEmpty() ? root : root + path));
+		} catch (final SftpException e) {
+			if (allowMissing && e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				return false;
+			}
+			throw e;
+		}
+		for (final Object item : list) {
+			final ChannelSftp.LsEntry listEntry = (ChannelSftp.LsEntry) item;
+			final String name = listEntry.getFilename();
+			final SftpATTRS attrs = listEntry.getAttrs();
+			if (".".equals(name) || "..".equals(name)) {
+				continue;
+			}
+			final String child = SyncEntry.child(path, name);
+			if (attrs.isDir()) {
+				if (recursive) {
+					entries.put(child, SyncEntry.directory(child));
+					remoteSyncEntries(sftpChannel, root, child, true, entries, false);
+				}
+			} else if (attrs.isReg()) {
+				entries.put(child, SyncEntry.file(child, attrs.getSize(), attrs.getMTime() * 1000L, 1000));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Give the downloaded file the modification time of the remote file
+	 */
+	private static ChannelTransfer syncDownloadTransfer(final ChannelTransfer download, final Path localRoot, final Map<String, SyncEntry> sources) {
+		return (channel, path) -> {
+			final long bytes = download.transfer(channel, path);
+			try {
+				Files.setLastModifiedTime(localRoot.resolve(path), FileTime.fromMillis(sources.get(path).getModifiedMillis()));
+			} catch (final IOException e) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+			}
+			return bytes;
+		};
+	}
+
+	/**
+	 * Give the uploaded file the modification time of the local file
+	 */
+	private static ChannelTransfer syncUploadTransfer(final ChannelTransfer upload, final String remoteDir, final Map<String, SyncEntry> sources) {
+		return (channel, path) -> {
+			final long bytes = upload.transfer(channel, path);
+			channel.setMtime(remoteDir + path, (int) (sources.get(path).getModifiedMillis() / 1000));
+			return bytes;
+		};
+	}
+
+	/**
+	 * Spread the files over a group of channels opened on the connection session
+	 */
+	private List<TransferResult> transferParallel(final SFTPConnection sftpConnection, final String remoteDir, final List<String> fileNames,
+			final int parallelism, final ChannelTransfer transfer) {
+
+		final List<TransferResult> results = new ArrayList<>();
+		if (fileNames.isEmpty()) {
+			return results;
+		}
+
+		final SFTPChannelGroup channels = new SFTPChannelGroup(sftpConnection, this.connection, Math.min(parallelism, fileNames.size()));
+		final ExecutorService executor = TransferExecutors.newBoundedExecutor(TRANSFER_THREAD_NAME, channels.size());
+		// Remote digests run on exec channels while the channels of the group move the next files
+		final SFTPChecksum checksum = this.checksum;
+		final ExecutorService verifier = checksum != null ? TransferExecutors.newBoundedExecutor(VERIFY_THREAD_NAME, 1) : null;
+		try {
+			final List<Future<TransferResult>> futures = new ArrayList<>();
+			for (final String fileName : fileNames) {
+				final Future<TransferResult> future = executor.submit(() -> transfer(channels, fileName, transfer));
+				futures.add(verifier == null ? future
+						: verifier.submit(() -> verify(checksum, sftpConnection.getSession(), remoteDir + fileName, future.get())));
+			}
+			for (final Future<TransferResult> future : futures) {
+				results.add(future.get());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SFTPushException(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP, e);
+		} catch (final ExecutionException e) {
+			throw new SFTPushException(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			if (verifier != null) {
+				verifier.shutdownNow();
+			}
+			channels.close();
+		}
+		return results;
+	}
+
+	private TransferResult transfer(final SFTPChannelGroup channels, final String fileName, final ChannelTransfer transfer)
+			throws InterruptedException {
+		final long start = System.currentTimeMillis();
+		final ChannelSftp channel = channels.acquire();
+		try {
+			final long bytes = transfer.transfer(channel, fileName);
+			return TransferResult.success(fileName, bytes, System.currentTimeMillis() - start);
+		} catch (final SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				this.logger.severe(String.format(EXCEPTION_NO_SUCH_FILE, fileName));
+				return TransferResult.notFound(fileName, System.currentTimeMillis() - start, e);
+			}
+			return TransferResult.failure(fileName, System.currentTimeMillis() - start, e);
+		} catch (final RuntimeException e) {
+			return TransferResult.failure(fileName, System.currentTimeMillis() - start, e);
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			channels.release(channel);
 		}
 	}
 
+	/**
+	 * Single file operation run by the parallel transfers
+	 */
+	private interface ChannelTransfer {
+
+		/**
+		 * @return Bytes transferred
+		 */
+		long transfer(ChannelSftp channel, String fileName) throws SftpException;
+	}
+
+	private ChannelTransfer downloadTransfer(final String remoteDir, final String localDir) {
+		final SFTPChecksum checksum = this.checksum;
+		return (channel, fileName) -> {
+			final MessageDigest digest = checksum != null ? checksum.newDigest() : null;
+			final long bytes;
+			if (this.downloadMode != null) {
+				bytes = download(channel, remoteDir + fileName, Paths.get(localDir + fileName), -1, this.downloadMode, digest);
+			} else if (digest != null) {
+				bytes = download(channel, remoteDir + fileName, localDir + fileName, digest);
+			} else {
+				this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> channel.get(remoteDir + fileName, localDir + fileName, monitor));
+				bytes = new File(localDir + fileName).length();
+			}
+			if (digest != null) {
+				checksum.record(remoteDir + fileName, digest);
+			}
+			return bytes;
+		};
+	}
+
+	/**
+	 * Download into a {@link FileChannelSink}
+	 *
+	 * @param digest Updated with the downloaded bytes, may be null
+	 * @return Bytes written
+	 */
+	private long download(final ChannelSftp channel, final String source, final Path target, final long size, final FileChannelSink.Mode mode,
+			final MessageDigest digest) throws SftpException {
+		try (final FileChannelSink sink = FileChannelSink.open(target, size, mode, getBufferSize(FileChannelSink.DEFAULT_BUFFER_SIZE))) {
+			final OutputStream output = digest != null ? new DigestOutputStream(sink, digest) : sink;
+			this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> channel.get(source, output, monitor));
+			return sink.getBytesWritten();
+		} catch (final IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Download into a local file, digesting the bytes on their way
+	 *
+	 * @return Bytes written
+	 */
+	private long download(final ChannelSftp channel, final String source, final String target, final MessageDigest digest) throws SftpException {
+		final File file = new File(target);
+		try (final OutputStream output = new DigestOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), getBufferSize(COPY_BUFFER_SIZE)), digest)) {
+			this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> channel.get(source, output, monitor));
+		} catch (final IOException e) {
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		}
+		return file.length();
+	}
+
+	private ChannelTransfer uploadTransfer(final String localDir, final String remoteDir) {
+		final SFTPChecksum checksum = this.checksum;
+		return (channel, fileName) -> {
+			final File file = new File(localDir + fileName);
+			if (!file.isFile()) {
+				throw new SftpException(ChannelSftp.SSH_FX_NO_SUCH_FILE, String.format(EXCEPTION_NO_SUCH_FILE, fileName));
+			}
+			if (checksum == null) {
+				this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> channel.put(file.getPath(), remoteDir + fileName, monitor));
+				return file.length();
+			}
+			final MessageDigest digest = checksum.newDigest();
+			try (final InputStream input = new DigestInputStream(new FileInputStream(file), digest)) {
+				this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> channel.put(input, remoteDir + fileName, monitor));
+			} catch (final IOException e) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+			}
+			checksum.record(remoteDir + fileName, digest);
+			return file.length();
+		};
+	}
+
 	/**
 	 * Collects a input stream and create a remote file.
 	 *
@@ -162,15 +704,35 @@ public class SFTPushClient {
 			throw new IllegalArgumentException("Remote path must be valid");
 		}
 
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final InputStream input;
+		final PushConfig config;
+		if (this.compressionPolicy != null) {
+			final PushbackInputStream sampled = new PushbackInputStream(fileStream, this.compressionPolicy.getSampleSize());
+			try {
+				config = compressionConfig(shouldCompress(String.valueOf(remotePath.getFileName()), sampled));
+			} catch (final IOException e) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+			}
+			input = sampled;
+		} else {
+			input = fileStream;
+			config = this.connection;
+		}
+
+		final MessageDigest digest = newDigest();
+		final InputStream source = digest != null ? new DigestInputStream(input, digest) : input;
+		final SFTPConnection sftpConnection = getConnection(config);
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
-			sftpChannel.put(fileStream, remotePath.toString());
+			this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> sftpChannel.put(source, remotePath.toString(), monitor));
+			verify(sftpConnection.getSession(), remotePath.toString(), digest);
 		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
 			throw e;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			invalidateCache(sftpChannel, remotePath.toString());
+			releaseConnection(sftpConnection);
 		}
 	}
 
@@ -184,7 +746,89 @@ public class SFTPushClient {
 	 * @throws FileNotFoundException
 	 */
 	public void uploadFile(final File file, final Path remotePath) throws JSchException, SftpException, FileNotFoundException {
-		uploadFile(new FileInputStream(file), remotePath);
+		if (isSegmented(file.length())) {
+			uploadSegmented(file, remotePath);
+			return;
+		}
+
+		final InputStream fileStream = new FileInputStream(file);
+		try {
+			uploadFile(fileStream, remotePath);
+		} finally {
+			closeQuietly(fileStream);
+		}
+	}
+
+	/**
+	 * Send a stream through a pipeline of stages, e.g. gzip it on the fly
+	 *
+	 * @param fileStream Input file contents, closed when the upload ends
+	 * @param remotePath Output file on remote server
+	 * @param pipeline   Stages applied to the contents before they are sent
+	 * @throws JSchException Error connect SFTP
+	 * @throws SftpException Error execute command SFTP or error of a stage
+	 */
+	public void uploadFile(final InputStream fileStream, final Path remotePath, final StreamPipeline pipeline) throws JSchException, SftpException {
+		if (fileStream == null || pipeline == null) {
+			throw new IllegalArgumentException("Input stream and pipeline must be valid");
+		}
+
+		final InputStream staged;
+		try {
+			staged = pipeline.wrap(fileStream);
+		} catch (final IOException e) {
+			closeQuietly(fileStream);
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		}
+		try {
+			uploadFile(staged, remotePath);
+		} finally {
+			closeQuietly(staged);
+		}
+	}
+
+	/**
+	 * Send a local file through a pipeline of stages, never segmented since the stages change its size
+	 *
+	 * @param file       File to be sent
+	 * @param remotePath absolute path on server
+	 * @param pipeline   Stages applied to the contents before they are sent
+	 * @throws JSchException
+	 * @throws SftpException
+	 * @throws FileNotFoundException
+	 */
+	public void uploadFile(final File file, final Path remotePath, final StreamPipeline pipeline) throws JSchException, SftpException, FileNotFoundException {
+		uploadFile(new FileInputStream(file), remotePath, pipeline);
+	}
+
+	private void uploadSegmented(final File file, final Path remotePath) throws JSchException, SftpException {
+		if (remotePath == null || remotePath.toString().isEmpty()) {
+			throw new IllegalArgumentException("Remote path must be valid");
+		}
+
+		Boolean compress = null;
+		if (this.compressionPolicy != null) {
+			try (final PushbackInputStream sample = new PushbackInputStream(new FileInputStream(file), this.compressionPolicy.getSampleSize())) {
+				compress = shouldCompress(file.getName(), sample);
+			} catch (final IOException e) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+			}
+		}
+
+		final SFTPConnection sftpConnection = getConnection(compressionConfig(compress));
+		final SFTPChannelGroup channels = new SFTPChannelGroup(sftpConnection, this.connection, this.segmentCount);
+		try {
+			final SFTPSegmentedTransfer transfer = new SFTPSegmentedTransfer(channels, getBufferSize(SFTPSegmentedTransfer.DEFAULT_BUFFER_SIZE));
+			this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> transfer.upload(file.toPath(), remotePath.toString(), monitor));
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} finally {
+			channels.close();
+			invalidateCache(sftpConnection.getChannel(), remotePath.toString());
+			releaseConnection(sftpConnection);
+		}
 	}
 
 	/**
@@ -215,70 +859,436 @@ public class SFTPushClient {
 			throw new IllegalArgumentException("Invalid local filename: " + localFileName);
 		}
 
-		remoteDir = formatPath(remoteDir);
-		localDir = formatPath(localDir);
+		remoteDir = formatPath(remoteDir);
+		localDir = formatPath(localDir);
+
+		final SFTPConnection sftpConnection = getConnection(compressionConfig(shouldCompress(remoteFileName)));
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final String source = remoteDir + remoteFileName;
+			final String target = localDir + localFileName;
+			final MessageDigest digest = newDigest();
+			if (this.segmentThreshold > 0 || this.downloadMode != null) {
+				final long size = this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(source)).getSize();
+				if (isSegmented(size)) {
+					downloadSegmented(sftpConnection, source, Paths.get(target), size);
+					return;
+				}
+				if (this.downloadMode != null) {
+					download(sftpChannel, source, Paths.get(target), size, this.downloadMode, digest);
+					verify(sftpConnection.getSession(), source, digest);
+					return;
+				}
+			}
+			if (digest != null) {
+				download(sftpChannel, source, target, digest);
+				verify(sftpConnection.getSession(), source, digest);
+			} else {
+				this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> sftpChannel.get(source, target, monitor));
+			}
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+//			TODO SFP - Refactor 
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	private void downloadSegmented(final SFTPConnection sftpConnection, final String source, final Path target, final long size) throws SftpException {
+		final SFTPChannelGroup channels = new SFTPChannelGroup(sftpConnection, this.connection, this.segmentCount);
+		try {
+			final SFTPSegmentedTransfer transfer = new SFTPSegmentedTransfer(channels, getBufferSize(SFTPSegmentedTransfer.DEFAULT_BUFFER_SIZE));
+			this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> transfer.download(source, target, size, monitor));
+		} finally {
+			channels.close();
+		}
+	}
+
+	/**
+	 * Check if a file is large enough to be moved as parallel byte ranges
+	 */
+	private boolean isSegmented(final long size) {
+		return this.segmentThreshold > 0 && this.segmentCount > 1 && size >= this.segmentThreshold;
+	}
+
+	private void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+			this.logger.fine(e.getMessage());
+		}
+	}
+
+	/**
+	 * Download file from SFTP server
+	 *
+	 * @param source Source path to be downloaded
+	 * @param target Target path to be stored
+	 * @throws JSchException
+	 * @throws SftpException
+	 */
+	public void downloadFile(final Path source, final Path target) throws JSchException, SftpException {
+		downloadFile(source.getParent().toString(), source.getFileName().toString(), target.getParent().toString(), target.getFileName().toString());
+
+	}
+
+	/**
+	 * Download file from SFTP server into a preallocated {@link java.nio.channels.FileChannel}
+	 *
+	 * @param source Source path to be downloaded
+	 * @param target Target path to be stored
+	 * @param mode   Direct buffer or memory-mapped writes
+	 * @return Bytes, duration and throughput of the download
+	 * @throws JSchException
+	 * @throws SftpException
+	 */
+	public TransferResult downloadFile(final Path source, final Path target, final FileChannelSink.Mode mode) throws JSchException, SftpException {
+		if (source == null || target == null || mode == null) {
+			throw new IllegalArgumentException("Invalid download: " + source + " -> " + target + " (" + mode + ")");
+		}
+
+		final long start = System.currentTimeMillis();
+		final SFTPConnection sftpConnection = getConnection(compressionConfig(shouldCompress(String.valueOf(source.getFileName()))));
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final long size = this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(source.toString())).getSize();
+			final MessageDigest digest = newDigest();
+			final long bytes = download(sftpChannel, source.toString(), target, size, mode, digest);
+			verify(sftpConnection.getSession(), source.toString(), digest);
+			final TransferResult result = TransferResult.success(source.toString(), bytes, System.currentTimeMillis() - start);
+			this.logger.fine(String.format("Downloaded %s at %.0f bytes/s", result, result.getBytesPerSecond()));
+			return result;
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Download a file through a pipeline of stages, e.g. gunzip it on the fly
+	 *
+	 * @param source   Source path to be downloaded
+	 * @param output   Receives the contents out of the last stage, flushed but not closed
+	 * @param pipeline Stages applied to the contents as they arrive
+	 * @throws JSchException Error connect SFTP
+	 * @throws SftpException Error execute command SFTP or error of a stage
+	 */
+	public void downloadFile(final Path source, final OutputStream output, final StreamPipeline pipeline) throws JSchException, SftpException {
+		if (source == null || output == null || pipeline == null) {
+			throw new IllegalArgumentException("Invalid download: " + source + " -> " + output + " (" + pipeline + ")");
+		}
+
+		final SFTPConnection sftpConnection = getConnection(compressionConfig(shouldCompress(String.valueOf(source.getFileName()))));
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final OutputStream staged = pipeline.wrap(output);
+			this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> {
+				try {
+					sftpChannel.get(source.toString(), staged, monitor);
+				} catch (final SftpException e) {
+					closeQuietly(staged);
+					throw e;
+				}
+				// Completes the stages, a truncated or corrupt stream fails here
+				staged.close();
+			});
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} catch (final IOException e) {
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Download a file, resuming from the last checkpoint of a previous attempt.
+	 * <p>
+	 * Progress is recorded in the {@link TransferJournal}; a retry, even after a process restart, continues
+	 * from the last offset synced to the local file unless the remote file changed.
+	 *
+	 * @param source Source path to be downloaded
+	 * @param target Target path to be stored
+	 * @throws JSchException Error connect SFTP
+	 * @throws SftpException Error execute command SFTP
+	 */
+	public void downloadFileResumable(final Path source, final Path target) throws JSchException, SftpException {
+		if (source == null || target == null) {
+			throw new IllegalArgumentException("Invalid paths: " + source + " -> " + target);
+		}
+
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final SftpATTRS attrs = this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(source.toString()));
+			final TransferCheckpoint checkpoint = getTransferJournal().begin(transferKey("get", source, target), attrs.getSize(), attrs.getMTime());
+			final File localFile = target.toFile();
+			final long offset = Math.min(checkpoint.getOffset(), localFile.length());
+
+			// Drop bytes written after the last checkpoint, they were never confirmed
+			try (final RandomAccessFile file = new RandomAccessFile(localFile, "rw")) {
+				file.setLength(offset);
+			}
+			try (final FileOutputStream output = new FileOutputStream(localFile, true);
+				 final InputStream input = sftpChannel.get(source.toString(), null, offset)) {
+				this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> copy(input, checkpoint.track(output, offset, output.getFD()), monitor));
+			}
+
+			if (localFile.length() != attrs.getSize()) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, String.format(EXCEPTION_SIZE_MISMATCH, target, localFile.length(), attrs.getSize()));
+			}
+			checkpoint.complete();
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} catch (final IOException e) {
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Upload a file, resuming from the last checkpoint of a previous attempt.
+	 * <p>
+	 * The resume offset is the smallest of the journal checkpoint and the remote file size, so data the
+	 * server already holds is never sent again.
+	 *
+	 * @param file       File to be sent
+	 * @param remotePath absolute path on server
+	 * @throws JSchException         Error connect SFTP
+	 * @throws SftpException         Error execute command SFTP
+	 * @throws FileNotFoundException Local file not found
+	 */
+	public void uploadFileResumable(final File file, final Path remotePath) throws JSchException, SftpException, FileNotFoundException {
+		if (remotePath == null || remotePath.toString().isEmpty()) {
+			throw new IllegalArgumentException("Remote path must be valid");
+		}
+
+		final String target = remotePath.toString();
+		final long size = file.length();
+		final TransferCheckpoint checkpoint = getTransferJournal().begin(transferKey("put", file.toPath(), remotePath), size, file.lastModified());
+
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try (final InputStream input = new FileInputStream(file)) {
+			final long remoteSize = remoteSize(sftpChannel, target);
+			final long offset = Math.min(checkpoint.getOffset(), remoteSize);
+			skipFully(input, offset);
+
+			// RESUME adds the remote size to the given offset
+			try (final OutputStream output = offset == 0
+					? sftpChannel.put(target, ChannelSftp.OVERWRITE)
+					: sftpChannel.put(target, null, ChannelSftp.RESUME, offset - remoteSize)) {
+				this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> copy(input, checkpoint.track(output, offset, null), monitor));
+			}
+
+			final long uploaded = this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(target)).getSize();
+			if (uploaded != size) {
+				throw new SftpException(ChannelSftp.SSH_FX_FAILURE, String.format(EXCEPTION_SIZE_MISMATCH, target, uploaded, size));
+			}
+			checkpoint.complete();
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} catch (final FileNotFoundException e) {
+			throw e;
+		} catch (final IOException e) {
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+		} finally {
+			invalidateCache(sftpChannel, target);
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	private long remoteSize(final ChannelSftp sftpChannel, final String path) throws SftpException {
+		try {
+			return this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(path)).getSize();
+		} catch (final SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				return 0;
+			}
+			throw e;
+		}
+	}
+
+	private String transferKey(final String operation, final Path source, final Path target) {
+		return String.format("sftp-%s:%s@%s:%s:%s>%s", operation, this.connection.getUsername(), this.connection.getHost(),
+				this.connection.getPort(), source, target);
+	}
+
+	private int getBufferSize(final int defaultSize) {
+		return this.connection.getTransferProfile().getBufferSize(defaultSize);
+	}
+
+	private void copy(final InputStream input, final OutputStream output, final SftpProgressMonitor monitor) throws IOException {
+		final byte[] buffer = new byte[getBufferSize(COPY_BUFFER_SIZE)];
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			output.write(buffer, 0, read);
+			if (!monitor.count(read)) {
+				throw new InterruptedIOException("Transfer cancelled");
+			}
+		}
+		output.flush();
+	}
+
+	private static void skipFully(final InputStream input, final long bytes) throws IOException {
+		long remaining = bytes;
+		while (remaining > 0) {
+			final long skipped = input.skip(remaining);
+			if (skipped <= 0) {
+				throw new EOFException("Source is shorter than resume offset " + bytes);
+			}
+			remaining -= skipped;
+		}
+	}
+
+	/**
+	 * List all remote files .
+	 *
+	 * @param remotePath - Path remote dir.
+	 * @return Return list filenames.
+	 * @throws JSchException Error connect session SFTP.
+	 * @throws SftpException Error execute command SFTP.
+	 */
+	public List<String> listRemoteFiles(String remotePath) throws JSchException, SftpException {
+
+		if (remotePath == null || remotePath.isEmpty()) {
+			throw new IllegalArgumentException("Invalid remote path: " + remotePath);
+		}
+
+		remotePath = formatPath(remotePath);
+
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		final List<String> filesNames = new ArrayList<>();
+		try {
+			final List<?> cached = this.metadataCache == null ? null
+					: this.metadataCache.get(MetadataCache.Kind.LISTING, cachePath(sftpChannel, remotePath), List.class);
+			if (cached != null) {
+				for (final Object fileName : cached) {
+					filesNames.add((String) fileName);
+				}
+				return filesNames;
+			}
+
+			final String listPath = remotePath;
+			this.metrics.run(TransferMetrics.Operation.LIST, () -> sftpChannel.ls(listPath, listEntry -> {
+				if (!listEntry.getAttrs().isDir()) {
+					filesNames.add(listEntry.getFilename());
+				}
+				return ChannelSftp.LsEntrySelector.CONTINUE;
+			}));
+			if (this.metadataCache != null) {
+				this.metadataCache.put(MetadataCache.Kind.LISTING, cachePath(sftpChannel, remotePath), Collections.unmodifiableList(new ArrayList<>(filesNames)));
+			}
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+//			TODO SFP - Refactor 
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw e;
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+		return filesNames;
+	}
+
+	/**
+	 * Visit the entries of a remote folder while the server sends them, without holding the listing in memory.
+	 *
+	 * @param remotePath - Path remote dir.
+	 * @param filter     - Entries handed to the visitor, null for all ("." and ".." are skipped).
+	 * @param visitor    - Called for each entry, returns false to stop listing.
+	 * @return Number of entries visited.
+	 * @throws JSchException Error connect session SFTP.
+	 * @throws SftpException Error execute command SFTP.
+	 */
+	public long forEachRemoteEntry(final String remotePath, final Predicate<ChannelSftp.LsEntry> filter, final Predicate<ChannelSftp.LsEntry> visitor)
+			throws JSchException, SftpException {
+
+		if (remotePath == null || remotePath.isEmpty()) {
+			throw new IllegalArgumentException("Invalid remote path: " + remotePath);
+		}
+
+		if (visitor == null) {
+			throw new IllegalArgumentException("Invalid visitor: " + visitor);
+		}
 
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		final long[] visited = {0};
 		try {
-			sftpChannel.get(remoteDir + remoteFileName, localDir + localFileName);
+			this.metrics.run(TransferMetrics.Operation.LIST, () -> sftpChannel.ls(formatPath(remotePath), listEntry -> {
+				final String name = listEntry.getFilename();
+				if (".".equals(name) || "..".equals(name) || filter != null && !filter.test(listEntry)) {
+					return ChannelSftp.LsEntrySelector.CONTINUE;
+				}
+				visited[0]++;
+				return visitor.test(listEntry) ? ChannelSftp.LsEntrySelector.CONTINUE : ChannelSftp.LsEntrySelector.BREAK;
+			}));
+			return visited[0];
 		} catch (final SftpException e) {
-//			TODO SFP - Refactor 
+			checkConnection(sftpConnection, e);
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
 			throw e;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			releaseConnection(sftpConnection);
 		}
 	}
 
 	/**
-	 * Download file from SFTP server
-	 *
-	 * @param source Source path to be downloaded
-	 * @param target Target path to be stored
-	 * @throws JSchException
-	 * @throws SftpException
-	 */
-	public void downloadFile(final Path source, final Path target) throws JSchException, SftpException {
-		downloadFile(source.getParent().toString(), source.getFileName().toString(), target.getParent().toString(), target.getFileName().toString());
-
-	}
-
-	/**
-	 * List all remote files .
+	 * Lazy stream of the entries of a remote folder ("." and ".." excluded), fed while the server sends them.
+	 * <p>
+	 * The stream holds a pooled connection until it is exhausted or closed: use it in a try-with-resources.
+	 * Short-circuiting operations (findFirst, limit...) followed by close stop the listing early.
+	 * Listing errors are thrown as {@link SFTPushException} by the stream operations.
 	 *
 	 * @param remotePath - Path remote dir.
-	 * @return Return list filenames.
+	 * @return Entries in server order.
 	 * @throws JSchException Error connect session SFTP.
-	 * @throws SftpException Error execute command SFTP.
 	 */
-	public List<String> listRemoteFiles(String remotePath) throws JSchException, SftpException {
+	public Stream<ChannelSftp.LsEntry> streamRemoteEntries(final String remotePath) throws JSchException {
 
 		if (remotePath == null || remotePath.isEmpty()) {
 			throw new IllegalArgumentException("Invalid remote path: " + remotePath);
 		}
 
-		remotePath = formatPath(remotePath);
+		final String formatDir = formatPath(remotePath);
+		final SFTPConnection sftpConnection = getConnection();
+		// Released by the stream, possibly on another thread: closing the stream is the way to cancel it
+		AbortSignal.detachCurrent(sftpConnection);
+		final SFTPListing listing = new SFTPListing(error -> {
+			if (error != null) {
+				checkConnection(sftpConnection, error);
+				this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			}
+			releaseConnection(sftpConnection);
+		});
 
-		final ChannelSftp sftpChannel = getChannelSftp();
-		final List<String> filesNames = new ArrayList<>();
+		final ExecutorService executor = TransferExecutors.newExecutor(LISTING_THREAD_NAME);
 		try {
-			@SuppressWarnings("unchecked")
-			final Vector<ChannelSftp.LsEntry> list = sftpChannel.ls(remotePath);
-			for (final ChannelSftp.LsEntry listEntry : list) {
-				if (!listEntry.getAttrs().isDir()) {
-					filesNames.add(listEntry.getFilename());
-				}
-			}
-		} catch (final SftpException e) {
-//			TODO SFP - Refactor 
-			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			executor.execute(() -> listing.run(sftpConnection.getChannel(), formatDir));
+		} catch (final RuntimeException e) {
+			releaseConnection(sftpConnection);
 			throw e;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			executor.shutdown();
 		}
-		return filesNames;
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(listing, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(listing::close);
 	}
 
 	/**
@@ -309,11 +1319,14 @@ public class SFTPushClient {
 		remoteDir = formatPath(remoteDir);
 		localDir = formatPath(localDir);
 
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
 			for (final String remoteFileName : remoteFileNames) {
 				try {
-					sftpChannel.get(remoteDir + remoteFileName, localDir + remoteFileName);
+					final String source = remoteDir + remoteFileName;
+					final String target = localDir + remoteFileName;
+					this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> sftpChannel.get(source, target, monitor));
 				} catch (final SftpException e) {
 					if (e.id == 2) {
 //						TODO SFP - Refactor 
@@ -325,11 +1338,11 @@ public class SFTPushClient {
 			}
 
 		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
 			// 2: No such file
 			throw e;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			releaseConnection(sftpConnection);
 		}
 
 	}
@@ -360,11 +1373,15 @@ public class SFTPushClient {
 		remoteDir = formatPath(remoteDir);
 		localDir = formatPath(localDir);
 
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
 			for (final String localFileName : localFileNames) {
 				try {
-					sftpChannel.put(localDir + localFileName, remoteDir + localFileName);
+					final String source = localDir + localFileName;
+					final String target = remoteDir + localFileName;
+					this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> sftpChannel.put(source, target, monitor));
+					invalidateCache(sftpChannel, target);
 				} catch (final SftpException e) {
 					if (e.id == 2) {
 //						TODO SFP - Refactor 
@@ -376,12 +1393,95 @@ public class SFTPushClient {
 			}
 
 		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
 //			TODO SFP - Refactor 
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
 			throw e;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Transfer remote files to local folder using parallel SFTP channels
+	 *
+	 * @param remoteDir       Path remote directory.
+	 * @param localDir        Path local dir.
+	 * @param parallelism     Number of files transferred at the same time.
+	 * @param remoteFileNames Remote filenames.
+	 * @return Outcome of each file, in the order of the given names.
+	 * @throws JSchException Error connect session SFTP.
+	 */
+	public TransferBatchResult downloadFileList(String remoteDir, String localDir, final int parallelism, final String... remoteFileNames) throws JSchException {
+
+		if (remoteDir == null || remoteDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid remote folder: " + remoteDir);
+		}
+
+		if (localDir == null || localDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid local folder: " + localDir);
+		}
+
+		if (remoteFileNames == null || remoteFileNames.length == 0) {
+			throw new IllegalArgumentException("Invalid name of remote files: " + remoteFileNames);
+		}
+
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+
+		remoteDir = formatPath(remoteDir);
+		localDir = formatPath(localDir);
+		final long start = System.currentTimeMillis();
+
+		final SFTPConnection sftpConnection = getConnection();
+		try {
+			final List<TransferResult> results = transferParallel(sftpConnection, remoteDir, Arrays.asList(remoteFileNames), parallelism, downloadTransfer(remoteDir, localDir));
+			return new TransferBatchResult(results, System.currentTimeMillis() - start);
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Send local files to remote folder using parallel SFTP channels
+	 *
+	 * @param localDir       Path local folder.
+	 * @param remoteDir      Path remote folder.
+	 * @param parallelism    Number of files transferred at the same time.
+	 * @param localFileNames List name local files.
+	 * @return Outcome of each file, in the order of the given names.
+	 * @throws JSchException Error connect session SFTP.
+	 */
+	public TransferBatchResult uploadFileList(String localDir, String remoteDir, final int parallelism, final String... localFileNames) throws JSchException {
+
+		if (remoteDir == null || remoteDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid remote folder: " + remoteDir);
+		}
+
+		if (localDir == null || localDir.isEmpty()) {
+			throw new IllegalArgumentException("Invalid local folder: " + localDir);
+		}
+
+		if (localFileNames == null || localFileNames.length == 0) {
+			throw new IllegalArgumentException("Invalid local name files: " + localFileNames);
+		}
+
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+
+		remoteDir = formatPath(remoteDir);
+		localDir = formatPath(localDir);
+		final long start = System.currentTimeMillis();
+
+		final SFTPConnection sftpConnection = getConnection();
+		try {
+			final List<TransferResult> results = transferParallel(sftpConnection, remoteDir, Arrays.asList(localFileNames), parallelism, uploadTransfer(localDir, remoteDir));
+			return new TransferBatchResult(results, System.currentTimeMillis() - start);
+		} finally {
+			invalidateCache(sftpConnection.getChannel(), remoteDir);
+			releaseConnection(sftpConnection);
 		}
 	}
 
@@ -394,26 +1494,33 @@ public class SFTPushClient {
 			throw new IllegalArgumentException("Invalid remote folder: " + directoryPath);
 		}
 
-		final ChannelSftp sftpChannel = getChannelSftp();
-		final String formattedPath = Paths.get(sftpChannel.pwd(), formatPath(directoryPath)).toString();
-		SftpATTRS attrs = null;
-
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
-			attrs = sftpChannel.stat(formattedPath);
-		} catch (final SftpException exception) {
-			this.logger.fine(exception.getMessage());
-		}
+			final String formattedPath = Paths.get(sftpChannel.pwd(), formatPath(directoryPath)).toString();
+			SftpATTRS attrs = this.metadataCache == null ? null : this.metadataCache.get(MetadataCache.Kind.STAT, formattedPath, SftpATTRS.class);
 
-		try {
 			if (attrs == null) {
-				sftpChannel.mkdir(formattedPath);
+				try {
+					attrs = this.metrics.call(TransferMetrics.Operation.STAT, () -> sftpChannel.stat(formattedPath));
+					if (this.metadataCache != null) {
+						this.metadataCache.put(MetadataCache.Kind.STAT, formattedPath, attrs);
+					}
+				} catch (final SftpException exception) {
+					this.logger.fine(exception.getMessage());
+				}
+			}
+
+			if (attrs == null) {
+				this.metrics.run(TransferMetrics.Operation.MKDIR, () -> sftpChannel.mkdir(formattedPath));
+				invalidateCache(sftpChannel, formattedPath);
 			}
 		} catch (final SftpException exception) {
+			checkConnection(sftpConnection, exception);
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
 			throw exception;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			releaseConnection(sftpConnection);
 		}
 	}
 
@@ -423,20 +1530,413 @@ public class SFTPushClient {
 	 * @param target New file path
 	 */
 	public void moveRemoteFile(final Path source, final Path target) throws JSchException, SftpException {
-		final ChannelSftp sftpChannel = getChannelSftp();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
 		try {
 			final String pwd = sftpChannel.pwd();
-			sftpChannel.rename(Paths.get(pwd, source.toString()).toString(), Paths.get(pwd, target.toString()).toString());
+			final String sourcePath = Paths.get(pwd, source.toString()).toString();
+			final String targetPath = Paths.get(pwd, target.toString()).toString();
+			try {
+				this.metrics.run(TransferMetrics.Operation.RENAME, () -> sftpChannel.rename(sourcePath, targetPath));
+			} finally {
+				invalidateCache(sftpChannel, sourcePath);
+				invalidateCache(sftpChannel, targetPath);
+			}
 		} catch (final SftpException exception) {
+			checkConnection(sftpConnection, exception);
 			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
 			throw exception;
 		} finally {
-			sftpChannel.exit();
-			disconnectSession();
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Run remote namespace operations (mkdir -p, rename, delete) on one pooled session
+	 * <p>
+	 * Relative paths are resolved against the working directory of the pooled channel, and the directories known
+	 * to exist are tracked for the whole batch, so a parent shared by many operations is checked or created once.
+	 * A failed operation does not stop the following ones.
+	 *
+	 * @param batch Operations to run.
+	 * @return Outcome of each operation, in the order of the batch.
+	 * @throws JSchException Error connect session SFTP.
+	 */
+	public TransferBatchResult execute(final SFTPBatch batch) throws JSchException {
+		if (batch == null || batch.size() == 0) {
+			throw new IllegalArgumentException("Invalid batch: " + batch);
+		}
+
+		final long start = System.currentTimeMillis();
+		final List<SFTPBatch.Operation> operations = batch.getOperations();
+		final SFTPConnection sftpConnection = getConnection();
+		final ChannelSftp sftpChannel = sftpConnection.getChannel();
+		try {
+			final String pwd = sftpChannel.pwd();
+			final Set<String> directories = ConcurrentHashMap.newKeySet();
+			directories.add(pwd);
+
+			final TransferResult[] results = new TransferResult[operations.size()];
+			final List<Integer> deferred = new ArrayList<>();
+			final List<String> deferredPaths = new ArrayList<>();
+			for (int i = 0; i < results.length; i++) {
+				final SFTPBatch.Operation operation = operations.get(i);
+				if (batch.getParallelism() == 1) {
+					results[i] = execute(sftpConnection, sftpChannel, pwd, directories, operation, true);
+					continue;
+				}
+				final List<String> paths = operationPaths(pwd, operation);
+				if (overlaps(deferredPaths, paths)) {
+					// Depends on an operation still deferred: run those first, so the batch order holds for it
+					executeParallel(sftpConnection, pwd, directories, operations, deferred, batch.getParallelism(), results);
+					deferred.clear();
+					deferredPaths.clear();
+				}
+				if (operation.getType() == SFTPBatch.Type.MKDIRS) {
+					results[i] = execute(sftpConnection, sftpChannel, pwd, directories, operation, true);
+				} else if (operation.isCreateParents()) {
+					// Directories first, on one channel, so parallel renames never race on the same parent
+					results[i] = createParents(sftpConnection, sftpChannel, pwd, directories, operation);
+					if (results[i] == null) {
+						deferred.add(i);
+						deferredPaths.addAll(paths);
+					}
+				} else {
+					deferred.add(i);
+					deferredPaths.addAll(paths);
+				}
+			}
+
+			if (!deferred.isEmpty()) {
+				executeParallel(sftpConnection, pwd, directories, operations, deferred, batch.getParallelism(), results);
+			}
+			return new TransferBatchResult(Arrays.asList(results), System.currentTimeMillis() - start);
+		} catch (final SftpException exception) {
+			checkConnection(sftpConnection, exception);
+			this.logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			throw new SFTPushException(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP, exception);
+		} finally {
+			releaseConnection(sftpConnection);
+		}
+	}
+
+	/**
+	 * Remote paths changed by a batch operation
+	 */
+	private static List<String> operationPaths(final String pwd, final SFTPBatch.Operation operation) {
+		final List<String> paths = new ArrayList<>(2);
+		paths.add(remotePath(pwd, operation.getPath()));
+		if (operation.getTarget() != null) {
+			paths.add(remotePath(pwd, operation.getTarget()));
+		}
+		return paths;
+	}
+
+	/**
+	 * Check if a path is, contains or is inside one of the given paths
+	 */
+	private static boolean overlaps(final List<String> paths, final List<String> others) {
+		for (final String path : paths) {
+			for (final String other : others) {
+				if (path.equals(other) || other.startsWith(path.endsWith("/") ? path : path + "/")
+						|| path.startsWith(other.endsWith("/") ? other : other + "/")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Spread independent batch operations over a group of channels opened on the connection session
+	 */
+	private void executeParallel(final SFTPConnection sftpConnection, final String pwd, final Set<String> directories,
+			final List<SFTPBatch.Operation> operations, final List<Integer> indexes, final int parallelism, final TransferResult[] results) {
+
+		final SFTPChannelGroup channels = new SFTPChannelGroup(sftpConnection, this.connection, Math.min(parallelism, indexes.size()));
+		final ExecutorService executor = TransferExecutors.newBoundedExecutor(TRANSFER_THREAD_NAME, channels.size());
+		try {
+			final List<Future<TransferResult>> futures = new ArrayList<>();
+			for (final int index : indexes) {
+				futures.add(executor.submit(() -> {
+					final ChannelSftp channel = channels.acquire();
+					try {
+						return execute(sftpConnection, channel, pwd, directories, operations.get(index), false);
+					} finally {
+						channels.release(channel);
+					}
+				}));
+			}
+			for (int i = 0; i < indexes.size(); i++) {
+				results[indexes.get(i)] = futures.get(i).get();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SFTPushException(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP, e);
+		} catch (final ExecutionException e) {
+			throw new SFTPushException(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			channels.close();
+		}
+	}
+
+	/**
+	 * @return Failure of the operation when the folders of its target could not be created, null otherwise
+	 */
+	private TransferResult createParents(final SFTPConnection sftpConnection, final ChannelSftp channel, final String pwd,
+			final Set<String> directories, final SFTPBatch.Operation operation) {
+		final long start = System.currentTimeMillis();
+		try {
+			mkdirs(channel, parentPath(remotePath(pwd, operation.getTarget())), directories);
+			return null;
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			return TransferResult.failure(operation.toString(), System.currentTimeMillis() - start, e);
+		}
+	}
+
+	private TransferResult execute(final SFTPConnection sftpConnection, final ChannelSftp channel, final String pwd, final Set<String> directories,
+			final SFTPBatch.Operation operation, final boolean createParents) {
+		final long start = System.currentTimeMillis();
+		final String name = operation.toString();
+		final String path = remotePath(pwd, operation.getPath());
+		try {
+			switch (operation.getType()) {
+				case MKDIRS:
+					mkdirs(channel, path, directories);
+					break;
+				case RENAME:
+					final String target = remotePath(pwd, operation.getTarget());
+					if (createParents && operation.isCreateParents()) {
+						mkdirs(channel, parentPath(target), directories);
+					}
+					try {
+						this.metrics.run(TransferMetrics.Operation.RENAME, () -> channel.rename(path, target));
+					} finally {
+						invalidateCache(channel, path);
+						invalidateCache(channel, target);
+					}
+					// A renamed directory takes its known subfolders with it
+					directories.removeIf(directory -> directory.equals(path) || directory.startsWith(path + "/"));
+					break;
+				case DELETE:
+					try {
+						this.metrics.run(TransferMetrics.Operation.DELETE, () -> channel.rm(path));
+					} finally {
+						invalidateCache(channel, path);
+					}
+					break;
+				case RMDIR:
+					try {
+						this.metrics.run(TransferMetrics.Operation.DELETE, () -> channel.rmdir(path));
+					} finally {
+						directories.remove(path);
+						invalidateCache(channel, path);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unsupported batch operation: " + name);
+			}
+			return TransferResult.success(name, 0, System.currentTimeMillis() - start);
+		} catch (final SftpException e) {
+			checkConnection(sftpConnection, e);
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				this.logger.severe(String.format(EXCEPTION_NO_SUCH_FILE, name));
+				return TransferResult.notFound(name, System.currentTimeMillis() - start, e);
+			}
+			return TransferResult.failure(name, System.currentTimeMillis() - start, e);
+		} catch (final RuntimeException e) {
+			return TransferResult.failure(name, System.currentTimeMillis() - start, e);
+		}
+	}
+
+	/**
+	 * Create a directory and its missing parents, skipping the directories already known to exist
+	 * <p>
+	 * The directory is created right away, its parents are only walked when the server reports them missing:
+	 * a parent created earlier in the batch costs a single request per new subfolder.
+	 */
+	private void mkdirs(final ChannelSftp channel, final String directory, final Set<String> directories) throws SftpException {
+		if (directory == null || directories.contains(directory)) {
+			return;
+		}
+		try {
+			this.metrics.run(TransferMetrics.Operation.MKDIR, () -> channel.mkdir(directory));
+			invalidateCache(channel, directory);
+		} catch (final SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				mkdirs(channel, parentPath(directory), directories);
+				this.metrics.run(TransferMetrics.Operation.MKDIR, () -> channel.mkdir(directory));
+				invalidateCache(channel, directory);
+			} else if (!isDirectory(channel, directory)) {
+				// Servers answer a plain failure when the directory exists, only then is the error real
+				throw e;
+			}
 		}
+		directories.add(directory);
+	}
+
+	private boolean isDirectory(final ChannelSftp channel, final String path) {
+		try {
+			return this.metrics.call(TransferMetrics.Operation.STAT, () -> channel.stat(path)).isDir();
+		} catch (final SftpException e) {
+			this.logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Absolute and normalized form of a remote path
+	 */
+	private static String remotePath(final String pwd, final String path) {
+		final String absolute = path.startsWith("/") ? path : pwd + "/" + path;
+		final String normalized = absolute.replaceAll("/+", "/");
+		return normalized.length() > 1 && normalized.endsWith("/") ? normalized.substring(0, normalized.length() - 1) : normalized;
+	}
+
+	/**
+	 * Parent of a normalized remote path, null for the root
+	 */
+	private static String parentPath(final String path) {
+		final int separator = path.lastIndexOf('/');
+		if (separator < 0 || path.equals("/")) {
+			return null;
+		}
+		return separator == 0 ? "/" : path.substring(0, separator);
 	}
 
 	public void setConnection(final PushConfig connection) {
 		this.connection = connection;
 	}
-}
\ No newline at end of file
+
+	public SshdSessionPool getSshdSessionPool() {
+		return this.sshdSessionPool;
+	}
+
+	/**
+	 * @param sshdSessionPool Sessions of the SSHD engine, {@link SshdSessionPool#getDefault()} by default
+	 */
+	public void setSshdSessionPool(final SshdSessionPool sshdSessionPool) {
+		this.sshdSessionPool = sshdSessionPool;
+	}
+
+	public MetadataCache getMetadataCache() {
+		return this.metadataCache;
+	}
+
+	/**
+	 * @param metadataCache Cache of remote listings and attributes, null to always ask the server (default)
+	 */
+	public void setMetadataCache(final MetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	public TransferMetrics getMetrics() {
+		return this.metrics.getMetrics();
+	}
+
+	/**
+	 * @param metrics Receives operation latencies, transfers and errors, {@link TransferMetrics#NOOP} by default.
+	 *                Connection times and pool gauges are reported by {@link SFTPSessionPool#setMetrics(TransferMetrics, String)}.
+	 */
+	public void setMetrics(final TransferMetrics metrics) {
+		this.metrics = new SFTPMetrics(metrics != null ? metrics : TransferMetrics.NOOP, this::throttle);
+	}
+
+	public BandwidthLimiter getBandwidthLimiter() {
+		return this.bandwidthLimiter;
+	}
+
+	/**
+	 * @param bandwidthLimiter Caps applied to the transfers, {@link BandwidthLimiter#getDefault()} by default,
+	 *                         null for none. The {@code maxBytesPerSecond} of the transfer profile caps the host
+	 *                         unless the limiter already has a cap for it.
+	 */
+	public void setBandwidthLimiter(final BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	/**
+	 * @return Digest algorithm of the transfer verification, null when disabled
+	 */
+	public String getVerification() {
+		return this.checksum != null ? this.checksum.getAlgorithm() : null;
+	}
+
+	/**
+	 * Verify transferred files end to end. The digest is computed while the bytes stream and compared with the
+	 * output of {@code sha256sum} (or the tool of the algorithm) run on an exec channel; parallel transfers verify
+	 * a file while the next ones move. A mismatch fails the transfer, a server without shell or tool leaves it
+	 * unverified. Segmented transfers are not verified.
+	 *
+	 * @param algorithm "MD5", "SHA-1", "SHA-224", "SHA-256", "SHA-384" or "SHA-512", null to disable (default)
+	 */
+	public void setVerification(final String algorithm) {
+		this.checksum = algorithm != null ? new SFTPChecksum(algorithm) : null;
+	}
+
+	public CompressionPolicy getCompressionPolicy() {
+		return this.compressionPolicy;
+	}
+
+	/**
+	 * Single file uploads and downloads pick a compressed or a plain pooled session per file; other operations
+	 * keep the compression setting of the transfer profile.
+	 *
+	 * @param compressionPolicy Per file compression decision, null to always follow the transfer profile (default)
+	 */
+	public void setCompressionPolicy(final CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	public FileChannelSink.Mode getDownloadMode() {
+		return this.downloadMode;
+	}
+
+	/**
+	 * @param downloadMode Write downloads through a {@link FileChannelSink}, null to let JSch write the local file (default)
+	 */
+	public void setDownloadMode(final FileChannelSink.Mode downloadMode) {
+		this.downloadMode = downloadMode;
+	}
+
+	public TransferJournal getTransferJournal() {
+		if (this.transferJournal == null) {
+			this.transferJournal = TransferJournal.inTempDirectory();
+		}
+		return this.transferJournal;
+	}
+
+	/**
+	 * @param transferJournal Journal of the resumable transfers, defaults to a journal in the temporary directory
+	 */
+	public void setTransferJournal(final TransferJournal transferJournal) {
+		this.transferJournal = transferJournal;
+	}
+
+	public long getSegmentThreshold() {
+		return this.segmentThreshold;
+	}
+
+	/**
+	 * Files of this size or larger are split in byte ranges moved on parallel channels by
+	 * {@link #uploadFile(File, Path)} and {@link #downloadFile(String, String, String, String)}.
+	 *
+	 * @param segmentThreshold Size in bytes, 0 disables segmented transfers (default)
+	 */
+	public void setSegmentThreshold(final long segmentThreshold) {
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	public int getSegmentCount() {
+		return this.segmentCount;
+	}
+
+	/**
+	 * @param segmentCount Number of parallel channels used by a segmented transfer
+	 */
+	public void setSegmentCount(final int segmentCount) {
+		this.segmentCount = segmentCount;
+	}
+}
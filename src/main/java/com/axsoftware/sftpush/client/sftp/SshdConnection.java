@@ -0,0 +1,51 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Authenticated MINA SSHD session with its SFTP client, as handed out by {@link SshdSessionPool}
+ */
+public final class SshdConnection {
+
+	private static final Logger logger = Logger.getLogger(SshdConnection.class.getName());
+
+	private final ClientSession session;
+
+	private final SftpClient client;
+
+	SshdConnection(final ClientSession session, final SftpClient client) {
+		this.session = session;
+		this.client = client;
+	}
+
+	public ClientSession getSession() {
+		return this.session;
+	}
+
+	public SftpClient getClient() {
+		return this.client;
+	}
+
+	/**
+	 * Check if both session and SFTP channel are still open
+	 */
+	public boolean isConnected() {
+		return !this.session.isClosing() && !this.session.isClosed() && !this.client.isClosing();
+	}
+
+	/**
+	 * Close SFTP channel and session
+	 */
+	void disconnect() {
+		try {
+			this.client.close();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+		this.session.close(true);
+	}
+}
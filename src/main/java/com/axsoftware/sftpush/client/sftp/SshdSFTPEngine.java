@@ -0,0 +1,245 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.cache.MetadataCache;
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.io.BandwidthLimiter;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+import org.apache.sshd.client.subsystem.sftp.SftpClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * {@link SFTPEngine} on the MINA SSHD client, sessions borrowed from a {@link SshdSessionPool}.
+ * <p>
+ * SSHD statuses are rethrown as JSch {@link SftpException}s with the same code; an I/O error that closed the
+ * session is reported as {@code SSH_FX_CONNECTION_LOST} and the session is dropped from the pool. Operations
+ * are measured, throttled and invalidate the {@link MetadataCache} like the ones of the owning client.
+ */
+final class SshdSFTPEngine implements SFTPEngine {
+
+	private static final Logger logger = Logger.getLogger(SshdSFTPEngine.class.getName());
+
+	private static final String EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP = "Error execute command SFTP";
+
+	private final PushConfig connection;
+
+	private final SshdSessionPool sessionPool;
+
+	private final BandwidthLimiter bandwidthLimiter;
+
+	private final SFTPMetrics metrics;
+
+	private final MetadataCache metadataCache;
+
+	private final int bufferSize;
+
+	SshdSFTPEngine(final PushConfig connection, final SshdSessionPool sessionPool, final BandwidthLimiter bandwidthLimiter, final SFTPMetrics metrics,
+			final MetadataCache metadataCache) {
+		this.connection = connection;
+		this.sessionPool = sessionPool;
+		this.bandwidthLimiter = bandwidthLimiter;
+		this.metrics = metrics;
+		this.metadataCache = metadataCache;
+		this.bufferSize = Math.max(SftpClient.MIN_BUFFER_SIZE, connection.getTransferProfile().getBufferSize(SftpClient.IO_BUFFER_SIZE));
+	}
+
+	@Override
+	public void upload(final InputStream content, final String remotePath) throws JSchException, SftpException {
+		execute(null, client -> {
+			try {
+				this.metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> {
+					try (final OutputStream output = client.write(remotePath, this.bufferSize,
+							SftpClient.OpenMode.Write, SftpClient.OpenMode.Create, SftpClient.OpenMode.Truncate)) {
+						copy(content, output, monitor);
+					}
+				});
+			} finally {
+				invalidateCache(client, remotePath);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public void download(final String remotePath, final OutputStream output) throws JSchException, SftpException {
+		execute(null, client -> {
+			this.metrics.transfer(TransferMetrics.Direction.DOWNLOAD, monitor -> {
+				try (final InputStream input = client.read(remotePath, this.bufferSize)) {
+					copy(input, output, monitor);
+				}
+			});
+			return null;
+		});
+	}
+
+	@Override
+	public List<String> listFiles(final String remoteDir) throws JSchException, SftpException {
+		return execute(TransferMetrics.Operation.LIST, client -> {
+			final List<String> fileNames = new ArrayList<>();
+			for (final SftpClient.DirEntry entry : client.readDir(remoteDir)) {
+				if (!entry.getAttributes().isDirectory()) {
+					fileNames.add(entry.getFilename());
+				}
+			}
+			return fileNames;
+		});
+	}
+
+	@Override
+	public void createDirectory(final String remoteDir) throws JSchException, SftpException {
+		execute(TransferMetrics.Operation.MKDIR, client -> {
+			mkdirs(client, remoteDir);
+			return null;
+		});
+	}
+
+	@Override
+	public void rename(final String source, final String target) throws JSchException, SftpException {
+		execute(TransferMetrics.Operation.RENAME, client -> {
+			try {
+				client.rename(source, target);
+			} finally {
+				invalidateCache(client, source);
+				invalidateCache(client, target);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public void delete(final String remotePath) throws JSchException, SftpException {
+		execute(TransferMetrics.Operation.DELETE, client -> {
+			try {
+				client.remove(remotePath);
+			} finally {
+				invalidateCache(client, remotePath);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Create a directory and its missing parents, like {@link SFTPBatch#mkdirs(String)} on JSch
+	 */
+	private void mkdirs(final SftpClient client, final String directory) throws IOException {
+		if (directory == null) {
+			return;
+		}
+		try {
+			client.mkdir(directory);
+		} catch (final org.apache.sshd.client.subsystem.sftp.SftpException e) {
+			if (e.getStatus() == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+				mkdirs(client, parentPath(directory));
+				client.mkdir(directory);
+			} else if (!isDirectory(client, directory)) {
+				// Servers answer a plain failure when the directory exists, only then is the error real
+				throw e;
+			}
+		}
+		invalidateCache(client, directory);
+	}
+
+	private static boolean isDirectory(final SftpClient client, final String path) {
+		try {
+			return client.stat(path).isDirectory();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Parent of a remote path, null for the root or a name relative to the home directory
+	 */
+	private static String parentPath(final String path) {
+		final String trimmed = path.replaceAll("/+$", "");
+		final int separator = trimmed.lastIndexOf('/');
+		return separator > 0 ? trimmed.substring(0, separator) : null;
+	}
+
+	private void invalidateCache(final SftpClient client, final String path) {
+		if (this.metadataCache == null) {
+			return;
+		}
+		try {
+			// Same keys as the JSch side: absolute paths
+			this.metadataCache.invalidate(path.startsWith("/") ? path : client.canonicalPath(".") + "/" + path);
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+			this.metadataCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Run an operation on a pooled session
+	 *
+	 * @param type Operation reported to the metrics, null for a transfer reported by {@link SFTPMetrics#transfer}
+	 */
+	private <T> T execute(final TransferMetrics.Operation type, final Operation<T> operation) throws JSchException, SftpException {
+		final Long maxBytesPerSecond = this.connection.getTransferProfile().getMaxBytesPerSecond();
+		if (maxBytesPerSecond != null && this.bandwidthLimiter != null) {
+			this.bandwidthLimiter.setDefaultHostRate(this.connection.getHost(), maxBytesPerSecond);
+		}
+		final SshdConnection sshdConnection = this.sessionPool.borrow(this.connection);
+		final long start = System.nanoTime();
+		try {
+			final T result = operation.call(sshdConnection.getClient());
+			if (type != null) {
+				this.metrics.getMetrics().operation(TransferMetrics.Protocol.SFTP, type, System.nanoTime() - start, true);
+			}
+			return result;
+		} catch (final IOException | SftpException e) {
+			logger.severe(EXCEPTION_ERROR_EXECUTE_COMMAND_SFTP);
+			final SftpException error = e instanceof SftpException ? (SftpException) e : sftpException((IOException) e, sshdConnection);
+			if (type != null) {
+				this.metrics.getMetrics().operation(TransferMetrics.Protocol.SFTP, type, System.nanoTime() - start, false);
+				this.metrics.error(error);
+			}
+			throw error;
+		} finally {
+			// A closed session is not usable and is discarded
+			this.sessionPool.release(sshdConnection);
+		}
+	}
+
+	private static SftpException sftpException(final IOException e, final SshdConnection sshdConnection) {
+		if (e instanceof org.apache.sshd.client.subsystem.sftp.SftpException) {
+			return new SftpException(((org.apache.sshd.client.subsystem.sftp.SftpException) e).getStatus(), e.getMessage(), e);
+		}
+		if (!sshdConnection.isConnected()) {
+			return new SftpException(ChannelSftp.SSH_FX_CONNECTION_LOST, e.getMessage(), e);
+		}
+		return new SftpException(ChannelSftp.SSH_FX_FAILURE, e.getMessage(), e);
+	}
+
+	/**
+	 * Copy counting each buffer to the monitor, which also throttles it
+	 */
+	private void copy(final InputStream input, final OutputStream output, final SftpProgressMonitor monitor) throws IOException {
+		final byte[] buffer = new byte[this.bufferSize];
+		int count;
+		while ((count = input.read(buffer)) != -1) {
+			output.write(buffer, 0, count);
+			if (!monitor.count(count)) {
+				throw new InterruptedIOException("Transfer cancelled");
+			}
+		}
+		output.flush();
+	}
+
+	@FunctionalInterface
+	private interface Operation<T> {
+
+		T call(SftpClient client) throws IOException, SftpException;
+	}
+}
@@ -0,0 +1,125 @@
+package com.axsoftware.sftpush.client.sftp;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.pool.KeyedConnectionPool;
+import com.jcraft.jsch.JSchException;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.config.keys.ClientIdentityLoader;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.config.keys.FilePasswordProvider;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.logging.Logger;
+
+/**
+ * Pool of authenticated MINA SSHD sessions and SFTP clients keyed by {@link PushConfig}.
+ * <p>
+ * All sessions of the pool share one {@link SshClient}: its NIO2 channel group serves every session with a few
+ * threads, so the pool can hold many more sessions than the JSch pool, which runs a thread per session.
+ */
+public class SshdSessionPool extends KeyedConnectionPool<SshdConnection, JSchException> {
+
+	private static final Logger logger = Logger.getLogger(SshdSessionPool.class.getName());
+
+	private static final SshdSessionPool DEFAULT = new SshdSessionPool();
+
+	private static final String ERROR_CONNECT = "Error connect SFTP %s.( %s )";
+
+	private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 30000;
+
+	private SshClient client;
+
+	/**
+	 * Pool shared by clients created without an explicit pool
+	 */
+	public static SshdSessionPool getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Shared client, started on the first connection
+	 */
+	private synchronized SshClient getClient() {
+		if (this.client == null) {
+			final SshClient sshClient = SshClient.setUpDefaultClient();
+			// Same policy as the JSch sessions: StrictHostKeyChecking=no
+			sshClient.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+			sshClient.start();
+			this.client = sshClient;
+		}
+		return this.client;
+	}
+
+	@Override
+	protected SshdConnection create(final PushConfig config) throws JSchException {
+		final long start = System.nanoTime();
+		try {
+			final SshdConnection connection = connect(config);
+			getMetrics().connect(TransferMetrics.Protocol.SFTP, config.getHost(), System.nanoTime() - start, true);
+			return connection;
+		} catch (final JSchException | RuntimeException e) {
+			getMetrics().connect(TransferMetrics.Protocol.SFTP, config.getHost(), System.nanoTime() - start, false);
+			getMetrics().error(TransferMetrics.Protocol.SFTP, SFTPMetrics.cause(e));
+			throw e;
+		}
+	}
+
+	private SshdConnection connect(final PushConfig config) throws JSchException {
+		final long timeout = config.getConnectTimeout() != null ? config.getConnectTimeout() : DEFAULT_CONNECT_TIMEOUT_MILLIS;
+		ClientSession session = null;
+		try {
+			session = getClient().connect(config.getUsername(), config.getHost(), config.getPort()).verify(timeout).getSession();
+			if (config.getPassword() != null) {
+				session.addPasswordIdentity(config.getPassword());
+			}
+			if (config.getPpk() != null) {
+				session.addPublicKeyIdentity(ClientIdentityLoader.DEFAULT.loadClientIdentity(config.getPpk(), FilePasswordProvider.EMPTY));
+			}
+			session.auth().verify(timeout);
+			return new SshdConnection(session, session.createSftpClient());
+		} catch (final IOException | GeneralSecurityException | RuntimeException e) {
+			if (session != null) {
+				session.close(true);
+			}
+			throw new JSchException(String.format(ERROR_CONNECT, config.getHost(), e.getMessage()), e);
+		}
+	}
+
+	@Override
+	protected boolean isUsable(final SshdConnection connection) {
+		return connection.isConnected();
+	}
+
+	@Override
+	protected boolean validate(final SshdConnection connection) {
+		try {
+			connection.getClient().canonicalPath(".");
+			return true;
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	protected void destroy(final SshdConnection connection) {
+		connection.disconnect();
+	}
+
+	/**
+	 * Close the idle sessions and stop the shared client
+	 */
+	@Override
+	public void close() {
+		super.close();
+		synchronized (this) {
+			if (this.client != null) {
+				this.client.stop();
+				this.client = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.axsoftware.sftpush.config;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decide per file whether a transfer is worth a compressed SSH session.
+ * <p>
+ * Known extensions decide first: archives, images and media are already compressed and would only burn CPU,
+ * text formats shrink several times. Other files are judged on their first block, deflated at the fastest level:
+ * the file is compressed when the sample shrinks below {@link #getMaxRatio()} of its size.
+ */
+public class CompressionPolicy {
+
+	public static final int DEFAULT_SAMPLE_SIZE = 64 * 1024;
+
+	public static final double DEFAULT_MAX_RATIO = 0.9;
+
+	/**
+	 * Below this a sample says nothing about the rest of the file, and the file is too small to care
+	 */
+	private static final int MIN_SAMPLE_SIZE = 512;
+
+	private static final String[] COMPRESSED_EXTENSIONS = {
+			"7z", "aac", "apk", "avi", "br", "bz2", "cab", "deb", "docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg",
+			"lz", "lz4", "lzma", "mkv", "mov", "mp3", "mp4", "odp", "ods", "odt", "ogg", "png", "pptx", "rar", "rpm", "tbz2",
+			"tgz", "txz", "war", "webm", "webp", "xlsx", "xz", "z", "zip", "zst"
+	};
+
+	private static final String[] TEXT_EXTENSIONS = {
+			"csv", "htm", "html", "json", "log", "md", "properties", "sql", "svg", "tsv", "txt", "xml", "yaml", "yml"
+	};
+
+	private final Set<String> compressedExtensions = new HashSet<>(Arrays.asList(COMPRESSED_EXTENSIONS));
+
+	private final Set<String> textExtensions = new HashSet<>(Arrays.asList(TEXT_EXTENSIONS));
+
+	private int sampleSize = DEFAULT_SAMPLE_SIZE;
+
+	private double maxRatio = DEFAULT_MAX_RATIO;
+
+	/**
+	 * Decision by extension only
+	 *
+	 * @param fileName File name or path
+	 * @return True for text formats, false for compressed formats, null when the extension is unknown
+	 */
+	public Boolean byName(final String fileName) {
+		final String extension = extension(fileName);
+		if (extension == null) {
+			return null;
+		}
+		if (this.compressedExtensions.contains(extension)) {
+			return false;
+		}
+		return this.textExtensions.contains(extension) ? true : null;
+	}
+
+	/**
+	 * Decision by extension, then by the sample when the extension is unknown
+	 *
+	 * @param fileName File name or path
+	 * @param sample   First bytes of the file
+	 * @param length   Number of sample bytes read
+	 */
+	public boolean shouldCompress(final String fileName, final byte[] sample, final int length) {
+		final Boolean byName = byName(fileName);
+		return byName != null ? byName : isCompressible(sample, length);
+	}
+
+	/**
+	 * Deflate the sample and compare its size
+	 */
+	public boolean isCompressible(final byte[] sample, final int length) {
+		if (sample == null || length < MIN_SAMPLE_SIZE) {
+			return false;
+		}
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+			final byte[] output = new byte[8192];
+			long compressed = 0;
+			while (!deflater.finished()) {
+				compressed += deflater.deflate(output);
+				if (compressed > length * this.maxRatio) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static String extension(final String fileName) {
+		if (fileName == null) {
+			return null;
+		}
+		final int dot = fileName.lastIndexOf('.');
+		final int separator = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+		return dot > separator + 1 ? fileName.substring(dot + 1).toLowerCase(Locale.ROOT) : null;
+	}
+
+	/**
+	 * Extensions of files never worth compressing, without the dot
+	 */
+	public Set<String> getCompressedExtensions() {
+		return this.compressedExtensions;
+	}
+
+	/**
+	 * Extensions of files always worth compressing, without the dot
+	 */
+	public Set<String> getTextExtensions() {
+		return this.textExtensions;
+	}
+
+	public int getSampleSize() {
+		return this.sampleSize;
+	}
+
+	/**
+	 * @param sampleSize Bytes read from the start of a file with an unknown extension
+	 */
+	public void setSampleSize(final int sampleSize) {
+		if (sampleSize < MIN_SAMPLE_SIZE) {
+			throw new IllegalArgumentException("Invalid sample size: " + sampleSize);
+		}
+		this.sampleSize = sampleSize;
+	}
+
+	public double getMaxRatio() {
+		return this.maxRatio;
+	}
+
+	/**
+	 * @param maxRatio Compressed to original sample size above which compression is not worth it
+	 */
+	public void setMaxRatio(final double maxRatio) {
+		if (maxRatio <= 0 || maxRatio > 1) {
+			throw new IllegalArgumentException("Invalid ratio: " + maxRatio);
+		}
+		this.maxRatio = maxRatio;
+	}
+}
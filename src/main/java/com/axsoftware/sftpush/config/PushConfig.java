@@ -14,6 +14,8 @@ public class PushConfig {
 
 	private Integer connectTimeout;
 
+	private TransferProfile transferProfile = TransferProfile.defaults();
+
 	public PushConfig(final String host, final String username, final String password, final String ppk, final Integer port) {
 		this.username = username;
 		this.host = host;
@@ -82,4 +84,12 @@ public class PushConfig {
 		this.connectTimeout = connectTimeout;
 	}
 
+	public TransferProfile getTransferProfile() {
+		return this.transferProfile;
+	}
+
+	public void setTransferProfile(final TransferProfile transferProfile) {
+		this.transferProfile = transferProfile != null ? transferProfile : TransferProfile.defaults();
+	}
+
 }
@@ -0,0 +1,333 @@
+package com.axsoftware.sftpush.config;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Transfer tuning applied by the SFTP and FTP clients.
+ * <p>
+ * A null value keeps the library default. Presets cover the usual destinations and can be picked by name,
+ * then overridden key by key, from {@link Properties} (see {@link #fromProperties(Properties, String)}).
+ */
+public class TransferProfile {
+
+	public static final String LAN = "lan";
+
+	public static final String HIGH_LATENCY_WAN = "high-latency-wan";
+
+	public static final String MANY_SMALL_FILES = "many-small-files";
+
+	/**
+	 * SFTP engine on JSch, blocking with threads per session
+	 */
+	public static final String ENGINE_JSCH = "jsch";
+
+	/**
+	 * SFTP engine on the Apache MINA SSHD client, NIO2 sessions sharing a small thread pool
+	 */
+	public static final String ENGINE_SSHD = "sshd";
+
+	private static final String PROFILE = "profile";
+
+	/**
+	 * SFTP read/write requests in flight per transfer (JSch default 16)
+	 */
+	private Integer bulkRequests;
+
+	/**
+	 * SSH channel receive window in bytes (JSch SFTP default 2 MB)
+	 */
+	private Integer windowSize;
+
+	/**
+	 * SSH channel maximum packet size in bytes (JSch SFTP default 32 KB)
+	 */
+	private Integer packetSize;
+
+	/**
+	 * Local copy buffer size in bytes, for both clients
+	 */
+	private Integer bufferSize;
+
+	/**
+	 * FTP control and data socket send buffer in bytes
+	 */
+	private Integer sendBufferSize;
+
+	/**
+	 * FTP control and data socket receive buffer in bytes
+	 */
+	private Integer receiveBufferSize;
+
+	/**
+	 * FTP data connection read timeout in milliseconds
+	 */
+	private Integer dataTimeout;
+
+	/**
+	 * Seconds between NOOPs sent on the FTP control connection during long transfers
+	 */
+	private Integer controlKeepAliveTimeout;
+
+	/**
+	 * Negotiate zlib compression of the SSH transport (JSch default off)
+	 */
+	private Boolean compression;
+
+	/**
+	 * SSH transport compression level, 1 (fastest) to 9 (smallest) (JSch default 6)
+	 */
+	private Integer compressionLevel;
+
+	/**
+	 * Cap of the bytes per second sent to and received from the host, shared by all its transfers (default none)
+	 */
+	private Long maxBytesPerSecond;
+
+	/**
+	 * SFTP engine, {@link #ENGINE_JSCH} or {@link #ENGINE_SSHD} (default JSch)
+	 */
+	private String engine;
+
+	/**
+	 * Library defaults
+	 */
+	public static TransferProfile defaults() {
+		return new TransferProfile();
+	}
+
+	/**
+	 * Low latency, high bandwidth destinations
+	 */
+	public static TransferProfile lan() {
+		final TransferProfile profile = new TransferProfile();
+		profile.setBulkRequests(32);
+		profile.setWindowSize(4 * 1024 * 1024);
+		profile.setPacketSize(32 * 1024);
+		profile.setBufferSize(256 * 1024);
+		profile.setSendBufferSize(256 * 1024);
+		profile.setReceiveBufferSize(256 * 1024);
+		profile.setDataTimeout(30000);
+		return profile;
+	}
+
+	/**
+	 * Long round-trip links: many requests in flight and large windows to fill the bandwidth-delay product
+	 */
+	public static TransferProfile highLatencyWan() {
+		final TransferProfile profile = new TransferProfile();
+		profile.setBulkRequests(128);
+		profile.setWindowSize(16 * 1024 * 1024);
+		profile.setPacketSize(32 * 1024);
+		profile.setBufferSize(1024 * 1024);
+		profile.setSendBufferSize(4 * 1024 * 1024);
+		profile.setReceiveBufferSize(4 * 1024 * 1024);
+		profile.setDataTimeout(120000);
+		profile.setControlKeepAliveTimeout(60);
+		return profile;
+	}
+
+	/**
+	 * Lots of small files: small buffers, nothing to gain from deep pipelines
+	 */
+	public static TransferProfile manySmallFiles() {
+		final TransferProfile profile = new TransferProfile();
+		profile.setBulkRequests(8);
+		profile.setBufferSize(32 * 1024);
+		profile.setSendBufferSize(64 * 1024);
+		profile.setReceiveBufferSize(64 * 1024);
+		profile.setDataTimeout(15000);
+		return profile;
+	}
+
+	/**
+	 * Preset by name: {@link #LAN}, {@link #HIGH_LATENCY_WAN}, {@link #MANY_SMALL_FILES} or "default"
+	 */
+	public static TransferProfile forName(final String name) {
+		if (name == null) {
+			return defaults();
+		}
+		switch (name.trim().toLowerCase(Locale.ROOT)) {
+			case LAN:
+				return lan();
+			case HIGH_LATENCY_WAN:
+				return highLatencyWan();
+			case MANY_SMALL_FILES:
+				return manySmallFiles();
+			case "default":
+				return defaults();
+			default:
+				throw new IllegalArgumentException("Unknown transfer profile: " + name);
+		}
+	}
+
+	/**
+	 * Read a profile from properties: {@code <prefix>profile} selects the preset, then any of
+	 * {@code <prefix>bulkRequests}, {@code windowSize}, {@code packetSize}, {@code bufferSize}, {@code sendBufferSize},
+	 * {@code receiveBufferSize}, {@code dataTimeout}, {@code controlKeepAliveTimeout}, {@code compression},
+	 * {@code compressionLevel}, {@code maxBytesPerSecond}, {@code engine} overrides it.
+	 *
+	 * @param properties Properties, e.g. per destination configuration
+	 * @param prefix     Key prefix, e.g. "partner1.transfer."
+	 */
+	public static TransferProfile fromProperties(final Properties properties, final String prefix) {
+		final TransferProfile profile = forName(properties.getProperty(prefix + PROFILE));
+		profile.setBulkRequests(integer(properties, prefix + "bulkRequests", profile.getBulkRequests()));
+		profile.setWindowSize(integer(properties, prefix + "windowSize", profile.getWindowSize()));
+		profile.setPacketSize(integer(properties, prefix + "packetSize", profile.getPacketSize()));
+		profile.setBufferSize(integer(properties, prefix + "bufferSize", profile.getBufferSize()));
+		profile.setSendBufferSize(integer(properties, prefix + "sendBufferSize", profile.getSendBufferSize()));
+		profile.setReceiveBufferSize(integer(properties, prefix + "receiveBufferSize", profile.getReceiveBufferSize()));
+		profile.setDataTimeout(integer(properties, prefix + "dataTimeout", profile.getDataTimeout()));
+		profile.setControlKeepAliveTimeout(integer(properties, prefix + "controlKeepAliveTimeout", profile.getControlKeepAliveTimeout()));
+		profile.setCompression(bool(properties, prefix + "compression", profile.getCompression()));
+		profile.setCompressionLevel(integer(properties, prefix + "compressionLevel", profile.getCompressionLevel()));
+		profile.setMaxBytesPerSecond(longValue(properties, prefix + "maxBytesPerSecond", profile.getMaxBytesPerSecond()));
+		profile.setEngine(properties.getProperty(prefix + "engine", profile.getEngine()));
+		return profile;
+	}
+
+	/**
+	 * Copy of this profile, e.g. to change one setting for a single destination
+	 */
+	public TransferProfile copy() {
+		final TransferProfile profile = new TransferProfile();
+		profile.setBulkRequests(this.bulkRequests);
+		profile.setWindowSize(this.windowSize);
+		profile.setPacketSize(this.packetSize);
+		profile.setBufferSize(this.bufferSize);
+		profile.setSendBufferSize(this.sendBufferSize);
+		profile.setReceiveBufferSize(this.receiveBufferSize);
+		profile.setDataTimeout(this.dataTimeout);
+		profile.setControlKeepAliveTimeout(this.controlKeepAliveTimeout);
+		profile.setCompression(this.compression);
+		profile.setCompressionLevel(this.compressionLevel);
+		profile.setMaxBytesPerSecond(this.maxBytesPerSecond);
+		profile.setEngine(this.engine);
+		return profile;
+	}
+
+	private static Integer integer(final Properties properties, final String key, final Integer defaultValue) {
+		final String value = properties.getProperty(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : Integer.valueOf(value.trim());
+	}
+
+	private static Long longValue(final Properties properties, final String key, final Long defaultValue) {
+		final String value = properties.getProperty(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : Long.valueOf(value.trim());
+	}
+
+	private static Boolean bool(final Properties properties, final String key, final Boolean defaultValue) {
+		final String value = properties.getProperty(key);
+		return value == null || value.trim().isEmpty() ? defaultValue : Boolean.valueOf(value.trim());
+	}
+
+	/**
+	 * Local copy buffer size, or the given default
+	 */
+	public int getBufferSize(final int defaultSize) {
+		return this.bufferSize != null ? this.bufferSize : defaultSize;
+	}
+
+	public Integer getBulkRequests() {
+		return this.bulkRequests;
+	}
+
+	public void setBulkRequests(final Integer bulkRequests) {
+		this.bulkRequests = bulkRequests;
+	}
+
+	public Integer getWindowSize() {
+		return this.windowSize;
+	}
+
+	public void setWindowSize(final Integer windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	public Integer getPacketSize() {
+		return this.packetSize;
+	}
+
+	public void setPacketSize(final Integer packetSize) {
+		this.packetSize = packetSize;
+	}
+
+	public Integer getBufferSize() {
+		return this.bufferSize;
+	}
+
+	public void setBufferSize(final Integer bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	public Integer getSendBufferSize() {
+		return this.sendBufferSize;
+	}
+
+	public void setSendBufferSize(final Integer sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public Integer getReceiveBufferSize() {
+		return this.receiveBufferSize;
+	}
+
+	public void setReceiveBufferSize(final Integer receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public Integer getDataTimeout() {
+		return this.dataTimeout;
+	}
+
+	public void setDataTimeout(final Integer dataTimeout) {
+		this.dataTimeout = dataTimeout;
+	}
+
+	public Integer getControlKeepAliveTimeout() {
+		return this.controlKeepAliveTimeout;
+	}
+
+	public void setControlKeepAliveTimeout(final Integer controlKeepAliveTimeout) {
+		this.controlKeepAliveTimeout = controlKeepAliveTimeout;
+	}
+
+	public Boolean getCompression() {
+		return this.compression;
+	}
+
+	public void setCompression(final Boolean compression) {
+		this.compression = compression;
+	}
+
+	public Integer getCompressionLevel() {
+		return this.compressionLevel;
+	}
+
+	public void setCompressionLevel(final Integer compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public Long getMaxBytesPerSecond() {
+		return this.maxBytesPerSecond;
+	}
+
+	public void setMaxBytesPerSecond(final Long maxBytesPerSecond) {
+		this.maxBytesPerSecond = maxBytesPerSecond;
+	}
+
+	public String getEngine() {
+		return this.engine;
+	}
+
+	/**
+	 * @param engine {@link #ENGINE_JSCH}, {@link #ENGINE_SSHD} or null for the default
+	 */
+	public void setEngine(final String engine) {
+		if (engine != null && !ENGINE_JSCH.equals(engine.trim()) && !ENGINE_SSHD.equals(engine.trim())) {
+			throw new IllegalArgumentException("Unknown SFTP engine: " + engine);
+		}
+		this.engine = engine != null ? engine.trim() : null;
+	}
+}
@@ -0,0 +1,389 @@
+package com.axsoftware.sftpush.fanout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Ring of fixed size chunks filled once from the source and read by several {@link Reader}s.
+ * <p>
+ * A slot is refilled once every attached reader is past its chunk. A reader still holding the oldest slot after
+ * the stall limit is detached: it goes on from the spill, which is the source file itself, or for a stream source
+ * a temporary file the filler appends every chunk to from then on. Memory stays at the ring size whatever the
+ * spread between the readers.
+ */
+final class FanOutBuffer implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(FanOutBuffer.class.getName());
+
+	private final byte[][] slots;
+
+	private final int[] lengths;
+
+	private final int chunkSize;
+
+	private final long maxStallNanos;
+
+	private final Path spillDirectory;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition changed = this.lock.newCondition();
+
+	private final List<Reader> readers = new ArrayList<>();
+
+	/**
+	 * Chunks filled so far
+	 */
+	private long produced;
+
+	/**
+	 * Source bytes filled so far
+	 */
+	private long size;
+
+	private boolean finished;
+
+	private IOException failure;
+
+	/**
+	 * Source bytes from {@code spillBase} on are at offset {@code position - spillBase} of the spill file,
+	 * {@code spilled} of them so far
+	 */
+	private Path spillFile;
+
+	private long spillBase;
+
+	private long spilled;
+
+	private FileChannel spillOutput;
+
+	/**
+	 * @param source Source file, spill of the detached readers; null for a stream source
+	 */
+	FanOutBuffer(final int chunkSize, final int chunkCount, final long maxStallMillis, final Path spillDirectory, final Path source) {
+		this.slots = new byte[chunkCount][chunkSize];
+		this.lengths = new int[chunkCount];
+		this.chunkSize = chunkSize;
+		this.maxStallNanos = TimeUnit.MILLISECONDS.toNanos(maxStallMillis);
+		this.spillDirectory = spillDirectory;
+		if (source != null) {
+			this.spillFile = source;
+			this.spilled = Long.MAX_VALUE;
+		}
+	}
+
+	Reader newReader(final String name) {
+		this.lock.lock();
+		try {
+			final Reader reader = new Reader(name);
+			this.readers.add(reader);
+			return reader;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Read the source to its end, or until every reader is closed
+	 */
+	void fill(final InputStream source) throws IOException {
+		try {
+			for (long chunk = 0; awaitFree(chunk); chunk++) {
+				final int slot = (int) (chunk % this.slots.length);
+				final int length = readFully(source, this.slots[slot]);
+				if (length > 0) {
+					produced(chunk, slot, length);
+				}
+				if (length < this.chunkSize) {
+					break;
+				}
+			}
+		} catch (final IOException e) {
+			this.failure = e;
+			throw e;
+		} finally {
+			this.lock.lock();
+			try {
+				this.finished = true;
+				this.changed.signalAll();
+			} finally {
+				this.lock.unlock();
+			}
+		}
+	}
+
+	private void produced(final long chunk, final int slot, final int length) throws IOException {
+		final FileChannel output;
+		this.lock.lock();
+		try {
+			this.lengths[slot] = length;
+			this.produced = chunk + 1;
+			this.size += length;
+			this.changed.signalAll();
+			output = this.spillOutput;
+		} finally {
+			this.lock.unlock();
+		}
+		if (output == null) {
+			return;
+		}
+		// Only the filler writes the spill, detached readers wait for the bytes to be counted
+		writeFully(output, this.slots[slot], length);
+		this.lock.lock();
+		try {
+			this.spilled += length;
+			this.changed.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until the slot of the chunk is free, detaching the readers that stall the ring
+	 *
+	 * @return False when no reader is left
+	 */
+	private boolean awaitFree(final long chunk) throws IOException {
+		this.lock.lock();
+		try {
+			final long deadline = System.nanoTime() + this.maxStallNanos;
+			while (true) {
+				Reader lagging = null;
+				boolean open = false;
+				for (final Reader reader : this.readers) {
+					if (!reader.closed) {
+						open = true;
+						if (!reader.detached && reader.chunk <= chunk - this.slots.length) {
+							lagging = reader;
+						}
+					}
+				}
+				if (!open) {
+					return false;
+				}
+				if (lagging == null) {
+					return true;
+				}
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					detach(lagging);
+				} else {
+					this.changed.awaitNanos(remaining);
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a slow target");
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Move a reader to the spill. Called with the lock held; the chunks it has not read are still in the ring.
+	 */
+	private void detach(final Reader reader) throws IOException {
+		if (this.spillFile == null) {
+			this.spillFile = Files.createTempFile(this.spillDirectory, "sftpush-fanout", ".spill");
+			this.spillOutput = FileChannel.open(this.spillFile, StandardOpenOption.WRITE);
+			this.spillBase = reader.chunk * this.chunkSize;
+			for (long chunk = reader.chunk; chunk < this.produced; chunk++) {
+				final int slot = (int) (chunk % this.slots.length);
+				writeFully(this.spillOutput, this.slots[slot], this.lengths[slot]);
+				this.spilled += this.lengths[slot];
+			}
+		}
+		logger.info(String.format("Fan-out target %s is slow, reading from %s", reader.name, this.spillFile));
+		reader.detached = true;
+		this.changed.signalAll();
+	}
+
+	/**
+	 * Delete the temporary spill
+	 */
+	@Override
+	public void close() throws IOException {
+		this.lock.lock();
+		try {
+			if (this.spillOutput != null) {
+				this.spillOutput.close();
+				Files.deleteIfExists(this.spillFile);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	private static int readFully(final InputStream source, final byte[] buffer) throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			final int count = source.read(buffer, length, buffer.length - length);
+			if (count < 0) {
+				break;
+			}
+			length += count;
+		}
+		return length;
+	}
+
+	private static void writeFully(final FileChannel output, final byte[] bytes, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining()) {
+			output.write(buffer);
+		}
+	}
+
+	/**
+	 * Contents seen by one target
+	 */
+	final class Reader extends InputStream {
+
+		private final String name;
+
+		private long chunk;
+
+		private int offset;
+
+		private boolean detached;
+
+		private boolean closed;
+
+		private boolean eof;
+
+		private FileChannel spillInput;
+
+		private Reader(final String name) {
+			this.name = name;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] bytes, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			final long position;
+			final int count;
+			FanOutBuffer.this.lock.lock();
+			try {
+				while (!this.detached) {
+					if (this.closed) {
+						throw new IOException("Stream closed");
+					}
+					if (this.chunk < FanOutBuffer.this.produced) {
+						return readRing(bytes, off, len);
+					}
+					if (FanOutBuffer.this.finished) {
+						return end();
+					}
+					FanOutBuffer.this.changed.await();
+				}
+
+				position = getPosition();
+				while (FanOutBuffer.this.spilled - (position - FanOutBuffer.this.spillBase) <= 0) {
+					if (FanOutBuffer.this.finished) {
+						return end();
+					}
+					FanOutBuffer.this.changed.await();
+				}
+				count = (int) Math.min(len, FanOutBuffer.this.spilled - (position - FanOutBuffer.this.spillBase));
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the source");
+			} finally {
+				FanOutBuffer.this.lock.unlock();
+			}
+			return readSpill(bytes, off, count, position);
+		}
+
+		private int readRing(final byte[] bytes, final int off, final int len) {
+			final int slot = (int) (this.chunk % FanOutBuffer.this.slots.length);
+			final int count = Math.min(len, FanOutBuffer.this.lengths[slot] - this.offset);
+			System.arraycopy(FanOutBuffer.this.slots[slot], this.offset, bytes, off, count);
+			this.offset += count;
+			if (this.offset == FanOutBuffer.this.lengths[slot]) {
+				this.chunk++;
+				this.offset = 0;
+				FanOutBuffer.this.changed.signalAll();
+			}
+			return count;
+		}
+
+		private int readSpill(final byte[] bytes, final int off, final int len, final long position) throws IOException {
+			if (this.spillInput == null) {
+				this.spillInput = FileChannel.open(FanOutBuffer.this.spillFile, StandardOpenOption.READ);
+			}
+			final int count = this.spillInput.read(ByteBuffer.wrap(bytes, off, len), position - FanOutBuffer.this.spillBase);
+			if (count > 0) {
+				FanOutBuffer.this.lock.lock();
+				try {
+					final long next = position + count;
+					this.chunk = next / FanOutBuffer.this.chunkSize;
+					this.offset = (int) (next % FanOutBuffer.this.chunkSize);
+				} finally {
+					FanOutBuffer.this.lock.unlock();
+				}
+			}
+			return count;
+		}
+
+		private int end() throws IOException {
+			if (FanOutBuffer.this.failure != null) {
+				throw new IOException("Source read failed", FanOutBuffer.this.failure);
+			}
+			this.eof = true;
+			return -1;
+		}
+
+		/**
+		 * Check the whole source was read, a target may return before the end of its stream
+		 */
+		boolean isComplete() {
+			FanOutBuffer.this.lock.lock();
+			try {
+				return this.eof && getPosition() == FanOutBuffer.this.size;
+			} finally {
+				FanOutBuffer.this.lock.unlock();
+			}
+		}
+
+		/**
+		 * Bytes read so far
+		 */
+		long getPosition() {
+			return this.chunk * FanOutBuffer.this.chunkSize + this.offset;
+		}
+
+		@Override
+		public void close() throws IOException {
+			FanOutBuffer.this.lock.lock();
+			try {
+				this.closed = true;
+				FanOutBuffer.this.changed.signalAll();
+			} finally {
+				FanOutBuffer.this.lock.unlock();
+			}
+			if (this.spillInput != null) {
+				this.spillInput.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package com.axsoftware.sftpush.fanout;
+
+import com.axsoftware.sftpush.client.ftp.FTPConnectionPool;
+import com.axsoftware.sftpush.client.ftp.FTPushClient;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.axsoftware.sftpush.config.PushConfig;
+import org.apache.commons.net.ftp.FTP;
+
+import java.io.InputStream;
+import java.nio.file.Paths;
+
+/**
+ * Destination of a {@link FanOutUpload}
+ */
+@FunctionalInterface
+public interface FanOutTarget {
+
+	/**
+	 * Upload the shared contents, read to the end on success
+	 *
+	 * @param content Contents, closed by the fan-out when the upload returns
+	 */
+	void upload(InputStream content) throws Exception;
+
+	/**
+	 * Upload with an SFTP client, e.g. one per partner {@link PushConfig}
+	 */
+	static FanOutTarget sftp(final SFTPushClient client, final String remotePath) {
+		return content -> client.uploadFile(content, Paths.get(remotePath));
+	}
+
+	/**
+	 * Upload in binary mode on a connection of the default FTP pool
+	 */
+	static FanOutTarget ftp(final PushConfig config, final String remotePath) {
+		return content -> {
+			final int separator = remotePath.lastIndexOf('/');
+			final String directory = separator < 0 ? null : separator == 0 ? "/" : remotePath.substring(0, separator);
+
+			final FTPushClient client = new FTPushClient(config, FTPConnectionPool.getDefault());
+			client.connect();
+			try {
+				client.upload(content, remotePath.substring(separator + 1), directory, null, FTP.BINARY_FILE_TYPE, false);
+			} finally {
+				client.quit();
+			}
+		};
+	}
+}
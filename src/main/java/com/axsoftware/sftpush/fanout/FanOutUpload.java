@@ -0,0 +1,189 @@
+package com.axsoftware.sftpush.fanout;
+
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferExecutors;
+import com.axsoftware.sftpush.transfer.TransferResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Upload one source to several destinations, reading it once.
+ * <p>
+ * The source is read on the calling thread into a bounded ring of chunks shared by the targets, each uploading on
+ * its own thread at its own pace. A target that falls a whole ring behind for longer than
+ * {@link #setMaxStallMillis(long)} no longer holds the others back: it is detached and reads on from the source
+ * file, or for a stream from a temporary spill file. A failed target does not stop the others; the result has one
+ * entry per target, in the order they were added.
+ */
+public class FanOutUpload {
+
+	private static final Logger logger = Logger.getLogger(FanOutUpload.class.getName());
+
+	private static final String ERROR_SOURCE = "Error on read fan-out source %s.( %s )";
+
+	private static final String ERROR_UPLOAD = "Error on fan-out upload";
+
+	private static final String ERROR_NO_TARGET = "No fan-out target";
+
+	private static final String ERROR_INCOMPLETE = "Fan-out target %s stopped after %d bytes, before the end of the source";
+
+	private static final String THREAD_NAME = "sftpush-fanout";
+
+	private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private static final int DEFAULT_CHUNK_COUNT = 16;
+
+	private static final long DEFAULT_MAX_STALL_MILLIS = 100;
+
+	private final Map<String, FanOutTarget> targets = new LinkedHashMap<>();
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private int chunkCount = DEFAULT_CHUNK_COUNT;
+
+	private long maxStallMillis = DEFAULT_MAX_STALL_MILLIS;
+
+	private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+
+	/**
+	 * @param name Name of the target in the result
+	 */
+	public FanOutUpload add(final String name, final FanOutTarget target) {
+		this.targets.put(name, target);
+		return this;
+	}
+
+	/**
+	 * Upload a file; slow targets read on from the file itself
+	 */
+	public TransferBatchResult upload(final Path source) {
+		try (final InputStream input = Files.newInputStream(source)) {
+			return upload(input, source);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_SOURCE, source, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Upload a stream, not closed; slow targets read on from a temporary spill file
+	 */
+	public TransferBatchResult upload(final InputStream source) {
+		return upload(source, null);
+	}
+
+	private TransferBatchResult upload(final InputStream source, final Path sourceFile) {
+		if (this.targets.isEmpty()) {
+			throw new SFTPushException(ERROR_NO_TARGET);
+		}
+		final long start = System.currentTimeMillis();
+		final FanOutBuffer buffer = new FanOutBuffer(this.chunkSize, this.chunkCount, this.maxStallMillis, this.spillDirectory, sourceFile);
+		final ExecutorService executor = TransferExecutors.newBoundedExecutor(THREAD_NAME, this.targets.size());
+		try {
+			final List<Future<TransferResult>> futures = new ArrayList<>();
+			for (final Map.Entry<String, FanOutTarget> target : this.targets.entrySet()) {
+				final FanOutBuffer.Reader reader = buffer.newReader(target.getKey());
+				futures.add(executor.submit(() -> push(target.getKey(), target.getValue(), reader)));
+			}
+			try {
+				buffer.fill(source);
+			} catch (final IOException e) {
+				// The targets fail on the error and report it
+				logger.severe(String.format(ERROR_SOURCE, sourceFile != null ? sourceFile : "stream", e.getMessage()));
+			}
+			final List<TransferResult> results = new ArrayList<>();
+			for (final Future<TransferResult> future : futures) {
+				results.add(future.get());
+			}
+			return new TransferBatchResult(results, System.currentTimeMillis() - start);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SFTPushException(ERROR_UPLOAD, e);
+		} catch (final ExecutionException e) {
+			throw new SFTPushException(ERROR_UPLOAD, e.getCause());
+		} finally {
+			executor.shutdownNow();
+			try {
+				buffer.close();
+			} catch (final IOException e) {
+				logger.warning(e.getMessage());
+			}
+		}
+	}
+
+	private static TransferResult push(final String name, final FanOutTarget target, final FanOutBuffer.Reader reader) throws IOException {
+		final long start = System.currentTimeMillis();
+		try {
+			target.upload(reader);
+			if (!reader.isComplete()) {
+				throw new IOException(String.format(ERROR_INCOMPLETE, name, reader.getPosition()));
+			}
+			return TransferResult.success(name, reader.getPosition(), System.currentTimeMillis() - start);
+		} catch (final Exception e) {
+			logger.warning(String.format("Fan-out target %s failed.( %s )", name, e.getMessage()));
+			return TransferResult.failure(name, System.currentTimeMillis() - start, e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	public int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	/**
+	 * @param chunkSize Bytes per chunk of the ring
+	 */
+	public FanOutUpload setChunkSize(final int chunkSize) {
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	public int getChunkCount() {
+		return this.chunkCount;
+	}
+
+	/**
+	 * @param chunkCount Chunks in the ring, the most a target may lag before it stalls the others
+	 */
+	public FanOutUpload setChunkCount(final int chunkCount) {
+		this.chunkCount = chunkCount;
+		return this;
+	}
+
+	public long getMaxStallMillis() {
+		return this.maxStallMillis;
+	}
+
+	/**
+	 * @param maxStallMillis Time the ring waits for a target a whole ring behind before detaching it
+	 */
+	public FanOutUpload setMaxStallMillis(final long maxStallMillis) {
+		this.maxStallMillis = maxStallMillis;
+		return this;
+	}
+
+	public Path getSpillDirectory() {
+		return this.spillDirectory;
+	}
+
+	/**
+	 * @param spillDirectory Directory of the spill files of stream sources
+	 */
+	public FanOutUpload setSpillDirectory(final Path spillDirectory) {
+		this.spillDirectory = spillDirectory;
+		return this;
+	}
+}
@@ -0,0 +1,42 @@
+package com.axsoftware.sftpush.inbox;
+
+/**
+ * File of a remote inbox folder, as listed by the server
+ */
+public final class InboxEntry {
+
+	private final String name;
+
+	private final long size;
+
+	private final long modifiedMillis;
+
+	public InboxEntry(final String name, final long size, final long modifiedMillis) {
+		this.name = name;
+		this.size = size;
+		this.modifiedMillis = modifiedMillis;
+	}
+
+	/**
+	 * File name, without its folder
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Modification time at the resolution of the server listing: seconds for SFTP, often minutes for FTP
+	 */
+	public long getModifiedMillis() {
+		return this.modifiedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (%d bytes, modified %d)", this.name, this.size, this.modifiedMillis);
+	}
+}
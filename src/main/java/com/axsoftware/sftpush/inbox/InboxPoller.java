@@ -0,0 +1,246 @@
+package com.axsoftware.sftpush.inbox;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Emit the files dropped in a remote folder, each once.
+ * <p>
+ * The poller keeps a watermark: the latest modification time emitted and the names emitted at that time, so a
+ * listing only costs a comparison per old file and files sharing the watermark time (coarse FTP timestamps) are
+ * told apart. Only new files are held in memory, the listing itself is streamed.
+ * <p>
+ * A new file is emitted once it kept the same size and modification time over two polls, so files still being
+ * written are left for a later poll. A file rewritten later with a newer time is emitted again; a file dropped
+ * with a time older than the watermark (e.g. copied with its original time preserved) is not seen.
+ * <p>
+ * {@link #start(Consumer)} polls on a background thread: right after new files the interval drops to
+ * {@link #getMinIntervalMillis()}, each idle poll doubles it up to {@link #getMaxIntervalMillis()}.
+ */
+public class InboxPoller implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(InboxPoller.class.getName());
+
+	private static final String THREAD_NAME = "sftpush-inbox";
+
+	public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+
+	public static final long DEFAULT_MAX_INTERVAL_MILLIS = 60 * 1000;
+
+	private static final Comparator<InboxEntry> ARRIVAL_ORDER = Comparator.comparingLong(InboxEntry::getModifiedMillis)
+			.thenComparing(InboxEntry::getName);
+
+	private final InboxSource source;
+
+	private long watermarkMillis = Long.MIN_VALUE;
+
+	private final Set<String> watermarkNames = new HashSet<>();
+
+	/**
+	 * New files seen by the last poll and not stable yet
+	 */
+	private Map<String, InboxEntry> pending = new HashMap<>();
+
+	private volatile long minIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+
+	private volatile long maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+
+	private volatile long intervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+
+	private ScheduledExecutorService scheduler;
+
+	private volatile boolean closed;
+
+	public InboxPoller(final InboxSource source) {
+		if (source == null) {
+			throw new IllegalArgumentException("Invalid source: " + source);
+		}
+		this.source = source;
+	}
+
+	/**
+	 * List the folder once and emit the new files that are stable, oldest first
+	 *
+	 * @param consumer Called for each new file; when it throws, the files not emitted yet are emitted by the next poll
+	 * @return Number of files emitted
+	 * @throws Exception Listing failed, the state of the poller is unchanged
+	 */
+	public synchronized int poll(final Consumer<InboxEntry> consumer) throws Exception {
+		final Map<String, InboxEntry> seen = new HashMap<>();
+		final List<InboxEntry> stable = new ArrayList<>();
+		this.source.list(entry -> {
+			final InboxEntry previous = this.pending.get(entry.getName());
+			if (previous == null && isEmitted(entry)) {
+				return;
+			}
+			if (previous != null && previous.getSize() == entry.getSize() && previous.getModifiedMillis() == entry.getModifiedMillis()) {
+				stable.add(entry);
+			} else {
+				seen.put(entry.getName(), entry);
+			}
+		});
+		// Pending files gone from the listing are forgotten
+		this.pending = seen;
+
+		stable.sort(ARRIVAL_ORDER);
+		int emitted = 0;
+		try {
+			for (final InboxEntry entry : stable) {
+				consumer.accept(entry);
+				advance(entry);
+				emitted++;
+			}
+		} finally {
+			for (final InboxEntry entry : stable.subList(emitted, stable.size())) {
+				this.pending.put(entry.getName(), entry);
+			}
+			adapt(emitted);
+		}
+		return emitted;
+	}
+
+	private boolean isEmitted(final InboxEntry entry) {
+		return entry.getModifiedMillis() < this.watermarkMillis
+				|| entry.getModifiedMillis() == this.watermarkMillis && this.watermarkNames.contains(entry.getName());
+	}
+
+	private void advance(final InboxEntry entry) {
+		if (entry.getModifiedMillis() > this.watermarkMillis) {
+			this.watermarkMillis = entry.getModifiedMillis();
+			this.watermarkNames.clear();
+		}
+		if (entry.getModifiedMillis() == this.watermarkMillis) {
+			this.watermarkNames.add(entry.getName());
+		}
+	}
+
+	/**
+	 * Poll fast while files arrive or settle, back off while the folder is idle
+	 */
+	private void adapt(final int emitted) {
+		if (emitted > 0 || !this.pending.isEmpty()) {
+			this.intervalMillis = this.minIntervalMillis;
+		} else {
+			this.intervalMillis = Math.min(this.maxIntervalMillis, this.intervalMillis * 2);
+		}
+	}
+
+	/**
+	 * Poll on a background thread until {@link #close()}. Listing and consumer errors are logged and back off
+	 * like idle polls.
+	 */
+	public synchronized void start(final Consumer<InboxEntry> consumer) {
+		if (this.scheduler != null || this.closed) {
+			throw new IllegalStateException("Poller already started or closed");
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, THREAD_NAME);
+			thread.setDaemon(true);
+			return thread;
+		});
+		schedule(consumer, 0);
+	}
+
+	private void schedule(final Consumer<InboxEntry> consumer, final long delayMillis) {
+		try {
+			this.scheduler.schedule(() -> {
+				try {
+					poll(consumer);
+				} catch (final Exception e) {
+					logger.warning("Inbox poll failed: " + e);
+					this.intervalMillis = Math.min(this.maxIntervalMillis, this.intervalMillis * 2);
+				}
+				if (!this.closed) {
+					schedule(consumer, this.intervalMillis);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			logger.fine("Inbox poller closed");
+		}
+	}
+
+	/**
+	 * Stop the background polls, a poll in progress completes
+	 */
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		if (this.scheduler != null) {
+			this.scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Latest modification time emitted, {@link Long#MIN_VALUE} before the first file
+	 */
+	public synchronized long getWatermarkMillis() {
+		return this.watermarkMillis;
+	}
+
+	/**
+	 * Names emitted with the watermark time
+	 */
+	public synchronized Set<String> getWatermarkNames() {
+		return Collections.unmodifiableSet(new HashSet<>(this.watermarkNames));
+	}
+
+	/**
+	 * Restore a watermark saved by the application, so a restart does not emit the folder again
+	 */
+	public synchronized void setWatermark(final long watermarkMillis, final Collection<String> names) {
+		this.watermarkMillis = watermarkMillis;
+		this.watermarkNames.clear();
+		this.watermarkNames.addAll(names);
+	}
+
+	/**
+	 * New files waiting to be stable
+	 */
+	public synchronized int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Delay before the next background poll
+	 */
+	public long getIntervalMillis() {
+		return this.intervalMillis;
+	}
+
+	public long getMinIntervalMillis() {
+		return this.minIntervalMillis;
+	}
+
+	public void setMinIntervalMillis(final long minIntervalMillis) {
+		if (minIntervalMillis < 1 || minIntervalMillis > this.maxIntervalMillis) {
+			throw new IllegalArgumentException("Invalid interval: " + minIntervalMillis);
+		}
+		this.minIntervalMillis = minIntervalMillis;
+		this.intervalMillis = minIntervalMillis;
+	}
+
+	public long getMaxIntervalMillis() {
+		return this.maxIntervalMillis;
+	}
+
+	public void setMaxIntervalMillis(final long maxIntervalMillis) {
+		if (maxIntervalMillis < this.minIntervalMillis) {
+			throw new IllegalArgumentException("Invalid interval: " + maxIntervalMillis);
+		}
+		this.maxIntervalMillis = maxIntervalMillis;
+	}
+}
@@ -0,0 +1,52 @@
+package com.axsoftware.sftpush.inbox;
+
+import com.axsoftware.sftpush.client.ftp.FTPConnectionPool;
+import com.axsoftware.sftpush.client.ftp.FTPushClient;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.axsoftware.sftpush.config.PushConfig;
+import com.jcraft.jsch.SftpATTRS;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.util.function.Consumer;
+
+/**
+ * Remote folder an {@link InboxPoller} watches
+ */
+@FunctionalInterface
+public interface InboxSource {
+
+	/**
+	 * Hand the regular files of the folder to the visitor while the server sends the listing
+	 */
+	void list(Consumer<InboxEntry> visitor) throws Exception;
+
+	/**
+	 * Folder listed with a shared SFTP client
+	 */
+	static InboxSource sftp(final SFTPushClient client, final String directory) {
+		return visitor -> client.forEachRemoteEntry(directory, entry -> entry.getAttrs().isReg(), entry -> {
+			final SftpATTRS attrs = entry.getAttrs();
+			visitor.accept(new InboxEntry(entry.getFilename(), attrs.getSize(), attrs.getMTime() * 1000L));
+			return true;
+		});
+	}
+
+	/**
+	 * Folder listed page by page, each listing borrows a connection of the default FTP pool
+	 */
+	static InboxSource ftp(final PushConfig config, final String directory) {
+		return visitor -> {
+			final FTPushClient client = new FTPushClient(config, FTPConnectionPool.getDefault());
+			client.connect();
+			try {
+				client.forEachFile(directory, FTPFile::isFile, file -> {
+					final long modified = file.getTimestamp() != null ? file.getTimestamp().getTimeInMillis() : 0;
+					visitor.accept(new InboxEntry(file.getName(), file.getSize(), modified));
+					return true;
+				});
+			} finally {
+				client.quit();
+			}
+		};
+	}
+}
@@ -0,0 +1,108 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global and per host bandwidth caps shared by all transfers.
+ * <p>
+ * The SFTP and FTP clients report every chunk they move to {@link #acquire(String, long)}, which waits until the
+ * chunk fits both the global {@link TokenBucket} and the bucket of the host. Caps change at runtime and apply to
+ * the transfers in progress. Without caps a chunk costs two volatile reads and a map lookup.
+ */
+public class BandwidthLimiter {
+
+	private static final BandwidthLimiter DEFAULT = new BandwidthLimiter();
+
+	/**
+	 * Largest chunk reserved at once by the wrapped streams, so concurrent transfers interleave finely
+	 */
+	private static final int QUANTUM = 16 * 1024;
+
+	private final TokenBucket global = new TokenBucket(0);
+
+	private final ConcurrentMap<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+
+	/**
+	 * Limiter used by the clients unless told otherwise, no caps until some are set
+	 */
+	public static BandwidthLimiter getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Wait until the bytes fit the caps
+	 *
+	 * @param host  Host of the transfer, null for the global cap only
+	 * @param bytes Bytes about to be moved, or just moved
+	 * @throws InterruptedIOException Interrupted while waiting
+	 */
+	public void acquire(final String host, final long bytes) throws InterruptedIOException {
+		long wait = this.global.reserve(bytes);
+		final TokenBucket bucket = host != null ? this.hosts.get(host) : null;
+		if (bucket != null) {
+			wait = Math.max(wait, bucket.reserve(bytes));
+		}
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while throttled");
+			}
+		}
+	}
+
+	/**
+	 * Throttle the bytes read from a stream
+	 */
+	public InputStream wrap(final InputStream input, final String host) {
+		return new ThrottledInputStream(input, this, host, QUANTUM);
+	}
+
+	/**
+	 * Throttle the bytes written to a stream
+	 */
+	public OutputStream wrap(final OutputStream output, final String host) {
+		return new ThrottledOutputStream(output, this, host, QUANTUM);
+	}
+
+	public long getGlobalRate() {
+		return this.global.getBytesPerSecond();
+	}
+
+	/**
+	 * @param bytesPerSecond Cap of all transfers together, 0 for none
+	 */
+	public void setGlobalRate(final long bytesPerSecond) {
+		this.global.setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * @return Cap of a host, 0 for none
+	 */
+	public long getHostRate(final String host) {
+		final TokenBucket bucket = this.hosts.get(host);
+		return bucket != null ? bucket.getBytesPerSecond() : 0;
+	}
+
+	/**
+	 * @param bytesPerSecond Cap of all transfers to and from the host together, 0 for none
+	 */
+	public void setHostRate(final String host, final long bytesPerSecond) {
+		this.hosts.computeIfAbsent(host, key -> new TokenBucket(0)).setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Cap a host with no cap set yet, e.g. from its transfer profile; a cap set at runtime is kept
+	 */
+	public void setDefaultHostRate(final String host, final long bytesPerSecond) {
+		if (!this.hosts.containsKey(host)) {
+			this.hosts.putIfAbsent(host, new TokenBucket(bytesPerSecond));
+		}
+	}
+}
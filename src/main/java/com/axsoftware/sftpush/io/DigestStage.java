@@ -0,0 +1,111 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Pass-through {@link StreamStage} computing a digest of the bytes going through it.
+ * <p>
+ * The digest of the last transfer is available once the pipeline stream is closed. Placed before a compression
+ * stage it digests the original contents, placed after it digests the bytes actually stored.
+ */
+public class DigestStage implements StreamStage {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String algorithm;
+
+	private volatile byte[] digest;
+
+	private volatile long size;
+
+	/**
+	 * @param algorithm Digest algorithm, e.g. "SHA-256" or "MD5"
+	 */
+	public DigestStage(final String algorithm) {
+		newDigest(algorithm);
+		this.algorithm = algorithm;
+	}
+
+	@Override
+	public OutputStream wrap(final OutputStream output, final int bufferSize) {
+		final MessageDigest messageDigest = newDigest(this.algorithm);
+		this.digest = null;
+		this.size = 0;
+		return new DigestOutputStream(output, messageDigest) {
+
+			private long count;
+
+			@Override
+			public void write(final int b) throws IOException {
+				super.write(b);
+				this.count++;
+			}
+
+			@Override
+			public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+				super.write(bytes, offset, length);
+				this.count += length;
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (DigestStage.this.digest == null) {
+					DigestStage.this.size = this.count;
+					DigestStage.this.digest = messageDigest.digest();
+				}
+				super.close();
+			}
+		};
+	}
+
+	private static MessageDigest newDigest(final String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+		}
+	}
+
+	public String getAlgorithm() {
+		return this.algorithm;
+	}
+
+	/**
+	 * @return Digest of the last closed stream, null while a transfer is running
+	 */
+	public byte[] getDigest() {
+		final byte[] value = this.digest;
+		return value != null ? value.clone() : null;
+	}
+
+	/**
+	 * @return Lower case hexadecimal digest of the last closed stream, null while a transfer is running
+	 */
+	public String getHexDigest() {
+		final byte[] value = this.digest;
+		return value != null ? toHex(value) : null;
+	}
+
+	/**
+	 * Lower case hexadecimal form of a digest, as printed by sha256sum and friends
+	 */
+	public static String toHex(final byte[] digest) {
+		final char[] hex = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+		}
+		return new String(hex);
+	}
+
+	/**
+	 * @return Bytes digested by the last closed stream
+	 */
+	public long getSize() {
+		return this.size;
+	}
+}
@@ -0,0 +1,193 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Download target writing through a {@link FileChannel} instead of a {@link java.io.FileOutputStream}.
+ * <p>
+ * A {@code FileOutputStream} copies every heap array to a temporary native buffer before the write call.
+ * This sink copies the bytes handed by the protocol client once, either into a large direct buffer drained with
+ * positional channel writes ({@link Mode#DIRECT_BUFFER}) or straight into memory-mapped windows of the file
+ * ({@link Mode#MEMORY_MAPPED}), with no write call at all. When the size is known the file is extended to its
+ * final length up front, and it is truncated to the bytes really written on close.
+ */
+public class FileChannelSink extends OutputStream {
+
+	public enum Mode {
+		DIRECT_BUFFER, MEMORY_MAPPED
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+	private final FileChannel channel;
+
+	private final Mode mode;
+
+	private final ByteBuffer buffer;
+
+	private final long startNanos = System.nanoTime();
+
+	private MappedByteBuffer mapped;
+
+	private long position;
+
+	private long elapsedNanos = -1;
+
+	private boolean closed;
+
+	private FileChannelSink(final FileChannel channel, final Mode mode, final int bufferSize) {
+		this.channel = channel;
+		this.mode = mode;
+		this.buffer = mode == Mode.DIRECT_BUFFER ? ByteBuffer.allocateDirect(bufferSize) : null;
+	}
+
+	/**
+	 * Open a sink with the default buffer size
+	 *
+	 * @param target       Local file, replaced when it exists
+	 * @param expectedSize Final size when known, otherwise a negative value
+	 * @param mode         Write mode
+	 */
+	public static FileChannelSink open(final Path target, final long expectedSize, final Mode mode) throws IOException {
+		return open(target, expectedSize, mode, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Open a sink
+	 *
+	 * @param target       Local file, replaced when it exists
+	 * @param expectedSize Final size when known, otherwise a negative value
+	 * @param mode         Write mode
+	 * @param bufferSize   Direct buffer size ({@link Mode#DIRECT_BUFFER} only)
+	 */
+	public static FileChannelSink open(final Path target, final long expectedSize, final Mode mode, final int bufferSize) throws IOException {
+		final FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			if (expectedSize > 0) {
+				// Reserve the final length, writes and mappings then never grow the file
+				channel.write(ByteBuffer.allocate(1), expectedSize - 1);
+			}
+			return new FileChannelSink(channel, mode, bufferSize);
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void write(final byte[] bytes, int offset, int length) throws IOException {
+		ensureOpen();
+		while (length > 0) {
+			final ByteBuffer target = writableBuffer();
+			final int count = Math.min(target.remaining(), length);
+			target.put(bytes, offset, count);
+			offset += count;
+			length -= count;
+			this.position += count;
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		ensureOpen();
+		writableBuffer().put((byte) b);
+		this.position++;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (this.buffer != null) {
+			drain();
+		}
+	}
+
+	/**
+	 * Flush buffered bytes, trim the file to the written length and close it
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			if (this.buffer != null) {
+				drain();
+			}
+			this.mapped = null;
+			this.channel.truncate(this.position);
+		} finally {
+			this.closed = true;
+			this.elapsedNanos = System.nanoTime() - this.startNanos;
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * Force written bytes to the storage device
+	 */
+	public void sync() throws IOException {
+		flush();
+		if (this.mapped != null) {
+			this.mapped.force();
+		}
+		this.channel.force(false);
+	}
+
+	public long getBytesWritten() {
+		return this.position;
+	}
+
+	/**
+	 * Time from open to close, or to now while open
+	 */
+	public long getElapsedNanos() {
+		return this.elapsedNanos >= 0 ? this.elapsedNanos : System.nanoTime() - this.startNanos;
+	}
+
+	public double getBytesPerSecond() {
+		final long elapsed = getElapsedNanos();
+		return elapsed <= 0 ? 0 : this.position * 1e9 / elapsed;
+	}
+
+	public Mode getMode() {
+		return this.mode;
+	}
+
+	private ByteBuffer writableBuffer() throws IOException {
+		if (this.mode == Mode.DIRECT_BUFFER) {
+			if (!this.buffer.hasRemaining()) {
+				drain();
+			}
+			return this.buffer;
+		}
+		if (this.mapped == null || !this.mapped.hasRemaining()) {
+			this.mapped = this.channel.map(FileChannel.MapMode.READ_WRITE, this.position, MAP_WINDOW_SIZE);
+		}
+		return this.mapped;
+	}
+
+	private void drain() throws IOException {
+		this.buffer.flip();
+		long filePosition = this.position - this.buffer.remaining();
+		while (this.buffer.hasRemaining()) {
+			filePosition += this.channel.write(this.buffer, filePosition);
+		}
+		this.buffer.clear();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Sink is closed");
+		}
+	}
+}
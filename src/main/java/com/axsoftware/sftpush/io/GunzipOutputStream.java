@@ -0,0 +1,215 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Push counterpart of {@link java.util.zip.GZIPInputStream}: inflate the gzip bytes written to it.
+ * <p>
+ * Header and trailer may be split over any number of writes; the CRC and size of every member are checked.
+ */
+final class GunzipOutputStream extends FilterOutputStream {
+
+	private static final int FHCRC = 2;
+
+	private static final int FEXTRA = 4;
+
+	private static final int FNAME = 8;
+
+	private static final int FCOMMENT = 16;
+
+	private static final int TRAILER_SIZE = 8;
+
+	/**
+	 * File name and comment are unbounded, refuse a header that never ends
+	 */
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+	private enum State {
+		HEADER, BODY, TRAILER, END
+	}
+
+	private final Inflater inflater = new Inflater(true);
+
+	private final CRC32 crc = new CRC32();
+
+	private final byte[] buffer;
+
+	/**
+	 * Header or trailer bytes received so far
+	 */
+	private byte[] pending = new byte[32];
+
+	private int pendingCount;
+
+	private State state = State.HEADER;
+
+	private long size;
+
+	GunzipOutputStream(final OutputStream output, final int bufferSize) {
+		super(output);
+		this.buffer = new byte[bufferSize];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[]{(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int used;
+			switch (this.state) {
+				case BODY:
+					used = body(bytes, offset, length);
+					break;
+				case TRAILER:
+					used = trailer(bytes, offset, length);
+					break;
+				default:
+					// A new member may follow the end of the previous one
+					used = header(bytes, offset, length);
+					break;
+			}
+			offset += used;
+			length -= used;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (this.state != State.END) {
+				throw new EOFException("Unexpected end of gzip stream");
+			}
+		} finally {
+			this.inflater.end();
+			super.close();
+		}
+	}
+
+	private int header(final byte[] bytes, final int offset, final int length) throws IOException {
+		this.state = State.HEADER;
+		for (int i = 0; i < length; i++) {
+			if (this.pendingCount == this.pending.length) {
+				if (this.pendingCount >= MAX_HEADER_SIZE) {
+					throw new ZipException("Gzip header too large");
+				}
+				this.pending = Arrays.copyOf(this.pending, this.pendingCount * 2);
+			}
+			this.pending[this.pendingCount++] = bytes[offset + i];
+			if (isHeaderComplete(this.pending, this.pendingCount)) {
+				this.pendingCount = 0;
+				this.state = State.BODY;
+				return i + 1;
+			}
+		}
+		return length;
+	}
+
+	private int body(final byte[] bytes, final int offset, final int length) throws IOException {
+		this.inflater.setInput(bytes, offset, length);
+		try {
+			while (true) {
+				final int count = this.inflater.inflate(this.buffer);
+				if (count > 0) {
+					this.crc.update(this.buffer, 0, count);
+					this.size += count;
+					this.out.write(this.buffer, 0, count);
+				}
+				if (this.inflater.finished()) {
+					this.state = State.TRAILER;
+					return length - this.inflater.getRemaining();
+				}
+				if (count == 0) {
+					if (this.inflater.needsDictionary()) {
+						throw new ZipException("Preset dictionary not supported");
+					}
+					return length;
+				}
+			}
+		} catch (final DataFormatException e) {
+			throw new ZipException(e.getMessage());
+		}
+	}
+
+	private int trailer(final byte[] bytes, final int offset, final int length) throws IOException {
+		final int used = Math.min(length, TRAILER_SIZE - this.pendingCount);
+		System.arraycopy(bytes, offset, this.pending, this.pendingCount, used);
+		this.pendingCount += used;
+		if (this.pendingCount == TRAILER_SIZE) {
+			if (int32(this.pending, 0) != this.crc.getValue() || int32(this.pending, 4) != (this.size & 0xffffffffL)) {
+				throw new ZipException("Corrupt gzip trailer");
+			}
+			this.inflater.reset();
+			this.crc.reset();
+			this.size = 0;
+			this.pendingCount = 0;
+			this.state = State.END;
+		}
+		return used;
+	}
+
+	/**
+	 * Check a header prefix, fixed part then the optional fields announced by its flags
+	 */
+	private static boolean isHeaderComplete(final byte[] header, final int length) throws ZipException {
+		if (length >= 2 && ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)) {
+			throw new ZipException("Not in gzip format");
+		}
+		if (length >= 3 && header[2] != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		if (length < 10) {
+			return false;
+		}
+		final int flags = header[3] & 0xff;
+		int position = 10;
+		if ((flags & FEXTRA) != 0) {
+			if (length < position + 2) {
+				return false;
+			}
+			position += 2 + ((header[position] & 0xff) | (header[position + 1] & 0xff) << 8);
+		}
+		if ((flags & FNAME) != 0) {
+			position = skipString(header, length, position);
+		}
+		if ((flags & FCOMMENT) != 0) {
+			position = skipString(header, length, position);
+		}
+		if (position < 0) {
+			return false;
+		}
+		if ((flags & FHCRC) != 0) {
+			position += 2;
+		}
+		return length >= position;
+	}
+
+	/**
+	 * Position after a zero terminated string, -1 when the terminator is not there yet
+	 */
+	private static int skipString(final byte[] header, final int length, final int position) {
+		if (position < 0) {
+			return -1;
+		}
+		for (int i = position; i < length; i++) {
+			if (header[i] == 0) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static long int32(final byte[] bytes, final int offset) {
+		return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8 | (bytes[offset + 2] & 0xffL) << 16 | (bytes[offset + 3] & 0xffL) << 24;
+	}
+}
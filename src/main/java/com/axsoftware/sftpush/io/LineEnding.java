@@ -0,0 +1,17 @@
+package com.axsoftware.sftpush.io;
+
+/**
+ * Target line ending of {@link StreamStage#lineEndings(LineEnding)}
+ */
+public enum LineEnding {
+
+	/**
+	 * Unix: CRLF becomes LF, a lone CR is kept
+	 */
+	LF,
+
+	/**
+	 * Windows: LF not preceded by CR becomes CRLF
+	 */
+	CRLF
+}
@@ -0,0 +1,88 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Convert line endings on the fly, a CRLF split over two writes is still recognized
+ */
+final class LineEndingOutputStream extends FilterOutputStream {
+
+	private static final byte CR = '\r';
+
+	private static final byte LF = '\n';
+
+	private final LineEnding lineEnding;
+
+	private final byte[] buffer;
+
+	private int count;
+
+	/**
+	 * Last byte written was a CR
+	 */
+	private boolean afterCr;
+
+	LineEndingOutputStream(final OutputStream output, final LineEnding lineEnding, final int bufferSize) {
+		super(output);
+		this.lineEnding = lineEnding;
+		this.buffer = new byte[bufferSize];
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		final byte value = (byte) b;
+		if (this.lineEnding == LineEnding.LF) {
+			// A CR is held back until the next byte tells if it starts a CRLF
+			if (this.afterCr && value != LF) {
+				put(CR);
+			}
+			if (value != CR) {
+				put(value);
+			}
+		} else {
+			if (value == LF && !this.afterCr) {
+				put(CR);
+			}
+			put(value);
+		}
+		this.afterCr = value == CR;
+	}
+
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			write(bytes[i]);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.lineEnding == LineEnding.LF && this.afterCr) {
+			put(CR);
+			this.afterCr = false;
+		}
+		super.close();
+	}
+
+	private void put(final byte value) throws IOException {
+		if (this.count == this.buffer.length) {
+			drain();
+		}
+		this.buffer[this.count++] = value;
+	}
+
+	private void drain() throws IOException {
+		if (this.count > 0) {
+			this.out.write(this.buffer, 0, this.count);
+			this.count = 0;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Pull side of a {@link StreamPipeline}: reads a chunk of the source, pushes it through the stages and serves
+ * their output.
+ * <p>
+ * The chunk and the output buffer are reused for the whole stream. The output buffer only grows to the
+ * output of a single chunk, which a decompression stage can make several times larger than the chunk.
+ */
+final class StagedInputStream extends InputStream {
+
+	private final InputStream source;
+
+	private final byte[] chunk;
+
+	private final Output output = new Output();
+
+	private final OutputStream stages;
+
+	private final byte[] single = new byte[1];
+
+	private int position;
+
+	private boolean finished;
+
+	StagedInputStream(final InputStream source, final StreamPipeline pipeline) throws IOException {
+		this.source = source;
+		this.chunk = new byte[pipeline.getBufferSize()];
+		this.stages = pipeline.chain(this.output);
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(this.single, 0, 1) < 0 ? -1 : this.single[0] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		while (this.position == this.output.count && !this.finished) {
+			fill();
+		}
+		final int available = this.output.count - this.position;
+		if (available == 0) {
+			return -1;
+		}
+		final int count = Math.min(length, available);
+		System.arraycopy(this.output.bytes, this.position, bytes, offset, count);
+		this.position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.output.count - this.position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!this.finished) {
+				this.finished = true;
+				// Abandoned before the end: only release the stages, their trailer is of no use
+				try {
+					this.stages.close();
+				} catch (final IOException e) {
+					// Expected from a decompression stage cut in the middle
+				}
+			}
+		} finally {
+			this.source.close();
+		}
+	}
+
+	private void fill() throws IOException {
+		this.output.count = 0;
+		this.position = 0;
+		final int count = this.source.read(this.chunk);
+		if (count < 0) {
+			this.finished = true;
+			this.stages.close();
+		} else {
+			this.stages.write(this.chunk, 0, count);
+		}
+	}
+
+	/**
+	 * Reusable growable buffer at the end of the stages
+	 */
+	private static final class Output extends OutputStream {
+
+		private byte[] bytes = new byte[8192];
+
+		private int count;
+
+		@Override
+		public void write(final int b) {
+			ensureCapacity(1);
+			this.bytes[this.count++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] source, final int offset, final int length) {
+			ensureCapacity(length);
+			System.arraycopy(source, offset, this.bytes, this.count, length);
+			this.count += length;
+		}
+
+		private void ensureCapacity(final int length) {
+			if (this.count + length > this.bytes.length) {
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.count + length));
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered chain of {@link StreamStage}s applied to the bytes of a transfer in a single pass.
+ * <p>
+ * Uploads read the source through {@link #wrap(InputStream)}, downloads write the target through
+ * {@link #wrap(OutputStream)}; in both cases the stages run with buffers of {@link #getBufferSize()} bytes and
+ * nothing is staged to disk or held in memory as a whole. A pipeline is immutable; stages keeping a result,
+ * such as {@link DigestStage}, hold the one of their last transfer.
+ */
+public final class StreamPipeline {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final List<StreamStage> stages;
+
+	private final int bufferSize;
+
+	private StreamPipeline(final List<StreamStage> stages, final int bufferSize) {
+		this.stages = Collections.unmodifiableList(stages);
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param stages Stages in the order bytes go through them
+	 */
+	public static StreamPipeline of(final StreamStage... stages) {
+		for (final StreamStage stage : stages) {
+			if (stage == null) {
+				throw new IllegalArgumentException("Invalid stages: " + Arrays.toString(stages));
+			}
+		}
+		return new StreamPipeline(new ArrayList<>(Arrays.asList(stages)), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Pipeline with one more stage at the end
+	 */
+	public StreamPipeline then(final StreamStage stage) {
+		if (stage == null) {
+			throw new IllegalArgumentException("Invalid stage");
+		}
+		final List<StreamStage> next = new ArrayList<>(this.stages);
+		next.add(stage);
+		return new StreamPipeline(next, this.bufferSize);
+	}
+
+	/**
+	 * Same stages with another buffer size
+	 */
+	public StreamPipeline withBufferSize(final int bufferSize) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Invalid buffer size: " + bufferSize);
+		}
+		return new StreamPipeline(new ArrayList<>(this.stages), bufferSize);
+	}
+
+	/**
+	 * Stream reading the source through the stages, closing it closes the source
+	 */
+	public InputStream wrap(final InputStream source) throws IOException {
+		return this.stages.isEmpty() ? source : new StagedInputStream(source, this);
+	}
+
+	/**
+	 * Stream writing through the stages to the target.
+	 * <p>
+	 * Closing it completes the stages, e.g. writes the gzip trailer, then flushes the target without closing it.
+	 */
+	public OutputStream wrap(final OutputStream target) throws IOException {
+		return chain(new FilterOutputStream(target) {
+
+			@Override
+			public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+				this.out.write(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+	}
+
+	/**
+	 * Stages in front of the output, the first stage ends up outermost
+	 */
+	OutputStream chain(final OutputStream output) throws IOException {
+		OutputStream stream = output;
+		for (int i = this.stages.size() - 1; i >= 0; i--) {
+			stream = this.stages.get(i).wrap(stream, this.bufferSize);
+		}
+		return stream;
+	}
+
+	public List<StreamStage> getStages() {
+		return this.stages;
+	}
+
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+}
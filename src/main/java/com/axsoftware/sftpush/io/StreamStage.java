@@ -0,0 +1,101 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * One step of a {@link StreamPipeline}: transforms the bytes written to it and writes the result downstream.
+ * <p>
+ * Closing the stream returned by {@link #wrap(OutputStream, int)} writes any trailer, releases the native
+ * resources of the stage and closes the downstream stream.
+ */
+public interface StreamStage {
+
+	/**
+	 * @param output     Downstream of this stage
+	 * @param bufferSize Size of the buffer the stage may allocate
+	 * @return Stream transforming the bytes written to it
+	 */
+	OutputStream wrap(OutputStream output, int bufferSize) throws IOException;
+
+	/**
+	 * Compress to the gzip format
+	 */
+	static StreamStage gzip() {
+		return gzip(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Compress to the gzip format
+	 *
+	 * @param level 1 (fastest) to 9 (smallest)
+	 */
+	static StreamStage gzip(final int level) {
+		return (output, bufferSize) -> new GZIPOutputStream(output, bufferSize) {
+			{
+				this.def.setLevel(level);
+			}
+		};
+	}
+
+	/**
+	 * Decompress gzip, including concatenated members
+	 */
+	static StreamStage gunzip() {
+		return GunzipOutputStream::new;
+	}
+
+	/**
+	 * Compress to the zlib format
+	 *
+	 * @param level 1 (fastest) to 9 (smallest)
+	 */
+	static StreamStage deflate(final int level) {
+		return (output, bufferSize) -> {
+			final Deflater deflater = new Deflater(level);
+			return new DeflaterOutputStream(output, deflater, bufferSize) {
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						deflater.end();
+					}
+				}
+			};
+		};
+	}
+
+	/**
+	 * Decompress the zlib format
+	 */
+	static StreamStage inflate() {
+		return (output, bufferSize) -> {
+			final Inflater inflater = new Inflater();
+			return new InflaterOutputStream(output, inflater, bufferSize) {
+
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						inflater.end();
+					}
+				}
+			};
+		};
+	}
+
+	/**
+	 * Convert line endings of text contents
+	 */
+	static StreamStage lineEndings(final LineEnding lineEnding) {
+		return (output, bufferSize) -> new LineEndingOutputStream(output, lineEnding, bufferSize);
+	}
+}
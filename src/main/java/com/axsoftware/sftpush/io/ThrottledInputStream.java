@@ -0,0 +1,42 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read at most one quantum at a time and pay for it to the {@link BandwidthLimiter}
+ */
+final class ThrottledInputStream extends FilterInputStream {
+
+	private final BandwidthLimiter limiter;
+
+	private final String host;
+
+	private final int quantum;
+
+	ThrottledInputStream(final InputStream input, final BandwidthLimiter limiter, final String host, final int quantum) {
+		super(input);
+		this.limiter = limiter;
+		this.host = host;
+		this.quantum = quantum;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b != -1) {
+			this.limiter.acquire(this.host, 1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+		final int count = super.read(bytes, offset, Math.min(length, this.quantum));
+		if (count > 0) {
+			this.limiter.acquire(this.host, count);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,41 @@
+package com.axsoftware.sftpush.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Pay for each quantum to the {@link BandwidthLimiter} before writing it
+ */
+final class ThrottledOutputStream extends FilterOutputStream {
+
+	private final BandwidthLimiter limiter;
+
+	private final String host;
+
+	private final int quantum;
+
+	ThrottledOutputStream(final OutputStream output, final BandwidthLimiter limiter, final String host, final int quantum) {
+		super(output);
+		this.limiter = limiter;
+		this.host = host;
+		this.quantum = quantum;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		this.limiter.acquire(this.host, 1);
+		this.out.write(b);
+	}
+
+	@Override
+	public void write(final byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			final int count = Math.min(length, this.quantum);
+			this.limiter.acquire(this.host, count);
+			this.out.write(bytes, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+}
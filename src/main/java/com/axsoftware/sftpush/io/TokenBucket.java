@@ -0,0 +1,94 @@
+package com.axsoftware.sftpush.io;
+
+/**
+ * Byte rate limit, adjustable while transfers run.
+ * <p>
+ * Instead of counting tokens the bucket keeps the time at which the next byte is free: a caller reserves its
+ * bytes, moving that time forward, and sleeps until its reservation is due. Callers are served in the order they
+ * reserve, so transfers asking for small chunks share the rate evenly. Idle time refills at most
+ * {@link #getBurstMillis()} of rate. An unlimited bucket costs a volatile read.
+ */
+public final class TokenBucket {
+
+	public static final long DEFAULT_BURST_MILLIS = 250;
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private static final long NANOS_PER_MILLI = 1_000_000L;
+
+	private volatile long bytesPerSecond;
+
+	private final long burstMillis;
+
+	private long nextFreeNanos = System.nanoTime();
+
+	/**
+	 * @param bytesPerSecond Rate, 0 for unlimited
+	 */
+	public TokenBucket(final long bytesPerSecond) {
+		this(bytesPerSecond, DEFAULT_BURST_MILLIS);
+	}
+
+	/**
+	 * @param bytesPerSecond Rate, 0 for unlimited
+	 * @param burstMillis    Idle time credited to the next callers
+	 */
+	public TokenBucket(final long bytesPerSecond, final long burstMillis) {
+		if (burstMillis < 0) {
+			throw new IllegalArgumentException("Invalid burst: " + burstMillis);
+		}
+		setBytesPerSecond(bytesPerSecond);
+		this.burstMillis = burstMillis;
+	}
+
+	/**
+	 * Reserve bytes without waiting
+	 *
+	 * @return Nanoseconds to wait before the bytes are within the rate
+	 */
+	public long reserve(final long bytes) {
+		final long rate = this.bytesPerSecond;
+		if (rate == 0 || bytes <= 0) {
+			return 0;
+		}
+		synchronized (this) {
+			final long now = System.nanoTime();
+			final long refilled = now - this.burstMillis * NANOS_PER_MILLI;
+			if (this.nextFreeNanos - refilled < 0) {
+				this.nextFreeNanos = refilled;
+			}
+			this.nextFreeNanos += (long) ((double) bytes * NANOS_PER_SECOND / rate);
+			return Math.max(0, this.nextFreeNanos - now);
+		}
+	}
+
+	/**
+	 * Reserve bytes and wait until they are within the rate
+	 */
+	public void acquire(final long bytes) throws InterruptedException {
+		final long wait = reserve(bytes);
+		if (wait > 0) {
+			Thread.sleep(wait / NANOS_PER_MILLI, (int) (wait % NANOS_PER_MILLI));
+		}
+	}
+
+	public long getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	/**
+	 * Change the rate, taken into account by the next reservations
+	 *
+	 * @param bytesPerSecond Rate, 0 for unlimited
+	 */
+	public void setBytesPerSecond(final long bytesPerSecond) {
+		if (bytesPerSecond < 0) {
+			throw new IllegalArgumentException("Invalid rate: " + bytesPerSecond);
+		}
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public long getBurstMillis() {
+		return this.burstMillis;
+	}
+}
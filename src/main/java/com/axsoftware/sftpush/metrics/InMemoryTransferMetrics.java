@@ -0,0 +1,144 @@
+package com.axsoftware.sftpush.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * {@link TransferMetrics} kept in memory, to be scraped by a monitoring endpoint.
+ * <p>
+ * Names are dotted and lower case, prefixed by the protocol:
+ * <ul>
+ * <li>histograms (nanoseconds): {@code sftp.connect}, {@code sftp.op.stat}, {@code sftp.download.first-byte}, {@code sftp.download.duration}</li>
+ * <li>counters: {@code sftp.download.bytes}, {@code sftp.download.count}, {@code sftp.download.failures},
+ * {@code sftp.op.stat.failures}, {@code sftp.connect.failures}, {@code sftp.error.no-such-file}</li>
+ * <li>gauges: as registered, e.g. {@code sftp.pool.idle}</li>
+ * </ul>
+ * Recording is lock-free.
+ */
+public class InMemoryTransferMetrics implements TransferMetrics {
+
+	private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+	@Override
+	public void connect(final Protocol protocol, final String host, final long nanos, final boolean success) {
+		final String name = name(protocol, "connect");
+		histogram(name).record(nanos);
+		if (!success) {
+			counter(name + ".failures").increment();
+		}
+	}
+
+	@Override
+	public void operation(final Protocol protocol, final Operation operation, final long nanos, final boolean success) {
+		final String name = name(protocol, "op." + operation.name().toLowerCase(Locale.ROOT));
+		histogram(name).record(nanos);
+		if (!success) {
+			counter(name + ".failures").increment();
+		}
+	}
+
+	@Override
+	public void firstByte(final Protocol protocol, final Direction direction, final long nanos) {
+		histogram(name(protocol, direction) + ".first-byte").record(nanos);
+	}
+
+	@Override
+	public void transfer(final Protocol protocol, final Direction direction, final long bytes, final long nanos, final boolean success) {
+		final String name = name(protocol, direction);
+		histogram(name + ".duration").record(nanos);
+		counter(name + ".bytes").add(bytes);
+		counter(name + (success ? ".count" : ".failures")).increment();
+	}
+
+	@Override
+	public void error(final Protocol protocol, final String cause) {
+		counter(name(protocol, "error." + cause)).increment();
+	}
+
+	@Override
+	public void gauge(final String name, final LongSupplier value) {
+		this.gauges.put(name, value);
+	}
+
+	/**
+	 * Histogram by name, null when nothing was recorded
+	 */
+	public LatencyHistogram getHistogram(final String name) {
+		return this.histograms.get(name);
+	}
+
+	/**
+	 * Counter value by name, 0 when nothing was recorded
+	 */
+	public long getCounter(final String name) {
+		final LongAdder counter = this.counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	/**
+	 * Current gauge value, 0 when not registered
+	 */
+	public long getGauge(final String name) {
+		final LongSupplier gauge = this.gauges.get(name);
+		return gauge == null ? 0 : gauge.getAsLong();
+	}
+
+	/**
+	 * Counters and gauges by name, sorted
+	 */
+	public Map<String, Long> getValues() {
+		final Map<String, Long> values = new TreeMap<>();
+		this.counters.forEach((name, counter) -> values.put(name, counter.sum()));
+		this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+		return values;
+	}
+
+	/**
+	 * Histograms by name, sorted
+	 */
+	public Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<>(this.histograms);
+	}
+
+	/**
+	 * One line per metric, histograms in nanoseconds
+	 */
+	public String report() {
+		final StringBuilder report = new StringBuilder();
+		getValues().forEach((name, value) -> report.append(name).append(' ').append(value).append('\n'));
+		getHistograms().forEach((name, histogram) -> report.append(name).append(' ').append(histogram).append('\n'));
+		return report.toString();
+	}
+
+	private LatencyHistogram histogram(final String name) {
+		final LatencyHistogram histogram = this.histograms.get(name);
+		return histogram != null ? histogram : this.histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+
+	private LongAdder counter(final String name) {
+		final LongAdder counter = this.counters.get(name);
+		return counter != null ? counter : this.counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	private static String name(final Protocol protocol, final Direction direction) {
+		return name(protocol, direction.name().toLowerCase(Locale.ROOT));
+	}
+
+	private static String name(final Protocol protocol, final String metric) {
+		return protocol.name().toLowerCase(Locale.ROOT) + "." + metric;
+	}
+
+	@Override
+	public String toString() {
+		return report();
+	}
+}
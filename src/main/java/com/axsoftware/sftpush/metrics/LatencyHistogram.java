@@ -0,0 +1,105 @@
+package com.axsoftware.sftpush.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with a bounded relative error, in the spirit of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: 32 linear sub-buckets per power of two, so a recorded value is
+ * reported within about 3% whatever its magnitude. Recording is a few atomic increments and never allocates.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder total = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(final long value) {
+		final long recorded = Math.max(0, value);
+		this.counts.incrementAndGet(index(recorded));
+		this.count.increment();
+		this.total.add(recorded);
+		long current = this.max.get();
+		while (recorded > current && !this.max.compareAndSet(current, recorded)) {
+			current = this.max.get();
+		}
+	}
+
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	public long getTotal() {
+		return this.total.sum();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	public double getMean() {
+		final long recorded = getCount();
+		return recorded == 0 ? 0 : (double) getTotal() / recorded;
+	}
+
+	/**
+	 * Value at a percentile, e.g. 99.9, reported as the highest value of its bucket
+	 *
+	 * @return 0 when empty
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		long recorded = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			recorded += this.counts.get(i);
+		}
+		if (recorded == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * recorded));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	static int index(final long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long highestValue(final int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = index / SUB_BUCKETS - 1;
+		final long mantissa = SUB_BUCKETS + index % SUB_BUCKETS;
+		final long next = (mantissa + 1) << shift;
+		// Last bucket ends at Long.MAX_VALUE
+		return next <= 0 ? Long.MAX_VALUE : next - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d p999=%d max=%d", getCount(), getMean(), getValueAtPercentile(50),
+				getValueAtPercentile(90), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+	}
+}
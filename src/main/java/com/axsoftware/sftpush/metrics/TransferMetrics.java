@@ -0,0 +1,70 @@
+package com.axsoftware.sftpush.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Instrumentation SPI called by the SFTP and FTP clients and the connection pools.
+ * <p>
+ * Calls happen on the transfer threads, implementations must be thread-safe and cheap. All methods default to
+ * doing nothing, so an implementation only overrides what it records. Durations are in nanoseconds.
+ */
+public interface TransferMetrics {
+
+	/**
+	 * Records nothing
+	 */
+	TransferMetrics NOOP = new TransferMetrics() {
+	};
+
+	enum Protocol {
+		SFTP, FTP
+	}
+
+	enum Direction {
+		UPLOAD, DOWNLOAD
+	}
+
+	enum Operation {
+		LIST, STAT, MKDIR, RENAME, DELETE, CWD
+	}
+
+	/**
+	 * New connection established: TCP connect, handshake and login
+	 *
+	 * @param success False when the connection failed
+	 */
+	default void connect(final Protocol protocol, final String host, final long nanos, final boolean success) {
+	}
+
+	/**
+	 * Metadata operation round-trip
+	 */
+	default void operation(final Protocol protocol, final Operation operation, final long nanos, final boolean success) {
+	}
+
+	/**
+	 * Time from the start of a transfer to its first data byte
+	 */
+	default void firstByte(final Protocol protocol, final Direction direction, final long nanos) {
+	}
+
+	/**
+	 * Completed or failed file transfer
+	 *
+	 * @param bytes Bytes moved, also on failure
+	 */
+	default void transfer(final Protocol protocol, final Direction direction, final long bytes, final long nanos, final boolean success) {
+	}
+
+	/**
+	 * Failure by cause, e.g. "no-such-file", "connection-lost", "timeout"
+	 */
+	default void error(final Protocol protocol, final String cause) {
+	}
+
+	/**
+	 * Register a value read when the metrics are scraped, e.g. pool sizes
+	 */
+	default void gauge(final String name, final LongSupplier value) {
+	}
+}
@@ -0,0 +1,605 @@
+package com.axsoftware.sftpush.outbox;
+
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.transfer.TransferExecutors;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Durable store-and-forward queue of uploads.
+ * <p>
+ * {@code submit} copies the contents to the spool directory, records them in an append-only index forced to
+ * disk, and returns: the caller never waits for the remote server. Background workers drain the spool, each
+ * destination with its own number of workers, so a slow server only holds its own files.
+ * <p>
+ * A failed push pauses its destination with an exponential backoff and the file is retried; after
+ * {@link #getMaxAttempts()} attempts it is moved to the {@code failed} folder of the spool. Files are delivered
+ * at least once: on restart, the files accepted and not delivered are pushed again, including the ones a crash
+ * interrupted in flight. Files of a destination not added yet stay in the spool until it is added.
+ */
+public class Outbox implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+	private static final String ERROR_SPOOL_DIRECTORY = "Error on open outbox spool %s.( %s )";
+
+	private static final String ERROR_SPOOL_FILE = "Error on spool file for %s.( %s )";
+
+	private static final String ERROR_CLOSED = "Outbox closed: %s";
+
+	private static final String THREAD_NAME = "sftpush-outbox-";
+
+	private static final String DATA_DIRECTORY = "data";
+
+	private static final String FAILED_DIRECTORY = "failed";
+
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 * Index records above which the index is compacted, when most of them are delivered files
+	 */
+	private static final int COMPACT_THRESHOLD = 10_000;
+
+	/**
+	 * Time given to the interrupted workers to stop before the index is closed
+	 */
+	private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+	private final Path directory;
+
+	private final Path dataDirectory;
+
+	private final Path failedDirectory;
+
+	private final OutboxIndex index;
+
+	private final Map<String, OutboxEntry> entries = new ConcurrentHashMap<>();
+
+	private final Map<String, Destination> destinations = new ConcurrentHashMap<>();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final Object drained = new Object();
+
+	private volatile boolean closed;
+
+	private volatile int maxAttempts;
+
+	private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+	private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+
+	private TransferMetrics metrics;
+
+	private String metricsName;
+
+	/**
+	 * Open the spool and recover the files accepted and not delivered
+	 *
+	 * @param directory Spool directory, created when missing; one outbox per directory
+	 */
+	public Outbox(final Path directory) {
+		this.directory = directory;
+		this.dataDirectory = directory.resolve(DATA_DIRECTORY);
+		this.failedDirectory = directory.resolve(FAILED_DIRECTORY);
+		try {
+			Files.createDirectories(this.dataDirectory);
+			Files.createDirectories(this.failedDirectory);
+			this.index = new OutboxIndex(directory);
+			recover();
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_SPOOL_DIRECTORY, directory, e.getMessage()), e);
+		}
+	}
+
+	private void recover() throws IOException {
+		for (final OutboxEntry entry : this.index.recover().values()) {
+			if (!Files.exists(dataFile(entry))) {
+				// Delivered, its DONE record was lost with the crash
+				continue;
+			}
+			this.sequence.set(Math.max(this.sequence.get(), entry.getSequence() + 1));
+			this.entries.put(entry.getId(), entry);
+			enqueue(entry);
+		}
+
+		// Files spooled without an index record were never acknowledged to the caller
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(this.dataDirectory)) {
+			for (final Path file : files) {
+				if (!this.entries.containsKey(file.getFileName().toString())) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+		this.index.compact(pendingEntries());
+		if (!this.entries.isEmpty()) {
+			logger.info(String.format("Outbox %s recovered %d files", this.directory, this.entries.size()));
+		}
+	}
+
+	/**
+	 * Start draining the files of a destination
+	 *
+	 * @param name        Destination name given to {@code submit}
+	 * @param target      Server the files are pushed to
+	 * @param concurrency Files pushed at the same time
+	 */
+	public void addDestination(final String name, final OutboxDestination target, final int concurrency) {
+		if (name == null || name.isEmpty() || target == null || concurrency < 1) {
+			throw new IllegalArgumentException(String.format("Invalid destination %s or concurrency %d", name, concurrency));
+		}
+		checkOpen(name);
+		final Destination destination = destination(name);
+		synchronized (destination) {
+			if (destination.target != null) {
+				throw new IllegalArgumentException("Destination already added: " + name);
+			}
+			destination.target = target;
+			destination.executor = TransferExecutors.newBoundedExecutor(THREAD_NAME + name, concurrency);
+			for (int i = 0; i < concurrency; i++) {
+				destination.executor.execute(() -> drain(destination));
+			}
+		}
+	}
+
+	/**
+	 * Accept a copy of a local file for delivery
+	 *
+	 * @return Identifier of the spooled file
+	 * @throws SFTPushException Spool write error, nothing was accepted
+	 */
+	public String submit(final String destination, final Path file, final String remotePath) {
+		try (final InputStream content = Files.newInputStream(file)) {
+			return submit(destination, content, remotePath);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_SPOOL_FILE, remotePath, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Accept contents for delivery
+	 *
+	 * @param destination Destination name
+	 * @param content     Contents, read to the end but not closed
+	 * @param remotePath  Path of the file on the destination
+	 * @return Identifier of the spooled file
+	 * @throws SFTPushException Spool write error, nothing was accepted
+	 */
+	public String submit(final String destination, final InputStream content, final String remotePath) {
+		if (destination == null || destination.isEmpty() || remotePath == null || remotePath.isEmpty()) {
+			throw new IllegalArgumentException(String.format("Invalid destination %s or remote path %s", destination, remotePath));
+		}
+		checkOpen(remotePath);
+
+		final String id = UUID.randomUUID().toString();
+		final Path temp = this.dataDirectory.resolve(id + TEMP_EXTENSION);
+		final Path target = this.dataDirectory.resolve(id);
+		try {
+			final long size = spool(content, temp);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+			final OutboxEntry entry = new OutboxEntry(id, destination, remotePath, size, this.sequence.getAndIncrement());
+			// Known before its record, a compaction running meanwhile keeps it
+			this.entries.put(id, entry);
+			try {
+				this.index.added(entry);
+			} catch (final IOException e) {
+				this.entries.remove(id);
+				throw e;
+			}
+			enqueue(entry);
+			return id;
+		} catch (final IOException e) {
+			deleteQuietly(temp);
+			deleteQuietly(target);
+			throw new SFTPushException(String.format(ERROR_SPOOL_FILE, remotePath, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Write the contents and force them to disk
+	 *
+	 * @return Bytes written
+	 */
+	private static long spool(final InputStream content, final Path file) throws IOException {
+		try (final FileChannel output = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			long size = 0;
+			int count;
+			while ((count = content.read(buffer)) != -1) {
+				final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, count);
+				while (bytes.hasRemaining()) {
+					output.write(bytes);
+				}
+				size += count;
+			}
+			output.force(true);
+			return size;
+		}
+	}
+
+	private void enqueue(final OutboxEntry entry) {
+		final Destination destination = destination(entry.getDestination());
+		destination.pending.incrementAndGet();
+		destination.queue.add(entry);
+	}
+
+	private Destination destination(final String name) {
+		return this.destinations.computeIfAbsent(name, key -> {
+			final Destination destination = new Destination(key);
+			registerGauges(destination);
+			return destination;
+		});
+	}
+
+	/**
+	 * Worker loop: push the due files of a destination until the outbox is closed
+	 */
+	private void drain(final Destination destination) {
+		while (!this.closed) {
+			final OutboxEntry entry;
+			try {
+				entry = destination.queue.take();
+				// The destination failed recently, wait for its backoff before trying another file
+				if (destination.failures.get() > 0) {
+					TimeUnit.NANOSECONDS.sleep(destination.resumeNanos - System.nanoTime());
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			destination.inFlight.incrementAndGet();
+			try {
+				destination.target.push(dataFile(entry), entry.getRemotePath());
+				if (this.closed || Thread.currentThread().isInterrupted()) {
+					// Interrupted by close, the push may be cut short: the file stays pending for the next start
+					return;
+				}
+				delivered(destination, entry);
+			} catch (final Exception e) {
+				failed(destination, entry, e);
+			} finally {
+				destination.inFlight.decrementAndGet();
+			}
+		}
+	}
+
+	private void delivered(final Destination destination, final OutboxEntry entry) {
+		destination.failures.set(0);
+		// Deleting the spooled file is what commits the delivery, the DONE record only shortens recovery
+		deleteQuietly(dataFile(entry));
+		try {
+			this.index.done(entry);
+		} catch (final IOException e) {
+			logger.warning("Outbox index write failed: " + e.getMessage());
+		}
+		this.entries.remove(entry.getId());
+		destination.delivered.incrementAndGet();
+		destination.drainRate.mark(1);
+		completed(destination);
+	}
+
+	private void failed(final Destination destination, final OutboxEntry entry, final Exception error) {
+		if (this.closed) {
+			// Interrupted by close, the file stays pending for the next start
+			return;
+		}
+		final int attempts = entry.failed();
+		if (this.maxAttempts > 0 && attempts >= this.maxAttempts) {
+			logger.severe(String.format("Outbox gives up %s to %s after %d attempts: %s", entry.getRemotePath(), destination.name, attempts, error));
+			try {
+				Files.move(dataFile(entry), this.failedDirectory.resolve(entry.getId()), StandardCopyOption.REPLACE_EXISTING);
+				this.index.dead(entry);
+			} catch (final IOException e) {
+				logger.warning("Outbox index write failed: " + e.getMessage());
+			}
+			this.entries.remove(entry.getId());
+			destination.failed.incrementAndGet();
+			completed(destination);
+			return;
+		}
+
+		final long backoff = backoffMillis(destination.failures.incrementAndGet());
+		logger.warning(String.format("Outbox retries %s to %s in %d ms: %s", entry.getRemotePath(), destination.name, backoff, error));
+		destination.resumeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+		entry.setDueNanos(destination.resumeNanos);
+		try {
+			this.index.retried(entry, attempts);
+		} catch (final IOException e) {
+			logger.warning("Outbox index write failed: " + e.getMessage());
+		}
+		destination.queue.add(entry);
+	}
+
+	/**
+	 * Exponential backoff with jitter, so the workers of a destination do not retry in lockstep
+	 */
+	private long backoffMillis(final int failures) {
+		final long backoff = Math.min(this.maxBackoffMillis, this.initialBackoffMillis << Math.min(failures - 1, 30));
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	private void completed(final Destination destination) {
+		destination.pending.decrementAndGet();
+		if (this.index.getRecords() > COMPACT_THRESHOLD && this.index.getRecords() > 4 * this.entries.size()) {
+			try {
+				this.index.compact(pendingEntries());
+			} catch (final IOException e) {
+				logger.warning("Outbox index compaction failed: " + e.getMessage());
+			}
+		}
+		synchronized (this.drained) {
+			this.drained.notifyAll();
+		}
+	}
+
+	private List<OutboxEntry> pendingEntries() {
+		final List<OutboxEntry> pending = new ArrayList<>(this.entries.values());
+		pending.sort(Comparator.comparingLong(OutboxEntry::getSequence));
+		return pending;
+	}
+
+	/**
+	 * Wait until the destinations added so far have no pending file
+	 *
+	 * @return False when the timeout elapsed first
+	 */
+	public boolean awaitDrained(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (this.drained) {
+			while (getActiveDepth() > 0) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(this.drained, remaining);
+			}
+		}
+		return true;
+	}
+
+	private long getActiveDepth() {
+		long depth = 0;
+		for (final Destination destination : this.destinations.values()) {
+			if (destination.target != null) {
+				depth += destination.pending.get();
+			}
+		}
+		return depth;
+	}
+
+	/**
+	 * Stop the workers. Pushes in flight are interrupted, their files are pushed again on the next start.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		final List<ExecutorService> executors = new ArrayList<>();
+		for (final Destination destination : this.destinations.values()) {
+			synchronized (destination) {
+				if (destination.executor != null) {
+					destination.executor.shutdownNow();
+					executors.add(destination.executor);
+				}
+			}
+		}
+		// Workers still in flight would write to a closed index
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+		try {
+			for (final ExecutorService executor : executors) {
+				if (!executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+					logger.warning("Outbox workers still running after close");
+					break;
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.index.close();
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	private void checkOpen(final String name) {
+		if (this.closed) {
+			throw new SFTPushException(String.format(ERROR_CLOSED, name));
+		}
+	}
+
+	private Path dataFile(final OutboxEntry entry) {
+		return this.dataDirectory.resolve(entry.getId());
+	}
+
+	private static void deleteQuietly(final Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	/**
+	 * Register the gauges {@code <name>.depth} (files in the spool), and per destination
+	 * {@code <name>.<destination>.depth}, {@code .in-flight}, {@code .delivered}, {@code .failed} and
+	 * {@code .drain-per-minute}
+	 *
+	 * @param name Gauge prefix, e.g. "outbox"
+	 */
+	public synchronized void setMetrics(final TransferMetrics metrics, final String name) {
+		this.metrics = metrics;
+		this.metricsName = name;
+		metrics.gauge(name + ".depth", this::getDepth);
+		for (final Destination destination : this.destinations.values()) {
+			registerGauges(destination);
+		}
+	}
+
+	private synchronized void registerGauges(final Destination destination) {
+		if (this.metrics == null) {
+			return;
+		}
+		final String prefix = this.metricsName + "." + destination.name;
+		this.metrics.gauge(prefix + ".depth", destination.pending::get);
+		this.metrics.gauge(prefix + ".in-flight", destination.inFlight::get);
+		this.metrics.gauge(prefix + ".delivered", destination.delivered::get);
+		this.metrics.gauge(prefix + ".failed", destination.failed::get);
+		this.metrics.gauge(prefix + ".drain-per-minute", () -> Math.round(destination.drainRate.getRate() * 60));
+	}
+
+	/**
+	 * Files in the spool, all destinations
+	 */
+	public long getDepth() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Files of a destination waiting or being pushed
+	 */
+	public int getDepth(final String destination) {
+		final Destination state = this.destinations.get(destination);
+		return state == null ? 0 : state.pending.get();
+	}
+
+	/**
+	 * Files of a destination being pushed
+	 */
+	public int getInFlight(final String destination) {
+		final Destination state = this.destinations.get(destination);
+		return state == null ? 0 : state.inFlight.get();
+	}
+
+	/**
+	 * Files delivered to a destination since the outbox was opened
+	 */
+	public long getDelivered(final String destination) {
+		final Destination state = this.destinations.get(destination);
+		return state == null ? 0 : state.delivered.get();
+	}
+
+	/**
+	 * Files of a destination given up since the outbox was opened
+	 */
+	public long getFailed(final String destination) {
+		final Destination state = this.destinations.get(destination);
+		return state == null ? 0 : state.failed.get();
+	}
+
+	/**
+	 * Files delivered to a destination per second, over the last minute
+	 */
+	public double getDrainRate(final String destination) {
+		final Destination state = this.destinations.get(destination);
+		return state == null ? 0 : state.drainRate.getRate();
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	public int getMaxAttempts() {
+		return this.maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts Attempts before a file is moved to the failed folder, 0 to retry forever (default)
+	 */
+	public void setMaxAttempts(final int maxAttempts) {
+		if (maxAttempts < 0) {
+			throw new IllegalArgumentException("Invalid max attempts: " + maxAttempts);
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getInitialBackoffMillis() {
+		return this.initialBackoffMillis;
+	}
+
+	/**
+	 * @param initialBackoffMillis Pause of a destination after its first failure, doubled by each next failure
+	 */
+	public void setInitialBackoffMillis(final long initialBackoffMillis) {
+		if (initialBackoffMillis < 1) {
+			throw new IllegalArgumentException("Invalid backoff: " + initialBackoffMillis);
+		}
+		this.initialBackoffMillis = initialBackoffMillis;
+	}
+
+	public long getMaxBackoffMillis() {
+		return this.maxBackoffMillis;
+	}
+
+	/**
+	 * @param maxBackoffMillis Longest pause of a failing destination
+	 */
+	public void setMaxBackoffMillis(final long maxBackoffMillis) {
+		if (maxBackoffMillis < 1) {
+			throw new IllegalArgumentException("Invalid backoff: " + maxBackoffMillis);
+		}
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Queue and workers of one destination
+	 */
+	private static final class Destination {
+
+		private final String name;
+
+		private final DelayQueue<OutboxEntry> queue = new DelayQueue<>();
+
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private final AtomicInteger failures = new AtomicInteger();
+
+		private final AtomicLong delivered = new AtomicLong();
+
+		private final AtomicLong failed = new AtomicLong();
+
+		private final RateMeter drainRate = new RateMeter();
+
+		private volatile OutboxDestination target;
+
+		private volatile long resumeNanos;
+
+		private ExecutorService executor;
+
+		private Destination(final String name) {
+			this.name = name;
+		}
+	}
+}
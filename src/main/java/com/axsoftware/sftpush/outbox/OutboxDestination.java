@@ -0,0 +1,54 @@
+package com.axsoftware.sftpush.outbox;
+
+import com.axsoftware.sftpush.client.ftp.FTPConnectionPool;
+import com.axsoftware.sftpush.client.ftp.FTPushClient;
+import com.axsoftware.sftpush.client.sftp.SFTPushClient;
+import com.axsoftware.sftpush.config.PushConfig;
+import org.apache.commons.net.ftp.FTP;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Target an {@link Outbox} pushes spooled files to.
+ * <p>
+ * Called by several workers at the same time, up to the concurrency of the destination. A push that throws is
+ * retried later with the same file and remote path, so it must be safe to repeat.
+ */
+@FunctionalInterface
+public interface OutboxDestination {
+
+	/**
+	 * @param file       Spooled contents, must not be modified or deleted
+	 * @param remotePath Path given when the file was submitted
+	 */
+	void push(Path file, String remotePath) throws Exception;
+
+	/**
+	 * Upload with a shared SFTP client, its session pool bounds the connections
+	 */
+	static OutboxDestination sftp(final SFTPushClient client) {
+		return (file, remotePath) -> client.uploadFile(file.toFile(), Paths.get(remotePath));
+	}
+
+	/**
+	 * Upload in binary mode, each push borrows a connection of the default FTP pool
+	 */
+	static OutboxDestination ftp(final PushConfig config) {
+		return (file, remotePath) -> {
+			final int separator = remotePath.lastIndexOf('/');
+			final String directory = separator < 0 ? null : separator == 0 ? "/" : remotePath.substring(0, separator);
+			final String fileName = remotePath.substring(separator + 1);
+
+			final FTPushClient client = new FTPushClient(config, FTPConnectionPool.getDefault());
+			client.connect();
+			try (final InputStream content = Files.newInputStream(file)) {
+				client.upload(content, fileName, directory, null, FTP.BINARY_FILE_TYPE, false);
+			} finally {
+				client.quit();
+			}
+		};
+	}
+}
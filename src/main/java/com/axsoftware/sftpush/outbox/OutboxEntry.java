@@ -0,0 +1,83 @@
+package com.axsoftware.sftpush.outbox;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spooled file waiting for delivery, due when its retry delay has elapsed
+ */
+final class OutboxEntry implements Delayed {
+
+	private final String id;
+
+	private final String destination;
+
+	private final String remotePath;
+
+	private final long size;
+
+	/**
+	 * Submission order, keeps due entries first in first out
+	 */
+	private final long sequence;
+
+	private int attempts;
+
+	private volatile long dueNanos = System.nanoTime();
+
+	OutboxEntry(final String id, final String destination, final String remotePath, final long size, final long sequence) {
+		this.id = id;
+		this.destination = destination;
+		this.remotePath = remotePath;
+		this.size = size;
+		this.sequence = sequence;
+	}
+
+	String getId() {
+		return this.id;
+	}
+
+	String getDestination() {
+		return this.destination;
+	}
+
+	String getRemotePath() {
+		return this.remotePath;
+	}
+
+	long getSize() {
+		return this.size;
+	}
+
+	long getSequence() {
+		return this.sequence;
+	}
+
+	synchronized int getAttempts() {
+		return this.attempts;
+	}
+
+	synchronized void setAttempts(final int attempts) {
+		this.attempts = attempts;
+	}
+
+	synchronized int failed() {
+		return ++this.attempts;
+	}
+
+	void setDueNanos(final long dueNanos) {
+		this.dueNanos = dueNanos;
+	}
+
+	@Override
+	public long getDelay(final TimeUnit unit) {
+		return unit.convert(this.dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public int compareTo(final Delayed other) {
+		final OutboxEntry entry = (OutboxEntry) other;
+		final int due = Long.compare(this.dueNanos, entry.dueNanos);
+		return due != 0 ? due : Long.compare(this.sequence, entry.sequence);
+	}
+}
@@ -0,0 +1,192 @@
+package com.axsoftware.sftpush.outbox;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of the spool: one line per accepted, retried, delivered or dead file.
+ * <p>
+ * Replaying the log gives the files still to deliver, in submission order. A crash may leave a torn last line,
+ * which is ignored. {@link #compact(Collection)} rewrites the log with the pending files only and replaces it
+ * atomically.
+ */
+final class OutboxIndex implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(OutboxIndex.class.getName());
+
+	private static final String FILE_NAME = "outbox.index";
+
+	private static final String ADD = "ADD";
+
+	private static final String RETRY = "RETRY";
+
+	private static final String DONE = "DONE";
+
+	private static final String DEAD = "DEAD";
+
+	private static final char SEPARATOR = '\t';
+
+	private final Path file;
+
+	private FileChannel channel;
+
+	private int records;
+
+	OutboxIndex(final Path directory) throws IOException {
+		this.file = directory.resolve(FILE_NAME);
+		this.channel = open(this.file);
+	}
+
+	/**
+	 * Replay the log
+	 *
+	 * @return Files not delivered nor dead, in submission order
+	 */
+	synchronized Map<String, OutboxEntry> recover() throws IOException {
+		final Map<String, OutboxEntry> entries = new LinkedHashMap<>();
+		long sequence = 0;
+		try (final BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				this.records++;
+				final String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+				try {
+					switch (fields[0]) {
+						case ADD:
+							entries.put(fields[1], new OutboxEntry(fields[1], decode(fields[2]), decode(fields[3]), Long.parseLong(fields[4]), sequence++));
+							break;
+						case RETRY:
+							final OutboxEntry entry = entries.get(fields[1]);
+							if (entry != null) {
+								entry.setAttempts(Integer.parseInt(fields[2]));
+							}
+							break;
+						case DONE:
+						case DEAD:
+							entries.remove(fields[1]);
+							break;
+						default:
+							throw new IllegalArgumentException(fields[0]);
+					}
+				} catch (final RuntimeException e) {
+					logger.warning("Ignore outbox index record: " + line);
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Record an accepted file, on disk when this returns
+	 */
+	void added(final OutboxEntry entry) throws IOException {
+		append(ADD + SEPARATOR + entry.getId() + SEPARATOR + encode(entry.getDestination()) + SEPARATOR + encode(entry.getRemotePath())
+				+ SEPARATOR + entry.getSize(), true);
+	}
+
+	/**
+	 * Record a failed attempt. Not forced to disk: a lost record only resets the attempt count.
+	 */
+	void retried(final OutboxEntry entry, final int attempts) throws IOException {
+		append(RETRY + SEPARATOR + entry.getId() + SEPARATOR + attempts, false);
+	}
+
+	/**
+	 * Record a delivered file. Not forced to disk: the spooled file is deleted anyway, which recovery checks.
+	 */
+	void done(final OutboxEntry entry) throws IOException {
+		append(DONE + SEPARATOR + entry.getId(), false);
+	}
+
+	/**
+	 * Record a file given up after too many attempts
+	 */
+	void dead(final OutboxEntry entry) throws IOException {
+		append(DEAD + SEPARATOR + entry.getId(), true);
+	}
+
+	private synchronized void append(final String record, final boolean force) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap((record + '\n').getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			this.channel.write(buffer);
+		}
+		if (force) {
+			this.channel.force(false);
+		}
+		this.records++;
+	}
+
+	/**
+	 * Replace the log by the records of the pending files
+	 */
+	synchronized void compact(final Collection<OutboxEntry> pending) throws IOException {
+		final Path temp = this.file.resolveSibling(FILE_NAME + ".tmp");
+		final StringBuilder content = new StringBuilder();
+		for (final OutboxEntry entry : pending) {
+			content.append(ADD).append(SEPARATOR).append(entry.getId()).append(SEPARATOR).append(encode(entry.getDestination()))
+					.append(SEPARATOR).append(encode(entry.getRemotePath())).append(SEPARATOR).append(entry.getSize()).append('\n');
+			final int attempts = entry.getAttempts();
+			if (attempts > 0) {
+				content.append(RETRY).append(SEPARATOR).append(entry.getId()).append(SEPARATOR).append(attempts).append('\n');
+			}
+		}
+		try (final FileChannel output = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			final ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+			output.force(false);
+		}
+		this.channel.close();
+		Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.channel = open(this.file);
+		this.records = pending.size();
+	}
+
+	/**
+	 * Records appended since the last compaction
+	 */
+	synchronized int getRecords() {
+		return this.records;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.channel.close();
+	}
+
+	private static FileChannel open(final Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private static String encode(final String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String decode(final String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.axsoftware.sftpush.outbox;
+
+/**
+ * Events per second over the last minute, counted in one second buckets
+ */
+final class RateMeter {
+
+	private static final int WINDOW_SECONDS = 60;
+
+	private final long[] counts = new long[WINDOW_SECONDS];
+
+	private final long[] seconds = new long[WINDOW_SECONDS];
+
+	private final long origin = System.nanoTime();
+
+	synchronized void mark(final long count) {
+		final long second = second();
+		final int bucket = (int) (second % WINDOW_SECONDS);
+		if (this.seconds[bucket] != second) {
+			this.seconds[bucket] = second;
+			this.counts[bucket] = 0;
+		}
+		this.counts[bucket] += count;
+	}
+
+	synchronized double getRate() {
+		final long second = second();
+		long total = 0;
+		for (int i = 0; i < WINDOW_SECONDS; i++) {
+			if (second - this.seconds[i] < WINDOW_SECONDS) {
+				total += this.counts[i];
+			}
+		}
+		// A young meter divides by its age, not by the whole window
+		return total / (double) Math.min(WINDOW_SECONDS, second + 1);
+	}
+
+	private long second() {
+		return (System.nanoTime() - this.origin) / 1_000_000_000L;
+	}
+}
@@ -0,0 +1,431 @@
+package com.axsoftware.sftpush.pool;
+
+import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of connected resources keyed by {@link PoolKey}.
+ * <p>
+ * Idle entries are kept per key (most recently used first), validated before being handed out and evicted
+ * after {@link #getMaxIdleTimeMillis()}. The number of open entries (idle + leased) per remote host is capped by
+ * {@link #getMaxPerHost()}; a borrow beyond the cap waits up to {@link #getBorrowTimeoutMillis()} for a release.
+ * <p>
+ * Network operations (create, validate, passivate, destroy) always run outside the pool lock.
+ *
+ * @param <T> Pooled resource
+ * @param <E> Exception thrown when a resource can not be created
+ */
+public abstract class KeyedConnectionPool<T, E extends Exception> implements Closeable {
+
+	private static final Logger logger = Logger.getLogger(KeyedConnectionPool.class.getName());
+
+	private static final String EXCEPTION_POOL_CLOSED = "Connection pool is closed";
+
+	private static final String EXCEPTION_POOL_EXHAUSTED = "Timeout waiting for a connection to %s (max per host: %s)";
+
+	private static final long EVICTION_RUN_INTERVAL_MILLIS = 1000;
+
+	private int maxPerHost = 8;
+
+	private int maxIdlePerKey = 4;
+
+	private long maxIdleTimeMillis = 60000;
+
+	private long borrowTimeoutMillis = 30000;
+
+	private long validationIntervalMillis = 5000;
+
+	private final Map<PoolKey, Deque<Entry<T>>> idle = new HashMap<>();
+
+	private final Map<T, Entry<T>> leased = new IdentityHashMap<>();
+
+	private final Map<String, Integer> openPerHost = new HashMap<>();
+
+	private volatile TransferMetrics metrics = TransferMetrics.NOOP;
+
+	private long lastEvictionRun;
+
+	private boolean closed;
+
+	/**
+	 * Open a new connected resource
+	 */
+	protected abstract T create(PushConfig config) throws E;
+
+	/**
+	 * Cheap, local check that the resource is still connected
+	 */
+	protected abstract boolean isUsable(T resource);
+
+	/**
+	 * Round-trip check executed on idle resources not validated for {@link #getValidationIntervalMillis()}
+	 */
+	protected abstract boolean validate(T resource);
+
+	/**
+	 * Close the resource, never throws
+	 */
+	protected abstract void destroy(T resource);
+
+	/**
+	 * Reset the resource state before it is put back in the idle list
+	 *
+	 * @return False when the resource must be discarded
+	 */
+	protected boolean passivate(final T resource) {
+		return true;
+	}
+
+	/**
+	 * Borrow a connected resource, creating a new one when there is no valid idle entry.
+	 * The resource must be given back by {@link #release(Object)} or {@link #invalidate(Object)}.
+	 *
+	 * @param config Connection config
+	 * @return Connected resource
+	 * @throws E               Error creating the resource
+	 * @throws SFTPushException Pool exhausted or closed
+	 */
+	public T borrow(final PushConfig config) throws E {
+		final PoolKey key = PoolKey.of(config);
+		final long deadline = System.currentTimeMillis() + this.borrowTimeoutMillis;
+
+		while (true) {
+			final List<Entry<T>> discarded = new ArrayList<>();
+			Entry<T> entry = null;
+
+			synchronized (this) {
+				while (entry == null) {
+					ensureOpen();
+					discarded.addAll(collectExpired(false));
+
+					final Deque<Entry<T>> entries = this.idle.get(key);
+					if (entries != null && !entries.isEmpty()) {
+						entry = entries.pollFirst();
+						this.leased.put(entry.resource, entry);
+					} else if (openCount(key.getHostKey()) < this.maxPerHost) {
+						incrementOpen(key.getHostKey());
+						break;
+					} else {
+						final Entry<T> victim = pollIdleOfHost(key.getHostKey());
+						if (victim != null) {
+							decrementOpen(key.getHostKey());
+							discarded.add(victim);
+							continue;
+						}
+						final long remaining = deadline - System.currentTimeMillis();
+						if (remaining <= 0) {
+							destroyAll(discarded);
+							throw new SFTPushException(String.format(EXCEPTION_POOL_EXHAUSTED, key, this.maxPerHost));
+						}
+						try {
+							wait(remaining);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+							destroyAll(discarded);
+							throw new SFTPushException(String.format(EXCEPTION_POOL_EXHAUSTED, key, this.maxPerHost), e);
+						}
+					}
+				}
+			}
+			destroyAll(discarded);
+
+			if (entry == null) {
+				return createEntry(key, config);
+			}
+
+			if (isValid(entry)) {
+				entry.lastUsed = System.currentTimeMillis();
+				return entry.resource;
+			}
+			logger.fine("Discard invalid pooled connection " + key);
+			invalidate(entry.resource);
+		}
+	}
+
+	/**
+	 * Give back a borrowed resource. Unusable resources are closed.
+	 */
+	public void release(final T resource) {
+		final Entry<T> entry;
+		synchronized (this) {
+			entry = this.leased.remove(resource);
+		}
+		if (entry == null) {
+			return;
+		}
+
+		final boolean reusable = isUsable(resource) && passivate(resource);
+		final List<Entry<T>> discarded = new ArrayList<>();
+		synchronized (this) {
+			final Deque<Entry<T>> entries = this.idle.computeIfAbsent(entry.key, k -> new ArrayDeque<>());
+			if (reusable && !this.closed && entries.size() < this.maxIdlePerKey) {
+				entry.lastUsed = System.currentTimeMillis();
+				entries.addFirst(entry);
+			} else {
+				decrementOpen(entry.key.getHostKey());
+				discarded.add(entry);
+			}
+			discarded.addAll(collectExpired(false));
+			notifyAll();
+		}
+		destroyAll(discarded);
+	}
+
+	/**
+	 * Close a borrowed resource that must not be reused (e.g. connection lost)
+	 */
+	public void invalidate(final T resource) {
+		final Entry<T> entry;
+		synchronized (this) {
+			entry = this.leased.remove(resource);
+			if (entry != null) {
+				decrementOpen(entry.key.getHostKey());
+				notifyAll();
+			}
+		}
+		if (entry != null) {
+			destroy(resource);
+		}
+	}
+
+	/**
+	 * Close idle resources not used for {@link #getMaxIdleTimeMillis()}
+	 */
+	public void evictIdle() {
+		final List<Entry<T>> discarded;
+		synchronized (this) {
+			discarded = collectExpired(true);
+			notifyAll();
+		}
+		destroyAll(discarded);
+	}
+
+	/**
+	 * Close all idle resources. Leased resources are closed when released.
+	 */
+	@Override
+	public void close() {
+		final List<Entry<T>> discarded = new ArrayList<>();
+		synchronized (this) {
+			this.closed = true;
+			for (final Deque<Entry<T>> entries : this.idle.values()) {
+				for (final Entry<T> entry : entries) {
+					decrementOpen(entry.key.getHostKey());
+					discarded.add(entry);
+				}
+			}
+			this.idle.clear();
+			notifyAll();
+		}
+		destroyAll(discarded);
+	}
+
+	/**
+	 * Report new connections to the given metrics and register the pool gauges {@code <name>.idle},
+	 * {@code <name>.leased} and {@code <name>.open}
+	 *
+	 * @param name Gauge prefix, e.g. "sftp.pool"
+	 */
+	public void setMetrics(final TransferMetrics metrics, final String name) {
+		this.metrics = metrics;
+		metrics.gauge(name + ".idle", this::getIdleCount);
+		metrics.gauge(name + ".leased", this::getLeasedCount);
+		metrics.gauge(name + ".open", this::getOpenCount);
+	}
+
+	/**
+	 * Metrics new connections are reported to, see {@link #create(PushConfig)}
+	 */
+	protected TransferMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	public synchronized int getIdleCount() {
+		int count = 0;
+		for (final Deque<Entry<T>> entries : this.idle.values()) {
+			count += entries.size();
+		}
+		return count;
+	}
+
+	public synchronized int getLeasedCount() {
+		return this.leased.size();
+	}
+
+	/**
+	 * Idle, leased and connecting resources
+	 */
+	public synchronized int getOpenCount() {
+		int count = 0;
+		for (final int open : this.openPerHost.values()) {
+			count += open;
+		}
+		return count;
+	}
+
+	private T createEntry(final PoolKey key, final PushConfig config) throws E {
+		final T resource;
+		try {
+			resource = create(config);
+		} catch (final Exception | Error e) {
+			synchronized (this) {
+				decrementOpen(key.getHostKey());
+				notifyAll();
+			}
+			throw e;
+		}
+		final Entry<T> entry = new Entry<>(key, resource);
+		synchronized (this) {
+			this.leased.put(resource, entry);
+		}
+		return resource;
+	}
+
+	private boolean isValid(final Entry<T> entry) {
+		if (!isUsable(entry.resource)) {
+			return false;
+		}
+		final long now = System.currentTimeMillis();
+		if (now - entry.lastValidated < this.validationIntervalMillis) {
+			return true;
+		}
+		if (!validate(entry.resource)) {
+			return false;
+		}
+		entry.lastValidated = now;
+		return true;
+	}
+
+	private void ensureOpen() {
+		if (this.closed) {
+			throw new SFTPushException(EXCEPTION_POOL_CLOSED);
+		}
+	}
+
+	private List<Entry<T>> collectExpired(final boolean force) {
+		final List<Entry<T>> expired = new ArrayList<>();
+		final long now = System.currentTimeMillis();
+		if (!force && now - this.lastEvictionRun < EVICTION_RUN_INTERVAL_MILLIS) {
+			return expired;
+		}
+		this.lastEvictionRun = now;
+
+		for (final Iterator<Deque<Entry<T>>> keys = this.idle.values().iterator(); keys.hasNext(); ) {
+			final Deque<Entry<T>> entries = keys.next();
+			// Oldest entries are at the tail
+			while (!entries.isEmpty() && now - entries.peekLast().lastUsed >= this.maxIdleTimeMillis) {
+				final Entry<T> entry = entries.pollLast();
+				decrementOpen(entry.key.getHostKey());
+				expired.add(entry);
+			}
+			if (entries.isEmpty()) {
+				keys.remove();
+			}
+		}
+		return expired;
+	}
+
+	private Entry<T> pollIdleOfHost(final String hostKey) {
+		for (final Deque<Entry<T>> entries : this.idle.values()) {
+			final Entry<T> last = entries.peekLast();
+			if (last != null && last.key.getHostKey().equals(hostKey)) {
+				return entries.pollLast();
+			}
+		}
+		return null;
+	}
+
+	private int openCount(final String hostKey) {
+		final Integer count = this.openPerHost.get(hostKey);
+		return count == null ? 0 : count;
+	}
+
+	private void incrementOpen(final String hostKey) {
+		this.openPerHost.put(hostKey, openCount(hostKey) + 1);
+	}
+
+	private void decrementOpen(final String hostKey) {
+		final int count = openCount(hostKey) - 1;
+		if (count <= 0) {
+			this.openPerHost.remove(hostKey);
+		} else {
+			this.openPerHost.put(hostKey, count);
+		}
+	}
+
+	private void destroyAll(final List<Entry<T>> entries) {
+		for (final Entry<T> entry : entries) {
+			destroy(entry.resource);
+		}
+	}
+
+	public int getMaxPerHost() {
+		return this.maxPerHost;
+	}
+
+	public void setMaxPerHost(final int maxPerHost) {
+		this.maxPerHost = maxPerHost;
+	}
+
+	public int getMaxIdlePerKey() {
+		return this.maxIdlePerKey;
+	}
+
+	public void setMaxIdlePerKey(final int maxIdlePerKey) {
+		this.maxIdlePerKey = maxIdlePerKey;
+	}
+
+	public long getMaxIdleTimeMillis() {
+		return this.maxIdleTimeMillis;
+	}
+
+	public void setMaxIdleTimeMillis(final long maxIdleTimeMillis) {
+		this.maxIdleTimeMillis = maxIdleTimeMillis;
+	}
+
+	public long getBorrowTimeoutMillis() {
+		return this.borrowTimeoutMillis;
+	}
+
+	public void setBorrowTimeoutMillis(final long borrowTimeoutMillis) {
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+	}
+
+	public long getValidationIntervalMillis() {
+		return this.validationIntervalMillis;
+	}
+
+	public void setValidationIntervalMillis(final long validationIntervalMillis) {
+		this.validationIntervalMillis = validationIntervalMillis;
+	}
+
+	private static final class Entry<T> {
+
+		private final PoolKey key;
+
+		private final T resource;
+
+		private long lastUsed;
+
+		private long lastValidated;
+
+		private Entry(final PoolKey key, final T resource) {
+			this.key = key;
+			this.resource = resource;
+			this.lastUsed = System.currentTimeMillis();
+			this.lastValidated = this.lastUsed;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.axsoftware.sftpush.pool;
+
+import com.axsoftware.sftpush.config.PushConfig;
+
+import java.util.Objects;
+
+/**
+ * Immutable snapshot of the {@link PushConfig} attributes that identify a pooled connection.
+ * <p>
+ * A snapshot is taken so that mutating a {@link PushConfig} after a borrow never corrupts the pool.
+ */
+public final class PoolKey {
+
+	private final String host;
+
+	private final Integer port;
+
+	private final String username;
+
+	private final String password;
+
+	private final String ppk;
+
+	private final Integer windowSize;
+
+	private final Integer packetSize;
+
+	private final boolean compression;
+
+	private final Integer compressionLevel;
+
+	private PoolKey(final PushConfig config) {
+		this.host = config.getHost();
+		this.port = config.getPort();
+		this.username = config.getUsername();
+		this.password = config.getPassword();
+		this.ppk = config.getPpk();
+		// Fixed when a channel is opened, connections with other values can not be shared
+		this.windowSize = config.getTransferProfile().getWindowSize();
+		this.packetSize = config.getTransferProfile().getPacketSize();
+		// Negotiated at key exchange, compressed and plain sessions live side by side
+		this.compression = Boolean.TRUE.equals(config.getTransferProfile().getCompression());
+		this.compressionLevel = this.compression ? config.getTransferProfile().getCompressionLevel() : null;
+	}
+
+	public static PoolKey of(final PushConfig config) {
+		if (config == null || config.getHost() == null) {
+			throw new IllegalArgumentException("Invalid connection config: " + config);
+		}
+		return new PoolKey(config);
+	}
+
+	/**
+	 * Key used to enforce the limit of connections per remote server
+	 *
+	 * @return host:port
+	 */
+	public String getHostKey() {
+		return this.host + ":" + this.port;
+	}
+
+	public String getHost() {
+		return this.host;
+	}
+
+	public Integer getPort() {
+		return this.port;
+	}
+
+	public String getUsername() {
+		return this.username;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof PoolKey)) {
+			return false;
+		}
+		final PoolKey key = (PoolKey) other;
+		return Objects.equals(this.host, key.host)
+				&& Objects.equals(this.port, key.port)
+				&& Objects.equals(this.username, key.username)
+				&& Objects.equals(this.password, key.password)
+				&& Objects.equals(this.ppk, key.ppk)
+				&& Objects.equals(this.windowSize, key.windowSize)
+				&& Objects.equals(this.packetSize, key.packetSize)
+				&& this.compression == key.compression
+				&& Objects.equals(this.compressionLevel, key.compressionLevel);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.host, this.port, this.username, this.password, this.ppk, this.windowSize, this.packetSize, this.compression,
+				this.compressionLevel);
+	}
+
+	@Override
+	public String toString() {
+		return this.username + "@" + getHostKey();
+	}
+}
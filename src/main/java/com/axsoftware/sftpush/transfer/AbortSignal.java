@@ -0,0 +1,132 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Cancellation of a running transfer.
+ * <p>
+ * While a task runs inside {@link #run(Callable)}, the clients attach the connection they borrow together with
+ * an action that aborts it (e.g. disconnect the session), and detach it before giving it back to the pool.
+ * {@link #abort()} interrupts the task thread and runs the actions of the attached connections, so a blocked
+ * read or write fails right away instead of running to completion.
+ */
+public final class AbortSignal {
+
+	private static final Logger logger = Logger.getLogger(AbortSignal.class.getName());
+
+	private static final ThreadLocal<AbortSignal> CURRENT = new ThreadLocal<>();
+
+	private final Map<Object, Runnable> actions = new IdentityHashMap<>();
+
+	private Thread thread;
+
+	private boolean aborted;
+
+	/**
+	 * Signal of the task running on the current thread, null outside {@link #run(Callable)}
+	 */
+	public static AbortSignal current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Attach a resource to the signal of the current thread, if any
+	 */
+	public static void attachCurrent(final Object resource, final Runnable abortAction) {
+		final AbortSignal signal = CURRENT.get();
+		if (signal != null) {
+			signal.attach(resource, abortAction);
+		}
+	}
+
+	/**
+	 * Detach a resource from the signal of the current thread, if any
+	 */
+	public static void detachCurrent(final Object resource) {
+		final AbortSignal signal = CURRENT.get();
+		if (signal != null) {
+			signal.detach(resource);
+		}
+	}
+
+	/**
+	 * Run a task on the current thread with this signal as current signal
+	 */
+	public <T> T run(final Callable<T> task) throws Exception {
+		final AbortSignal previous = CURRENT.get();
+		synchronized (this) {
+			if (this.aborted) {
+				throw new InterruptedException("Transfer aborted");
+			}
+			this.thread = Thread.currentThread();
+		}
+		CURRENT.set(this);
+		try {
+			return task.call();
+		} finally {
+			synchronized (this) {
+				this.thread = null;
+				this.actions.clear();
+			}
+			// Clear an interrupt meant for this task only
+			if (this.aborted) {
+				Thread.interrupted();
+			}
+			if (previous != null) {
+				CURRENT.set(previous);
+			} else {
+				CURRENT.remove();
+			}
+		}
+	}
+
+	/**
+	 * Register the abort action of a borrowed resource. Runs it at once when the signal was already aborted.
+	 */
+	public synchronized void attach(final Object resource, final Runnable abortAction) {
+		if (this.aborted) {
+			runQuietly(abortAction);
+			return;
+		}
+		this.actions.put(resource, abortAction);
+	}
+
+	/**
+	 * Forget a resource about to be given back, its abort action can not run afterwards
+	 */
+	public synchronized void detach(final Object resource) {
+		this.actions.remove(resource);
+	}
+
+	/**
+	 * Abort the running task: interrupt its thread and abort the attached resources
+	 */
+	public synchronized void abort() {
+		if (this.aborted) {
+			return;
+		}
+		this.aborted = true;
+		if (this.thread != null) {
+			this.thread.interrupt();
+		}
+		for (final Runnable action : this.actions.values()) {
+			runQuietly(action);
+		}
+		this.actions.clear();
+	}
+
+	public synchronized boolean isAborted() {
+		return this.aborted;
+	}
+
+	private static void runQuietly(final Runnable action) {
+		try {
+			action.run();
+		} catch (final RuntimeException e) {
+			logger.fine("Abort action failed: " + e);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs blocking transfer operations as {@link CompletableFuture}s.
+ * <p>
+ * At most {@code maxInFlight} operations are submitted or running at the same time; {@link #submit(Callable)}
+ * blocks the caller while the limit is reached, which pushes back on producers instead of queueing without
+ * bound. Cancelling a returned future aborts the operation through its {@link AbortSignal}.
+ */
+public final class AsyncTransferExecutor implements Closeable {
+
+	private static final String THREAD_NAME = "sftpush-async";
+
+	private final ExecutorService executor;
+
+	private final boolean ownExecutor;
+
+	private final Semaphore inFlight;
+
+	private final int maxInFlight;
+
+	/**
+	 * Executor on virtual threads (JDK 21+) or daemon threads
+	 *
+	 * @param maxInFlight Maximum operations submitted and not completed
+	 */
+	public AsyncTransferExecutor(final int maxInFlight) {
+		this(TransferExecutors.newExecutor(THREAD_NAME), true, maxInFlight);
+	}
+
+	/**
+	 * @param executor    Executor running the operations, not shut down by {@link #close()}
+	 * @param maxInFlight Maximum operations submitted and not completed
+	 */
+	public AsyncTransferExecutor(final ExecutorService executor, final int maxInFlight) {
+		this(executor, false, maxInFlight);
+	}
+
+	private AsyncTransferExecutor(final ExecutorService executor, final boolean ownExecutor, final int maxInFlight) {
+		if (executor == null || maxInFlight < 1) {
+			throw new IllegalArgumentException(String.format("Invalid executor %s or max in flight %d", executor, maxInFlight));
+		}
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight, true);
+	}
+
+	/**
+	 * Submit an operation, waiting for an in-flight slot
+	 *
+	 * @return Future of the operation result; cancel aborts the operation. Completed exceptionally when the
+	 * caller was interrupted while waiting for a slot or the executor refused the operation.
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> operation) {
+		final AbortSignal signal = new AbortSignal();
+		final CompletableFuture<T> future = new CompletableFuture<T>() {
+
+			@Override
+			public boolean cancel(final boolean mayInterruptIfRunning) {
+				final boolean cancelled = super.cancel(mayInterruptIfRunning);
+				if (cancelled) {
+					signal.abort();
+				}
+				return cancelled;
+			}
+		};
+
+		try {
+			this.inFlight.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		try {
+			this.executor.execute(() -> {
+				try {
+					if (!future.isDone()) {
+						future.complete(signal.run(operation));
+					}
+				} catch (final Throwable e) {
+					future.completeExceptionally(e);
+				} finally {
+					this.inFlight.release();
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			this.inFlight.release();
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Operations submitted and not completed
+	 */
+	public int getInFlight() {
+		return this.maxInFlight - this.inFlight.availablePermits();
+	}
+
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	/**
+	 * Shut down the executor when it was created by this instance. Running operations complete.
+	 */
+	@Override
+	public void close() {
+		if (this.ownExecutor) {
+			this.executor.shutdown();
+		}
+	}
+}
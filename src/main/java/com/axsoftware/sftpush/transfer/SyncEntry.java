@@ -0,0 +1,72 @@
+package com.axsoftware.sftpush.transfer;
+
+/**
+ * File or directory of a synced tree, identified by its path relative to the tree root ('/' separated)
+ */
+public final class SyncEntry {
+
+	private final String path;
+
+	private final boolean directory;
+
+	private final long size;
+
+	private final long modifiedMillis;
+
+	private final long precisionMillis;
+
+	/**
+	 * @param path            Relative path, '/' separated
+	 * @param directory       True for a directory
+	 * @param size            Size in bytes, ignored for directories
+	 * @param modifiedMillis  Modification time
+	 * @param precisionMillis Resolution of the modification time (e.g. 60000 for FTP listings without seconds)
+	 */
+	public SyncEntry(final String path, final boolean directory, final long size, final long modifiedMillis, final long precisionMillis) {
+		this.path = path;
+		this.directory = directory;
+		this.size = size;
+		this.modifiedMillis = modifiedMillis;
+		this.precisionMillis = precisionMillis;
+	}
+
+	public static SyncEntry file(final String path, final long size, final long modifiedMillis, final long precisionMillis) {
+		return new SyncEntry(path, false, size, modifiedMillis, precisionMillis);
+	}
+
+	public static SyncEntry directory(final String path) {
+		return new SyncEntry(path, true, 0, 0, 0);
+	}
+
+	/**
+	 * Relative path of a child entry
+	 */
+	public static String child(final String parent, final String name) {
+		return parent.isEmpty() ? name : parent + "/" + name;
+	}
+
+	public String getPath() {
+		return this.path;
+	}
+
+	public boolean isDirectory() {
+		return this.directory;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	public long getModifiedMillis() {
+		return this.modifiedMillis;
+	}
+
+	public long getPrecisionMillis() {
+		return this.precisionMillis;
+	}
+
+	@Override
+	public String toString() {
+		return this.directory ? this.path + "/" : String.format("%s (%d bytes, modified %d)", this.path, this.size, this.modifiedMillis);
+	}
+}
@@ -0,0 +1,99 @@
+package com.axsoftware.sftpush.transfer;
+
+/**
+ * Options of an incremental directory sync
+ */
+public class SyncOptions {
+
+	public enum Direction {
+		/**
+		 * Remote directory to local directory
+		 */
+		PULL,
+		/**
+		 * Local directory to remote directory
+		 */
+		PUSH
+	}
+
+	private Direction direction = Direction.PULL;
+
+	private boolean recursive;
+
+	private boolean deleteExtraneous;
+
+	private int parallelism = 1;
+
+	private long modifiedToleranceMillis = 1000;
+
+	public static SyncOptions pull() {
+		final SyncOptions options = new SyncOptions();
+		options.setDirection(Direction.PULL);
+		return options;
+	}
+
+	public static SyncOptions push() {
+		final SyncOptions options = new SyncOptions();
+		options.setDirection(Direction.PUSH);
+		return options;
+	}
+
+	public Direction getDirection() {
+		return this.direction;
+	}
+
+	public void setDirection(final Direction direction) {
+		if (direction == null) {
+			throw new IllegalArgumentException("Invalid sync direction: " + direction);
+		}
+		this.direction = direction;
+	}
+
+	public boolean isRecursive() {
+		return this.recursive;
+	}
+
+	/**
+	 * @param recursive Sync subdirectories too, only top level files are synced by default
+	 */
+	public void setRecursive(final boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	public boolean isDeleteExtraneous() {
+		return this.deleteExtraneous;
+	}
+
+	/**
+	 * @param deleteExtraneous Delete target files and directories missing from the source
+	 */
+	public void setDeleteExtraneous(final boolean deleteExtraneous) {
+		this.deleteExtraneous = deleteExtraneous;
+	}
+
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param parallelism Files transferred at the same time, when the client supports it
+	 */
+	public void setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Invalid parallelism: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	public long getModifiedToleranceMillis() {
+		return this.modifiedToleranceMillis;
+	}
+
+	/**
+	 * @param modifiedToleranceMillis Modification time difference still considered equal, SFTP times have a second
+	 *                                resolution (default 1000)
+	 */
+	public void setModifiedToleranceMillis(final long modifiedToleranceMillis) {
+		this.modifiedToleranceMillis = modifiedToleranceMillis;
+	}
+}
@@ -0,0 +1,177 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Operations bringing a target tree in line with a source tree.
+ * <p>
+ * A file is transferred when it is missing from the target, its size differs, or the source copy is newer
+ * than the target copy by more than the tolerance. "Newer" rather than "different" keeps pushes incremental
+ * on servers that can not set the modification time of uploaded files. Apply the plan in order: deletions
+ * (children first), then directories (parents first), then transfers.
+ */
+public final class SyncPlan {
+
+	private final List<SyncEntry> deletions;
+
+	private final List<SyncEntry> directories;
+
+	private final List<SyncEntry> transfers;
+
+	private final int unchanged;
+
+	private SyncPlan(final List<SyncEntry> deletions, final List<SyncEntry> directories, final List<SyncEntry> transfers, final int unchanged) {
+		this.deletions = Collections.unmodifiableList(deletions);
+		this.directories = Collections.unmodifiableList(directories);
+		this.transfers = Collections.unmodifiableList(transfers);
+		this.unchanged = unchanged;
+	}
+
+	/**
+	 * Compare two trees
+	 *
+	 * @param source  Source entries by relative path
+	 * @param target  Target entries by relative path
+	 * @param options Sync options
+	 */
+	public static SyncPlan compare(final Map<String, SyncEntry> source, final Map<String, SyncEntry> target, final SyncOptions options) {
+		final NavigableMap<String, SyncEntry> sourceTree = new TreeMap<>(source);
+		final NavigableMap<String, SyncEntry> targetTree = new TreeMap<>(target);
+
+		final List<SyncEntry> directories = new ArrayList<>();
+		final List<SyncEntry> transfers = new ArrayList<>();
+		final Set<String> replaced = new HashSet<>();
+		int unchanged = 0;
+
+		for (final SyncEntry entry : sourceTree.values()) {
+			final SyncEntry existing = targetTree.get(entry.getPath());
+			if (existing != null && existing.isDirectory() != entry.isDirectory()) {
+				// A file replaced by a directory or the opposite
+				replaced.add(entry.getPath());
+			}
+			if (entry.isDirectory()) {
+				if (existing == null || !existing.isDirectory()) {
+					directories.add(entry);
+				}
+			} else if (existing == null || existing.isDirectory() || isChanged(entry, existing, options)) {
+				transfers.add(entry);
+			} else {
+				unchanged++;
+			}
+		}
+
+		final List<SyncEntry> deletions = new ArrayList<>();
+		for (final SyncEntry entry : targetTree.descendingMap().values()) {
+			final SyncEntry sourceEntry = sourceTree.get(entry.getPath());
+			if (replaced.contains(entry.getPath())
+					|| sourceEntry == null && (options.isDeleteExtraneous() || isUnder(entry.getPath(), replaced))) {
+				deletions.add(entry);
+			}
+		}
+		return new SyncPlan(deletions, directories, transfers, unchanged);
+	}
+
+	private static boolean isChanged(final SyncEntry source, final SyncEntry target, final SyncOptions options) {
+		if (source.getSize() != target.getSize()) {
+			return true;
+		}
+		final long tolerance = Math.max(options.getModifiedToleranceMillis(), Math.max(source.getPrecisionMillis(), target.getPrecisionMillis()));
+		return source.getModifiedMillis() - target.getModifiedMillis() > tolerance;
+	}
+
+	private static boolean isUnder(final String path, final Set<String> directories) {
+		for (int index = path.lastIndexOf('/'); index > 0; index = path.lastIndexOf('/', index - 1)) {
+			if (directories.contains(path.substring(0, index))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Entries of a local directory. Symbolic links are not followed.
+	 *
+	 * @param root      Local directory, missing means empty
+	 * @param recursive Include subdirectories and their contents, otherwise only the files of the root
+	 */
+	public static Map<String, SyncEntry> scanLocal(final Path root, final boolean recursive) throws IOException {
+		final Map<String, SyncEntry> entries = new TreeMap<>();
+		if (!Files.isDirectory(root)) {
+			return entries;
+		}
+		Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+				if (!dir.equals(root)) {
+					entries.put(relativePath(root, dir), SyncEntry.directory(relativePath(root, dir)));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+				// Beyond max depth directories are visited as files
+				if (attrs.isRegularFile()) {
+					final String path = relativePath(root, file);
+					entries.put(path, SyncEntry.file(path, attrs.size(), attrs.lastModifiedTime().toMillis(), 1));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return entries;
+	}
+
+	private static String relativePath(final Path root, final Path path) {
+		return root.relativize(path).toString().replace(root.getFileSystem().getSeparator(), "/");
+	}
+
+	/**
+	 * Target entries to delete, children before their parent
+	 */
+	public List<SyncEntry> getDeletions() {
+		return this.deletions;
+	}
+
+	/**
+	 * Directories to create in the target, parents before their children
+	 */
+	public List<SyncEntry> getDirectories() {
+		return this.directories;
+	}
+
+	/**
+	 * Source files to transfer
+	 */
+	public List<SyncEntry> getTransfers() {
+		return this.transfers;
+	}
+
+	/**
+	 * Number of files already up to date
+	 */
+	public int getUnchanged() {
+		return this.unchanged;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d to transfer, %d unchanged, %d directories to create, %d to delete",
+				this.transfers.size(), this.unchanged, this.directories.size(), this.deletions.size());
+	}
+}
@@ -0,0 +1,56 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of an incremental directory sync
+ */
+public final class SyncResult {
+
+	private final TransferBatchResult transfers;
+
+	private final int unchanged;
+
+	private final List<String> deleted;
+
+	public SyncResult(final TransferBatchResult transfers, final int unchanged, final List<String> deleted) {
+		this.transfers = transfers;
+		this.unchanged = unchanged;
+		this.deleted = Collections.unmodifiableList(new ArrayList<>(deleted));
+	}
+
+	/**
+	 * Files that were new or changed, by relative path
+	 */
+	public TransferBatchResult getTransfers() {
+		return this.transfers;
+	}
+
+	/**
+	 * Number of files skipped because the target was up to date
+	 */
+	public int getUnchanged() {
+		return this.unchanged;
+	}
+
+	/**
+	 * Relative paths deleted from the target
+	 */
+	public List<String> getDeleted() {
+		return this.deleted;
+	}
+
+	/**
+	 * Check if every new or changed file was transferred
+	 */
+	public boolean isSuccess() {
+		return this.transfers.isSuccess();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s, %d unchanged, %d deleted", this.transfers, this.unchanged, this.deleted.size());
+	}
+}
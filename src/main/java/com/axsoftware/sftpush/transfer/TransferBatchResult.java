@@ -0,0 +1,64 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-file outcomes of a multi-file transfer, in request order
+ */
+public final class TransferBatchResult {
+
+	private final List<TransferResult> results;
+
+	private final long durationMillis;
+
+	public TransferBatchResult(final List<TransferResult> results, final long durationMillis) {
+		this.results = Collections.unmodifiableList(new ArrayList<>(results));
+		this.durationMillis = durationMillis;
+	}
+
+	public List<TransferResult> getResults() {
+		return this.results;
+	}
+
+	/**
+	 * Transfers that did not succeed
+	 */
+	public List<TransferResult> getFailures() {
+		final List<TransferResult> failures = new ArrayList<>();
+		for (final TransferResult result : this.results) {
+			if (!result.isSuccess()) {
+				failures.add(result);
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Check if every file was transferred
+	 */
+	public boolean isSuccess() {
+		return getFailures().isEmpty();
+	}
+
+	public long getTotalBytes() {
+		long total = 0;
+		for (final TransferResult result : this.results) {
+			total += result.getBytes();
+		}
+		return total;
+	}
+
+	/**
+	 * Wall-clock duration of the whole batch
+	 */
+	public long getDurationMillis() {
+		return this.durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d files, %d failed, %d bytes, %d ms", this.results.size(), getFailures().size(), getTotalBytes(), this.durationMillis);
+	}
+}
@@ -0,0 +1,145 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.io.FileDescriptor;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Progress record of one resumable transfer, created by {@link TransferJournal#begin(String, long, long)}
+ */
+public final class TransferCheckpoint {
+
+	private final TransferJournal journal;
+
+	private final String transferKey;
+
+	private final Path file;
+
+	private final long size;
+
+	private final long modified;
+
+	private final long offset;
+
+	TransferCheckpoint(final TransferJournal journal, final String transferKey, final Path file, final long size, final long modified, final long offset) {
+		this.journal = journal;
+		this.transferKey = transferKey;
+		this.file = file;
+		this.size = size;
+		this.modified = modified;
+		this.offset = offset;
+	}
+
+	/**
+	 * Offset recorded by the last checkpoint. Callers resume from the minimum of this offset and what the
+	 * target really holds.
+	 */
+	public long getOffset() {
+		return this.offset;
+	}
+
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Record the offset confirmed by the target
+	 */
+	public void update(final long confirmedOffset) {
+		this.journal.write(this, confirmedOffset);
+	}
+
+	/**
+	 * Remove the record of a finished transfer
+	 */
+	public void complete() {
+		this.journal.delete(this);
+	}
+
+	/**
+	 * Wrap the target stream: every checkpoint interval it is flushed (and synced when it is a local file),
+	 * then the offset is recorded.
+	 *
+	 * @param output     Target stream
+	 * @param start      Offset of the first byte written
+	 * @param descriptor Local file synced before each checkpoint, null for remote streams
+	 */
+	public OutputStream track(final OutputStream output, final long start, final FileDescriptor descriptor) {
+		return new FilterOutputStream(output) {
+
+			private long position = start;
+
+			private long lastCheckpoint = start;
+
+			@Override
+			public void write(final byte[] b, final int off, final int len) throws IOException {
+				this.out.write(b, off, len);
+				this.position += len;
+				if (this.position - this.lastCheckpoint >= TransferCheckpoint.this.journal.getCheckpointInterval()) {
+					this.out.flush();
+					if (descriptor != null) {
+						descriptor.sync();
+					}
+					update(this.position);
+					this.lastCheckpoint = this.position;
+				}
+			}
+
+			@Override
+			public void write(final int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+		};
+	}
+
+	/**
+	 * Wrap the source stream of a pull-based upload: the offset read is recorded every checkpoint interval.
+	 * The target may hold less, so the resume offset must still be checked against the target size.
+	 *
+	 * @param input Source stream
+	 * @param start Offset of the first byte read
+	 */
+	public InputStream track(final InputStream input, final long start) {
+		return new FilterInputStream(input) {
+
+			private long position = start;
+
+			private long lastCheckpoint = start;
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				final int read = this.in.read(b, off, len);
+				if (read > 0) {
+					this.position += read;
+					if (this.position - this.lastCheckpoint >= TransferCheckpoint.this.journal.getCheckpointInterval()) {
+						update(this.position);
+						this.lastCheckpoint = this.position;
+					}
+				}
+				return read;
+			}
+
+			@Override
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+		};
+	}
+
+	String getTransferKey() {
+		return this.transferKey;
+	}
+
+	Path getFile() {
+		return this.file;
+	}
+
+	long getModified() {
+		return this.modified;
+	}
+}
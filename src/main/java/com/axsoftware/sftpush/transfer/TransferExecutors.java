@@ -0,0 +1,161 @@
+package com.axsoftware.sftpush.transfer;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Executors for transfer workers.
+ * <p>
+ * On JDK 21+ tasks run on virtual threads, a blocked SFTP/FTP read then costs no platform thread;
+ * older JDKs get a fixed pool of daemon threads. The project targets Java 8, so virtual threads are looked
+ * up by reflection.
+ */
+public final class TransferExecutors {
+
+	private static final Logger logger = Logger.getLogger(TransferExecutors.class.getName());
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	private TransferExecutors() {
+	}
+
+	/**
+	 * Check if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	/**
+	 * Create an executor running at most {@code maxConcurrency} tasks at the same time.
+	 * Extra tasks are queued, never rejected.
+	 *
+	 * @param name           Thread name prefix (platform threads only)
+	 * @param maxConcurrency Maximum running tasks
+	 * @return Executor, must be shut down by the caller
+	 */
+	public static ExecutorService newBoundedExecutor(final String name, final int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("Invalid max concurrency: " + maxConcurrency);
+		}
+		final ExecutorService virtual = newVirtualThreadExecutor();
+		if (virtual != null) {
+			return new BoundedExecutorService(virtual, maxConcurrency);
+		}
+		return Executors.newFixedThreadPool(maxConcurrency, newThreadFactory(name));
+	}
+
+	/**
+	 * Create an unbounded executor: one virtual thread per task, or a cached pool of daemon threads
+	 *
+	 * @param name Thread name prefix (platform threads only)
+	 * @return Executor, must be shut down by the caller
+	 */
+	public static ExecutorService newExecutor(final String name) {
+		final ExecutorService virtual = newVirtualThreadExecutor();
+		return virtual != null ? virtual : Executors.newCachedThreadPool(newThreadFactory(name));
+	}
+
+	private static ThreadFactory newThreadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	private static ExecutorService newVirtualThreadExecutor() {
+		if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			logger.fine("Virtual threads unavailable: " + e);
+			return null;
+		}
+	}
+
+	private static Method findVirtualThreadExecutor() {
+		try {
+			final Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			// JDK 19/20 expose the method as a preview feature, probe it once
+			((ExecutorService) method.invoke(null)).shutdown();
+			return method;
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Limit the number of running tasks of an unbounded executor. Permits are taken inside the task,
+	 * so submitting never blocks.
+	 */
+	private static final class BoundedExecutorService extends AbstractExecutorService {
+
+		private final ExecutorService delegate;
+
+		private final Semaphore permits;
+
+		private BoundedExecutorService(final ExecutorService delegate, final int maxConcurrency) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(maxConcurrency, true);
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			this.delegate.execute(() -> {
+				try {
+					this.permits.acquire();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					// Shut down while queued, complete the future instead of leaving it pending
+					if (command instanceof Future) {
+						((Future<?>) command).cancel(false);
+					}
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					this.permits.release();
+				}
+			});
+		}
+
+		@Override
+		public void shutdown() {
+			this.delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return this.delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return this.delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return this.delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+			return this.delegate.awaitTermination(timeout, unit);
+		}
+	}
+}
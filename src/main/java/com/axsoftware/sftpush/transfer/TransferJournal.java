@@ -0,0 +1,147 @@
+package com.axsoftware.sftpush.transfer;
+
+import com.axsoftware.sftpush.exception.SFTPushException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * Local journal of transfer progress, used to resume interrupted transfers.
+ * <p>
+ * Each transfer has a small file holding the source size, the source modification time and the last offset
+ * confirmed by the target. Files are replaced atomically, so a crash leaves either the previous or the new
+ * checkpoint. A checkpoint is only used when the source did not change since it was written.
+ */
+public class TransferJournal {
+
+	private static final Logger logger = Logger.getLogger(TransferJournal.class.getName());
+
+	private static final String ERROR_JOURNAL_DIRECTORY = "Error on create transfer journal %s.( %s )";
+
+	private static final String ERROR_JOURNAL_WRITE = "Error on write transfer journal %s.( %s )";
+
+	private static final String EXTENSION = ".journal";
+
+	private static final String KEY = "key";
+
+	private static final String SIZE = "size";
+
+	private static final String MODIFIED = "modified";
+
+	private static final String OFFSET = "offset";
+
+	private static final long DEFAULT_CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+
+	private final Path directory;
+
+	private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+	public TransferJournal(final Path directory) {
+		this.directory = directory;
+		try {
+			Files.createDirectories(directory);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_JOURNAL_DIRECTORY, directory, e.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Journal in the temporary directory
+	 */
+	public static TransferJournal inTempDirectory() {
+		return new TransferJournal(Paths.get(System.getProperty("java.io.tmpdir"), "sftpush-journal"));
+	}
+
+	/**
+	 * Start or resume a transfer
+	 *
+	 * @param transferKey Unique transfer name (protocol, server, source and target)
+	 * @param size        Current source size
+	 * @param modified    Current source modification time
+	 * @return Checkpoint, with offset 0 when there is no usable record
+	 */
+	public TransferCheckpoint begin(final String transferKey, final long size, final long modified) {
+		final Path file = this.directory.resolve(fileName(transferKey));
+		long offset = 0;
+
+		if (Files.exists(file)) {
+			final Properties properties = new Properties();
+			try (final InputStream input = Files.newInputStream(file)) {
+				properties.load(input);
+				if (transferKey.equals(properties.getProperty(KEY))
+						&& size == Long.parseLong(properties.getProperty(SIZE))
+						&& modified == Long.parseLong(properties.getProperty(MODIFIED))) {
+					offset = Math.min(size, Long.parseLong(properties.getProperty(OFFSET)));
+				}
+			} catch (final IOException | RuntimeException e) {
+				logger.fine("Ignore transfer journal " + file + ": " + e);
+			}
+		}
+		return new TransferCheckpoint(this, transferKey, file, size, modified, offset);
+	}
+
+	void write(final TransferCheckpoint checkpoint, final long offset) {
+		final Properties properties = new Properties();
+		properties.setProperty(KEY, checkpoint.getTransferKey());
+		properties.setProperty(SIZE, Long.toString(checkpoint.getSize()));
+		properties.setProperty(MODIFIED, Long.toString(checkpoint.getModified()));
+		properties.setProperty(OFFSET, Long.toString(offset));
+
+		final Path file = checkpoint.getFile();
+		final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try {
+			try (final OutputStream output = Files.newOutputStream(temp)) {
+				properties.store(output, null);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (final IOException e) {
+			throw new SFTPushException(String.format(ERROR_JOURNAL_WRITE, file, e.getMessage()), e);
+		}
+	}
+
+	void delete(final TransferCheckpoint checkpoint) {
+		try {
+			Files.deleteIfExists(checkpoint.getFile());
+		} catch (final IOException e) {
+			logger.fine(e.getMessage());
+		}
+	}
+
+	private static String fileName(final String transferKey) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-1").digest(transferKey.getBytes(StandardCharsets.UTF_8));
+			final StringBuilder name = new StringBuilder();
+			for (final byte b : hash) {
+				name.append(String.format("%02x", b));
+			}
+			return name.append(EXTENSION).toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	public long getCheckpointInterval() {
+		return this.checkpointInterval;
+	}
+
+	/**
+	 * @param checkpointInterval Bytes transferred between two checkpoints
+	 */
+	public void setCheckpointInterval(final long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+}
@@ -0,0 +1,105 @@
+package com.axsoftware.sftpush.transfer;
+
+/**
+ * Outcome of a single file transfer
+ */
+public final class TransferResult {
+
+	public enum Status {
+		SUCCESS, NOT_FOUND, FAILED
+	}
+
+	private final String name;
+
+	private final Status status;
+
+	private final long bytes;
+
+	private final long durationMillis;
+
+	private final Exception error;
+
+	private final String checksum;
+
+	private TransferResult(final String name, final Status status, final long bytes, final long durationMillis, final Exception error,
+			final String checksum) {
+		this.name = name;
+		this.status = status;
+		this.bytes = bytes;
+		this.durationMillis = durationMillis;
+		this.error = error;
+		this.checksum = checksum;
+	}
+
+	public static TransferResult success(final String name, final long bytes, final long durationMillis) {
+		return new TransferResult(name, Status.SUCCESS, bytes, durationMillis, null, null);
+	}
+
+	public static TransferResult notFound(final String name, final long durationMillis, final Exception error) {
+		return new TransferResult(name, Status.NOT_FOUND, 0, durationMillis, error, null);
+	}
+
+	public static TransferResult failure(final String name, final long durationMillis, final Exception error) {
+		return new TransferResult(name, Status.FAILED, 0, durationMillis, error, null);
+	}
+
+	/**
+	 * Same result, with the digest both ends agreed on
+	 */
+	public TransferResult verified(final String checksum) {
+		return new TransferResult(this.name, this.status, this.bytes, this.durationMillis, this.error, checksum);
+	}
+
+	/**
+	 * File name, as given to the transfer
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public Status getStatus() {
+		return this.status;
+	}
+
+	public boolean isSuccess() {
+		return this.status == Status.SUCCESS;
+	}
+
+	/**
+	 * Bytes transferred, 0 when the transfer failed
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	public long getDurationMillis() {
+		return this.durationMillis;
+	}
+
+	/**
+	 * Average throughput, 0 when the duration is too short to measure
+	 */
+	public double getBytesPerSecond() {
+		return this.durationMillis <= 0 ? 0 : this.bytes * 1000.0 / this.durationMillis;
+	}
+
+	/**
+	 * Transfer error, null on success
+	 */
+	public Exception getError() {
+		return this.error;
+	}
+
+	/**
+	 * Hexadecimal digest checked against the remote file, null when the transfer was not verified
+	 */
+	public String getChecksum() {
+		return this.checksum;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s (%d bytes, %d ms)%s", this.status, this.name, this.bytes, this.durationMillis,
+				this.error == null ? "" : " " + this.error.getMessage());
+	}
+}
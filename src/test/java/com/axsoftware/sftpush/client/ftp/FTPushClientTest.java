@@ -1,30 +1,69 @@
 package com.axsoftware.sftpush.client.ftp;
 
+import com.axsoftware.sftpush.cache.MetadataCache;
 import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.io.DigestStage;
+import com.axsoftware.sftpush.io.StreamPipeline;
+import com.axsoftware.sftpush.io.StreamStage;
+import com.axsoftware.sftpush.metrics.InMemoryTransferMetrics;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.transfer.SyncOptions;
+import com.axsoftware.sftpush.transfer.SyncResult;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferJournal;
+import com.axsoftware.sftpush.transfer.TransferResult;
+import org.apache.commons.net.ProtocolCommandEvent;
+import org.apache.commons.net.ProtocolCommandListener;
 import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockftpserver.fake.FakeFtpServer;
 import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.command.AbstractFakeCommandHandler;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
 import org.mockftpserver.fake.filesystem.FileEntry;
+import org.mockftpserver.core.command.Command;
+import org.mockftpserver.core.command.CommandNames;
+import org.mockftpserver.core.session.Session;
 import org.mockftpserver.fake.filesystem.FileSystem;
 import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class FTPushClientTest {
 
 	private static final String HOME_DIR = "/";
+	private static final String DIRECTORY = "/inbox";
 	private static final Path FILE = Paths.get("/", "test.txt");
 	private static final String CONTENTS = "FTPush Test";
 	private static final String HOST = "localhost";
@@ -48,6 +87,16 @@ public class FTPushClientTest {
 		Assert.assertEquals("contents", CONTENTS, outputStream.toString());
 	}
 
+	@Test
+	public void downloadTempFile() throws IOException {
+		final File file = this.ftpClient.download(FILE.getFileName().toString(), FILE.getParent().toString());
+		try {
+			Assert.assertEquals("contents", CONTENTS, new String(Files.readAllBytes(file.toPath())));
+		} finally {
+			Files.delete(file.toPath());
+		}
+	}
+
 	@Test
 	public void uploadFile() throws IOException {
 		final Path path = Paths.get(System.getProperty("java.io.tmpdir"), FTPushClientTest.class.getName());
@@ -59,8 +108,426 @@ public class FTPushClientTest {
 		Files.delete(path);
 	}
 
+	@Test
+	public void reusePooledConnection() throws IOException {
+		final FTPConnectionPool pool = new FTPConnectionPool();
+		try {
+			final FTPushClient client = new FTPushClient(newPushConfig(), pool);
+			client.connect();
+			final FTPClient first = client.getFtpClient();
+			client.changeDirectory(DIRECTORY);
+			client.quit();
+
+			client.connect();
+			assertSame(first, client.getFtpClient());
+			Assert.assertEquals("working directory", HOME_DIR, client.getFtpClient().printWorkingDirectory());
+			client.connect();
+			Assert.assertEquals("leases after connecting twice", 1, pool.getLeasedCount());
+			client.quit();
+
+			Assert.assertEquals(0, pool.getLeasedCount());
+			Assert.assertEquals(1, pool.getIdleCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void changeDirectoryOnce() {
+		final List<String> commands = new ArrayList<>();
+		final ProtocolCommandListener listener = new ProtocolCommandListener() {
+
+			@Override
+			public void protocolCommandSent(final ProtocolCommandEvent event) {
+				commands.add(event.getCommand());
+			}
+
+			@Override
+			public void protocolReplyReceived(final ProtocolCommandEvent event) {
+			}
+		};
+
+		this.ftpClient.getFtpClient().addProtocolCommandListener(listener);
+		try {
+			this.ftpClient.changeDirectory(DIRECTORY + "/../inbox");
+			this.ftpClient.changeDirectory(DIRECTORY);
+			this.ftpClient.fileExists(FILE.getFileName().toString(), HOME_DIR);
+			Assert.assertEquals(2, Collections.frequency(commands, "CWD"));
+		} finally {
+			this.ftpClient.getFtpClient().removeProtocolCommandListener(listener);
+		}
+	}
+
+	@Test(expected = SFTPushException.class)
+	public void changeDirectoryFail() {
+		this.ftpClient.changeDirectory("/missing/folder");
+	}
+
+	@Test
+	public void downloadResumable() throws IOException {
+		final Path target = Files.createTempFile(FTPushClientTest.class.getSimpleName(), null);
+		this.ftpClient.setTransferJournal(new TransferJournal(target.getParent().resolve("ftpush-journal")));
+		try {
+			this.ftpClient.downloadResumable(FILE.getFileName().toString(), FILE.getParent().toString(), target.toFile());
+
+			Assert.assertEquals("contents", CONTENTS, new String(Files.readAllBytes(target)));
+		} finally {
+			Files.delete(target);
+		}
+	}
+
+	@Test
+	public void cachedExistenceCheck() throws IOException {
+		final MetadataCache cache = new MetadataCache(16, 1, TimeUnit.MINUTES);
+		this.ftpClient.setMetadataCache(cache);
+
+		Assert.assertFalse(this.ftpClient.fileExists("cached.txt", DIRECTORY));
+		Assert.assertFalse(this.ftpClient.fileExists("cached.txt", DIRECTORY));
+		Assert.assertEquals(1, cache.getHitCount());
+
+		this.ftpClient.upload(CONTENTS, "cached.txt", DIRECTORY);
+		assertTrue(this.ftpClient.fileExists("cached.txt", DIRECTORY));
+		Assert.assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void cachedDownloadCheck() {
+		this.ftpClient.setMetadataCache(new MetadataCache(16, 1, TimeUnit.MINUTES));
+		final List<String> commands = new ArrayList<>();
+		final ProtocolCommandListener listener = new ProtocolCommandListener() {
+
+			@Override
+			public void protocolCommandSent(final ProtocolCommandEvent event) {
+				commands.add(event.getCommand());
+			}
+
+			@Override
+			public void protocolReplyReceived(final ProtocolCommandEvent event) {
+			}
+		};
+
+		this.ftpClient.getFtpClient().addProtocolCommandListener(listener);
+		try {
+			// The existence check before each download is keyed on the working directory
+			this.ftpClient.download(FILE.getFileName().toString(), HOME_DIR, new ByteArrayOutputStream());
+			this.ftpClient.download(FILE.getFileName().toString(), HOME_DIR, new ByteArrayOutputStream());
+			Assert.assertEquals(1, Collections.frequency(commands, "LIST"));
+			Assert.assertEquals(2, Collections.frequency(commands, "RETR"));
+		} finally {
+			this.ftpClient.getFtpClient().removeProtocolCommandListener(listener);
+		}
+	}
+
+	@Test
+	public void transferMetrics() throws IOException {
+		final InMemoryTransferMetrics metrics = new InMemoryTransferMetrics();
+		final FTPConnectionPool pool = new FTPConnectionPool();
+		pool.setMetrics(metrics, "ftp.pool");
+		try {
+			final FTPushClient client = new FTPushClient(newPushConfig(), pool);
+			client.setMetrics(metrics);
+			client.connect();
+			client.download(FILE.getFileName().toString(), FILE.getParent().toString(), new ByteArrayOutputStream());
+			client.upload(CONTENTS, "metrics.txt", DIRECTORY);
+			try {
+				client.changeDirectory("/missing");
+			} catch (final SFTPushException e) {
+				// Counted below
+			}
+			Assert.assertEquals(1, metrics.getGauge("ftp.pool.leased"));
+			client.quit();
+
+			Assert.assertEquals(1, metrics.getHistogram("ftp.connect").getCount());
+			Assert.assertEquals(CONTENTS.length(), metrics.getCounter("ftp.download.bytes"));
+			Assert.assertEquals(CONTENTS.length(), metrics.getCounter("ftp.upload.bytes"));
+			Assert.assertEquals(1, metrics.getCounter("ftp.upload.count"));
+			Assert.assertEquals(1, metrics.getHistogram("ftp.upload.first-byte").getCount());
+			Assert.assertEquals(1, metrics.getCounter("ftp.op.cwd.failures"));
+			Assert.assertEquals(1, metrics.getCounter("ftp.error.reply-550"));
+			Assert.assertEquals(1, metrics.getGauge("ftp.pool.idle"));
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void pipelineStages() throws IOException {
+		final DigestStage digest = new DigestStage("MD5");
+		this.ftpClient.upload(new ByteArrayInputStream(CONTENTS.getBytes()), "stages.gz", DIRECTORY, StreamPipeline.of(digest, StreamStage.gzip(9)));
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		this.ftpClient.download("stages.gz", DIRECTORY, compressed);
+		Assert.assertEquals(0x1f, compressed.toByteArray()[0]);
+
+		final DigestStage downloaded = new DigestStage("MD5");
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		this.ftpClient.download("stages.gz", DIRECTORY, output, StreamPipeline.of(StreamStage.gunzip(), downloaded));
+		Assert.assertEquals("contents", CONTENTS, output.toString());
+		Assert.assertEquals(digest.getHexDigest(), downloaded.getHexDigest());
+	}
+
+	@Test
+	public void verifiedTransfer() {
+		this.fakeFtpServer.setCommandHandler("XSHA256", new AbstractFakeCommandHandler() {
+
+			@Override
+			protected void handle(final Command command, final Session session) {
+				final String path = getRealPath(session, command.getRequiredParameter(0));
+				final MessageDigest digest;
+				try (final InputStream input = new DigestInputStream(((FileEntry) getFileSystem().getEntry(path)).createInputStream(),
+						digest = MessageDigest.getInstance("SHA-256"))) {
+					final byte[] buffer = new byte[1024];
+					while (input.read(buffer) > 0) {
+						// Digested while read
+					}
+					session.sendReply(250, path.contains("tampered") ? "0123456789abcdef" : DigestStage.toHex(digest.digest()));
+				} catch (final Exception e) {
+					session.sendReply(550, e.toString());
+				}
+			}
+		});
+		final InMemoryTransferMetrics metrics = new InMemoryTransferMetrics();
+		this.ftpClient.setMetrics(metrics);
+		this.ftpClient.setVerification("SHA-256");
+
+		this.ftpClient.upload(CONTENTS, "verified.txt", DIRECTORY);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		this.ftpClient.download("verified.txt", DIRECTORY, output);
+		Assert.assertEquals("contents", CONTENTS, output.toString());
+
+		try {
+			this.ftpClient.upload(CONTENTS, "tampered.txt", DIRECTORY);
+			Assert.fail("Checksum mismatch expected");
+		} catch (final SFTPushException e) {
+			assertTrue(e.getMessage().contains("SHA-256"));
+		}
+		Assert.assertEquals(1, metrics.getCounter("ftp.error.checksum-mismatch"));
+	}
+
+	@Test
+	public void streamFiles() {
+		try (final Stream<FTPFile> files = this.ftpClient.streamFiles(HOME_DIR)) {
+			assertTrue(files.anyMatch(file -> FILE.getFileName().toString().equals(file.getName())));
+		}
+		Assert.assertEquals(1, this.ftpClient.forEachFile(HOME_DIR, FTPFile::isFile, file -> false));
+	}
+
+	@Test
+	public void asyncOperations() throws Exception {
+		final File target = Files.createTempFile(FTPushClientTest.class.getSimpleName(), null).toFile();
+		try (final AsyncFTPushClient client = new AsyncFTPushClient(newPushConfig(), 2)) {
+			client.makeDirectory("/async").get(30, TimeUnit.SECONDS);
+			client.rename(FILE.toString(), "/async/renamed.txt").get(30, TimeUnit.SECONDS);
+			client.download("renamed.txt", "/async", target).get(30, TimeUnit.SECONDS);
+			Assert.assertEquals("contents", CONTENTS, new String(Files.readAllBytes(target.toPath())));
+			Assert.assertEquals(1, client.listFiles("/async").get(30, TimeUnit.SECONDS).length);
+		} finally {
+			Files.delete(target.toPath());
+		}
+	}
+
+	@Test
+	public void syncDirectory() throws IOException {
+		final Path localDir = Files.createTempDirectory(FTPushClientTest.class.getSimpleName());
+		try {
+			Files.createDirectories(localDir.resolve("sub"));
+			Files.write(localDir.resolve("sub").resolve("a.txt"), CONTENTS.getBytes());
+			final SyncOptions push = SyncOptions.push();
+			push.setRecursive(true);
+			final SyncResult pushed = this.ftpClient.sync(DIRECTORY, localDir.toFile(), push);
+			assertTrue(pushed.isSuccess());
+			Assert.assertEquals(1, pushed.getTransfers().getResults().size());
+
+			final Path pulledDir = localDir.resolve("pulled");
+			final SyncOptions pull = SyncOptions.pull();
+			pull.setRecursive(true);
+			final SyncResult pulled = this.ftpClient.sync(DIRECTORY, pulledDir.toFile(), pull);
+			assertTrue(pulled.isSuccess());
+			Assert.assertEquals("contents", CONTENTS, new String(Files.readAllBytes(pulledDir.resolve("sub").resolve("a.txt"))));
+
+			final SyncResult unchanged = this.ftpClient.sync(DIRECTORY, pulledDir.toFile(), pull);
+			Assert.assertEquals(0, unchanged.getTransfers().getResults().size());
+			Assert.assertEquals(1, unchanged.getUnchanged());
+		} finally {
+			try (final Stream<Path> paths = Files.walk(localDir)) {
+				paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+	@Test
+	public void interruptThrottledTransfer() throws IOException {
+		final InMemoryTransferMetrics transferMetrics = new InMemoryTransferMetrics();
+		final FTPMetrics metrics = new FTPMetrics(transferMetrics, bytes -> {
+			throw new InterruptedIOException();
+		});
+		final FTPClient client = new FTPClient();
+		try {
+			// The client copies to the end and reports a success
+			metrics.transfer(client, TransferMetrics.Direction.UPLOAD, () -> {
+				client.getCopyStreamListener().bytesTransferred(1024, 1024, -1);
+				client.getCopyStreamListener().bytesTransferred(2048, 1024, -1);
+				return true;
+			});
+			Assert.fail("Interrupted transfer reported as a success");
+		} catch (final InterruptedIOException e) {
+			Assert.assertEquals(1, transferMetrics.getCounter("ftp.error.interrupted"));
+			Assert.assertEquals(1, transferMetrics.getCounter("ftp.upload.failures"));
+		}
+	}
+
+	@Test
+	public void parallelTransfers() throws IOException {
+		final Set<Long> restOffsets = ConcurrentHashMap.newKeySet();
+		final Set<Long> failedOffsets = ConcurrentHashMap.newKeySet();
+		installRestartHandlers(restOffsets, failedOffsets);
+
+		final Path localDir = Files.createTempDirectory(FTPushClientTest.class.getSimpleName());
+		final Path downloadDir = Files.createTempDirectory(FTPushClientTest.class.getSimpleName());
+		final FTPConnectionPool pool = new FTPConnectionPool();
+		try {
+			final Random random = new Random(25);
+			for (final int size : new int[] {5000, 100, 3000, 10}) {
+				final byte[] contents = new byte[size];
+				random.nextBytes(contents);
+				Files.write(localDir.resolve("file" + size), contents);
+			}
+			final FTPTransferManager manager = new FTPTransferManager(newPushConfig(), pool, 3);
+			manager.setMinRangeSize(1000);
+
+			Assert.assertEquals(0, manager.uploadDirectory(localDir.toFile(), DIRECTORY).getFailures().size());
+			final TransferBatchResult downloaded = manager.downloadDirectory(DIRECTORY, downloadDir.toFile());
+			Assert.assertEquals(4, downloaded.getResults().size());
+			Assert.assertEquals(0, downloaded.getFailures().size());
+			for (final int size : new int[] {5000, 100, 3000, 10}) {
+				Assert.assertArrayEquals(Files.readAllBytes(localDir.resolve("file" + size)), Files.readAllBytes(downloadDir.resolve("file" + size)));
+			}
+			Assert.assertTrue(restOffsets.isEmpty());
+
+			// One file in three ranges
+			final byte[] contents = new byte[10000];
+			random.nextBytes(contents);
+			final Path large = Files.write(localDir.resolve("large"), contents);
+			Assert.assertTrue(manager.uploadFile(large.toFile(), "large", DIRECTORY).isSuccess());
+			Assert.assertEquals(new HashSet<>(Arrays.asList(3333L, 6666L)), restOffsets);
+			restOffsets.clear();
+
+			final Path target = downloadDir.resolve("large");
+			final TransferResult result = manager.downloadFile("large", DIRECTORY, target.toFile());
+			Assert.assertTrue(result.isSuccess());
+			Assert.assertEquals(contents.length, result.getBytes());
+			Assert.assertArrayEquals(contents, Files.readAllBytes(target));
+			Assert.assertEquals(new HashSet<>(Arrays.asList(3333L, 6666L)), restOffsets);
+			Assert.assertTrue(pool.getOpenCount() <= 3);
+
+			// A failed range leaves no full size file with holes behind
+			failedOffsets.add(6666L);
+			final Path partial = downloadDir.resolve("partial");
+			Assert.assertFalse(manager.downloadFile("large", DIRECTORY, partial.toFile()).isSuccess());
+			try (final Stream<Path> files = Files.list(downloadDir)) {
+				Assert.assertEquals(0, files.filter(path -> path.getFileName().toString().startsWith("partial")).count());
+			}
+		} finally {
+			pool.close();
+			for (final Path dir : Arrays.asList(localDir, downloadDir)) {
+				try (final Stream<Path> paths = Files.walk(dir)) {
+					paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+				}
+			}
+		}
+	}
+
+	/**
+	 * REST for RETR and STOR, the fake server ignores it
+	 */
+	private void installRestartHandlers(final Set<Long> restOffsets, final Set<Long> failedOffsets) {
+		this.fakeFtpServer.setCommandHandler(CommandNames.REST, new AbstractFakeCommandHandler() {
+
+			@Override
+			protected void handle(final Command command, final Session session) {
+				session.setAttribute("rest", Long.valueOf(command.getRequiredParameter(0)));
+				session.sendReply(350, "Restarting");
+			}
+		});
+		this.fakeFtpServer.setCommandHandler(CommandNames.RETR, new AbstractFakeCommandHandler() {
+
+			@Override
+			protected void handle(final Command command, final Session session) {
+				final FileEntry entry = (FileEntry) getFileSystem().getEntry(getRealPath(session, command.getRequiredParameter(0)));
+				final long offset = restOffset(session, restOffsets);
+				if (failedOffsets.contains(offset)) {
+					session.sendReply(550, "Requested action not taken");
+					return;
+				}
+				final byte[] contents = readAll(entry);
+				session.sendReply(150, "Opening data connection");
+				session.openDataConnection();
+				final byte[] range = Arrays.copyOfRange(contents, (int) offset, contents.length);
+				session.sendData(range, range.length);
+				session.closeDataConnection();
+				session.sendReply(226, "Transfer complete");
+			}
+		});
+		this.fakeFtpServer.setCommandHandler(CommandNames.STOR, new AbstractFakeCommandHandler() {
+
+			@Override
+			protected void handle(final Command command, final Session session) {
+				final String path = getRealPath(session, command.getRequiredParameter(0));
+				final long offset = restOffset(session, restOffsets);
+				final FileSystem fileSystem = getFileSystem();
+				synchronized (fileSystem) {
+					if (!fileSystem.exists(path)) {
+						fileSystem.add(new FileEntry(path));
+					} else if (offset == 0) {
+						((FileEntry) fileSystem.getEntry(path)).setContents(new byte[0]);
+					}
+				}
+				session.sendReply(150, "Opening data connection");
+				session.openDataConnection();
+				final byte[] data = session.readData();
+				session.closeDataConnection();
+				synchronized (fileSystem) {
+					final FileEntry entry = (FileEntry) fileSystem.getEntry(path);
+					final byte[] current = readAll(entry);
+					final byte[] contents = Arrays.copyOf(current, Math.max(current.length, (int) offset + data.length));
+					System.arraycopy(data, 0, contents, (int) offset, data.length);
+					entry.setContents(contents);
+				}
+				session.sendReply(226, "Transfer complete");
+			}
+		});
+	}
+
+	private static long restOffset(final Session session, final Set<Long> restOffsets) {
+		final Long offset = (Long) session.getAttribute("rest");
+		session.removeAttribute("rest");
+		if (offset != null && offset > 0) {
+			restOffsets.add(offset);
+		}
+		return offset != null ? offset : 0;
+	}
+
+	private static byte[] readAll(final FileEntry entry) {
+		try (final InputStream input = entry.createInputStream()) {
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int count;
+			while ((count = input.read(buffer)) != -1) {
+				output.write(buffer, 0, count);
+			}
+			return output.toByteArray();
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	@After
 	public void stop() {
+		try {
+			this.ftpClient.quit();
+		} catch (final SFTPushException e) {
+			// Server side already gone
+		}
 		this.fakeFtpServer.stop();
 	}
 
@@ -73,6 +540,7 @@ public class FTPushClientTest {
 
 		final FileSystem fileSystem = new UnixFakeFileSystem();
 		fileSystem.add(new FileEntry(FILE.toString(), CONTENTS));
+		fileSystem.add(new DirectoryEntry(DIRECTORY));
 		assertTrue(fileSystem.isFile(FILE.toString()));
 		this.fakeFtpServer.setFileSystem(fileSystem);
 
@@ -86,11 +554,12 @@ public class FTPushClientTest {
 	 * Start FTP client
 	 */
 	private void initClient() {
-		final int port = this.fakeFtpServer.getServerControlPort();
-		final PushConfig config = new PushConfig(HOST, USERNAME, PASSWORD, port);
-
-		this.ftpClient = new FTPushClient(config);
+		this.ftpClient = new FTPushClient(newPushConfig());
 		this.ftpClient.connect();
 	}
 
+	private PushConfig newPushConfig() {
+		return new PushConfig(HOST, USERNAME, PASSWORD, this.fakeFtpServer.getServerControlPort());
+	}
+
 }
@@ -1,32 +1,85 @@
 package com.axsoftware.sftpush.client.sftp;
 
+import com.axsoftware.sftpush.cache.MetadataCache;
+import com.axsoftware.sftpush.config.CompressionPolicy;
 import com.axsoftware.sftpush.config.PushConfig;
+import com.axsoftware.sftpush.config.TransferProfile;
+import com.axsoftware.sftpush.exception.SFTPushException;
+import com.axsoftware.sftpush.fanout.FanOutTarget;
+import com.axsoftware.sftpush.fanout.FanOutUpload;
+import com.axsoftware.sftpush.inbox.InboxPoller;
+import com.axsoftware.sftpush.inbox.InboxSource;
+import com.axsoftware.sftpush.io.BandwidthLimiter;
+import com.axsoftware.sftpush.io.DigestStage;
+import com.axsoftware.sftpush.io.FileChannelSink;
+import com.axsoftware.sftpush.io.LineEnding;
+import com.axsoftware.sftpush.io.StreamPipeline;
+import com.axsoftware.sftpush.io.StreamStage;
+import com.axsoftware.sftpush.metrics.InMemoryTransferMetrics;
+import com.axsoftware.sftpush.metrics.TransferMetrics;
+import com.axsoftware.sftpush.outbox.Outbox;
+import com.axsoftware.sftpush.outbox.OutboxDestination;
+import com.axsoftware.sftpush.transfer.SyncOptions;
+import com.axsoftware.sftpush.transfer.SyncResult;
+import com.axsoftware.sftpush.transfer.TransferBatchResult;
+import com.axsoftware.sftpush.transfer.TransferJournal;
+import com.axsoftware.sftpush.transfer.TransferResult;
+import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.SftpException;
 import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.compression.BuiltinCompressions;
+import org.apache.sshd.common.kex.KexProposalOption;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
 import org.apache.sshd.common.file.nativefs.NativeFileSystemFactory;
 import org.apache.sshd.server.SshServer;
 import org.apache.sshd.server.auth.UserAuth;
 import org.apache.sshd.server.auth.password.UserAuthPasswordFactory;
 import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
 import org.apache.sshd.server.scp.ScpCommandFactory;
+import org.apache.sshd.server.shell.ProcessShellFactory;
 import org.apache.sshd.server.subsystem.sftp.SftpSubsystemFactory;
 import org.junit.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import static java.util.stream.Collectors.toList;
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -74,6 +127,11 @@ public class SFTPushClientTest {
 	 */
 	private static SshServer SSHSERVER;
 
+	/**
+	 * Client to server compression negotiated by the sessions of the test server
+	 */
+	private static final Set<String> COMPRESSIONS = ConcurrentHashMap.newKeySet();
+
 	/**
 	 * Test file
 	 */
@@ -123,13 +181,7 @@ public class SFTPushClientTest {
 		if (Files.exists(TARGET_FILE_PATH)) {
 			Files.delete(TARGET_FILE_PATH);
 		}
-		if (Files.exists(TARGET_DIR_PATH)) {
-			final List<Path> files = Files.list(TARGET_DIR_PATH).collect(toList());
-			for (final Path file : files) {
-				Files.delete(file);
-			}
-			Files.delete(TARGET_DIR_PATH);
-		}
+		deleteDirectory(TARGET_DIR_PATH);
 		initClient();
 	}
 
@@ -214,6 +266,847 @@ public class SFTPushClientTest {
 		assertFalse(Files.exists(TARGET_FILE_PATH));
 	}
 
+	@Test
+	public void namespaceBatch() throws IOException, JSchException {
+		Assume.assumeTrue(isUnix());
+
+		final InMemoryTransferMetrics metrics = new InMemoryTransferMetrics();
+		this.sftPushClient.setMetrics(metrics);
+		final Path first = HOME_DIR.resolve("batch_first");
+		final Path second = HOME_DIR.resolve("batch_second");
+		Files.write(first, FILE_CONTENTS.getBytes());
+		Files.write(second, FILE_CONTENTS.getBytes());
+
+		final Path day = TARGET_DIR_PATH.resolve("2026/10/16");
+		final Path nextDay = TARGET_DIR_PATH.resolve("2026/10/17");
+		final TransferBatchResult result = this.sftPushClient.execute(new SFTPBatch()
+				.mkdirs(day.toString())
+				.move(first.toString(), nextDay.resolve("batch_first").toString())
+				.move(second.toString(), nextDay.resolve("batch_second").toString())
+				.delete(HOME_DIR.resolve("missing").toString())
+				.rmdir(day.toString()));
+
+		assertEquals(5, result.getResults().size());
+		assertEquals(1, result.getFailures().size());
+		assertEquals(TransferResult.Status.NOT_FOUND, result.getResults().get(3).getStatus());
+		assertTrue(Files.exists(nextDay.resolve("batch_first")));
+		assertTrue(Files.exists(nextDay.resolve("batch_second")));
+		assertFalse(Files.exists(first));
+		assertFalse(Files.exists(day));
+		// Walk up to the existing folder and down once: couse, 2026, 10, 16, then only 17 for both moves
+		assertEquals(8, metrics.getHistogram("sftp.op.mkdir").getCount());
+		assertEquals(3, metrics.getCounter("sftp.op.mkdir.failures"));
+
+		// Parallel batches keep the order of dependent operations
+		final TransferBatchResult parallel = this.sftPushClient.execute(new SFTPBatch()
+				.rmdir(day.getParent().resolve("15").toString())
+				.delete(nextDay.resolve("batch_first").toString())
+				.delete(nextDay.resolve("batch_second").toString())
+				.rmdir(nextDay.toString())
+				.mkdirs(nextDay.toString())
+				.setParallelism(4));
+		assertFalse(parallel.getResults().get(0).isSuccess());
+		assertEquals(1, parallel.getFailures().size());
+		assertTrue(Files.isDirectory(nextDay));
+		try (final Stream<Path> files = Files.list(nextDay)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	public void durableOutbox() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		final Path spool = HOME_DIR.resolve("outbox");
+		final Path first = TARGET_DIR_PATH.resolve("outbox_first");
+		final Path second = TARGET_DIR_PATH.resolve("outbox_second");
+		Files.createDirectories(TARGET_DIR_PATH);
+		try {
+			// Accepted while no destination drains it, then recovered by the next outbox
+			try (final Outbox outbox = new Outbox(spool)) {
+				outbox.submit("sftp", SRC_FILE_PATH, first.toString());
+				assertEquals(1, outbox.getDepth("sftp"));
+			}
+
+			final AtomicInteger attempts = new AtomicInteger();
+			final OutboxDestination sftp = OutboxDestination.sftp(this.sftPushClient);
+			try (final Outbox outbox = new Outbox(spool)) {
+				outbox.setInitialBackoffMillis(10);
+				outbox.addDestination("sftp", (file, remotePath) -> {
+					if (attempts.incrementAndGet() == 1) {
+						throw new IOException("Destination down");
+					}
+					sftp.push(file, remotePath);
+				}, 2);
+				outbox.submit("sftp", new ByteArrayInputStream(FILE_CONTENTS.getBytes()), second.toString());
+
+				assertTrue(outbox.awaitDrained(10, TimeUnit.SECONDS));
+				assertEquals(2, outbox.getDelivered("sftp"));
+				assertEquals(0, outbox.getDepth());
+				assertTrue(outbox.getDrainRate("sftp") > 0);
+			}
+
+			assertEquals(3, attempts.get());
+			assertEquals(FILE_CONTENTS, new String(Files.readAllBytes(first)));
+			assertEquals(FILE_CONTENTS, new String(Files.readAllBytes(second)));
+			try (final Stream<Path> spooled = Files.list(spool.resolve("data"))) {
+				assertEquals(0, spooled.count());
+			}
+
+			// A push cut short by close returns normally and stays pending
+			final CountDownLatch pushing = new CountDownLatch(1);
+			try (final Outbox outbox = new Outbox(spool)) {
+				outbox.addDestination("sftp", (file, remotePath) -> {
+					pushing.countDown();
+					try {
+						TimeUnit.SECONDS.sleep(10);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}, 1);
+				outbox.submit("sftp", SRC_FILE_PATH, TARGET_DIR_PATH.resolve("outbox_third").toString());
+				assertTrue(pushing.await(10, TimeUnit.SECONDS));
+			}
+			try (final Outbox outbox = new Outbox(spool)) {
+				assertEquals(1, outbox.getDepth("sftp"));
+			}
+		} finally {
+			deleteDirectory(spool);
+		}
+	}
+
+	@Test
+	public void inboxPoller() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		final FileTime dropTime = FileTime.fromMillis(1_700_000_000_000L);
+		final Path first = TARGET_DIR_PATH.resolve("inbox_first");
+		final Path second = TARGET_DIR_PATH.resolve("inbox_second");
+		Files.createDirectories(TARGET_DIR_PATH);
+		Files.setLastModifiedTime(Files.write(first, FILE_CONTENTS.getBytes()), dropTime);
+		Files.setLastModifiedTime(Files.write(second, FILE_CONTENTS.getBytes()), dropTime);
+
+		final List<String> received = new ArrayList<>();
+		final InboxPoller poller = new InboxPoller(InboxSource.sftp(this.sftPushClient, TARGET_DIR_PATH.toString()));
+		assertEquals(0, poller.poll(entry -> received.add(entry.getName())));
+		assertEquals(2, poller.getPendingCount());
+
+		// Still being written: same time, new size
+		Files.setLastModifiedTime(Files.write(second, FILE_CONTENTS.getBytes(), StandardOpenOption.APPEND), dropTime);
+		assertEquals(1, poller.poll(entry -> received.add(entry.getName())));
+		assertEquals(1, poller.poll(entry -> received.add(entry.getName())));
+
+		// Dropped with the watermark time, told apart by name
+		Files.setLastModifiedTime(Files.write(TARGET_DIR_PATH.resolve("inbox_third"), FILE_CONTENTS.getBytes()), dropTime);
+		assertEquals(0, poller.poll(entry -> received.add(entry.getName())));
+		assertEquals(1, poller.poll(entry -> received.add(entry.getName())));
+
+		assertEquals(0, poller.poll(entry -> received.add(entry.getName())));
+		assertEquals(Arrays.asList("inbox_first", "inbox_second", "inbox_third"), received);
+		assertEquals(dropTime.toMillis(), poller.getWatermarkMillis());
+		assertEquals(3, poller.getWatermarkNames().size());
+		assertEquals(2 * InboxPoller.DEFAULT_MIN_INTERVAL_MILLIS, poller.getIntervalMillis());
+	}
+
+	@Test
+	public void fanOutUpload() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[256 * 1024];
+		new Random(23).nextBytes(contents);
+		final Path first = TARGET_DIR_PATH.resolve("fanout_first");
+		final Path second = TARGET_DIR_PATH.resolve("fanout_second");
+		final Path spill = HOME_DIR.resolve("fanout");
+		Files.createDirectories(TARGET_DIR_PATH);
+		Files.createDirectories(spill);
+
+		final ByteArrayOutputStream slow = new ByteArrayOutputStream();
+		final FanOutUpload upload = new FanOutUpload()
+				.setChunkSize(4096)
+				.setChunkCount(4)
+				.setMaxStallMillis(10)
+				.setSpillDirectory(spill)
+				.add("first", FanOutTarget.sftp(this.sftPushClient, first.toString()))
+				.add("slow", content -> {
+					final byte[] buffer = new byte[8192];
+					for (int count; (count = content.read(buffer)) != -1; ) {
+						slow.write(buffer, 0, count);
+						TimeUnit.MILLISECONDS.sleep(1);
+					}
+				})
+				.add("broken", content -> {
+					content.read(new byte[1000]);
+					throw new IOException("Destination down");
+				})
+				// Returns before the end of the source, not delivered
+				.add("short", content -> content.read(new byte[1000]))
+				.add("second", FanOutTarget.sftp(this.sftPushClient, second.toString()));
+		try {
+			final TransferBatchResult result = upload.upload(new ByteArrayInputStream(contents));
+
+			assertEquals(Arrays.asList("first", "slow", "broken", "short", "second"),
+					result.getResults().stream().map(TransferResult::getName).collect(toList()));
+			assertEquals(Arrays.asList("broken", "short"),
+					result.getFailures().stream().map(TransferResult::getName).collect(toList()));
+			assertEquals(contents.length, result.getResults().get(0).getBytes());
+			assertArrayEquals(contents, Files.readAllBytes(first));
+			assertArrayEquals(contents, Files.readAllBytes(second));
+			assertArrayEquals(contents, slow.toByteArray());
+			try (final Stream<Path> spilled = Files.list(spill)) {
+				assertEquals(0, spilled.count());
+			}
+		} finally {
+			deleteDirectory(spill);
+		}
+	}
+
+	@Test
+	public void sftpEngines() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[100 * 1024];
+		new Random(24).nextBytes(contents);
+		try (final SshdSessionPool sshdPool = new SshdSessionPool()) {
+			for (final String engineName : Arrays.asList(TransferProfile.ENGINE_JSCH, TransferProfile.ENGINE_SSHD)) {
+				final Properties properties = new Properties();
+				properties.setProperty("engine", engineName);
+				final PushConfig config = newPushConfig();
+				config.setTransferProfile(TransferProfile.fromProperties(properties, ""));
+				final SFTPushClient client = new SFTPushClient(config);
+				client.setSshdSessionPool(sshdPool);
+				client.setMetadataCache(new MetadataCache(100, 1, TimeUnit.MINUTES));
+				final SFTPEngine engine = client.getEngine();
+
+				// Missing parents are created on both engines
+				final String dir = TARGET_DIR_PATH.resolve("engine_" + engineName).toString();
+				engine.createDirectory(dir + "/nested/deeper");
+				engine.createDirectory(dir);
+				assertEquals(Collections.emptyList(), client.listRemoteFiles(dir));
+				engine.upload(new ByteArrayInputStream(contents), dir + "/uploaded");
+				// The cached listing of the client is invalidated by the engine
+				assertEquals(Collections.singletonList("uploaded"), client.listRemoteFiles(dir));
+				engine.rename(dir + "/uploaded", dir + "/renamed");
+				assertEquals(Collections.singletonList("renamed"), engine.listFiles(dir));
+
+				final ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+				engine.download(dir + "/renamed", downloaded);
+				assertArrayEquals(contents, downloaded.toByteArray());
+
+				engine.delete(dir + "/renamed");
+				try {
+					engine.delete(dir + "/renamed");
+					Assert.fail("Deleted twice with " + engineName);
+				} catch (final SftpException e) {
+					assertEquals(ChannelSftp.SSH_FX_NO_SUCH_FILE, e.id);
+				}
+				assertEquals(Collections.emptyList(), engine.listFiles(dir));
+			}
+			assertEquals(1, sshdPool.getIdleCount());
+		}
+	}
+
+	@Test
+	public void reusePooledSession() throws FileNotFoundException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final SFTPSessionPool pool = new SFTPSessionPool();
+		try {
+			final SFTPushClient client = new SFTPushClient(newPushConfig(), pool);
+			client.uploadFile(SRC_FILE_PATH.toFile(), TARGET_FILE_PATH);
+			final SFTPConnection first = pool.borrow(newPushConfig());
+			pool.release(first);
+
+			client.listRemoteFiles(HOME_DIR.toString());
+			final SFTPConnection second = pool.borrow(newPushConfig());
+			pool.release(second);
+
+			assertSame(first, second);
+			assertEquals(1, pool.getIdleCount());
+			assertEquals(0, pool.getLeasedCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test(expected = SFTPushException.class)
+	public void poolMaxPerHost() throws JSchException {
+		Assume.assumeTrue(isUnix());
+
+		final SFTPSessionPool pool = new SFTPSessionPool();
+		pool.setMaxPerHost(1);
+		pool.setBorrowTimeoutMillis(100);
+		final SFTPConnection connection = pool.borrow(newPushConfig());
+		try {
+			pool.borrow(newPushConfig());
+		} finally {
+			pool.release(connection);
+			pool.close();
+		}
+	}
+
+	@Test
+	public void downloadAllFilesParallel() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final Path localDir = Paths.get(HOME_DIR.toString(), "parallel-local");
+		Files.createDirectory(TARGET_DIR_PATH);
+		Files.createDirectories(localDir);
+		for (int i = 0; i < 10; i++) {
+			Files.write(Paths.get(TARGET_DIR_PATH.toString(), "file" + i), (FILE_CONTENTS + i).getBytes());
+		}
+
+		try {
+			final TransferBatchResult result = this.sftPushClient.downloadAllFiles(TARGET_DIR_PATH.toString(), localDir.toString(), 4);
+
+			assertTrue(result.isSuccess());
+			assertEquals(10, result.getResults().size());
+			for (int i = 0; i < 10; i++) {
+				assertEquals(FILE_CONTENTS + i, new String(Files.readAllBytes(Paths.get(localDir.toString(), "file" + i))));
+			}
+			assertEquals(10 * (FILE_CONTENTS.length() + 1), result.getTotalBytes());
+		} finally {
+			deleteDirectory(localDir);
+		}
+	}
+
+	@Test
+	public void transferFileListConcurrent() throws IOException, JSchException {
+		Assume.assumeTrue(isUnix());
+
+		final Path localDir = Paths.get(HOME_DIR.toString(), "concurrent-local");
+		Files.createDirectory(TARGET_DIR_PATH);
+		Files.createDirectories(localDir);
+		Files.write(Paths.get(localDir.toString(), "a"), FILE_CONTENTS.getBytes());
+		Files.write(Paths.get(localDir.toString(), "b"), FILE_CONTENTS.getBytes());
+
+		try {
+			final TransferBatchResult upload = this.sftPushClient.uploadFileList(localDir.toString(), TARGET_DIR_PATH.toString(), 3, "a", "missing", "b");
+
+			assertEquals(TransferResult.Status.SUCCESS, upload.getResults().get(0).getStatus());
+			assertEquals(TransferResult.Status.NOT_FOUND, upload.getResults().get(1).getStatus());
+			assertEquals(TransferResult.Status.SUCCESS, upload.getResults().get(2).getStatus());
+			assertEquals(2 * FILE_CONTENTS.length(), upload.getTotalBytes());
+			assertTrue(Files.exists(Paths.get(TARGET_DIR_PATH.toString(), "b")));
+
+			deleteDirectory(localDir);
+			Files.createDirectories(localDir);
+			final TransferBatchResult download = this.sftPushClient.downloadFileList(TARGET_DIR_PATH.toString(), localDir.toString(), 2, "a", "b");
+
+			assertTrue(download.isSuccess());
+			assertTrue(Files.exists(Paths.get(localDir.toString(), "a")));
+		} finally {
+			deleteDirectory(localDir);
+		}
+	}
+
+	@Test
+	public void verifiedTransfer() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		final Path localDir = Paths.get(HOME_DIR.toString(), "verified-local");
+		Files.createDirectory(TARGET_DIR_PATH);
+		Files.createDirectories(localDir);
+		Files.write(localDir.resolve("a"), FILE_CONTENTS.getBytes());
+		Files.write(localDir.resolve("b"), "other contents".getBytes());
+		this.sftPushClient.setVerification("SHA-256");
+		try {
+			final TransferBatchResult upload = this.sftPushClient.uploadFileList(localDir.toString(), TARGET_DIR_PATH.toString(), 2, "a", "b");
+			assertTrue(upload.isSuccess());
+			assertEquals(sha256(FILE_CONTENTS.getBytes()), upload.getResults().get(0).getChecksum());
+			assertEquals(sha256("other contents".getBytes()), upload.getResults().get(1).getChecksum());
+
+			final TransferBatchResult download = this.sftPushClient.downloadFileList(TARGET_DIR_PATH.toString(), localDir.toString(), 2, "a", "b");
+			assertTrue(download.isSuccess());
+			assertEquals(sha256(FILE_CONTENTS.getBytes()), download.getResults().get(0).getChecksum());
+
+			this.sftPushClient.uploadFile(SRC_FILE_PATH.toFile(), TARGET_FILE_PATH);
+			this.sftPushClient.downloadFile(TARGET_FILE_PATH, localDir.resolve("c"));
+			assertArrayEquals(FILE_CONTENTS.getBytes(), Files.readAllBytes(localDir.resolve("c")));
+
+			try {
+				this.sftPushClient.uploadFile(SRC_FILE_PATH.toFile(), TARGET_DIR_PATH.resolve("tampered"));
+				Assert.fail("Checksum mismatch expected");
+			} catch (final SftpException e) {
+				assertTrue(e.getMessage().contains("SHA-256"));
+			}
+		} finally {
+			deleteDirectory(localDir);
+		}
+	}
+
+	@Test
+	public void segmentedTransfer() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[1024 * 1024 + 17];
+		new Random(42).nextBytes(contents);
+		final Path source = Paths.get(HOME_DIR.toString(), "segmented-source");
+		final Path downloaded = Paths.get(HOME_DIR.toString(), "segmented-download");
+		Files.write(source, contents);
+
+		this.sftPushClient.setSegmentThreshold(512 * 1024);
+		this.sftPushClient.setSegmentCount(4);
+		try {
+			this.sftPushClient.uploadFile(source.toFile(), TARGET_FILE_PATH);
+			assertArrayEquals(contents, Files.readAllBytes(TARGET_FILE_PATH));
+
+			this.sftPushClient.downloadFile(TARGET_FILE_PATH, downloaded);
+			assertArrayEquals(contents, Files.readAllBytes(downloaded));
+			// Written to a temporary sibling, renamed when complete
+			assertFalse(Files.exists(Paths.get(HOME_DIR.toString(), "segmented-download.tmp")));
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(downloaded);
+		}
+	}
+
+	@Test
+	public void transferProfile() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final Properties properties = new Properties();
+		properties.setProperty("partner.transfer.profile", TransferProfile.HIGH_LATENCY_WAN);
+		properties.setProperty("partner.transfer.bufferSize", "4096");
+		final TransferProfile profile = TransferProfile.fromProperties(properties, "partner.transfer.");
+		assertEquals(Integer.valueOf(128), profile.getBulkRequests());
+		assertEquals(Integer.valueOf(4096), profile.getBufferSize());
+
+		final byte[] contents = new byte[300 * 1024];
+		new Random(7).nextBytes(contents);
+		final Path source = Paths.get(HOME_DIR.toString(), "profile-source");
+		final Path downloaded = Paths.get(HOME_DIR.toString(), "profile-download");
+		Files.write(source, contents);
+
+		final PushConfig config = newPushConfig();
+		config.setTransferProfile(profile);
+		final SFTPushClient client = new SFTPushClient(config);
+		try {
+			client.uploadFile(source.toFile(), TARGET_FILE_PATH);
+			client.downloadFile(TARGET_FILE_PATH, downloaded);
+			assertArrayEquals(contents, Files.readAllBytes(downloaded));
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(downloaded);
+		}
+	}
+
+	@Test
+	public void bandwidthLimit() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[256 * 1024];
+		new Random(11).nextBytes(contents);
+		final Path source = Paths.get(HOME_DIR.toString(), "throttled-source");
+		Files.write(source, contents);
+
+		final TransferProfile profile = TransferProfile.defaults();
+		profile.setMaxBytesPerSecond(512L * 1024);
+		final PushConfig config = newPushConfig();
+		config.setTransferProfile(profile);
+		final SFTPushClient client = new SFTPushClient(config);
+		final BandwidthLimiter limiter = new BandwidthLimiter();
+		client.setBandwidthLimiter(limiter);
+		try {
+			// A quarter second of burst, then the rest of the file at the host cap
+			final long start = System.nanoTime();
+			client.uploadFile(source.toFile(), TARGET_FILE_PATH);
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+			assertEquals(512L * 1024, limiter.getHostRate(HOST));
+			assertArrayEquals(contents, Files.readAllBytes(TARGET_FILE_PATH));
+
+			// Lifted at runtime, the profile does not restore it
+			limiter.setHostRate(HOST, 0);
+			client.uploadFile(source.toFile(), TARGET_FILE_PATH);
+			assertEquals(0, limiter.getHostRate(HOST));
+		} finally {
+			Files.deleteIfExists(source);
+		}
+	}
+
+	@Test
+	public void interruptThrottledUpload() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[256 * 1024];
+		new Random(22).nextBytes(contents);
+		final Path source = Paths.get(HOME_DIR.toString(), "interrupted-source");
+		final Path target = Paths.get(HOME_DIR.toString(), "interrupted-target");
+		Files.write(source, contents);
+
+		final SFTPushClient client = new SFTPushClient(newPushConfig());
+		final BandwidthLimiter limiter = new BandwidthLimiter();
+		limiter.setHostRate(HOST, 64L * 1024);
+		client.setBandwidthLimiter(limiter);
+		try {
+			final AtomicReference<Exception> failure = new AtomicReference<>();
+			final Thread upload = new Thread(() -> {
+				try {
+					client.uploadFile(source.toFile(), target);
+				} catch (final Exception e) {
+					failure.set(e);
+				}
+			});
+			upload.start();
+			// Interrupted once the data flows, while held by the throttle
+			final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!(Files.exists(target) && Files.size(target) > 0) && System.nanoTime() < deadline) {
+				TimeUnit.MILLISECONDS.sleep(10);
+			}
+			TimeUnit.MILLISECONDS.sleep(100);
+			upload.interrupt();
+			upload.join(TimeUnit.SECONDS.toMillis(10));
+
+			// A cut short upload is not a success
+			assertFalse(upload.isAlive());
+			assertTrue(failure.get() instanceof SftpException);
+			assertTrue(Files.size(target) < contents.length);
+		} finally {
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(target);
+		}
+
+		// JSch leaves its copy loop and returns normally when the monitor cancels
+		final SFTPMetrics metrics = new SFTPMetrics(TransferMetrics.NOOP, bytes -> {
+			throw new InterruptedIOException();
+		});
+		try {
+			metrics.transfer(TransferMetrics.Direction.UPLOAD, monitor -> assertFalse(monitor.count(1024)));
+			fail("Interrupted transfer reported as a success");
+		} catch (final SftpException e) {
+			assertTrue(e.getCause() instanceof InterruptedIOException);
+		}
+	}
+
+	@Test
+	public void adaptiveCompression() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final CompressionPolicy policy = new CompressionPolicy();
+		assertEquals(Boolean.FALSE, policy.byName("exports/archive.ZIP"));
+		assertEquals(Boolean.TRUE, policy.byName("exports/orders.csv"));
+		assertEquals(null, policy.byName("exports.d/orders"));
+
+		final StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			csv.append(i).append(";order;").append(i % 7).append(";EUR\n");
+		}
+		final byte[] text = csv.toString().getBytes();
+		final byte[] random = new byte[200 * 1024];
+		new Random(11).nextBytes(random);
+		final Path source = Paths.get(HOME_DIR.toString(), "compression-source");
+		final Path downloaded = Paths.get(HOME_DIR.toString(), "compression-download");
+
+		final SFTPSessionPool pool = new SFTPSessionPool();
+		final SFTPushClient client = new SFTPushClient(newPushConfig(), pool);
+		client.setCompressionPolicy(policy);
+		COMPRESSIONS.clear();
+		try {
+			// Unknown extensions: decided on the first block
+			Files.write(source, text);
+			client.uploadFile(source.toFile(), TARGET_FILE_PATH);
+			Files.write(source, random);
+			client.uploadFile(source.toFile(), TARGET_DIR_PATH.resolveSibling("compression.bin"));
+			assertEquals(2, pool.getIdleCount());
+			assertEquals(new HashSet<>(Arrays.asList("zlib@openssh.com", "none")), COMPRESSIONS);
+
+			client.downloadFile(TARGET_DIR_PATH.resolveSibling("compression.bin"), downloaded);
+			assertArrayEquals(random, Files.readAllBytes(downloaded));
+			assertEquals(2, pool.getIdleCount());
+
+			final Properties properties = new Properties();
+			properties.setProperty("compression", "true");
+			properties.setProperty("compressionLevel", "9");
+			final PushConfig config = newPushConfig();
+			config.setTransferProfile(TransferProfile.fromProperties(properties, ""));
+			new SFTPushClient(config, pool).downloadFile(TARGET_FILE_PATH, downloaded);
+			assertArrayEquals(text, Files.readAllBytes(downloaded));
+			assertEquals(3, pool.getIdleCount());
+		} finally {
+			pool.close();
+			Files.deleteIfExists(source);
+			Files.deleteIfExists(downloaded);
+			Files.deleteIfExists(TARGET_DIR_PATH.resolveSibling("compression.bin"));
+		}
+	}
+
+	@Test
+	public void pipelineStages() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			lines.append("line ").append(i).append('\n');
+		}
+		final byte[] text = lines.toString().getBytes();
+		final byte[] windowsText = lines.toString().replace("\n", "\r\n").getBytes();
+		final Path gzipped = TARGET_DIR_PATH.resolveSibling("pipeline.gz");
+
+		final DigestStage original = new DigestStage("SHA-256");
+		final DigestStage stored = new DigestStage("SHA-256");
+		// Tiny buffers split headers, trailers and CRLF pairs over several writes
+		final StreamPipeline upload = StreamPipeline.of(original, StreamStage.lineEndings(LineEnding.CRLF), StreamStage.gzip(), stored).withBufferSize(7);
+		final DigestStage downloaded = new DigestStage("SHA-256");
+		final StreamPipeline download = StreamPipeline.of(StreamStage.gunzip(), StreamStage.lineEndings(LineEnding.LF), downloaded).withBufferSize(5);
+		try {
+			this.sftPushClient.uploadFile(new ByteArrayInputStream(text), gzipped, upload);
+			assertEquals(text.length, original.getSize());
+			assertEquals(Files.size(gzipped), stored.getSize());
+			try (final InputStream input = new GZIPInputStream(Files.newInputStream(gzipped))) {
+				final ByteArrayOutputStream remote = new ByteArrayOutputStream();
+				final byte[] buffer = new byte[8192];
+				int count;
+				while ((count = input.read(buffer)) > 0) {
+					remote.write(buffer, 0, count);
+				}
+				assertArrayEquals(windowsText, remote.toByteArray());
+			}
+
+			final ByteArrayOutputStream output = new ByteArrayOutputStream();
+			this.sftPushClient.downloadFile(gzipped, output, download);
+			assertArrayEquals(text, output.toByteArray());
+			assertEquals(original.getHexDigest(), downloaded.getHexDigest());
+		} finally {
+			Files.deleteIfExists(gzipped);
+		}
+	}
+
+	@Test
+	public void syncDirectory() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final Path localDir = Paths.get(HOME_DIR.toString(), "sync-local");
+		final Path pulledDir = Paths.get(HOME_DIR.toString(), "sync-pulled");
+		Files.createDirectories(localDir.resolve("sub"));
+		Files.write(localDir.resolve("a"), FILE_CONTENTS.getBytes());
+		Files.write(localDir.resolve("sub").resolve("b"), FILE_CONTENTS.getBytes());
+
+		final SyncOptions push = SyncOptions.push();
+		push.setRecursive(true);
+		final SyncOptions pull = SyncOptions.pull();
+		pull.setRecursive(true);
+		pull.setDeleteExtraneous(true);
+		pull.setParallelism(2);
+		try {
+			final SyncResult pushed = this.sftPushClient.sync(TARGET_DIR_PATH.toString(), localDir.toString(), push);
+			assertTrue(pushed.isSuccess());
+			assertEquals(2, pushed.getTransfers().getResults().size());
+			assertArrayEquals(FILE_CONTENTS.getBytes(), Files.readAllBytes(TARGET_DIR_PATH.resolve("sub").resolve("b")));
+
+			final SyncResult pulled = this.sftPushClient.sync(TARGET_DIR_PATH.toString(), pulledDir.toString(), pull);
+			assertEquals(2, pulled.getTransfers().getResults().size());
+			assertArrayEquals(FILE_CONTENTS.getBytes(), Files.readAllBytes(pulledDir.resolve("sub").resolve("b")));
+
+			// Nothing changed: nothing moves
+			assertEquals(0, this.sftPushClient.sync(TARGET_DIR_PATH.toString(), localDir.toString(), push).getTransfers().getResults().size());
+			final SyncResult unchanged = this.sftPushClient.sync(TARGET_DIR_PATH.toString(), pulledDir.toString(), pull);
+			assertEquals(0, unchanged.getTransfers().getResults().size());
+			assertEquals(2, unchanged.getUnchanged());
+
+			Files.write(TARGET_DIR_PATH.resolve("a"), "changed".getBytes());
+			Files.delete(TARGET_DIR_PATH.resolve("sub").resolve("b"));
+			final SyncResult delta = this.sftPushClient.sync(TARGET_DIR_PATH.toString(), pulledDir.toString(), pull);
+			assertEquals(1, delta.getTransfers().getResults().size());
+			assertEquals(Collections.singletonList("sub/b"), delta.getDeleted());
+			assertArrayEquals("changed".getBytes(), Files.readAllBytes(pulledDir.resolve("a")));
+			assertFalse(Files.exists(pulledDir.resolve("sub").resolve("b")));
+		} finally {
+			deleteDirectory(localDir);
+			deleteDirectory(pulledDir);
+		}
+	}
+
+	@Test
+	public void metadataCache() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final MetadataCache cache = new MetadataCache(16, 1, TimeUnit.MINUTES);
+		this.sftPushClient.setMetadataCache(cache);
+		this.sftPushClient.createRemoteDirectory(TARGET_DIR_PATH.toString());
+
+		final List<String> before = this.sftPushClient.listRemoteFiles(TARGET_DIR_PATH.toString());
+		assertEquals(before, this.sftPushClient.listRemoteFiles(TARGET_DIR_PATH.toString()));
+		assertEquals(1, cache.getHitCount());
+
+		// Own upload invalidates the listing
+		this.sftPushClient.uploadFile(SRC_FILE_PATH.toFile(), TARGET_DIR_PATH.resolve("cached"));
+		assertTrue(this.sftPushClient.listRemoteFiles(TARGET_DIR_PATH.toString()).contains("cached"));
+		assertEquals(1, cache.getHitCount());
+
+		this.sftPushClient.createRemoteDirectory(TARGET_DIR_PATH.toString());
+		this.sftPushClient.createRemoteDirectory(TARGET_DIR_PATH.toString());
+		assertEquals(2, cache.getHitCount());
+	}
+
+	@Test
+	public void transferMetrics() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final InMemoryTransferMetrics metrics = new InMemoryTransferMetrics();
+		final SFTPSessionPool pool = new SFTPSessionPool();
+		pool.setMetrics(metrics, "sftp.pool");
+		try {
+			final SFTPushClient client = new SFTPushClient(newPushConfig(), pool);
+			client.setMetrics(metrics);
+			client.uploadFile(SRC_FILE_PATH.toFile(), TARGET_FILE_PATH);
+			client.downloadFile(TARGET_FILE_PATH, TARGET_DIR_PATH.getParent().resolve("metrics_download"));
+			client.listRemoteFiles(HOME_DIR.toString());
+			try {
+				client.moveRemoteFile(HOME_DIR.resolve("missing"), HOME_DIR.resolve("moved"));
+			} catch (final SftpException e) {
+				// Counted below
+			}
+
+			assertEquals(1, metrics.getHistogram("sftp.connect").getCount());
+			assertEquals(FILE_CONTENTS.length(), metrics.getCounter("sftp.upload.bytes"));
+			assertEquals(FILE_CONTENTS.length(), metrics.getCounter("sftp.download.bytes"));
+			assertEquals(1, metrics.getHistogram("sftp.download.first-byte").getCount());
+			assertEquals(1, metrics.getHistogram("sftp.op.list").getCount());
+			assertEquals(1, metrics.getCounter("sftp.op.rename.failures"));
+			assertEquals(1, metrics.getCounter("sftp.error.no-such-file"));
+			assertEquals(1, metrics.getGauge("sftp.pool.idle"));
+			assertEquals(0, metrics.getGauge("sftp.pool.leased"));
+		} finally {
+			Files.deleteIfExists(TARGET_DIR_PATH.getParent().resolve("metrics_download"));
+			pool.close();
+		}
+	}
+
+	@Test
+	public void streamRemoteEntries() throws IOException, JSchException, SftpException {
+		Files.createDirectory(TARGET_DIR_PATH);
+		for (int i = 0; i < 5; i++) {
+			Files.write(TARGET_DIR_PATH.resolve("entry" + i), FILE_CONTENTS.getBytes());
+		}
+
+		try (final Stream<ChannelSftp.LsEntry> entries = this.sftPushClient.streamRemoteEntries(TARGET_DIR_PATH.toString())) {
+			assertEquals(5, entries.filter(entry -> entry.getFilename().startsWith("entry")).count());
+		}
+		try (final Stream<ChannelSftp.LsEntry> entries = this.sftPushClient.streamRemoteEntries(TARGET_DIR_PATH.toString())) {
+			assertEquals(2, entries.limit(2).count());
+		}
+		assertEquals(0, SFTPSessionPool.getDefault().getLeasedCount());
+
+		// A listing error is thrown once, then the listing ends
+		try (final Stream<ChannelSftp.LsEntry> entries = this.sftPushClient.streamRemoteEntries(TARGET_DIR_PATH.resolve("missing").toString())) {
+			final Iterator<ChannelSftp.LsEntry> iterator = entries.iterator();
+			try {
+				iterator.hasNext();
+				fail("Listing error not thrown");
+			} catch (final SFTPushException e) {
+				assertTrue(e.getCause() instanceof SftpException);
+			}
+			assertFalse(iterator.hasNext());
+		}
+
+		final List<String> visited = new ArrayList<>();
+		assertEquals(1, this.sftPushClient.forEachRemoteEntry(TARGET_DIR_PATH.toString(), entry -> !entry.getAttrs().isDir(),
+				entry -> !visited.add(entry.getFilename())));
+		assertEquals(1, visited.size());
+	}
+
+	@Test
+	public void asyncTransfers() throws Exception {
+		Assume.assumeTrue(isUnix());
+
+		Files.createDirectory(TARGET_DIR_PATH);
+		try (final AsyncSFTPushClient client = new AsyncSFTPushClient(this.sftPushClient, 2)) {
+			final List<CompletableFuture<Void>> uploads = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				uploads.add(client.uploadFile(SRC_FILE_PATH.toFile(), TARGET_DIR_PATH.resolve("async" + i)));
+				assertTrue(client.getInFlight() <= 2);
+			}
+			CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+
+			assertEquals(6, client.listRemoteFiles(TARGET_DIR_PATH.toString()).get(30, TimeUnit.SECONDS).size());
+		}
+	}
+
+	@Test
+	public void cancelAsyncTransfer() throws Exception {
+		final CountDownLatch reading = new CountDownLatch(1);
+		final InputStream blocked = new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				reading.countDown();
+				try {
+					new CountDownLatch(1).await();
+				} catch (final InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				return -1;
+			}
+		};
+
+		final SFTPSessionPool pool = new SFTPSessionPool();
+		try (final AsyncSFTPushClient client = new AsyncSFTPushClient(new SFTPushClient(newPushConfig(), pool), 1)) {
+			final CompletableFuture<Void> upload = client.uploadFile(blocked, TARGET_FILE_PATH);
+			assertTrue(reading.await(30, TimeUnit.SECONDS));
+			assertTrue(upload.cancel(true));
+
+			// The aborted session is dropped, not given back to the pool
+			final long deadline = System.currentTimeMillis() + 30000;
+			while ((pool.getLeasedCount() > 0 || client.getInFlight() > 0) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, pool.getLeasedCount());
+			assertEquals(0, pool.getIdleCount());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void resumeDownload() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[300 * 1024];
+		new Random(7).nextBytes(contents);
+		Files.write(TARGET_FILE_PATH, contents);
+		final Path local = Paths.get(HOME_DIR.toString(), "resume-local");
+		final TransferJournal journal = new TransferJournal(Paths.get(HOME_DIR.toString(), "journal"));
+		this.sftPushClient.setTransferJournal(journal);
+
+		try {
+			// Previous attempt stopped after 100 KB, marked with zeros to prove they are not downloaded again
+			final byte[] partial = new byte[100 * 1024];
+			Files.write(local, partial);
+			journal.begin(String.format("sftp-get:%s@%s:%s:%s>%s", USERNAME, HOST, SSHSERVER.getPort(), TARGET_FILE_PATH, local),
+					contents.length, Files.getLastModifiedTime(TARGET_FILE_PATH).toMillis() / 1000).update(partial.length);
+
+			this.sftPushClient.downloadFileResumable(TARGET_FILE_PATH, local);
+
+			final byte[] downloaded = Files.readAllBytes(local);
+			assertEquals(contents.length, downloaded.length);
+			assertArrayEquals(partial, Arrays.copyOfRange(downloaded, 0, partial.length));
+			assertArrayEquals(Arrays.copyOfRange(contents, partial.length, contents.length), Arrays.copyOfRange(downloaded, partial.length, downloaded.length));
+		} finally {
+			Files.deleteIfExists(local);
+			deleteDirectory(journal.getDirectory());
+		}
+	}
+
+	@Test
+	public void downloadFileChannelSink() throws IOException, JSchException, SftpException {
+		Assume.assumeTrue(isUnix());
+
+		final byte[] contents = new byte[200 * 1024 + 3];
+		new Random(11).nextBytes(contents);
+		final Path source = Paths.get(HOME_DIR.toString(), "sink-source");
+		Files.write(source, contents);
+
+		try {
+			for (final FileChannelSink.Mode mode : FileChannelSink.Mode.values()) {
+				final TransferResult result = this.sftPushClient.downloadFile(source, TARGET_FILE_PATH, mode);
+
+				assertEquals(contents.length, result.getBytes());
+				assertArrayEquals(contents, Files.readAllBytes(TARGET_FILE_PATH));
+			}
+		} finally {
+			Files.deleteIfExists(source);
+		}
+	}
+
 	/**
 	 * Finish SSH Server
 	 *
@@ -225,6 +1118,24 @@ public class SFTPushClientTest {
 		Files.delete(SRC_FILE_PATH);
 	}
 
+	private static void deleteDirectory(final Path directory) throws IOException {
+		if (Files.exists(directory)) {
+			final List<Path> files = Files.list(directory).collect(toList());
+			for (final Path file : files) {
+				if (Files.isDirectory(file)) {
+					deleteDirectory(file);
+				} else {
+					Files.delete(file);
+				}
+			}
+			Files.delete(directory);
+		}
+	}
+
+	private static String sha256(final byte[] contents) throws Exception {
+		return DigestStage.toHex(MessageDigest.getInstance("SHA-256").digest(contents));
+	}
+
 	private static boolean isUnix() {
 		final String os = System.getProperty("os.name").toLowerCase();
 		return (os.indexOf("nix") >= 0 || os.indexOf("nux") >= 0 || os.indexOf("aix") > 0);
@@ -237,20 +1148,46 @@ public class SFTPushClientTest {
 
 		SSHSERVER.setFileSystemFactory(new NativeFileSystemFactory());
 		SSHSERVER.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
-		SSHSERVER.setCommandFactory(new ScpCommandFactory());
-		SSHSERVER.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+		final ScpCommandFactory commandFactory = new ScpCommandFactory();
+		// Exec channels run a shell, a "tampered" path gets a wrong checksum
+		commandFactory.setDelegateCommandFactory(command -> new ProcessShellFactory("/bin/sh", "-c",
+				command.contains("tampered") ? "echo 0123456789abcdef -" : command).create());
+		SSHSERVER.setCommandFactory(commandFactory);
+		final SimpleGeneratorHostKeyProvider keyPairProvider = new SimpleGeneratorHostKeyProvider();
+		keyPairProvider.setAlgorithm("RSA");
+		SSHSERVER.setKeyPairProvider(keyPairProvider);
 
 		final List<NamedFactory<UserAuth>> userAuthFactories = new ArrayList<>();
 		userAuthFactories.add(new UserAuthPasswordFactory());
 		SSHSERVER.setUserAuthFactories(userAuthFactories);
 		SSHSERVER.setPasswordAuthenticator((username, password, session) -> USERNAME.equals(username) && PASSWORD.equals(password));
+		SSHSERVER.setCompressionFactories(Arrays.asList(BuiltinCompressions.none, BuiltinCompressions.zlib, BuiltinCompressions.delayedZlib));
+		SSHSERVER.addSessionListener(new SessionListener() {
+
+			@Override
+			public void sessionCreated(final Session session) {
+			}
+
+			@Override
+			public void sessionEvent(final Session session, final Event event) {
+				if (event == Event.KexCompleted) {
+					COMPRESSIONS.add(session.getNegotiatedKexParameter(KexProposalOption.C2SCOMP));
+				}
+			}
+
+			@Override
+			public void sessionClosed(final Session session) {
+			}
+		});
 
 		SSHSERVER.start();
 	}
 
 	private void initClient() {
-		final int port = SSHSERVER.getPort();
-		final PushConfig pushConfig = new PushConfig(HOST, USERNAME, PASSWORD, port);
-		this.sftPushClient = new SFTPushClient(pushConfig);
+		this.sftPushClient = new SFTPushClient(newPushConfig());
+	}
+
+	private static PushConfig newPushConfig() {
+		return new PushConfig(HOST, USERNAME, PASSWORD, SSHSERVER.getPort());
 	}
 }
\ No newline at end of file